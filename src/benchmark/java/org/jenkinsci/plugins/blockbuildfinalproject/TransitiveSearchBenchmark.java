@@ -0,0 +1,106 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, Chad Rosenquist
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.blockbuildfinalproject;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the search behind BlockBuild.getTransitiveUpOrDownstreamProjectsFinal() on synthetic graphs.
+ * 
+ * Run with {@code mvn -P benchmark test-compile exec:exec}.  JMH options, for example
+ * {@code -p shape=REALISTIC -p size=100000}, can be passed with {@code -Djmh.args="..."}.
+ * 
+ * Every shape runs at several final project densities, searching downstream from the source
+ * and upstream from the sink.  Add a method for each new engine, so it is measured against this one.
+ * 
+ * @author Chad Rosenquist
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransitiveSearchBenchmark {
+    
+    @Param({ "CHAIN", "DIAMOND", "FAN_OUT", "FAN_IN", "LAYERED", "CYCLIC", "REALISTIC" })
+    public SyntheticGraph.Shape shape;
+    
+    @Param({ "1000", "10000", "100000" })
+    public int size;
+    
+    @Param({ "0.0", "0.001", "0.01", "0.1" })
+    public double finalDensity;
+    
+    // BlockBuild.SearchDirection is package-private, and JMH's generated code is in another package.
+    @Param({ "DOWN", "UP" })
+    public String direction;
+    
+    private SyntheticGraph graph;
+    
+    @Setup
+    public void setUp() {
+        graph = SyntheticGraph.generate(shape, size, finalDensity, 42);
+    }
+    
+    /**
+     * The current implementation: depth first, HashMap of parent pointers.
+     */
+    @Benchmark
+    public Object reference() {
+        if ("DOWN".equals(direction)) {
+            return TransitiveSearch.search(graph.getSource(), SyntheticGraph.DOWNSTREAM, SyntheticGraph.IS_FINAL);
+        }
+        else {
+            return TransitiveSearch.search(graph.getSink(), SyntheticGraph.UPSTREAM, SyntheticGraph.IS_FINAL);
+        }
+    }
+    
+    /**
+     * A whole blocking decision through BlockEngine, with no node busy, so the region is searched and scanned.
+     */
+    @Benchmark
+    public Object evaluate() {
+        if ("DOWN".equals(direction)) {
+            return BlockEngine.evaluate(graph, graph.getSource(), BlockBuild.SearchDirection.DOWN, SyntheticGraph.IS_FINAL);
+        }
+        else {
+            return BlockEngine.evaluate(graph, graph.getSink(), BlockBuild.SearchDirection.UP, SyntheticGraph.IS_FINAL);
+        }
+    }
+}
@@ -24,11 +24,18 @@
 
 package org.jenkinsci.plugins.blockbuildfinalproject;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.logging.Logger;
 
 import org.apache.commons.lang.StringUtils;
 
+import com.google.common.base.Predicate;
+import com.google.common.collect.Iterables;
+
 import hudson.Util;
 import hudson.model.AbstractProject;
 import hudson.model.AutoCompletionCandidates;
@@ -49,36 +56,116 @@ public final class AutoCompleteUtils {
     @SuppressWarnings("unused")
     private static final Logger LOGGER = Logger.getLogger(AutoCompleteUtils.class.getName());
     
+    // maximum number of projects returned by autoCompleteProjects()
+    private static final int MAX_CANDIDATES = Integer.getInteger(AutoCompleteUtils.class.getName() + ".maxCandidates", 100);
+    
+    // accepts projects the current user can read
+    private static final Predicate<AbstractProject<?, ?>> READABLE = new Predicate<AbstractProject<?, ?>>() {
+        @Override
+        public boolean apply(AbstractProject<?, ?> project) {
+            return project.hasPermission(Item.READ);
+        }
+    };
+    
     /**
      * Auto completes a textbox that contains a list of projects.
      *  
      * @param userInput the text the end-user typed into the textbox
-     * @return          list of projects that start with value
+     * @return          list of projects that start with or contain value
      * 
      * For example, the end-user types "cool" into the text box.
      * The following projects will be returned:
      * cool-app-build
      * cool-app-test
+     * team/cool-app-deploy
+     * 
+     * Projects that start with the text come first, sorted by name.  They are looked up in a sorted index,
+     * so only the matching projects are compared.
+     * If the text is at least 3 characters, projects that contain the text, or are close to it, follow,
+     * best match first.  They are looked up in a trigram index.
+     * 
+     * At most MAX_CANDIDATES projects are returned.  Set the system property
+     * org.jenkinsci.plugins.blockbuildfinalproject.AutoCompleteUtils.maxCandidates to change it.
      */
     public static AutoCompletionCandidates autoCompleteProjects(String userInput) {
         String prefix = Util.fixNull(userInput);
-        @SuppressWarnings("rawtypes")
-        List<AbstractProject> projects = JenkinsWrapper.getAbstractProjects();
-        if (projects == null) {
+        ProjectNameIndex index = JenkinsWrapper.getProjectNameIndex();
+        if (index == null) {
             return new AutoCompletionCandidates(); 
         }
         AutoCompletionCandidates autoCandidates = new AutoCompletionCandidates();
+        Set<String> names = new LinkedHashSet<String>();
 
-        for (AbstractProject<?, ?> project : projects) {
-            String projectName = project.getFullName();
-            if (projectName.toLowerCase().startsWith(prefix.toLowerCase())) {
-                autoCandidates.add(projectName);
+        for (AbstractProject<?, ?> project : index.findByPrefix(prefix, READABLE, MAX_CANDIDATES)) {
+            names.add(project.getFullName());
+        }
+        
+        ProjectTrigramIndex trigramIndex = JenkinsWrapper.getProjectTrigramIndex();
+        if ((trigramIndex != null) && (prefix.length() >= 3) && (names.size() < MAX_CANDIDATES)) {
+            for (AbstractProject<?, ?> project : trigramIndex.find(prefix, READABLE, MAX_CANDIDATES)) {
+                if (names.size() >= MAX_CANDIDATES) {
+                    break;
+                }
+                names.add(project.getFullName());
             }
         }
         
+        for (String name : names) {
+            autoCandidates.add(name);
+        }
+        
         return autoCandidates;        
     }
     
+    /**
+     * Auto completes a textbox with the projects in a region, closest first.
+     * 
+     * @param userInput the text the end-user typed into the textbox
+     * @param region    the projects upstream or downstream of the current project
+     * @return          list of projects in the region that start with or contain the text, ignoring case.
+     *                  If the region is empty, the same as autoCompleteProjects().
+     * 
+     * Only projects in the region can stop the search for building projects, so only they are suggested.
+     * Projects that start with the text come first, as in autoCompleteProjects(), then projects that contain it.
+     * Within each, projects are ranked by hop distance: picking a close project removes more of the region.
+     */
+    static AutoCompletionCandidates autoCompleteProjectsInRegion(String userInput, ProjectRegion region) {
+        if (region.size() == 0) {
+            return autoCompleteProjects(userInput);
+        }
+        
+        String text = ProjectNameIndex.toLowerCase(Util.fixNull(userInput));
+        List<String> startsWith = new ArrayList<String>();
+        List<String> contains = new ArrayList<String>();
+        
+        for (AbstractProject<?, ?> project : region.getProjects()) {
+            if (startsWith.size() >= MAX_CANDIDATES) {
+                break;
+            }
+            String name = ProjectNameIndex.toLowerCase(project.getFullName());
+            if (name.startsWith(text)) {
+                if (READABLE.apply(project)) {
+                    startsWith.add(project.getFullName());
+                }
+            }
+            else if ((contains.size() < MAX_CANDIDATES) && name.contains(text) && READABLE.apply(project)) {
+                contains.add(project.getFullName());
+            }
+        }
+        
+        AutoCompletionCandidates autoCandidates = new AutoCompletionCandidates();
+        int count = 0;
+        for (String name : Iterables.concat(startsWith, contains)) {
+            if (count >= MAX_CANDIDATES) {
+                break;
+            }
+            autoCandidates.add(name);
+            count++;
+        }
+        
+        return autoCandidates;
+    }
+    
     /**
      * Checks the projects the end-user entered into a textbox are valid.
      * 
@@ -106,4 +193,47 @@ public final class AutoCompleteUtils {
 
         return FormValidation.ok();        
     }
+    
+    /**
+     * Checks every project the end-user entered into a textbox, and reports all the problems at once.
+     * 
+     * @param userInput       list of projects the end-user entered
+     * @param currentProject  current project
+     * @return                FormValidation.ok - if all the projects are valid
+     *                        FormValidation.error - one line for each project that is invalid, not buildable or repeated
+     * 
+     * Names are resolved through ProjectResolutionCache, so validating the same names again
+     * shortly after does not look them up in Jenkins again.
+     */
+    public static FormValidation checkProjectsBatch(String userInput, AbstractProject<?, ?> currentProject) {
+        String[] projects = Util.fixNull(userInput).trim().split("\\s*,\\s*");
+        Set<String> seen = new HashSet<String>();
+        List<String> errors = new ArrayList<String>();
+        
+        for (String project : projects) {
+            if (StringUtils.isEmpty(project)) {
+                continue;
+            }
+            if (!seen.add(project)) {
+                errors.add("Project is listed more than once: " + project);
+                continue;
+            }
+            Item item = ProjectResolutionCache.getInstance().resolve(project, currentProject);
+            if (item == null) {
+                errors.add("Invalid project: " + project);
+            }
+            else if (!(item instanceof AbstractProject)) {
+                errors.add("Project is not buildable: " + project);
+            }
+        }
+        
+        if (errors.isEmpty()) {
+            return FormValidation.ok();
+        }
+        List<String> escaped = new ArrayList<String>();
+        for (String error : errors) {
+            escaped.add(Util.escape(error));
+        }
+        return FormValidation.errorWithMarkup(StringUtils.join(escaped, "<br/>"));
+    }
 }
@@ -24,16 +24,20 @@
 
 package org.jenkinsci.plugins.blockbuildfinalproject;
 
-import java.util.HashSet;
+import java.util.ArrayDeque;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.Stack;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import com.google.common.base.Function;
+import com.google.common.base.Predicate;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
 
 import hudson.model.AbstractProject;
-import hudson.model.Queue.Task;
 import hudson.model.queue.CauseOfBlockage;
 
 /**
@@ -48,13 +52,27 @@ public class BlockBuild {
     
     private final AbstractProject<?, ?> project;
     
+    // the graph to check, or null to read the queue on each check
+    private final JenkinsBlockGraph graph;
+    
+    private final DecisionEngine engine;
+    
+    // the building project found by the last check, or null if it did not block
+    private AbstractProject<?, ?> blocker = null;
+    
+    // each project found by the last search -> the project it was reached from
+    private Map<AbstractProject<?, ?>, AbstractProject<?, ?>> parents = new HashMap<AbstractProject<?, ?>, AbstractProject<?, ?>>();
+    
+    // projects from this project to the blocker, or empty if the last check did not block
+    private ImmutableList<AbstractProject<?, ?>> pathToBlocker = ImmutableList.of();
+    
     /**
      * Direction to search for transitive projects - UP or DOWN.
      * 
      * @author Chad Rosenquist
      *
      */
-    private enum SearchDirection { UP, DOWN };
+    enum SearchDirection { UP, DOWN };
     
     /**
      * Constructor
@@ -62,7 +80,20 @@ public class BlockBuild {
      * @param project the project to check if upstream or downstream projects are building
      */
     public BlockBuild(AbstractProject<?, ?> project) {
+        this(project, null, DecisionEngines.getInstance().getActive());
+    }
+    
+    /**
+     * Constructor
+     * 
+     * @param project the project to check if upstream or downstream projects are building
+     * @param graph   the graph to check, or null to read the queue on each check
+     * @param engine  the engine that searches the graph
+     */
+    BlockBuild(AbstractProject<?, ?> project, JenkinsBlockGraph graph, DecisionEngine engine) {
         this.project = project;
+        this.graph = graph;
+        this.engine = engine;
     }
     
     /**
@@ -79,41 +110,9 @@ public class BlockBuild {
             return null;
         }
         
-        logMessageIfAdvancedProjectOptionsUpstream();
-        
-        Set<Task> unblockedTasks = JenkinsWrapper.getUnblockedTasks();
-        
-        /*
-         * Check each upstream project.
-         * If it's building or an unblocked task, then the current project should not build.
-         */
-        ImmutableList<String> finalProjects = property.getFinalUpstreamProjectsAsList();
-        Set<AbstractProject<?, ?>> upstreamProjects = getTransitiveUpstreamProjectsFinal(finalProjects);
-        
-        for (AbstractProject<?, ?> upstreamProject : upstreamProjects) {
-            if ((upstreamProject != project)
-                && ((upstreamProject.isBuilding()) || (unblockedTasks.contains(upstreamProject)))) {
-                LOGGER.fine("Blocking project " + project.getFullName() + " from building because upstream project "
-                            + upstreamProject.getFullName() + " is building or unblocked.");
-                return new AbstractProject.BecauseOfUpstreamBuildInProgress(upstreamProject);
-            }
-        }
-        
-        return null;
+        return checkBuilding(SearchDirection.UP, property.getFinalUpstreamProjectsAsList());
     }
 
-    /**
-     * This plugin can conflict with Jenkins' built-in functionality to block builds.
-     * So log a message if both are enabled on this project.
-     */
-    private void logMessageIfAdvancedProjectOptionsUpstream() {
-        if (project.blockBuildWhenUpstreamBuilding()) {
-            LOGGER.info("The project " + project.getFullName() + " has both "
-                        + "'Block build when upstream project is building (Advanced Project Options)' and "
-                        + "'Block build when upstream project is building - final job (Block Build Final Project Plugin)' checked.");
-        }
-    }    
-    
     /**
      * Checks if any downstream projects are building.
      * 
@@ -128,40 +127,93 @@ public class BlockBuild {
             return null;
         }
         
-        logMessageIfAdvancedProjectOptionsDownstream();
-        
-        Set<Task> unblockedTasks = JenkinsWrapper.getUnblockedTasks();
-        
+        return checkBuilding(SearchDirection.DOWN, property.getFinalDownstreamProjectsAsList());
+    }
+    
+    /**
+     * Checks each upstream or downstream project, stopping at the final projects.
+     * If one is building or an unblocked task, then the current project should not build.
+     * 
+     * @param direction     UP or DOWN
+     * @param finalProjects list of projects to stop searching
+     * @return              null if no projects are building, otherwise the CauseOfBlockage
+     */
+    private CauseOfBlockage checkBuilding(SearchDirection direction, ImmutableList<String> finalProjects) {
+        List<BlockBuildEventListener> listeners = BlockBuildEventListener.all();
+        long start = listeners.isEmpty() ? 0 : System.nanoTime();
         
-        /*
-         * Check each downstream project.
-         * If it's building or an unblocked task, then the current project should not build.
-         */
-        ImmutableList<String> finalProjects = property.getFinalDownstreamProjectsAsList();
-        Set<AbstractProject<?, ?>> downstreamProjects = getTransitiveDownstreamProjectsFinal(finalProjects);
+        JenkinsBlockGraph checkGraph = (graph != null) ? graph : new JenkinsBlockGraph(JenkinsWrapper.getUnblockedTasks());
+        BlockEngine.Evaluation<AbstractProject<?, ?>> evaluation =
+                engine.evaluate(checkGraph, project, direction, getFinalPredicate(finalProjects));
+        BlockBuildMetrics.getInstance().recordTraversal(evaluation.getVisited());
+        parents = evaluation.getParents();
+        blocker = evaluation.getBlocker();
+        fireEvaluation(listeners, direction, evaluation.getVisited(), start, blocker);
         
-        for (AbstractProject<?, ?> downstreamProject : downstreamProjects) {
-            if ((downstreamProject != project)
-                && ((downstreamProject.isBuilding()) || (unblockedTasks.contains(downstreamProject)))) {
-                LOGGER.fine("Blocking project " + project.getFullName() + " from building because downstream project "
-                            + downstreamProject.getFullName() + " is building or unblocked.");
-                return new AbstractProject.BecauseOfDownstreamBuildInProgress(downstreamProject);
-            }
+        if (blocker == null) {
+            pathToBlocker = ImmutableList.of();
+            return null;
         }
+        pathToBlocker = ImmutableList.copyOf(getPath(blocker));
         
-        return null;
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine("Blocking project " + project.getFullName() + " from building because "
+                        + direction.name().toLowerCase() + "stream project "
+                        + blocker.getFullName() + " is building or unblocked.");
+        }
+        if (direction == SearchDirection.UP) {
+            return new BlockagePath.Upstream(pathToBlocker);
+        }
+        else {
+            return new BlockagePath.Downstream(pathToBlocker);
+        }
     }
-
+    
+    /**
+     * @return the building project that blocked the last check, or null if it did not block
+     */
+    AbstractProject<?, ?> getBlocker() {
+        return blocker;
+    }
+    
+    /**
+     * The path is the one the depth-first search took, so it is not necessarily the shortest.
+     * Names are only looked up when the list is read, so recording it on every blocked canRun() is cheap.
+     * 
+     * @return the full names of the projects from this project to the blocker, or empty if not blocked
+     */
+    List<String> getPathToBlocker() {
+        return Lists.transform(pathToBlocker, JenkinsBlockGraph.FULL_NAME);
+    }
+    
+    /**
+     * Follows the parent pointers of the last search back from a project.
+     * 
+     * @param found a project found by the last search
+     * @return      the projects from this project to found, both included
+     */
+    List<AbstractProject<?, ?>> getPath(AbstractProject<?, ?> found) {
+        return new BlockEngine.Evaluation<AbstractProject<?, ?>>(project, null, parents).getPath(found);
+    }
+    
     /**
-     * This plugin can conflict with Jenkins' built-in functionality to block builds.
-     * So log a message if both are enabled on this project.
+     * Sends a BlockBuildEvaluation to the installed BlockBuildEventListeners.  Does nothing if there are none.
+     * 
+     * @param listeners  the installed listeners
+     * @param direction  direction that was checked
+     * @param regionSize number of projects the search visited
+     * @param start      System.nanoTime() when the check started
+     * @param blocker    the project that blocked, or null if not blocked
      */
-    private void logMessageIfAdvancedProjectOptionsDownstream() {
-        if (project.blockBuildWhenDownstreamBuilding()) {
-            LOGGER.info("The project " + project.getFullName() + " has both "
-                        + "'Block build when downstream project is building (Advanced Project Options)' and "
-                        + "'Block build when downstream project is building - final job (Block Build Final Project Plugin)' checked.");
+    private void fireEvaluation(List<BlockBuildEventListener> listeners, SearchDirection direction,
+            int regionSize, long start, AbstractProject<?, ?> blocker) {
+        if (listeners.isEmpty()) {
+            return;
         }
+        BlockBuildEventListener.BlockBuildEvaluation event = new BlockBuildEventListener.BlockBuildEvaluation(
+                project.getFullName(), direction.name(), regionSize, System.nanoTime() - start,
+                (blocker == null) ? null : blocker.getFullName());
+        BlockBuildEventListener.fireEvaluation(listeners, event);
     }
     
     /**
@@ -196,56 +248,143 @@ public class BlockBuild {
      * This method is similar to DependencyGraph.getTransitiveDownstream().
      * The difference is this method will stop searching down a branch if it encounters a
      * project in the finalProjects list. 
+     * 
+     * The search itself is in TransitiveSearch, so it can be benchmarked without Jenkins.
      */
     private Set<AbstractProject<?, ?>> getTransitiveUpOrDownstreamProjectsFinal (
             ImmutableList<String> finalProjects,
             SearchDirection direction) {
-        Set<AbstractProject<?, ?>> visited = new HashSet<AbstractProject<?, ?>>();
-        Stack<AbstractProject<?, ?>> queue = new Stack<AbstractProject<?, ?>>();
+        if (LOGGER.isLoggable(Level.FINEST)) {
+            LOGGER.finest("Finding " + direction.name().toLowerCase() + "stream projects for " + project.getFullName());
+        }
         
-        finalProjects = checkFinalProjectsForNull(finalProjects);
+        // Records the project each child was reached from, so the path to a blocker can be shown.
+        // The keys are the visited projects.
+        Map<AbstractProject<?, ?>, AbstractProject<?, ?>> visited = TransitiveSearch.search(project,
+                getDependencyFunction(direction), getFinalPredicate(finalProjects));
         
-        LOGGER.finest("Finding " + direction.name().toLowerCase() + "stream projects for " + project.getFullName());
+        // Not recorded in BlockBuildMetrics, which only measures the checks made from canRun().
+        parents = visited;
+        return visited.keySet();
+    }
+
+    /**
+     * Returns every project reachable upstream or downstream, with the number of hops to reach it.
+     * Final projects are ignored, so this is the largest region the project could block on.
+     * 
+     * @param direction direction to search, either UP for upstream projects or DOWN for downstream projects
+     * @return          the region, sorted by hop distance
+     * 
+     * The search is breadth first, so each project's distance is the shortest path to it.
+     * The project itself is not part of its region.
+     */
+    ProjectRegion getRegion(SearchDirection direction) {
+        Map<AbstractProject<?, ?>, Integer> distances = new HashMap<AbstractProject<?, ?>, Integer>();
+        Map<AbstractProject<?, ?>, List<AbstractProject<?, ?>>> children =
+                new HashMap<AbstractProject<?, ?>, List<AbstractProject<?, ?>>>();
+        Function<AbstractProject<?, ?>, List<AbstractProject<?, ?>>> dependencies = getDependencyFunction(direction);
+        ArrayDeque<AbstractProject<?, ?>> queue = new ArrayDeque<AbstractProject<?, ?>>();
         
+        distances.put(project, 0);
         queue.add(project);
-   
-        while(!queue.isEmpty()) {
-            AbstractProject<?, ?> currentProject = queue.pop();
-
-            @SuppressWarnings("rawtypes")
-            List<AbstractProject> dependencyProjects;
-            if (direction == SearchDirection.UP) {
-                dependencyProjects = currentProject.getUpstreamProjects();
-            }
-            else {
-                dependencyProjects = currentProject.getDownstreamProjects();
-            }
-            for (AbstractProject<?, ?> childProject : dependencyProjects) {            
-                if (visited.add(childProject)) {
-                    LOGGER.finest("Adding child project " + childProject.getFullName() + " to list of projects.");
-                    
-                    if (finalProjects.contains(childProject.getFullName())) {
-                        LOGGER.finer("Final project " + childProject.getFullName() + " found."
-                                      + "  Will not transervse deeper.");
-                        // Note:  project is NOT added to the queue.
-                    }
-                    else {
-                        queue.add(childProject);
-                    }
+        
+        while (!queue.isEmpty()) {
+            AbstractProject<?, ?> currentProject = queue.poll();
+            int childDistance = distances.get(currentProject) + 1;
+            List<AbstractProject<?, ?>> childProjects = dependencies.apply(currentProject);
+            children.put(currentProject, ImmutableList.copyOf(childProjects));
+            for (AbstractProject<?, ?> childProject : childProjects) {
+                if (!distances.containsKey(childProject)) {
+                    distances.put(childProject, childDistance);
+                    queue.add(childProject);
                 }
             }
         }
-                
-        return visited;
+        
+        distances.remove(project);
+        return new ProjectRegion(project, distances, children);
+    }
+    
+    /**
+     * Returns the projects directly upstream or downstream of a project.
+     * 
+     * @param currentProject the project
+     * @param direction      UP for upstream projects or DOWN for downstream projects
+     * @return               the upstream or downstream projects
+     */
+    @SuppressWarnings("rawtypes")
+    private static List<AbstractProject> getDependencyProjects(AbstractProject<?, ?> currentProject, SearchDirection direction) {
+        if (direction == SearchDirection.UP) {
+            return currentProject.getUpstreamProjects();
+        }
+        else {
+            return currentProject.getDownstreamProjects();
+        }
     }
 
+    /**
+     * @param direction UP for upstream projects or DOWN for downstream projects
+     * @return          a function returning the projects directly upstream or downstream of a project
+     */
+    private static Function<AbstractProject<?, ?>, List<AbstractProject<?, ?>>> getDependencyFunction(
+            final SearchDirection direction) {
+        return new Function<AbstractProject<?, ?>, List<AbstractProject<?, ?>>>() {
+            @Override
+            @SuppressWarnings({ "unchecked", "rawtypes" })
+            public List<AbstractProject<?, ?>> apply(AbstractProject<?, ?> currentProject) {
+                return (List) getDependencyProjects(currentProject, direction);
+            }
+        };
+    }
+    
+    /**
+     * @param finalProjects list of final projects, or null
+     * @return              a predicate that is true for the final projects
+     */
+    static Predicate<AbstractProject<?, ?>> getFinalPredicate(ImmutableList<String> finalProjects) {
+        return new FinalProjectsPredicate(checkFinalProjectsForNull(finalProjects));
+    }
+    
+    /**
+     * True for the projects in a list of full names.
+     * 
+     * Two predicates with the same names are equal, so DecisionEngines can cache searches by predicate.
+     */
+    private static final class FinalProjectsPredicate implements Predicate<AbstractProject<?, ?>> {
+        private final ImmutableList<String> finals;
+        
+        FinalProjectsPredicate(ImmutableList<String> finals) {
+            this.finals = finals;
+        }
+        
+        @Override
+        public boolean apply(AbstractProject<?, ?> childProject) {
+            return finals.contains(childProject.getFullName());
+        }
+        
+        @Override
+        public boolean equals(Object other) {
+            return (other instanceof FinalProjectsPredicate) && finals.equals(((FinalProjectsPredicate) other).finals);
+        }
+        
+        @Override
+        public int hashCode() {
+            return finals.hashCode();
+        }
+        
+        @Override
+        public String toString() {
+            return finals.toString();
+        }
+    }
+    
     /**
      * Protect against null pointer.  If null, default to an empty list.
      * 
      * @param finalProjects list of final projects
      * @return              list of final projects
      */
-    private ImmutableList<String> checkFinalProjectsForNull(ImmutableList<String> finalProjects) {
+    private static ImmutableList<String> checkFinalProjectsForNull(ImmutableList<String> finalProjects) {
         if (finalProjects == null) {
             ImmutableList.Builder<String> builder = new ImmutableList.Builder<String>();
             return builder.build();
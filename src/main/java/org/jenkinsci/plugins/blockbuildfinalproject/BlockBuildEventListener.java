@@ -0,0 +1,292 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, Chad Rosenquist
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.blockbuildfinalproject;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import hudson.ExtensionList;
+import hudson.ExtensionPoint;
+import jenkins.model.Jenkins;
+
+/**
+ * Receives structured events about blocking decisions, for profiling and tracing.
+ * 
+ * The events mirror what a JDK Flight Recorder event would hold, so an implementation running on a JVM
+ * with the jdk.jfr API can commit them as JFR events and correlate queue stalls with this plugin.
+ * 
+ * 1. BlockBuildEvaluation - one for each upstream or downstream check made by canRun().
+ * 2. RegionCacheRebuild   - each time RegionCache computes a region or is cleared because the graph changed.
+ * 3. BlockBuildDecision   - one for each canRun() decision, with the engine that made it and how long it took.
+ * 
+ * When no implementation is installed, the events are not even created.
+ * Implementations are called on the Queue's thread, while it holds the Queue lock, so they must be fast.
+ * An implementation that throws is logged and skipped: it never changes a decision, and the other
+ * implementations still get the event.
+ * 
+ * @author Chad Rosenquist
+ *
+ */
+public abstract class BlockBuildEventListener implements ExtensionPoint {
+    private static final Logger LOGGER = Logger.getLogger(BlockBuildEventListener.class.getName());
+    
+    /**
+     * Called after BlockBuild checks the upstream or downstream projects of a project.
+     * 
+     * @param event the evaluation
+     */
+    public void onEvaluation(BlockBuildEvaluation event) {
+    }
+    
+    /**
+     * Called after RegionCache computes a region, or is cleared because Jenkins replaced its DependencyGraph.
+     * 
+     * @param event the rebuild
+     */
+    public void onRegionCacheRebuild(RegionCacheRebuild event) {
+    }
+    
+    /**
+     * Called after canRun() decides whether a project can build.
+     * 
+     * @param event the decision
+     */
+    public void onDecision(BlockBuildDecision event) {
+    }
+    
+    /**
+     * @return all the installed listeners.  Empty if Jenkins is not available.
+     */
+    public static List<BlockBuildEventListener> all() {
+        Jenkins jenkins = Jenkins.getInstance();
+        if (jenkins == null) {
+            return Collections.emptyList();
+        }
+        ExtensionList<BlockBuildEventListener> listeners = jenkins.getExtensionList(BlockBuildEventListener.class);
+        return listeners;
+    }
+    
+    /**
+     * Sends an evaluation to each listener.
+     * 
+     * @param listeners the installed listeners
+     * @param event     the evaluation
+     */
+    static void fireEvaluation(List<BlockBuildEventListener> listeners, BlockBuildEvaluation event) {
+        for (BlockBuildEventListener listener : listeners) {
+            try {
+                listener.onEvaluation(event);
+            }
+            catch (RuntimeException e) {
+                logFailure(listener, e);
+            }
+            catch (LinkageError e) {
+                logFailure(listener, e);
+            }
+        }
+    }
+    
+    /**
+     * Sends a rebuild to each listener.
+     * 
+     * @param listeners the installed listeners
+     * @param event     the rebuild
+     */
+    static void fireRegionCacheRebuild(List<BlockBuildEventListener> listeners, RegionCacheRebuild event) {
+        for (BlockBuildEventListener listener : listeners) {
+            try {
+                listener.onRegionCacheRebuild(event);
+            }
+            catch (RuntimeException e) {
+                logFailure(listener, e);
+            }
+            catch (LinkageError e) {
+                logFailure(listener, e);
+            }
+        }
+    }
+    
+    /**
+     * Sends a decision to each listener.
+     * 
+     * @param listeners the installed listeners
+     * @param event     the decision
+     */
+    static void fireDecision(List<BlockBuildEventListener> listeners, BlockBuildDecision event) {
+        for (BlockBuildEventListener listener : listeners) {
+            try {
+                listener.onDecision(event);
+            }
+            catch (RuntimeException e) {
+                logFailure(listener, e);
+            }
+            catch (LinkageError e) {
+                logFailure(listener, e);
+            }
+        }
+    }
+    
+    // A LinkageError is what a listener using an API this JVM doesn't have, such as jdk.jfr, throws.
+    private static void logFailure(BlockBuildEventListener listener, Throwable failure) {
+        LOGGER.log(Level.WARNING, "BlockBuildEventListener " + listener.getClass().getName() + " failed.", failure);
+    }
+    
+    /**
+     * One upstream or downstream check.
+     */
+    public static final class BlockBuildEvaluation {
+        private final String project;
+        private final String direction;
+        private final int regionSize;
+        private final long durationNanos;
+        private final String blocker;
+        
+        BlockBuildEvaluation(String project, String direction, int regionSize, long durationNanos, String blocker) {
+            this.project = project;
+            this.direction = direction;
+            this.regionSize = regionSize;
+            this.durationNanos = durationNanos;
+            this.blocker = blocker;
+        }
+        
+        /** @return full name of the project the Queue is considering running */
+        public String getProject() {
+            return project;
+        }
+        
+        /** @return "UP" or "DOWN" */
+        public String getDirection() {
+            return direction;
+        }
+        
+        /** @return number of projects the search visited */
+        public int getRegionSize() {
+            return regionSize;
+        }
+        
+        /** @return how long the check took */
+        public long getDurationNanos() {
+            return durationNanos;
+        }
+        
+        /** @return true if the project was blocked */
+        public boolean isBlocked() {
+            return blocker != null;
+        }
+        
+        /** @return full name of the building project that blocked, or null if not blocked */
+        public String getBlocker() {
+            return blocker;
+        }
+    }
+    
+    /**
+     * One canRun() decision: the upstream check, then the downstream check if upstream didn't block.
+     */
+    public static final class BlockBuildDecision {
+        private final String project;
+        private final String engine;
+        private final long durationNanos;
+        private final String blocker;
+        
+        BlockBuildDecision(String project, String engine, long durationNanos, String blocker) {
+            this.project = project;
+            this.engine = engine;
+            this.durationNanos = durationNanos;
+            this.blocker = blocker;
+        }
+        
+        /** @return full name of the project the Queue is considering running */
+        public String getProject() {
+            return project;
+        }
+        
+        /** @return name of the DecisionEngine that made the decision */
+        public String getEngine() {
+            return engine;
+        }
+        
+        /** @return how long the decision took, both checks included */
+        public long getDurationNanos() {
+            return durationNanos;
+        }
+        
+        /** @return true if the project was blocked */
+        public boolean isBlocked() {
+            return blocker != null;
+        }
+        
+        /** @return full name of the building project that blocked, or null if not blocked */
+        public String getBlocker() {
+            return blocker;
+        }
+    }
+    
+    /**
+     * One RegionCache rebuild.
+     */
+    public static final class RegionCacheRebuild {
+        private final String project;
+        private final String direction;
+        private final int regionSize;
+        private final long durationNanos;
+        private final long epoch;
+        
+        RegionCacheRebuild(String project, String direction, int regionSize, long durationNanos, long epoch) {
+            this.project = project;
+            this.direction = direction;
+            this.regionSize = regionSize;
+            this.durationNanos = durationNanos;
+            this.epoch = epoch;
+        }
+        
+        /** @return full name of the project whose region was computed, or null if the cache was cleared */
+        public String getProject() {
+            return project;
+        }
+        
+        /** @return "UP" or "DOWN", or null if the cache was cleared */
+        public String getDirection() {
+            return direction;
+        }
+        
+        /** @return number of projects in the region, or 0 if the cache was cleared */
+        public int getRegionSize() {
+            return regionSize;
+        }
+        
+        /** @return how long computing the region took */
+        public long getDurationNanos() {
+            return durationNanos;
+        }
+        
+        /** @return the RegionCache epoch the region belongs to */
+        public long getEpoch() {
+            return epoch;
+        }
+    }
+}
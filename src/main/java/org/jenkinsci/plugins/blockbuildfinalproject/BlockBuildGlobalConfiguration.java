@@ -0,0 +1,137 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, Chad Rosenquist
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.blockbuildfinalproject;
+
+import java.util.logging.Logger;
+
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.StaplerRequest;
+
+import hudson.Extension;
+import hudson.util.FormValidation;
+import hudson.util.ListBoxModel;
+import jenkins.model.GlobalConfiguration;
+import net.sf.json.JSONObject;
+
+/**
+ * The plugin's section of Manage Jenkins, Configure System: which DecisionEngine makes the blocking decision.
+ * 
+ * Saving the page switches engines without a restart.  The new engine is warmed up in the background
+ * and takes over once it's warm; see DecisionEngines.  At startup the system property
+ * org.jenkinsci.plugins.blockbuildfinalproject.engine, if set, is used instead of the saved engine,
+ * so a bad choice can be undone without editing the configuration file.
+ * 
+ * @author Chad Rosenquist
+ *
+ */
+@Extension
+public class BlockBuildGlobalConfiguration extends GlobalConfiguration {
+    private static final Logger LOGGER = Logger.getLogger(BlockBuildGlobalConfiguration.class.getName());
+    
+    private String engine = ReferenceDecisionEngine.getInstance().getName();
+    
+    /**
+     * Constructor.  Loads the saved configuration and selects its engine.
+     * If Jenkins hasn't loaded its jobs yet, StartupWarmUp warms the engine up once it has.
+     */
+    public BlockBuildGlobalConfiguration() {
+        load();
+        String startupEngine = System.getProperty(DecisionEngines.ENGINE_PROPERTY);
+        if (startupEngine == null) {
+            startupEngine = engine;
+        }
+        if (DecisionEngines.getInstance().forName(startupEngine) == null) {
+            LOGGER.warning("Unknown blocking engine " + startupEngine + ".  Using "
+                           + DecisionEngines.getInstance().getActive().getName() + ".");
+            return;
+        }
+        DecisionEngines.getInstance().select(startupEngine);
+    }
+    
+    @Override
+    public String getDisplayName() {
+        return "Block Build Final Project";
+    }
+    
+    /**
+     * @return the name of the selected engine
+     */
+    public String getEngine() {
+        return engine;
+    }
+    
+    /**
+     * Saves the configuration and switches to its engine.
+     * 
+     * @param req  the request
+     * @param json the form
+     * @return     true, so the next page is shown
+     * @throws FormException if the engine is unknown
+     */
+    @Override
+    public boolean configure(StaplerRequest req, JSONObject json) throws FormException {
+        String newEngine = json.optString("engine", engine);
+        if (DecisionEngines.getInstance().forName(newEngine) == null) {
+            throw new FormException("Unknown blocking engine: " + newEngine, "engine");
+        }
+        engine = newEngine;
+        save();
+        DecisionEngines.getInstance().select(engine);
+        return true;
+    }
+    
+    /**
+     * @return the engines, the default first
+     */
+    public ListBoxModel doFillEngineItems() {
+        ListBoxModel items = new ListBoxModel();
+        for (String name : DecisionEngines.getInstance().getNames()) {
+            items.add(name);
+        }
+        return items;
+    }
+    
+    /**
+     * Shows which engine is making the decisions, which may not be the saved one yet.
+     * 
+     * @param value the engine in the select box
+     * @return      ok, with a warning if the system property overrides the saved engine at startup
+     */
+    public FormValidation doCheckEngine(@QueryParameter String value) {
+        String startupEngine = System.getProperty(DecisionEngines.ENGINE_PROPERTY);
+        if (startupEngine != null) {
+            return FormValidation.warning("The system property " + DecisionEngines.ENGINE_PROPERTY + "=" + startupEngine
+                                          + " overrides this choice when Jenkins starts.");
+        }
+        return FormValidation.ok("Active engine: " + DecisionEngines.getInstance().getActive().getName());
+    }
+    
+    /**
+     * @return the single instance, or null if Jenkins is not available
+     */
+    static BlockBuildGlobalConfiguration get() {
+        return GlobalConfiguration.all().get(BlockBuildGlobalConfiguration.class);
+    }
+}
@@ -24,20 +24,31 @@
 
 package org.jenkinsci.plugins.blockbuildfinalproject;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.logging.Logger;
 
 import hudson.Extension;
 import hudson.model.AbstractProject;
 import hudson.model.Item;
+import hudson.model.ItemGroup;
 import hudson.model.listeners.ItemListener;
 
 /**
- * Listens for the onDeleted and onRenamed events.
+ * Listens for the onLoaded, onCreated, onDeleted, onLocationChanged and onUpdated events.
  * 
  * The projects stored in BlockBuildJobProperty as stored as strings.
  * If a project is deleted and BlockBuildJobProperty references it, it must
  * be removed from BlockBuildJobProperty.
- * If a project is renamed, the project must be updated in BlockBuildJobProperty.
+ * If a project is renamed or moved, the project must be updated in BlockBuildJobProperty.
+ * If a folder is renamed or moved, every project inside it must be updated in BlockBuildJobProperty.
+ * If a project is updated, its final projects are re-indexed in FinalProjectReferences,
+ * and it is checked for options that conflict with this plugin (ConflictingOptionsMonitor).
+ * Created, moved and deleted projects are updated in ProjectRegistry and ProjectTrigramIndex.
+ * Deleted projects are dropped from PropertySaveQueue, so a queued save can't bring them back.
+ * Moving or deleting a project clears the cached regions of CachedDecisionEngine and EventDrivenDecisionEngine,
+ * whose searches matched final projects by name.
  * 
  * @author Chad Rosenquist
  */
@@ -45,72 +56,168 @@ import hudson.model.listeners.ItemListener;
 public class BlockBuildItemListener extends ItemListener {
     private static final Logger LOGGER = Logger.getLogger(BlockBuildItemListener.class.getName());
     
+    /**
+     * Handles the loaded event.
+     * 
+     * Jenkins has loaded all of its items, so drop anything indexed from a previous load.
+     * The registry and indexes are rebuilt, and every project checked for conflicting options,
+     * in the background by StartupWarmUp, or on the next lookup.
+     * This is the only place StartupWarmUp is started.  Jenkins fires it once the jobs are loaded at startup,
+     * and again after a reload.
+     */
+    @Override
+    public void onLoaded() {
+        ProjectRegistry.getInstance().reset();
+        ProjectTrigramIndex.getInstance().reset();
+        FinalProjectReferences.getInstance().reset();
+        StartupWarmUp.getInstance().start();
+        super.onLoaded();
+    }
+    
+    /**
+     * Handles the created event.  Copying an item also fires this event.
+     * 
+     * @param item the item being created
+     */
+    @Override
+    public void onCreated(Item item) {
+        ProjectResolutionCache.getInstance().clear();
+        List<AbstractProject<?, ?>> createdProjects = ProjectRegistry.getProjectsIn(item);
+        ProjectRegistry.getInstance().add(createdProjects);
+        for (AbstractProject<?, ?> project : createdProjects) {
+            ProjectTrigramIndex.getInstance().add(project);
+        }
+        super.onCreated(item);
+    }
+    
     /**
      * Handles the deleted event.
      * 
      * @param item the item being deleted
      * 
-     * 1. Checks that item is of type AbstractProject
-     * 2. Gets the AbstractProject and name from item.
-     * 3. Loops through all AbstractProjects in Jenkins.
-     * 4. Do NOT update the project that is being deleted.  Doing so will
+     * 1. Checks that item is of type AbstractProject or a folder.
+     * 2. Gets the deleted names: the item's full name, plus every referenced project inside it if it's a folder.
+     * 3. Loops through the AbstractProjects that reference a deleted name.
+     * 4. Do NOT update the projects that are being deleted.  Doing so will
      *    cause the project to not be deleted.  It will be disabled instead.
      * 5. Get the BlockBuildJobProperty from the current project.
-     * 6. Because BlockBuildJobProperty is immutable, create a new BlockBuildJobProperty, with the deleted project removed.
+     * 6. Because BlockBuildJobProperty is immutable, create a new BlockBuildJobProperty, with the deleted projects removed.
      * 7. Remove the old BlockBuildJobProperty from the current project and add the new one in.
+     *    Unchanged properties are skipped and the project is saved in the background.
      * 8. Log a message if an error.
      */
     @Override
     public void onDeleted(Item item) {
-        if (item instanceof AbstractProject) {
-            AbstractProject<?, ?> deletedProject = (AbstractProject<?, ?>) item;
-            String oldName = deletedProject.getFullName();
-            LOGGER.finest("Deleted project " + oldName);
+        ProjectResolutionCache.getInstance().clear();
+        PropertySaveQueue.getInstance().remove(item, item.getFullName());
+        CachedDecisionEngine.getInstance().clear();
+        EventDrivenDecisionEngine.getInstance().clear();
+        if ((item instanceof AbstractProject) || (item instanceof ItemGroup)) {
+            String oldName = item.getFullName();
+            LOGGER.finest("Deleted item " + oldName);
             
-            for (AbstractProject<?, ?> currentProject : JenkinsWrapper.getAbstractProjects()) {
-                // Do not update the project that is being deleted.
-                if (!currentProject.equals(deletedProject)) {
+            FinalProjectReferences references = FinalProjectReferences.getInstance();
+            List<String> deletedNames = new ArrayList<String>();
+            deletedNames.add(oldName);
+            if (item instanceof ItemGroup) {
+                deletedNames.addAll(references.getNamesInside(oldName));
+            }
+            
+            for (AbstractProject<?, ?> currentProject : references.getReferrers(deletedNames)) {
+                // Do not update the projects that are being deleted.
+                if (!currentProject.equals(item) && !currentProject.getFullName().startsWith(oldName + "/")) {
                     BlockBuildJobProperty blockBuildJobProperty = BlockBuildJobProperty.getBlockBuildJobPropertyFromProject(currentProject);
                     if (blockBuildJobProperty != null) {
                         LOGGER.finest("Current project = " + currentProject.getFullName());
-                        BlockBuildJobProperty newProperty = blockBuildJobProperty.onDeleted(oldName);
-                        BlockBuildJobProperty.updateBlockBuildJobPropertyInProject(currentProject, newProperty);
+                        BlockBuildJobProperty newProperty = blockBuildJobProperty.onDeleted(deletedNames);
+                        BlockBuildJobProperty.updateBlockBuildJobPropertyInProjectLater(currentProject, newProperty);
                     }
                 }
             }
+            
+            if (item instanceof AbstractProject) {
+                references.remove((AbstractProject<?, ?>) item);
+                EventDrivenDecisionEngine.getInstance().removed(item);
+                BlockBuildMetrics.getInstance().removeProject(oldName);
+                BlockedTimeAccounting.getInstance().removeProject(oldName);
+            }
+            else {
+                references.removeInside(oldName);
+            }
+            ProjectRegistry.getInstance().remove(item, oldName);
+            ProjectTrigramIndex.getInstance().remove(oldName);
+            ConflictingOptionsMonitor.remove(oldName);
         }
         super.onDeleted(item);
     }
     
     /**
-     * Handles the renamed event.
+     * Handles the location changed event, which Jenkins fires when an item is renamed or moved.
      * 
-     * @param item    the item being renamed
-     * @param oldName the old name of the item
-     * @param newName the new name of the item
+     * @param item        the item being renamed or moved
+     * @param oldFullName the old full name of the item
+     * @param newFullName the new full name of the item
      * 
-     * 1. Checks that item is of type AbstractProject
-     * 2. Gets the AbstractProject and name from item.
-     * 3. Loops through all AbstractProjects in Jenkins.
+     * 1. Checks that item is of type AbstractProject or a folder.
+     * 2. Computes the renames once: the item itself, plus every referenced project inside it if it's a folder.
+     * 3. Loops through the AbstractProjects that reference a renamed name.  Each project is visited once.
      * 4. Get the BlockBuildJobProperty from the current project.
-     * 5. Because BlockBuildJobProperty is immutable, create a new BlockBuildJobProperty, with the project renamed.
+     * 5. Because BlockBuildJobProperty is immutable, create a new BlockBuildJobProperty, with all the projects renamed.
      * 6. Remove the old BlockBuildJobProperty from the current project and add the new one in.
+     *    Unchanged properties are skipped and the project is saved in the background.
      * 7. Log a message if an error.
+     * 
+     * When a folder is moved, Jenkins also fires this event for every item inside the folder.
+     * Those references were already renamed when the folder event was handled, so the renames are empty.
      */
     @Override
-    public void onRenamed(Item item, String oldName, String newName) {
+    public void onLocationChanged(Item item, String oldFullName, String newFullName) {
+        ProjectRegistry.getInstance().onLocationChanged(item);
+        ProjectResolutionCache.getInstance().clear();
+        CachedDecisionEngine.getInstance().clear();
+        EventDrivenDecisionEngine.getInstance().clear();
         if (item instanceof AbstractProject) {
-            LOGGER.finest("Renamed project " + oldName + " to " + newName);
-            
-            for (AbstractProject<?, ?> currentProject : JenkinsWrapper.getAbstractProjects()) {
-                BlockBuildJobProperty blockBuildJobProperty = BlockBuildJobProperty.getBlockBuildJobPropertyFromProject(currentProject);
-                if (blockBuildJobProperty != null) {
-                    LOGGER.finest("Current project = " + currentProject.getFullName());
-                    BlockBuildJobProperty newProperty = blockBuildJobProperty.onRenamed(oldName, newName);
-                    BlockBuildJobProperty.updateBlockBuildJobPropertyInProject(currentProject, newProperty);
+            ProjectTrigramIndex.getInstance().rename((AbstractProject<?, ?>) item, oldFullName, newFullName);
+            ConflictingOptionsMonitor.rename(oldFullName, newFullName);
+            BlockBuildMetrics.getInstance().renameProject(oldFullName, newFullName);
+            BlockedTimeAccounting.getInstance().renameProject(oldFullName, newFullName);
+        }
+        
+        if ((item instanceof AbstractProject) || (item instanceof ItemGroup)) {
+            Map<String, String> renames = FinalProjectReferences.getInstance().getRenames(oldFullName, newFullName);
+            if (!renames.isEmpty()) {
+                LOGGER.finest("Renamed " + oldFullName + " to " + newFullName + ", updating " + renames.size() + " final projects");
+                
+                for (AbstractProject<?, ?> currentProject : FinalProjectReferences.getInstance().getReferrers(renames.keySet())) {
+                    BlockBuildJobProperty blockBuildJobProperty = BlockBuildJobProperty.getBlockBuildJobPropertyFromProject(currentProject);
+                    if (blockBuildJobProperty != null) {
+                        LOGGER.finest("Current project = " + currentProject.getFullName());
+                        BlockBuildJobProperty newProperty = blockBuildJobProperty.onRenamed(renames);
+                        BlockBuildJobProperty.updateBlockBuildJobPropertyInProjectLater(currentProject, newProperty);
+                    }
                 }
             }
         }
-        super.onRenamed(item, oldName, newName);
+        super.onLocationChanged(item, oldFullName, newFullName);
+    }
+    
+    /**
+     * Handles the updated event.
+     * 
+     * @param item the item being updated
+     * 
+     * The BlockBuildJobProperty may have been removed or changed when the project was configured,
+     * so re-index the final projects it references.  The Advanced Project Options may have changed too,
+     * so check for conflicting options.
+     */
+    @Override
+    public void onUpdated(Item item) {
+        if (item instanceof AbstractProject) {
+            AbstractProject<?, ?> updatedProject = (AbstractProject<?, ?>) item;
+            BlockBuildJobProperty property = BlockBuildJobProperty.getBlockBuildJobPropertyFromProject(updatedProject);
+            FinalProjectReferences.getInstance().update(updatedProject, property);
+            ConflictingOptionsMonitor.check(updatedProject, property);
+        }
+        super.onUpdated(item);
     }
 }
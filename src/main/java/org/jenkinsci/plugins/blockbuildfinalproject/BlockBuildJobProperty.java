@@ -27,20 +27,28 @@ package org.jenkinsci.plugins.blockbuildfinalproject;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.apache.commons.lang.StringUtils;
+import org.jenkinsci.plugins.blockbuildfinalproject.BlockBuild.SearchDirection;
 import org.kohsuke.stapler.AncestorInPath;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.QueryParameter;
 
 import com.google.common.collect.ImmutableList;
 
+import hudson.BulkChange;
 import hudson.Extension;
 import hudson.Util;
 import hudson.model.AbstractProject;
 import hudson.model.AutoCompletionCandidates;
+import hudson.model.Item;
 import hudson.model.Job;
 import hudson.model.JobProperty;
 import hudson.model.JobPropertyDescriptor;
@@ -94,7 +102,7 @@ public class BlockBuildJobProperty extends JobProperty<Job<?,?>> {
      * @param projectsAsString list of projects, comma delimited string
      * @return                 list of projects, immutable list
      */
-    private ImmutableList<String> projectsAsStringToImmutableList(String projectsAsString) {
+    static ImmutableList<String> projectsAsStringToImmutableList(String projectsAsString) {
         ImmutableList.Builder<String> builder = new ImmutableList.Builder<String>();
         String[] projects = Util.fixNull(projectsAsString).trim().split("\\s*,\\s*");
         for (String project : projects) {
@@ -210,8 +218,19 @@ public class BlockBuildJobProperty extends JobProperty<Job<?,?>> {
      * @return             new instance of BlockBuildJobProperty that does not contain the delete project
      */
     public BlockBuildJobProperty onDeleted(String deletedName) {
-        List<String> upstreamProjects = deleteProjectFromList(deletedName, getFinalUpstreamProjectsAsList());
-        List<String> downstreamProjects = deleteProjectFromList(deletedName, getFinalDownstreamProjectsAsList());
+        return onDeleted(Collections.singleton(deletedName));
+    }
+    
+    /**
+     * When projects are deleted from Jenkins, for example by deleting a folder, call this function to
+     * delete those projects from BlockBuildJobProperty.  Because BlockBuildJobProperty is immutable, a new instance is created.
+     * 
+     * @param  deletedNames names of the projects being deleted
+     * @return              new instance of BlockBuildJobProperty that does not contain the deleted projects
+     */
+    public BlockBuildJobProperty onDeleted(Collection<String> deletedNames) {
+        List<String> upstreamProjects = deleteProjectsFromList(deletedNames, getFinalUpstreamProjectsAsList());
+        List<String> downstreamProjects = deleteProjectsFromList(deletedNames, getFinalDownstreamProjectsAsList());
         
         return new BlockBuildJobProperty(
                 isUseBlockBuildUpstreamProject(),
@@ -221,18 +240,22 @@ public class BlockBuildJobProperty extends JobProperty<Job<?,?>> {
     }
     
     /**
-     * Removes a deleted project from the list.
+     * Removes deleted projects from the list.
      * 
-     * @param deletedName name of the delete project
-     * @param inputList   immutable list of project names
-     * @return            list of projects, without deletedName
+     * @param deletedNames names of the deleted projects
+     * @param inputList    immutable list of project names
+     * @return             list of projects, without deletedNames
      */
-    private List<String> deleteProjectFromList(String deletedName, ImmutableList<String> inputList) {
-        List<String> projects = new ArrayList<String>(inputList);
+    private List<String> deleteProjectsFromList(Collection<String> deletedNames, ImmutableList<String> inputList) {
+        List<String> projects = new ArrayList<String>();
         
-        if (projects.contains(deletedName)) {
-            projects.remove(deletedName);
-            LOGGER.finest("Removed project " + deletedName);
+        for (String project : inputList) {
+            if (deletedNames.contains(project)) {
+                LOGGER.finest("Removed project " + project);
+            }
+            else {
+                projects.add(project);
+            }
         }
         
         return projects;
@@ -246,8 +269,19 @@ public class BlockBuildJobProperty extends JobProperty<Job<?,?>> {
      * @return        new instance of BlockBuildJobProperty with the renamed project
      */
     public BlockBuildJobProperty onRenamed(String oldName, String newName) {
-        List<String> upstreamProjects = renameProjectInList(oldName, newName, getFinalUpstreamProjectsAsList());
-        List<String> downstreamProjects = renameProjectInList(oldName, newName, getFinalDownstreamProjectsAsList());
+        return onRenamed(Collections.singletonMap(oldName, newName));
+    }
+    
+    /**
+     * When projects are renamed in Jenkins, for example by renaming or moving a folder, call this function
+     * to rename all of them in one pass.  Because BlockBuildJobProperty is immutable, a new instance is created.
+     * 
+     * @param renames map of old project name to new project name
+     * @return        new instance of BlockBuildJobProperty with the renamed projects
+     */
+    public BlockBuildJobProperty onRenamed(Map<String, String> renames) {
+        List<String> upstreamProjects = renameProjectsInList(renames, getFinalUpstreamProjectsAsList());
+        List<String> downstreamProjects = renameProjectsInList(renames, getFinalDownstreamProjectsAsList());
         
         return new BlockBuildJobProperty(
                 isUseBlockBuildUpstreamProject(),
@@ -257,14 +291,13 @@ public class BlockBuildJobProperty extends JobProperty<Job<?,?>> {
     }
     
     /**
-     * Renames a project in a list.
+     * Renames projects in a list.
      * 
-     * @param oldName   old name of the project being renamed
-     * @param newName   new name
+     * @param renames   map of old project name to new project name
      * @param inputList immutable list of project names
      * @return          new list of projects
      */
-    private List<String> renameProjectInList(String oldName, String newName, ImmutableList<String> inputList) {
+    private List<String> renameProjectsInList(Map<String, String> renames, ImmutableList<String> inputList) {
         List<String> projectList = new ArrayList<String>();
         
         /*
@@ -277,9 +310,10 @@ public class BlockBuildJobProperty extends JobProperty<Job<?,?>> {
          * Simply deleting Project B and then adding D to the List could change the order.
          */
         for (String project : inputList) {
-            if (project.equals(oldName)) {
+            String newName = renames.get(project);
+            if (newName != null) {
                 projectList.add(newName);
-                LOGGER.finest("Renamed project " + oldName + " to " + newName);
+                LOGGER.finest("Renamed project " + project + " to " + newName);
             }
             else {
                 projectList.add(project);
@@ -289,6 +323,21 @@ public class BlockBuildJobProperty extends JobProperty<Job<?,?>> {
         return projectList;
     }
     
+    /**
+     * Called by Jenkins when this property is loaded or added to a project.
+     * Indexes the final projects so renames and deletes can find this project quickly.
+     * 
+     * @param owner the project that owns this property
+     */
+    @Override
+    protected void setOwner(Job<?, ?> owner) {
+        super.setOwner(owner);
+        if (owner instanceof AbstractProject) {
+            FinalProjectReferences.getInstance().update((AbstractProject<?, ?>) owner, this);
+            ConflictingOptionsMonitor.check((AbstractProject<?, ?>) owner, this);
+        }
+    }
+    
     /**
      * Returns the BlockBuildJobProperty for a given project.
      * 
@@ -310,16 +359,96 @@ public class BlockBuildJobProperty extends JobProperty<Job<?,?>> {
      * @param project      the project
      * @param newProperty  the new BlockBuildJobProperty
      * 
-     * If an error occurs, the stack trace is shown and an error message is logged.  Execution tries to continue.
+     * Nothing is done if the project already has an equal property.
+     * Otherwise the property is replaced and the project is saved once.
+     * If an error occurs, an error message is logged.  Execution tries to continue.
      */
     public static void updateBlockBuildJobPropertyInProject(AbstractProject<?, ?> project, BlockBuildJobProperty newProperty) {
+        if (newProperty.equals(getBlockBuildJobPropertyFromProject(project))) {
+            LOGGER.finest("Property unchanged for " + project.getFullName());
+            return;
+        }
+        
+        replaceProperty(project, newProperty, true);
+    }
+    
+    /**
+     * Updates the BlockBuildJobProperty for a given project, saving the project in the background.
+     * 
+     * @param project      the project
+     * @param newProperty  the new BlockBuildJobProperty
+     * 
+     * The property is replaced in memory right away, so the new property is used immediately.
+     * Writing config.xml is handed to PropertySaveQueue, which saves each project once
+     * even if it is updated several times before the save happens.
+     * Use this from item listeners, which may update many projects for a single event.
+     */
+    public static void updateBlockBuildJobPropertyInProjectLater(AbstractProject<?, ?> project, BlockBuildJobProperty newProperty) {
+        if (newProperty.equals(getBlockBuildJobPropertyFromProject(project))) {
+            LOGGER.finest("Property unchanged for " + project.getFullName());
+            return;
+        }
+        
+        // Do not save here.  PropertySaveQueue saves the project.
+        replaceProperty(project, newProperty, false);
+        PropertySaveQueue.getInstance().save(project);
+    }
+    
+    /**
+     * Replaces the BlockBuildJobProperty of a project inside a BulkChange, so the project is saved at most once.
+     * 
+     * @param project      the project
+     * @param newProperty  the new BlockBuildJobProperty
+     * @param save         true to save the project, false to only change it in memory
+     * 
+     * If an error occurs, an error message is logged.  Execution tries to continue.
+     */
+    private static void replaceProperty(AbstractProject<?, ?> project, BlockBuildJobProperty newProperty, boolean save) {
+        BulkChange bulkChange = new BulkChange(project);
         try {
             project.removeProperty(BlockBuildJobProperty.class);
             project.addProperty(newProperty);
+            if (save) {
+                bulkChange.commit();
+            }
         } catch (IOException e) {
-            e.printStackTrace();
-            LOGGER.severe("Block Build Final Job Plugin - Could not add or delete property for " + project.getFullName());
+            LOGGER.log(Level.SEVERE, "Block Build Final Job Plugin - Could not add or delete property for " + project.getFullName(), e);
+        } finally {
+            bulkChange.abort();
+        }
+    }
+    
+    /**
+     * Two properties are equal if they block the same directions with the same final projects, in the same order.
+     * 
+     * @param obj the object to compare
+     * @return    true if obj is an equal BlockBuildJobProperty
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
         }
+        if (!(obj instanceof BlockBuildJobProperty)) {
+            return false;
+        }
+        BlockBuildJobProperty other = (BlockBuildJobProperty) obj;
+        return (isUseBlockBuildUpstreamProject() == other.isUseBlockBuildUpstreamProject())
+                && (isUseBlockBuildDownstreamProject() == other.isUseBlockBuildDownstreamProject())
+                && getFinalUpstreamProjectsAsList().equals(other.getFinalUpstreamProjectsAsList())
+                && getFinalDownstreamProjectsAsList().equals(other.getFinalDownstreamProjectsAsList());
+    }
+    
+    /**
+     * @return hash code consistent with equals()
+     */
+    @Override
+    public int hashCode() {
+        int hash = getFinalUpstreamProjectsAsList().hashCode();
+        hash = 31 * hash + getFinalDownstreamProjectsAsList().hashCode();
+        hash = 31 * hash + (isUseBlockBuildUpstreamProject() ? 1 : 0);
+        hash = 31 * hash + (isUseBlockBuildDownstreamProject() ? 1 : 0);
+        return hash;
     }
     
     /**
@@ -330,6 +459,9 @@ public class BlockBuildJobProperty extends JobProperty<Job<?,?>> {
      */
     @Extension
     public static final class DescriptorImpl extends JobPropertyDescriptor {
+        
+        // warn when the search with final projects covers more projects than this
+        private static final int MAX_REGION_SIZE = Integer.getInteger(BlockBuildJobProperty.class.getName() + ".maxRegionSize", 1000);
 
         @Override
         public String getDisplayName() {
@@ -400,21 +532,35 @@ public class BlockBuildJobProperty extends JobProperty<Job<?,?>> {
         /**
          * Auto completes the list of final upstream projects.
          * 
-         * @param value the text the end-user typed into the textbox
-         * @return      list of projects that start with value
+         * @param value   the text the end-user typed into the textbox
+         * @param context the current project
+         * @return        list of upstream projects that start with value, then that contain it, closest first.
+         *                If there is no current project or no upstream projects, the same as
+         *                AutoCompleteUtils.autoCompleteProjects().
          */
-        public AutoCompletionCandidates doAutoCompleteFinalUpstreamProjects(@QueryParameter String value) {
-            return AutoCompleteUtils.autoCompleteProjects(value);
+        public AutoCompletionCandidates doAutoCompleteFinalUpstreamProjects(@QueryParameter String value, @AncestorInPath AbstractProject<?, ?> context) {
+            if (context == null) {
+                return AutoCompleteUtils.autoCompleteProjects(value);
+            }
+            return AutoCompleteUtils.autoCompleteProjectsInRegion(value,
+                    RegionCache.getInstance().getRegion(context, SearchDirection.UP));
         }
        
         /**
          * Auto completes the list of final downstream projects.
          * 
-         * @param value the text the end-user typed into the textbox
-         * @return      list of projects that start with value
+         * @param value   the text the end-user typed into the textbox
+         * @param context the current project
+         * @return        list of downstream projects that start with value, then that contain it, closest first.
+         *                If there is no current project or no downstream projects, the same as
+         *                AutoCompleteUtils.autoCompleteProjects().
          */
-        public AutoCompletionCandidates doAutoCompleteFinalDownstreamProjects(@QueryParameter String value) {
-            return AutoCompleteUtils.autoCompleteProjects(value);
+        public AutoCompletionCandidates doAutoCompleteFinalDownstreamProjects(@QueryParameter String value, @AncestorInPath AbstractProject<?, ?> context) {
+            if (context == null) {
+                return AutoCompleteUtils.autoCompleteProjects(value);
+            }
+            return AutoCompleteUtils.autoCompleteProjectsInRegion(value,
+                    RegionCache.getInstance().getRegion(context, SearchDirection.DOWN));
         }
         
         /**
@@ -422,11 +568,12 @@ public class BlockBuildJobProperty extends JobProperty<Job<?,?>> {
          * 
          * @param value    list of projects the end-user entered
          * @param context  current project
-         * @return         ok - if all the projects are valid
-         *                 error - if any of the projects are invalid or not buildable
+         * @return         ok - if all the projects are valid, with the size of the upstream search
+         *                 warning - if a project is not upstream of the current project, or the search is too large
+         *                 error - one line for each project that is invalid, not buildable or repeated
          */
         public FormValidation doCheckFinalUpstreamProjects(@QueryParameter String value, @AncestorInPath AbstractProject<?, ?> context) {
-            return AutoCompleteUtils.checkProjects(value, context);
+            return checkFinalProjects(value, context, SearchDirection.UP);
         }
         
         /**
@@ -434,11 +581,64 @@ public class BlockBuildJobProperty extends JobProperty<Job<?,?>> {
          * 
          * @param value    list of projects the end-user entered
          * @param context  current project
-         * @return         ok - if all the projects are valid
-         *                 error - if any of the projects are invalid or not buildable
+         * @return         ok - if all the projects are valid, with the size of the downstream search
+         *                 warning - if a project is not downstream of the current project, or the search is too large
+         *                 error - one line for each project that is invalid, not buildable or repeated
          */
         public FormValidation doCheckFinalDownstreamProjects(@QueryParameter String value, @AncestorInPath AbstractProject<?, ?> context) {
-            return AutoCompleteUtils.checkProjects(value, context);
+            return checkFinalProjects(value, context, SearchDirection.DOWN);
+        }
+        
+        /**
+         * Checks the final projects are valid, then previews the search canRun() will do with them.
+         * 
+         * @param value     list of projects the end-user entered
+         * @param context   current project
+         * @param direction UP for final upstream projects, DOWN for final downstream projects
+         * @return          the validation result
+         * 
+         * 1. A final project that is not in the current project's region never stops the search.
+         *    The search then covers everything the final project was meant to cut off.
+         * 2. The search covers the region, minus everything behind the final projects.
+         *    Warn if it still covers more than MAX_REGION_SIZE projects.
+         * 
+         * Both are counted from the region in RegionCache; the dependency graph is not searched again.
+         */
+        private FormValidation checkFinalProjects(String value, AbstractProject<?, ?> context, SearchDirection direction) {
+            FormValidation validation = AutoCompleteUtils.checkProjectsBatch(value, context);
+            if ((validation.kind != FormValidation.Kind.OK) || (context == null)) {
+                return validation;
+            }
+            
+            String directionName = direction.name().toLowerCase(Locale.ENGLISH) + "stream";
+            ProjectRegion region = RegionCache.getInstance().getRegion(context, direction);
+            
+            // Resolve relative names, such as "../other-job", against the current project first.
+            ImmutableList.Builder<String> finalFullNames = new ImmutableList.Builder<String>();
+            List<String> unreachable = new ArrayList<String>();
+            for (String finalProject : projectsAsStringToImmutableList(value)) {
+                Item item = ProjectResolutionCache.getInstance().resolve(finalProject, context);
+                if ((item instanceof AbstractProject) && region.contains((AbstractProject<?, ?>) item)) {
+                    finalFullNames.add(item.getFullName());
+                }
+                else {
+                    unreachable.add(finalProject);
+                }
+            }
+            
+            int searchSize = region.countSearch(BlockBuild.getFinalPredicate(finalFullNames.build()));
+            int pruned = Math.max(0, region.size() - searchSize);
+            String summary = "The " + directionName + " search covers " + searchSize + " of " + region.size()
+                    + " " + directionName + " projects (" + pruned + " pruned by final projects).";
+            
+            if (!unreachable.isEmpty()) {
+                return FormValidation.warning("Not " + directionName + " of this project, so the search never stops at: "
+                        + StringUtils.join(unreachable, ", ") + ".  " + summary);
+            }
+            if (searchSize > MAX_REGION_SIZE) {
+                return FormValidation.warning(summary + "  Consider final projects closer to this project.");
+            }
+            return FormValidation.ok(summary);
         }
         
     }
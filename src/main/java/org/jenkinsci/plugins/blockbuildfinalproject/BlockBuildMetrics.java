@@ -0,0 +1,215 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, Chad Rosenquist
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.blockbuildfinalproject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+/**
+ * Low-overhead metrics for the cost and outcome of blocking decisions.
+ * 
+ * 1. canRun() latency, for projects that use this plugin.
+ * 2. Number of projects visited by each upstream or downstream search.
+ * 3. RegionCache hits and misses.
+ * 4. Blocked and unblocked counts, in total and per project.
+ * 5. Progress and duration of the StartupWarmUp.
+ * 
+ * Everything is recorded with atomic counters, without locks.
+ * BlockBuildStatusAction exposes the metrics as JSON.
+ * 
+ * @author Chad Rosenquist
+ *
+ */
+final class BlockBuildMetrics {
+    
+    private static final BlockBuildMetrics INSTANCE = new BlockBuildMetrics();
+    
+    // number of projects listed in the JSON, busiest first
+    private static final int TOP_PROJECTS = 50;
+    
+    private final LatencyHistogram canRunLatency = new LatencyHistogram();
+    
+    private final LatencyHistogram nodesVisited = new LatencyHistogram();
+    
+    private final AtomicLong regionCacheHits = new AtomicLong();
+    
+    private final AtomicLong regionCacheMisses = new AtomicLong();
+    
+    private final AtomicLong blocked = new AtomicLong();
+    
+    private final AtomicLong unblocked = new AtomicLong();
+    
+    // project full name -> blocked and unblocked counts
+    private final ConcurrentMap<String, ProjectCounts> projectCounts = new ConcurrentHashMap<String, ProjectCounts>();
+    
+    private BlockBuildMetrics() {
+    }
+    
+    /**
+     * @return the single instance of the metrics
+     */
+    static BlockBuildMetrics getInstance() {
+        return INSTANCE;
+    }
+    
+    /**
+     * Records one canRun() decision.
+     * 
+     * @param projectName   full name of the project the Queue is considering running
+     * @param nanos         time canRun() took
+     * @param wasBlocked    true if the project was blocked
+     */
+    void recordCanRun(String projectName, long nanos, boolean wasBlocked) {
+        canRunLatency.record(nanos);
+        ProjectCounts counts = getProjectCounts(projectName);
+        if (wasBlocked) {
+            blocked.incrementAndGet();
+            counts.blocked.incrementAndGet();
+        }
+        else {
+            unblocked.incrementAndGet();
+            counts.unblocked.incrementAndGet();
+        }
+    }
+    
+    /**
+     * Records the number of projects visited by an upstream or downstream search.
+     * 
+     * @param visited number of projects visited
+     */
+    void recordTraversal(int visited) {
+        nodesVisited.record(visited);
+    }
+    
+    /**
+     * Records a RegionCache lookup.
+     * 
+     * @param hit true if the region was cached
+     */
+    void recordRegionCacheLookup(boolean hit) {
+        if (hit) {
+            regionCacheHits.incrementAndGet();
+        }
+        else {
+            regionCacheMisses.incrementAndGet();
+        }
+    }
+    
+    /**
+     * Forgets a deleted project's counts.
+     * 
+     * @param projectName full name of the project
+     */
+    void removeProject(String projectName) {
+        projectCounts.remove(projectName);
+    }
+    
+    /**
+     * Moves a renamed or moved project's counts to its new name.
+     * 
+     * @param oldFullName full name before the rename or move
+     * @param newFullName full name after the rename or move
+     */
+    void renameProject(String oldFullName, String newFullName) {
+        ProjectCounts oldCounts = projectCounts.remove(oldFullName);
+        if (oldCounts != null) {
+            ProjectCounts newCounts = getProjectCounts(newFullName);
+            newCounts.blocked.addAndGet(oldCounts.blocked.get());
+            newCounts.unblocked.addAndGet(oldCounts.unblocked.get());
+        }
+    }
+    
+    /**
+     * @return all the metrics as JSON
+     */
+    JSONObject toJSON() {
+        JSONObject json = new JSONObject();
+        json.put("canRunNanos", canRunLatency.toJSON());
+        json.put("nodesVisited", nodesVisited.toJSON());
+        
+        JSONObject cache = new JSONObject();
+        long hits = regionCacheHits.get();
+        long misses = regionCacheMisses.get();
+        cache.put("hits", hits);
+        cache.put("misses", misses);
+        cache.put("hitRate", (hits + misses == 0) ? 0.0 : (double) hits / (hits + misses));
+        json.put("regionCache", cache);
+        
+        json.put("blocked", blocked.get());
+        json.put("unblocked", unblocked.get());
+        
+        List<Map.Entry<String, ProjectCounts>> entries = new ArrayList<Map.Entry<String, ProjectCounts>>(projectCounts.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<String, ProjectCounts>>() {
+            @Override
+            public int compare(Map.Entry<String, ProjectCounts> a, Map.Entry<String, ProjectCounts> b) {
+                return Long.compare(b.getValue().blocked.get(), a.getValue().blocked.get());
+            }
+        });
+        JSONArray projects = new JSONArray();
+        for (Map.Entry<String, ProjectCounts> entry : entries.subList(0, Math.min(TOP_PROJECTS, entries.size()))) {
+            JSONObject project = new JSONObject();
+            project.put("name", entry.getKey());
+            project.put("blocked", entry.getValue().blocked.get());
+            project.put("unblocked", entry.getValue().unblocked.get());
+            projects.add(project);
+        }
+        json.put("projects", projects);
+        json.put("warmUp", StartupWarmUp.getInstance().toJSON());
+        return json;
+    }
+    
+    /**
+     * @param projectName full name of a project
+     * @return            the project's counts, created if it has none yet
+     */
+    private ProjectCounts getProjectCounts(String projectName) {
+        ProjectCounts counts = projectCounts.get(projectName);
+        if (counts == null) {
+            ProjectCounts newCounts = new ProjectCounts();
+            counts = projectCounts.putIfAbsent(projectName, newCounts);
+            if (counts == null) {
+                counts = newCounts;
+            }
+        }
+        return counts;
+    }
+    
+    /**
+     * Blocked and unblocked counts for one project.
+     */
+    private static final class ProjectCounts {
+        private final AtomicLong blocked = new AtomicLong();
+        private final AtomicLong unblocked = new AtomicLong();
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, Chad Rosenquist
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.blockbuildfinalproject;
+
+import hudson.Extension;
+import hudson.model.AbstractProject;
+import hudson.model.Cause;
+import hudson.model.Queue;
+import hudson.model.queue.QueueListener;
+
+/**
+ * Listens for items moving through the queue.
+ * 
+ * Items leaving the queue, because they started or were cancelled, close their blocked time in BlockedTimeAccounting.
+ * Items entering and leaving the unblocked part of the queue, and leaving it to build, are reported
+ * to EventDrivenDecisionEngine.
+ * Items entering the queue from outside, not triggered by an upstream build, are logged in QueueArrivalLog.
+ * 
+ * @author Chad Rosenquist
+ *
+ */
+@Extension
+public class BlockBuildQueueListener extends QueueListener {
+
+    @Override
+    public void onEnterWaiting(Queue.WaitingItem wi) {
+        queued(wi, true);
+        if (wi.task instanceof AbstractProject) {
+            for (Cause cause : wi.getCauses()) {
+                if (cause instanceof Cause.UpstreamCause) {
+                    return;
+                }
+            }
+            QueueArrivalLog.getInstance().arrived(((AbstractProject<?, ?>) wi.task).getFullName(), wi.getInQueueSince());
+        }
+    }
+
+    @Override
+    public void onEnterBlocked(Queue.BlockedItem bi) {
+        queued(bi, false);
+    }
+
+    @Override
+    public void onEnterBuildable(Queue.BuildableItem bi) {
+        queued(bi, true);
+    }
+
+    /**
+     * An item that leaves to build is reported as running right away: its build exists, and may be building,
+     * before RunListener.onStarted() is fired.
+     */
+    @Override
+    public void onLeft(Queue.LeftItem li) {
+        BlockedTimeAccounting.getInstance().left(li.getId(), System.nanoTime());
+        if (li.task instanceof AbstractProject) {
+            EventDrivenDecisionEngine.getInstance().left(li.getId(), li.task, !li.isCancelled());
+        }
+    }
+    
+    private static void queued(Queue.Item item, boolean isUnblocked) {
+        if (item.task instanceof AbstractProject) {
+            EventDrivenDecisionEngine.getInstance().queued(item.getId(), item.task, isUnblocked);
+        }
+    }
+}
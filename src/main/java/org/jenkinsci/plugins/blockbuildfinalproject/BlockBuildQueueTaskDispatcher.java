@@ -24,6 +24,7 @@
 
 package org.jenkinsci.plugins.blockbuildfinalproject;
 
+import java.util.List;
 import java.util.logging.Logger;
 
 import hudson.Extension;
@@ -39,6 +40,11 @@ import hudson.model.queue.QueueTaskDispatcher;
  * canRun() on all the QueueTaskDispatcher objects.  If any of the
  * canRun()'s return non-null, the item will not run.
  * 
+ * Decisions are made by the engine selected in DecisionEngines.  If shadow mode is on, decisions are made
+ * by the reference engine and also handed to ShadowEvaluator, which repeats them with the candidate engine
+ * on another thread.  Until StartupWarmUp is done, decisions are made by the reference engine,
+ * which needs nothing warmed up.
+ * 
  * @author Chad Rosenquist
  *
  */
@@ -68,21 +74,77 @@ public class BlockBuildQueueTaskDispatcher extends QueueTaskDispatcher {
         }
         
         AbstractProject<?, ?> project = (AbstractProject<?, ?>) item.task;
-        CauseOfBlockage blockage = null;
-        BlockBuild blockBuild = new BlockBuild(project);
         
-        // Use BlockBuild object to check for upstream projects building.
-        blockage = blockBuild.checkBuildingUpstream();
+        // Nothing to measure for projects that don't use this plugin.
+        BlockBuildJobProperty property = BlockBuildJobProperty.getBlockBuildJobPropertyFromProject(project);
+        if ((property == null)
+            || (!property.isUseBlockBuildUpstreamProject() && !property.isUseBlockBuildDownstreamProject())) {
+            return super.canRun(item);
+        }
+        
+        long start = System.nanoTime();
+        ShadowEvaluator shadow = ShadowEvaluator.getInstance();
+        JenkinsBlockGraph graph = new JenkinsBlockGraph(JenkinsWrapper.getUnblockedTasks());
+        long version = 0;
+        if (shadow.isEnabled()) {
+            // The candidate runs later, so it needs the building projects as they are now.
+            // This costs a pass over the executors, under the Queue lock; see ShadowEvaluator.
+            graph = graph.snapshot();
+            version = graph.getVersion();
+        }
+        DecisionEngine engine = (shadow.isEnabled() || !StartupWarmUp.getInstance().isDone())
+                                ? ReferenceDecisionEngine.getInstance() : DecisionEngines.getInstance().getActive();
+        BlockBuild blockBuild = new BlockBuild(project, graph, engine);
+        CauseOfBlockage blockage = checkBlocking(blockBuild);
+        long nanos = System.nanoTime() - start;
+        BlockBuildMetrics.getInstance().recordCanRun(project.getFullName(), nanos, blockage != null);
+        
+        AbstractProject<?, ?> blocker = blockBuild.getBlocker();
+        List<BlockBuildEventListener> listeners = BlockBuildEventListener.all();
+        if (!listeners.isEmpty()) {
+            BlockBuildEventListener.fireDecision(listeners, new BlockBuildEventListener.BlockBuildDecision(
+                    project.getFullName(), engine.getName(), nanos, (blocker == null) ? null : blocker.getFullName()));
+        }
+        if (shadow.isEnabled()) {
+            shadow.submit(graph, version, project,
+                    property.isUseBlockBuildUpstreamProject()
+                        ? BlockBuild.getFinalPredicate(property.getFinalUpstreamProjectsAsList()) : null,
+                    property.isUseBlockBuildDownstreamProject()
+                        ? BlockBuild.getFinalPredicate(property.getFinalDownstreamProjectsAsList()) : null,
+                    blocker, nanos, JenkinsBlockGraph.FULL_NAME);
+        }
+        DecisionTrace.getInstance().record(item.getId(), project.getFullName(),
+                (blocker == null) ? null : blocker.getFullName(), blockBuild.getPathToBlocker(),
+                nanos, RegionCache.getInstance().getLastEpoch());
+        if (blocker == null) {
+            BlockedTimeAccounting.getInstance().unblocked(item.getId(), start);
+        }
+        else {
+            BlockedTimeAccounting.getInstance().blocked(item.getId(), project.getFullName(), blocker.getFullName(), start);
+        }
+        
         if (blockage != null) {
             return blockage;
         }
+        return super.canRun(item);
+    }
+    
+    /**
+     * Checks upstream, then downstream projects.
+     * 
+     * @param blockBuild the BlockBuild for the project the Queue is considering running
+     * @return           null if the project can run, otherwise the first CauseOfBlockage found
+     */
+    private CauseOfBlockage checkBlocking(BlockBuild blockBuild) {
+        CauseOfBlockage blockage = null;
         
-        // Use BlockBuild object to check for downstream projects building.
-        blockage = blockBuild.checkBuildingDownstream();
+        // Use BlockBuild object to check for upstream projects building.
+        blockage = blockBuild.checkBuildingUpstream();
         if (blockage != null) {
             return blockage;
         }
         
-        return super.canRun(item);
+        // Use BlockBuild object to check for downstream projects building.
+        return blockBuild.checkBuildingDownstream();
     }
 }
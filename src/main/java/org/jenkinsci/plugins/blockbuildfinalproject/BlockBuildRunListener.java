@@ -0,0 +1,51 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, Chad Rosenquist
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.blockbuildfinalproject;
+
+import hudson.Extension;
+import hudson.model.AbstractBuild;
+import hudson.model.Run;
+import hudson.model.listeners.RunListener;
+
+/**
+ * Listens for builds being finalized, and reports them to EventDrivenDecisionEngine.
+ * 
+ * A build is reported running by BlockBuildQueueListener when its item leaves the queue, and counts as running
+ * until it's finalized.  AbstractProject.isBuilding() already turns false at POST_PRODUCTION, before that,
+ * so the engine may keep a project a little longer than the graph says it's busy; the graph confirms it.
+ * 
+ * @author Chad Rosenquist
+ *
+ */
+@Extension
+public class BlockBuildRunListener extends RunListener<Run<?, ?>> {
+
+    @Override
+    public void onFinalized(Run<?, ?> run) {
+        if (run instanceof AbstractBuild) {
+            EventDrivenDecisionEngine.getInstance().finished(((AbstractBuild<?, ?>) run).getProject());
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, Chad Rosenquist
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.blockbuildfinalproject;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.IOUtils;
+import org.kohsuke.args4j.Option;
+
+import hudson.Extension;
+import hudson.cli.CLICommand;
+import jenkins.model.Jenkins;
+import net.sf.json.JSONObject;
+
+/**
+ * CLI command that replays a queue trace with QueueReplaySimulator, as recorded and with
+ * an alternative final project configuration, and prints both results as JSON.
+ * 
+ * {@code java -jar jenkins-cli.jar block-build-simulate < input.json}
+ * 
+ * The input is {"trace": {...}, "alternative": {"projects": [...]}}.  If "trace" is missing, it is recorded
+ * from this Jenkins for the last -hours hours.  If "alternative" is missing, only the recorded configuration runs.
+ * 
+ * Only administrators can run it.
+ * 
+ * @author Chad Rosenquist
+ *
+ */
+@Extension
+public class BlockBuildSimulateCommand extends CLICommand {
+    
+    @Option(name = "-hours", usage = "Hours of builds to record when the input has no trace.  Defaults to 24.")
+    public int hours = 24;
+
+    @Override
+    public String getShortDescription() {
+        return "Replays a queue trace with a different Block Build Final Project configuration.";
+    }
+
+    @Override
+    protected int run() throws Exception {
+        Jenkins jenkins = Jenkins.getInstance();
+        assert jenkins != null;
+        jenkins.checkPermission(Jenkins.ADMINISTER);
+        
+        String input = IOUtils.toString(stdin, "UTF-8").trim();
+        JSONObject request = input.isEmpty() ? new JSONObject() : JSONObject.fromObject(input);
+        JSONObject trace = request.optJSONObject("trace");
+        if ((trace == null) || trace.isNullObject()) {
+            trace = ReplayTraceRecorder.record(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(hours));
+        }
+        
+        QueueReplaySimulator simulator = QueueReplaySimulator.fromJSON(trace);
+        JSONObject result = new JSONObject();
+        result.put("recorded", simulator.run().toJSON());
+        JSONObject alternative = request.optJSONObject("alternative");
+        if ((alternative != null) && !alternative.isNullObject()) {
+            result.put("alternative", simulator.withConfiguration(alternative).run().toJSON());
+        }
+        stdout.println(result.toString(2));
+        return 0;
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, Chad Rosenquist
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.blockbuildfinalproject;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.RootAction;
+import jenkins.model.Jenkins;
+import net.sf.json.JSONObject;
+
+/**
+ * Exposes what this plugin is doing as JSON, for administrators.
+ * 
+ * {@code JENKINS_URL/block-build-final-project/metrics} - canRun() latency, search sizes,
+ * cache hit rates and blocked/unblocked counts per project.  See BlockBuildMetrics.
+ * {@code JENKINS_URL/block-build-final-project/trace?project=NAME&limit=N} - the most recent
+ * blocking decisions, newest first.  Both parameters are optional.  See DecisionTrace.
+ * {@code JENKINS_URL/block-build-final-project/blockedTime?limit=N} - queue time lost to blocking,
+ * for the N projects that waited the most and the N projects that made others wait the most.
+ * See BlockedTimeAccounting.
+ * {@code JENKINS_URL/block-build-final-project/engine} - the blocking engine making the decisions,
+ * and the one selected if it's still warming up.  See DecisionEngines.
+ * {@code JENKINS_URL/block-build-final-project/shadow} - how a candidate engine running in shadow
+ * compares with the reference engine: counters, latencies and recent mismatches.  See ShadowEvaluator.
+ * {@code JENKINS_URL/block-build-final-project/replayTrace?hours=N} - a trace of the last N hours
+ * (default 24) for QueueReplaySimulator and the block-build-simulate CLI command.
+ * 
+ * The action is not shown in the side panel.
+ * 
+ * @author Chad Rosenquist
+ *
+ */
+@Extension
+public class BlockBuildStatusAction implements RootAction {
+    
+    // number of entries returned when the request does not say
+    private static final int DEFAULT_LIMIT = 100;
+    
+    // hours of builds in a replay trace when the request does not say
+    private static final int DEFAULT_TRACE_HOURS = 24;
+    
+    @Override
+    public String getIconFileName() {
+        return null;
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "Block Build Final Project";
+    }
+
+    @Override
+    public String getUrlName() {
+        return "block-build-final-project";
+    }
+    
+    /**
+     * Writes the metrics as JSON.
+     * 
+     * @param req the request
+     * @param rsp the response
+     * @throws IOException if the response cannot be written
+     */
+    public void doMetrics(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        writeJSON(rsp, BlockBuildMetrics.getInstance().toJSON());
+    }
+    
+    /**
+     * Writes the most recent blocking decisions as JSON.
+     * 
+     * @param req the request, with the optional parameters project and limit
+     * @param rsp the response
+     * @throws IOException if the response cannot be written
+     */
+    public void doTrace(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        String project = Util.fixEmptyAndTrim(req.getParameter("project"));
+        int limit = parseLimit(req.getParameter("limit"), DEFAULT_LIMIT);
+        writeJSON(rsp, DecisionTrace.getInstance().toJSON(project, limit));
+    }
+    
+    /**
+     * Writes the blocked time, per project and per blocker, as JSON.
+     * 
+     * @param req the request, with the optional parameter limit
+     * @param rsp the response
+     * @throws IOException if the response cannot be written
+     */
+    public void doBlockedTime(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        int limit = parseLimit(req.getParameter("limit"), DEFAULT_LIMIT);
+        writeJSON(rsp, BlockedTimeAccounting.getInstance().toJSON(limit));
+    }
+    
+    /**
+     * Writes the active and selected blocking engines as JSON.
+     * 
+     * @param req the request
+     * @param rsp the response
+     * @throws IOException if the response cannot be written
+     */
+    public void doEngine(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        writeJSON(rsp, DecisionEngines.getInstance().toJSON());
+    }
+    
+    /**
+     * Writes the shadow mode comparison as JSON.
+     * 
+     * @param req the request
+     * @param rsp the response
+     * @throws IOException if the response cannot be written
+     */
+    public void doShadow(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        writeJSON(rsp, ShadowEvaluator.getInstance().toJSON());
+    }
+    
+    /**
+     * Writes a trace of the job graph and recent builds, for QueueReplaySimulator.
+     * 
+     * @param req the request, with the optional parameter hours
+     * @param rsp the response
+     * @throws IOException if the response cannot be written
+     */
+    public void doReplayTrace(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        Jenkins jenkins = Jenkins.getInstance();
+        assert jenkins != null;
+        jenkins.checkPermission(Jenkins.ADMINISTER);
+        
+        int hours = parseLimit(req.getParameter("hours"), DEFAULT_TRACE_HOURS);
+        writeJSON(rsp, ReplayTraceRecorder.record(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(hours)));
+    }
+    
+    /**
+     * @param value        the limit parameter
+     * @param defaultLimit returned if value is missing or not a positive number
+     * @return             the limit
+     */
+    private static int parseLimit(String value, int defaultLimit) {
+        try {
+            int limit = Integer.parseInt(Util.fixNull(value).trim());
+            return (limit > 0) ? limit : defaultLimit;
+        }
+        catch (NumberFormatException e) {
+            return defaultLimit;
+        }
+    }
+    
+    /**
+     * Checks the user is an administrator, then writes JSON to the response.
+     * 
+     * @param rsp  the response
+     * @param json the JSON
+     * @throws IOException if the response cannot be written
+     */
+    private static void writeJSON(StaplerResponse rsp, JSONObject json) throws IOException {
+        Jenkins jenkins = Jenkins.getInstance();
+        assert jenkins != null;
+        jenkins.checkPermission(Jenkins.ADMINISTER);
+        
+        rsp.setContentType("application/json;charset=UTF-8");
+        rsp.getWriter().print(json.toString(2));
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, Chad Rosenquist
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.blockbuildfinalproject;
+
+import org.kohsuke.args4j.Option;
+
+import hudson.Extension;
+import hudson.cli.CLICommand;
+import jenkins.model.Jenkins;
+
+/**
+ * CLI command that prints the most recent blocking decisions from DecisionTrace as JSON.
+ * 
+ * {@code java -jar jenkins-cli.jar block-build-trace -project my-folder/my-job -limit 10}
+ * 
+ * Only administrators can run it.
+ * 
+ * @author Chad Rosenquist
+ *
+ */
+@Extension
+public class BlockBuildTraceCommand extends CLICommand {
+    
+    @Option(name = "-project", usage = "Only show decisions for this project (full name).")
+    public String project;
+    
+    @Option(name = "-limit", usage = "Maximum number of decisions to show.  Defaults to 20.")
+    public int limit = 20;
+
+    @Override
+    public String getShortDescription() {
+        return "Shows the most recent Block Build Final Project decisions: blocker, path, timing and epoch.";
+    }
+
+    @Override
+    protected int run() throws Exception {
+        Jenkins jenkins = Jenkins.getInstance();
+        assert jenkins != null;
+        jenkins.checkPermission(Jenkins.ADMINISTER);
+        
+        stdout.println(DecisionTrace.getInstance().toJSON(project, limit).toString(2));
+        return 0;
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, Chad Rosenquist
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.blockbuildfinalproject;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.jenkinsci.plugins.blockbuildfinalproject.BlockBuild.SearchDirection;
+
+import com.google.common.base.Function;
+import com.google.common.base.Predicate;
+
+/**
+ * Decides if a node is blocked: searches upstream or downstream, stopping at final nodes,
+ * and looks for a busy node in what it found.
+ * 
+ * This is the logic behind BlockBuild.checkBuildingUpstream() and checkBuildingDownstream(),
+ * written against BlockGraph instead of Jenkins.
+ * 
+ * @author Chad Rosenquist
+ *
+ */
+final class BlockEngine {
+    
+    private BlockEngine() {
+    }
+    
+    /**
+     * Evaluates one node in one direction.
+     * 
+     * @param graph     the graph
+     * @param start     the node that wants to build
+     * @param direction UP to check the upstream nodes, DOWN to check the downstream nodes
+     * @param isFinal   true for the nodes the search stops at
+     * @return          the evaluation.  Its blocker is null if no node found is busy.
+     */
+    static <N> Evaluation<N> evaluate(final BlockGraph<N> graph, N start, final SearchDirection direction,
+                                      Predicate<? super N> isFinal) {
+        Map<N, N> parents = TransitiveSearch.search(start,
+                new Function<N, Iterable<? extends N>>() {
+                    @Override
+                    public Iterable<? extends N> apply(N node) {
+                        return graph.getNeighbours(node, direction);
+                    }
+                },
+                isFinal);
+        
+        for (N node : parents.keySet()) {
+            if (!node.equals(start) && graph.isBusy(node)) {
+                return new Evaluation<N>(start, node, parents);
+            }
+        }
+        return new Evaluation<N>(start, null, parents);
+    }
+    
+    /**
+     * The result of evaluating one node.  Immutable.
+     * 
+     * @param <N> the node type
+     */
+    static final class Evaluation<N> {
+        private final N start;
+        private final N blocker;
+        private final Map<N, N> parents;
+        
+        Evaluation(N start, N blocker, Map<N, N> parents) {
+            this.start = start;
+            this.blocker = blocker;
+            this.parents = parents;
+        }
+        
+        /**
+         * @return the busy node found, or null if not blocked
+         */
+        N getBlocker() {
+            return blocker;
+        }
+        
+        /**
+         * @return number of nodes the search found
+         */
+        int getVisited() {
+            return parents.size();
+        }
+        
+        /**
+         * @return each node found -> the node it was reached from.  Do not modify.
+         */
+        Map<N, N> getParents() {
+            return parents;
+        }
+        
+        /**
+         * Follows the parent pointers back from a node.
+         * 
+         * @param found a node found by the search
+         * @return      the nodes from start to found, both included
+         */
+        List<N> getPath(N found) {
+            ArrayDeque<N> path = new ArrayDeque<N>();
+            N current = found;
+            // Each parent was found before its child, so the pointers lead back to start.
+            while ((current != null) && !current.equals(start)) {
+                path.addFirst(current);
+                current = parents.get(current);
+            }
+            path.addFirst(start);
+            return new ArrayList<N>(path);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, Chad Rosenquist
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.blockbuildfinalproject;
+
+import org.jenkinsci.plugins.blockbuildfinalproject.BlockBuild.SearchDirection;
+
+/**
+ * What BlockEngine needs to know about the projects: who triggers whom, and who is busy.
+ * 
+ * JenkinsBlockGraph adapts Jenkins' projects and queue.  Tests and benchmarks implement it
+ * in memory, so the engine runs without Jenkins.
+ * 
+ * @param <N> the node type.  Nodes are compared with equals() and hashCode().
+ * 
+ * @author Chad Rosenquist
+ *
+ */
+interface BlockGraph<N> {
+    
+    /**
+     * @param node      a node
+     * @param direction UP for the nodes that trigger node, DOWN for the nodes node triggers
+     * @return          the nodes directly upstream or downstream of node
+     */
+    Iterable<? extends N> getNeighbours(N node, SearchDirection direction);
+    
+    /**
+     * @return every node, for engines that index the whole graph.  Nodes only reachable as neighbours may be missing.
+     */
+    Iterable<? extends N> getAllNodes();
+    
+    /**
+     * @param node a node
+     * @return     true if node is building, or is in the queue and about to build
+     */
+    boolean isBusy(N node);
+    
+    /**
+     * @return a number that changes whenever the edges change.  Graphs with the same version have the same edges,
+     *         so engines that cache searches know when they are stale.
+     */
+    long getVersion();
+}
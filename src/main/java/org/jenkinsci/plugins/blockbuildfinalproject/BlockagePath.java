@@ -0,0 +1,125 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, Chad Rosenquist
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.blockbuildfinalproject;
+
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+
+import hudson.model.AbstractProject;
+
+/**
+ * CauseOfBlockage that also shows the dependency path from the blocked project to the building project.
+ * 
+ * With large regions, the name of the building project alone doesn't say why it is in the region at all.
+ * The path shows which triggers lead to it, so a final project can be added to cut the region.
+ * 
+ * Extends Jenkins' own causes, so anything that checks for them still works, and the message
+ * is unchanged when the building project is a direct upstream or downstream project.  The path is
+ * only turned into text when the message is shown.
+ * 
+ * @author Chad Rosenquist
+ *
+ */
+public final class BlockagePath {
+    
+    private BlockagePath() {
+    }
+    
+    /**
+     * Blocked because a transitive upstream project is building.
+     */
+    public static class Upstream extends AbstractProject.BecauseOfUpstreamBuildInProgress {
+        private final ImmutableList<AbstractProject<?, ?>> path;
+        
+        /**
+         * @param path the projects from the blocked project to the building project, both included
+         */
+        public Upstream(List<AbstractProject<?, ?>> path) {
+            super(path.get(path.size() - 1));
+            this.path = ImmutableList.copyOf(path);
+        }
+        
+        /**
+         * @return the projects from the blocked project to the building project
+         */
+        public ImmutableList<AbstractProject<?, ?>> getPath() {
+            return path;
+        }
+        
+        @Override
+        public String getShortDescription() {
+            return render(super.getShortDescription(), path);
+        }
+    }
+    
+    /**
+     * Blocked because a transitive downstream project is building.
+     */
+    public static class Downstream extends AbstractProject.BecauseOfDownstreamBuildInProgress {
+        private final ImmutableList<AbstractProject<?, ?>> path;
+        
+        /**
+         * @param path the projects from the blocked project to the building project, both included
+         */
+        public Downstream(List<AbstractProject<?, ?>> path) {
+            super(path.get(path.size() - 1));
+            this.path = ImmutableList.copyOf(path);
+        }
+        
+        /**
+         * @return the projects from the blocked project to the building project
+         */
+        public ImmutableList<AbstractProject<?, ?>> getPath() {
+            return path;
+        }
+        
+        @Override
+        public String getShortDescription() {
+            return render(super.getShortDescription(), path);
+        }
+    }
+    
+    /**
+     * Appends the path to Jenkins' message, if there are projects between the blocked and the building project.
+     * 
+     * @param message Jenkins' message
+     * @param path    the projects from the blocked project to the building project
+     * @return        for example "Downstream project c is already building. Path: a -> b -> c"
+     */
+    static String render(String message, List<AbstractProject<?, ?>> path) {
+        if (path.size() <= 2) {
+            return message;
+        }
+        StringBuilder builder = new StringBuilder(message).append(" Path: ");
+        for (int i = 0; i < path.size(); i++) {
+            if (i > 0) {
+                builder.append(" -> ");
+            }
+            builder.append(path.get(i).getFullName());
+        }
+        return builder.toString();
+    }
+}
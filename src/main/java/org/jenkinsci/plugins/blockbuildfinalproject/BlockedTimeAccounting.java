@@ -0,0 +1,288 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, Chad Rosenquist
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.blockbuildfinalproject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+/**
+ * Accounts for the queue time this plugin costs, and which projects are responsible.
+ * 
+ * BlockBuildQueueTaskDispatcher reports each canRun() decision.  While a queue item is blocked
+ * by an upstream or downstream build, the time is charged to the blocked project and to the blocking project.
+ * If the blocker changes, the time up to the change is charged to the old blocker.
+ * When the item leaves the queue (BlockBuildQueueListener), the open interval is closed and the
+ * item's total blocked time is recorded in a histogram.
+ * 
+ * Only the items in the queue have an open interval.  Totals are a pair of AtomicLongs per project.
+ * 
+ * @author Chad Rosenquist
+ *
+ */
+final class BlockedTimeAccounting {
+    
+    private static final BlockedTimeAccounting INSTANCE = new BlockedTimeAccounting();
+    
+    // queue item id -> blocked time of the item
+    private final ConcurrentMap<Long, ItemInterval> openItems = new ConcurrentHashMap<Long, ItemInterval>();
+    
+    // blocked project full name -> time it waited
+    private final ConcurrentMap<String, Totals> byProject = new ConcurrentHashMap<String, Totals>();
+    
+    // blocking project full name -> time it made other projects wait
+    private final ConcurrentMap<String, Totals> byBlocker = new ConcurrentHashMap<String, Totals>();
+    
+    // total blocked milliseconds of each item that left the queue after being blocked
+    private final LatencyHistogram itemBlockedMillis = new LatencyHistogram();
+    
+    private final AtomicLong totalBlockedNanos = new AtomicLong();
+    
+    BlockedTimeAccounting() {
+    }
+    
+    /**
+     * @return the single instance
+     */
+    static BlockedTimeAccounting getInstance() {
+        return INSTANCE;
+    }
+    
+    /**
+     * Records that an item is blocked.
+     * 
+     * @param itemId      id of the Queue.Item
+     * @param projectName full name of the blocked project
+     * @param blockerName full name of the building project blocking it
+     * @param now         System.nanoTime()
+     */
+    void blocked(long itemId, String projectName, String blockerName, long now) {
+        ItemInterval interval = openItems.get(itemId);
+        if (interval == null) {
+            ItemInterval newInterval = new ItemInterval(projectName);
+            interval = openItems.putIfAbsent(itemId, newInterval);
+            if (interval == null) {
+                interval = newInterval;
+            }
+        }
+        synchronized (interval) {
+            if (!blockerName.equals(interval.blocker)) {
+                close(interval, now);
+                interval.blocker = blockerName;
+                interval.since = now;
+            }
+        }
+    }
+    
+    /**
+     * Records that an item is no longer blocked by this plugin.
+     * 
+     * @param itemId id of the Queue.Item
+     * @param now    System.nanoTime()
+     */
+    void unblocked(long itemId, long now) {
+        ItemInterval interval = openItems.get(itemId);
+        if (interval != null) {
+            synchronized (interval) {
+                close(interval, now);
+            }
+        }
+    }
+    
+    /**
+     * Records that an item left the queue, because it started or was cancelled.
+     * 
+     * @param itemId id of the Queue.Item
+     * @param now    System.nanoTime()
+     */
+    void left(long itemId, long now) {
+        ItemInterval interval = openItems.remove(itemId);
+        if (interval != null) {
+            synchronized (interval) {
+                close(interval, now);
+                itemBlockedMillis.record(TimeUnit.NANOSECONDS.toMillis(interval.total));
+                getTotals(byProject, interval.project).items.incrementAndGet();
+            }
+        }
+    }
+    
+    /**
+     * Forgets a deleted project's totals.
+     * 
+     * @param projectName full name of the project
+     */
+    void removeProject(String projectName) {
+        byProject.remove(projectName);
+        byBlocker.remove(projectName);
+    }
+    
+    /**
+     * Moves a renamed or moved project's totals, and its items in the queue, to its new name.
+     * 
+     * @param oldFullName full name before the rename or move
+     * @param newFullName full name after the rename or move
+     */
+    void renameProject(String oldFullName, String newFullName) {
+        for (ItemInterval interval : openItems.values()) {
+            synchronized (interval) {
+                if (oldFullName.equals(interval.project)) {
+                    interval.project = newFullName;
+                }
+                if (oldFullName.equals(interval.blocker)) {
+                    interval.blocker = newFullName;
+                }
+            }
+        }
+        moveTotals(byProject, oldFullName, newFullName);
+        moveTotals(byBlocker, oldFullName, newFullName);
+    }
+    
+    /**
+     * @param projectName full name of a project
+     * @return            nanoseconds the project has waited because of this plugin, not counting open intervals
+     */
+    long getBlockedNanos(String projectName) {
+        Totals totals = byProject.get(projectName);
+        return (totals == null) ? 0 : totals.nanos.get();
+    }
+    
+    /**
+     * @param blockerName full name of a project
+     * @return            nanoseconds the project has made others wait, not counting open intervals
+     */
+    long getBlockingNanos(String blockerName) {
+        Totals totals = byBlocker.get(blockerName);
+        return (totals == null) ? 0 : totals.nanos.get();
+    }
+    
+    /**
+     * @param limit number of projects and blockers listed
+     * @return      totals, the per-item histogram, and the top blocked projects and blockers as JSON
+     */
+    JSONObject toJSON(int limit) {
+        JSONObject json = new JSONObject();
+        json.put("totalBlockedMillis", TimeUnit.NANOSECONDS.toMillis(totalBlockedNanos.get()));
+        json.put("itemsInQueue", openItems.size());
+        json.put("itemBlockedMillis", itemBlockedMillis.toJSON());
+        json.put("projects", topToJSON(byProject, limit));
+        json.put("blockers", topToJSON(byBlocker, limit));
+        return json;
+    }
+    
+    /**
+     * Charges the time since the interval's blocker started blocking, then marks it unblocked.
+     * The caller holds the interval's lock.
+     */
+    private void close(ItemInterval interval, long now) {
+        if (interval.blocker == null) {
+            return;
+        }
+        long elapsed = Math.max(0, now - interval.since);
+        interval.total += elapsed;
+        totalBlockedNanos.addAndGet(elapsed);
+        getTotals(byProject, interval.project).nanos.addAndGet(elapsed);
+        getTotals(byBlocker, interval.blocker).nanos.addAndGet(elapsed);
+        interval.blocker = null;
+    }
+    
+    private static Totals getTotals(ConcurrentMap<String, Totals> map, String name) {
+        Totals totals = map.get(name);
+        if (totals == null) {
+            Totals newTotals = new Totals();
+            totals = map.putIfAbsent(name, newTotals);
+            if (totals == null) {
+                totals = newTotals;
+            }
+        }
+        return totals;
+    }
+    
+    /**
+     * Adds the totals under oldName to the totals under newName, and removes oldName.
+     */
+    private static void moveTotals(ConcurrentMap<String, Totals> map, String oldName, String newName) {
+        Totals oldTotals = map.remove(oldName);
+        if (oldTotals != null) {
+            Totals newTotals = getTotals(map, newName);
+            newTotals.nanos.addAndGet(oldTotals.nanos.get());
+            newTotals.items.addAndGet(oldTotals.items.get());
+        }
+    }
+    
+    private static JSONArray topToJSON(ConcurrentMap<String, Totals> map, int limit) {
+        List<Map.Entry<String, Totals>> entries = new ArrayList<Map.Entry<String, Totals>>(map.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<String, Totals>>() {
+            @Override
+            public int compare(Map.Entry<String, Totals> a, Map.Entry<String, Totals> b) {
+                return Long.compare(b.getValue().nanos.get(), a.getValue().nanos.get());
+            }
+        });
+        JSONArray top = new JSONArray();
+        for (Map.Entry<String, Totals> entry : entries.subList(0, Math.min(limit, entries.size()))) {
+            JSONObject project = new JSONObject();
+            project.put("name", entry.getKey());
+            project.put("blockedMillis", TimeUnit.NANOSECONDS.toMillis(entry.getValue().nanos.get()));
+            project.put("items", entry.getValue().items.get());
+            top.add(project);
+        }
+        return top;
+    }
+    
+    /**
+     * Blocked time of one queue item.  Guarded by its own lock.
+     */
+    private static final class ItemInterval {
+        // blocked project, renamed by renameProject()
+        private String project;
+        // project blocking the item now, or null if not blocked
+        private String blocker = null;
+        // System.nanoTime() when blocker started blocking
+        private long since = 0;
+        // blocked nanoseconds of the closed intervals
+        private long total = 0;
+        
+        private ItemInterval(String project) {
+            this.project = project;
+        }
+    }
+    
+    /**
+     * Blocked nanoseconds and items for one project.
+     * For a blocker, items is not counted.
+     */
+    private static final class Totals {
+        private final AtomicLong nanos = new AtomicLong();
+        private final AtomicLong items = new AtomicLong();
+    }
+}
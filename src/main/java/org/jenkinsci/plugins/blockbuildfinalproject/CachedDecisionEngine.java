@@ -0,0 +1,225 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, Chad Rosenquist
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.blockbuildfinalproject;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.jenkinsci.plugins.blockbuildfinalproject.BlockBuild.SearchDirection;
+
+import com.google.common.base.Function;
+import com.google.common.base.Predicate;
+
+/**
+ * A DecisionEngine that remembers the nodes found by each search, so only the busy check is done again.
+ * 
+ * The nodes found depend only on the edges, the start node, the direction and the final nodes,
+ * so they are cached under (start, direction, isFinal) until the graph's version changes.
+ * Then the whole cache is dropped.  The least recently used searches are dropped once more than
+ * MAX_ENTRIES are cached.  Set the system property
+ * org.jenkinsci.plugins.blockbuildfinalproject.CachedDecisionEngine.maxEntries to change it.
+ * 
+ * @author Chad Rosenquist
+ *
+ */
+final class CachedDecisionEngine implements DecisionEngine {
+    
+    private static final int MAX_ENTRIES = Integer.getInteger(CachedDecisionEngine.class.getName() + ".maxEntries", 4096);
+    
+    private static final CachedDecisionEngine INSTANCE = new CachedDecisionEngine(MAX_ENTRIES);
+    
+    // (start, direction, isFinal) -> nodes found -> the node each was reached from.  Guarded by this.
+    private final Map<SearchKey, Map<?, ?>> searches;
+    
+    // version of the graph the searches were done on.  Guarded by this.
+    private long version = Long.MIN_VALUE;
+    
+    /**
+     * Constructor
+     * 
+     * @param maxEntries number of searches kept
+     */
+    CachedDecisionEngine(final int maxEntries) {
+        searches = new LinkedHashMap<SearchKey, Map<?, ?>>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<SearchKey, Map<?, ?>> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+    
+    /**
+     * @return the single instance of the engine
+     */
+    static CachedDecisionEngine getInstance() {
+        return INSTANCE;
+    }
+    
+    /**
+     * @return number of searches kept by the single instance
+     */
+    static int getMaxEntries() {
+        return MAX_ENTRIES;
+    }
+    
+    @Override
+    public String getName() {
+        return "cached";
+    }
+
+    @Override
+    public <N> BlockEngine.Evaluation<N> evaluate(BlockGraph<N> graph, N start, SearchDirection direction,
+                                                  Predicate<? super N> isFinal) {
+        Map<N, N> parents = search(graph, start, direction, isFinal);
+        for (N node : parents.keySet()) {
+            if (!node.equals(start) && graph.isBusy(node)) {
+                return new BlockEngine.Evaluation<N>(start, node, parents);
+            }
+        }
+        return new BlockEngine.Evaluation<N>(start, null, parents);
+    }
+    
+    /**
+     * Nothing to build ahead: searches are cached as decisions are made.  Drops searches done on older graphs.
+     */
+    @Override
+    public synchronized <N> void warmUp(BlockGraph<N> graph) {
+        checkVersion(graph.getVersion());
+    }
+    
+    /**
+     * The cached searches are checked against the graph's version, so the engine itself.
+     */
+    @Override
+    public DecisionEngine snapshot() {
+        return this;
+    }
+    
+    /**
+     * Finds the nodes reachable from start, like TransitiveSearch, or returns them from the cache.
+     * 
+     * @param graph     the graph
+     * @param start     the node to search from
+     * @param direction UP or DOWN
+     * @param isFinal   true for the nodes the search stops at
+     * @return          each node found -> the node it was reached from.  Do not modify.
+     */
+    <N> Map<N, N> search(final BlockGraph<N> graph, N start, final SearchDirection direction,
+                         Predicate<? super N> isFinal) {
+        SearchKey key = new SearchKey(start, direction, isFinal);
+        long graphVersion = graph.getVersion();
+        Map<N, N> parents = get(key, graphVersion);
+        if (parents == null) {
+            parents = TransitiveSearch.search(start,
+                    new Function<N, Iterable<? extends N>>() {
+                        @Override
+                        public Iterable<? extends N> apply(N node) {
+                            return graph.getNeighbours(node, direction);
+                        }
+                    },
+                    isFinal);
+            put(key, graphVersion, parents);
+        }
+        return parents;
+    }
+    
+    /**
+     * Drops every cached search.
+     */
+    @Override
+    public synchronized void clear() {
+        searches.clear();
+    }
+    
+    /**
+     * @return number of searches cached
+     */
+    synchronized int size() {
+        return searches.size();
+    }
+    
+    /**
+     * @return the cached search, or null if it's not cached or was done on another version of the graph
+     */
+    @SuppressWarnings("unchecked")
+    private synchronized <N> Map<N, N> get(SearchKey key, long graphVersion) {
+        if (!checkVersion(graphVersion)) {
+            return null;
+        }
+        return (Map<N, N>) searches.get(key);
+    }
+    
+    /**
+     * Drops every cached search if the graph's version changed.
+     * 
+     * @return true if the cached searches were done on this version of the graph
+     */
+    private synchronized boolean checkVersion(long graphVersion) {
+        if (graphVersion != version) {
+            searches.clear();
+            version = graphVersion;
+            return false;
+        }
+        return true;
+    }
+    
+    private synchronized void put(SearchKey key, long graphVersion, Map<?, ?> parents) {
+        // Don't cache a search done on a graph that was replaced in the meantime.
+        if (graphVersion == version) {
+            searches.put(key, parents);
+        }
+    }
+    
+    /**
+     * Key of a cached search.  Immutable.
+     */
+    private static final class SearchKey {
+        private final Object start;
+        private final SearchDirection direction;
+        private final Object isFinal;
+        
+        SearchKey(Object start, SearchDirection direction, Object isFinal) {
+            this.start = start;
+            this.direction = direction;
+            this.isFinal = isFinal;
+        }
+        
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof SearchKey)) {
+                return false;
+            }
+            SearchKey key = (SearchKey) other;
+            return start.equals(key.start) && (direction == key.direction) && isFinal.equals(key.isFinal);
+        }
+        
+        @Override
+        public int hashCode() {
+            return (start.hashCode() * 31 + direction.hashCode()) * 31 + isFinal.hashCode();
+        }
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, Chad Rosenquist
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.blockbuildfinalproject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Logger;
+
+import hudson.Extension;
+import hudson.model.AbstractProject;
+import hudson.model.AdministrativeMonitor;
+
+/**
+ * Warns administrators about projects that use both this plugin and Jenkins' built-in
+ * 'Block build when upstream/downstream project is building' (Advanced Project Options).
+ * The two conflict: Jenkins' option blocks on the whole upstream or downstream graph, ignoring final projects.
+ * 
+ * Projects are checked when they are loaded or configured, never in canRun().
+ * A conflict is logged once, when it is first found or its options change, and is listed
+ * on the Manage Jenkins page until the project is fixed or deleted.
+ * 
+ * @author Chad Rosenquist
+ *
+ */
+@Extension
+public class ConflictingOptionsMonitor extends AdministrativeMonitor {
+    private static final Logger LOGGER = Logger.getLogger(ConflictingOptionsMonitor.class.getName());
+    
+    // project full name -> conflict
+    private static final ConcurrentMap<String, Conflict> CONFLICTS = new ConcurrentHashMap<String, Conflict>();
+
+    @Override
+    public boolean isActivated() {
+        return !CONFLICTS.isEmpty();
+    }
+    
+    @Override
+    public String getDisplayName() {
+        return "Block Build Final Project - Conflicting Options";
+    }
+    
+    /**
+     * @return the conflicting projects, sorted by name.  Used by message.jelly.
+     */
+    public List<Conflict> getConflicts() {
+        List<Conflict> conflicts = new ArrayList<Conflict>(CONFLICTS.values());
+        Collections.sort(conflicts, new Comparator<Conflict>() {
+            @Override
+            public int compare(Conflict a, Conflict b) {
+                return a.getProjectName().compareTo(b.getProjectName());
+            }
+        });
+        return conflicts;
+    }
+    
+    /**
+     * Checks a project that was loaded or configured.
+     * 
+     * @param project  the project
+     * @param property its BlockBuildJobProperty, or null if it has none
+     * 
+     * Logs a warning only if the conflict is new or different from the last check.
+     */
+    static void check(AbstractProject<?, ?> project, BlockBuildJobProperty property) {
+        String projectName = project.getFullName();
+        String description = describe(project, property);
+        
+        if (description == null) {
+            CONFLICTS.remove(projectName);
+            return;
+        }
+        
+        Conflict conflict = new Conflict(project, description);
+        Conflict previous = CONFLICTS.put(projectName, conflict);
+        if ((previous == null) || !previous.getDescription().equals(description)) {
+            LOGGER.warning("The project " + projectName + " has both " + description);
+        }
+    }
+    
+    /**
+     * Forgets a deleted project, or every project inside a deleted folder.
+     * 
+     * @param fullName full name of the deleted project or folder
+     */
+    static void remove(String fullName) {
+        CONFLICTS.remove(fullName);
+        for (String projectName : CONFLICTS.keySet()) {
+            if (projectName.startsWith(fullName + "/")) {
+                CONFLICTS.remove(projectName);
+            }
+        }
+    }
+    
+    /**
+     * Moves a conflict to a project's new name.  The conflict reads the name and URL from the project itself.
+     * 
+     * @param oldFullName old full name of the project
+     * @param newFullName new full name of the project
+     */
+    static void rename(String oldFullName, String newFullName) {
+        Conflict conflict = CONFLICTS.remove(oldFullName);
+        if (conflict != null) {
+            CONFLICTS.put(newFullName, conflict);
+        }
+    }
+    
+    /**
+     * Re-checks every project, after Jenkins has loaded them.
+     * 
+     * @param projects every project in Jenkins
+     * 
+     * Loading a project already checked it, from BlockBuildJobProperty.setOwner().  Conflicts are not cleared
+     * first, so a conflict that hasn't changed is not logged again.  Only the projects that are gone are dropped.
+     */
+    static void recheck(AbstractProject<?, ?>[] projects) {
+        Set<String> projectNames = new HashSet<String>();
+        for (AbstractProject<?, ?> project : projects) {
+            projectNames.add(project.getFullName());
+        }
+        CONFLICTS.keySet().retainAll(projectNames);
+        for (AbstractProject<?, ?> project : projects) {
+            check(project, BlockBuildJobProperty.getBlockBuildJobPropertyFromProject(project));
+        }
+    }
+    
+    /**
+     * @return the options that conflict, or null if none do
+     */
+    private static String describe(AbstractProject<?, ?> project, BlockBuildJobProperty property) {
+        if (property == null) {
+            return null;
+        }
+        List<String> descriptions = new ArrayList<String>();
+        if (property.isUseBlockBuildUpstreamProject() && project.blockBuildWhenUpstreamBuilding()) {
+            descriptions.add("'Block build when upstream project is building (Advanced Project Options)' and "
+                    + "'Block build when upstream project is building - final job (Block Build Final Project Plugin)' checked.");
+        }
+        if (property.isUseBlockBuildDownstreamProject() && project.blockBuildWhenDownstreamBuilding()) {
+            descriptions.add("'Block build when downstream project is building (Advanced Project Options)' and "
+                    + "'Block build when downstream project is building - final job (Block Build Final Project Plugin)' checked.");
+        }
+        if (descriptions.isEmpty()) {
+            return null;
+        }
+        StringBuilder builder = new StringBuilder(descriptions.get(0));
+        if (descriptions.size() > 1) {
+            builder.append(" It also has ").append(descriptions.get(1));
+        }
+        return builder.toString();
+    }
+    
+    /**
+     * One project with conflicting options.  Immutable.
+     */
+    public static final class Conflict {
+        private final AbstractProject<?, ?> project;
+        private final String description;
+        
+        Conflict(AbstractProject<?, ?> project, String description) {
+            this.project = project;
+            this.description = description;
+        }
+        
+        /**
+         * @return full name of the project
+         */
+        public String getProjectName() {
+            return project.getFullName();
+        }
+        
+        /**
+         * @return the options that conflict
+         */
+        public String getDescription() {
+            return description;
+        }
+        
+        /**
+         * @return the project's URL, relative to the root URL
+         */
+        public String getUrl() {
+            return project.getUrl();
+        }
+    }
+}
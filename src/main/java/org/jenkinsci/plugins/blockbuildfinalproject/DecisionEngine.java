@@ -0,0 +1,85 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, Chad Rosenquist
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.blockbuildfinalproject;
+
+import org.jenkinsci.plugins.blockbuildfinalproject.BlockBuild.SearchDirection;
+
+import com.google.common.base.Predicate;
+
+/**
+ * An implementation of the blocking decision: given a graph, a node and a direction,
+ * find a busy node between the node and the final nodes.
+ * 
+ * Every engine must give the same answer as BlockEngine, the reference.  Engines may be faster
+ * by remembering work between calls, so the predicate for the final nodes must implement equals()
+ * and the graph's version must change when its edges change.
+ * 
+ * New engines can be run in shadow, next to the reference, before being trusted.  See ShadowEvaluator.
+ * The engine that makes the decisions is picked in DecisionEngines.
+ * 
+ * @author Chad Rosenquist
+ *
+ */
+interface DecisionEngine {
+    
+    /**
+     * @return short name of the engine, for logs and JSON
+     */
+    String getName();
+    
+    /**
+     * Evaluates one node in one direction.
+     * 
+     * @param graph     the graph
+     * @param start     the node that wants to build
+     * @param direction UP to check the upstream nodes, DOWN to check the downstream nodes
+     * @param isFinal   true for the nodes the search stops at
+     * @return          the evaluation.  Its blocker is null if no node found is busy.
+     */
+    <N> BlockEngine.Evaluation<N> evaluate(BlockGraph<N> graph, N start, SearchDirection direction,
+                                           Predicate<? super N> isFinal);
+    
+    /**
+     * Builds whatever the engine keeps between calls, so its first decisions are not slower than the reference's.
+     * Called on a background thread before the engine starts making decisions.
+     * 
+     * @param graph the graph the engine is about to be used on.  Its busy nodes must not change.
+     */
+    <N> void warmUp(BlockGraph<N> graph);
+    
+    /**
+     * Returns an engine that decides on what this engine knows now, for a decision made later
+     * on a graph whose busy nodes were snapshotted at the same time.  Used by ShadowEvaluator.
+     * Called while holding the Queue lock, so it must be cheap.
+     * 
+     * @return a copy of whatever busy state the engine keeps itself, or this engine if it keeps none
+     */
+    DecisionEngine snapshot();
+    
+    /**
+     * Drops whatever the engine keeps between calls.  Called when another engine takes over.
+     */
+    void clear();
+}
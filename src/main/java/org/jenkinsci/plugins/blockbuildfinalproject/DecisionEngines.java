@@ -0,0 +1,252 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, Chad Rosenquist
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.blockbuildfinalproject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Futures;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import net.sf.json.JSONObject;
+
+/**
+ * The DecisionEngines that can make the blocking decision, and the one that does.
+ * 
+ * reference     - searches Jenkins' triggers on every decision.  The default.
+ * cached        - caches each project's region until Jenkins replaces its DependencyGraph.
+ * indexed       - searches an int-array index of the whole graph, rebuilt when Jenkins replaces its DependencyGraph.
+ * event-driven  - caches regions, and tracks the busy projects from queue and build events.
+ * 
+ * The engine is picked in the global configuration (BlockBuildGlobalConfiguration) and can be changed without a restart.
+ * The system property org.jenkinsci.plugins.blockbuildfinalproject.engine picks it at startup instead.
+ * A newly selected engine is warmed up on a background thread, and only takes over once it's warm:
+ * until then the previous engine keeps deciding.  The switch is a single volatile write.
+ * Selecting an engine before Jenkins has loaded its jobs only records it: StartupWarmUp warms it up
+ * once the jobs are loaded, so it isn't warmed up on a half-loaded graph.
+ * 
+ * @author Chad Rosenquist
+ *
+ */
+final class DecisionEngines {
+    private static final Logger LOGGER = Logger.getLogger(DecisionEngines.class.getName());
+    
+    /**
+     * System property that picks the engine at startup, overriding the global configuration.
+     */
+    static final String ENGINE_PROPERTY = DecisionEngines.class.getPackage().getName() + ".engine";
+    
+    private static final DecisionEngines INSTANCE = new DecisionEngines(ImmutableList.<DecisionEngine>of(
+            ReferenceDecisionEngine.getInstance(), CachedDecisionEngine.getInstance(),
+            IndexedDecisionEngine.getInstance(), EventDrivenDecisionEngine.getInstance()));
+    
+    private final List<DecisionEngine> engines;
+    
+    // warms up the selected engine, and rebuilds IndexedDecisionEngine's index
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(
+            new NamingThreadFactory(new DaemonThreadFactory(), DecisionEngines.class.getSimpleName()));
+    
+    // the engine making the decisions
+    private volatile DecisionEngine active;
+    
+    // the engine most recently selected.  It's active once warm.  Guarded by this.
+    private DecisionEngine selected;
+    
+    /**
+     * Constructor
+     * 
+     * @param engines the engines that can be selected.  The first one is active.
+     */
+    DecisionEngines(List<DecisionEngine> engines) {
+        this.engines = engines;
+        active = engines.get(0);
+        selected = active;
+    }
+    
+    /**
+     * @return the single instance
+     */
+    static DecisionEngines getInstance() {
+        return INSTANCE;
+    }
+    
+    /**
+     * @return the engine making the decisions
+     */
+    DecisionEngine getActive() {
+        return active;
+    }
+    
+    /**
+     * Runs a task on the background thread that warms up the engines.
+     * 
+     * @param task the task
+     */
+    void execute(Runnable task) {
+        executor.execute(task);
+    }
+    
+    /**
+     * @return the names of the engines, the default first
+     */
+    List<String> getNames() {
+        List<String> names = new ArrayList<String>(engines.size());
+        for (DecisionEngine engine : engines) {
+            names.add(engine.getName());
+        }
+        return names;
+    }
+    
+    /**
+     * @param name the name of an engine
+     * @return     the engine, or null if there is no engine with that name
+     */
+    DecisionEngine forName(String name) {
+        for (DecisionEngine engine : engines) {
+            if (engine.getName().equals(name)) {
+                return engine;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Selects the engine to make the decisions, once it's warmed up on Jenkins' projects.
+     * 
+     * @param name the name of the engine
+     * @return     completes with the active engine once the selected engine has taken over,
+     *             or failed to warm up, or was replaced by a later selection
+     * @throws IllegalArgumentException if there is no engine with that name
+     */
+    Future<DecisionEngine> select(String name) {
+        return select(name, null);
+    }
+    
+    /**
+     * Selects the engine to make the decisions, once it's warmed up.
+     * 
+     * @param name  the name of the engine
+     * @param graph the graph to warm it up on, or null for a snapshot of Jenkins' projects, taken on the background thread
+     * @return      completes with the active engine once the selected engine has taken over,
+     *              or failed to warm up, or was replaced by a later selection
+     * @throws IllegalArgumentException if there is no engine with that name
+     */
+    synchronized Future<DecisionEngine> select(String name, final BlockGraph<?> graph) {
+        final DecisionEngine engine = forName(name);
+        if (engine == null) {
+            throw new IllegalArgumentException("Unknown blocking engine: " + name);
+        }
+        selected = engine;
+        if ((graph == null) && !StartupWarmUp.getInstance().isStarted()) {
+            // Jenkins' jobs aren't loaded yet.
+            return Futures.immediateFuture(active);
+        }
+        return executor.submit(new Callable<DecisionEngine>() {
+            @Override
+            public DecisionEngine call() {
+                return warmUpAndActivate(engine, graph, false);
+            }
+        });
+    }
+    
+    /**
+     * Warms up the selected engine on Jenkins' projects, even if it's already active, then makes it active.
+     * Called by StartupWarmUp once Jenkins has loaded its jobs.
+     * 
+     * @return completes with the active engine, like select()
+     */
+    synchronized Future<DecisionEngine> warmUpSelected() {
+        final DecisionEngine engine = selected;
+        return executor.submit(new Callable<DecisionEngine>() {
+            @Override
+            public DecisionEngine call() {
+                return warmUpAndActivate(engine, null, true);
+            }
+        });
+    }
+    
+    /**
+     * Warms up an engine, then makes it active unless another engine was selected meanwhile.
+     * 
+     * @param always true to warm up the engine even if it's active
+     */
+    private DecisionEngine warmUpAndActivate(DecisionEngine engine, BlockGraph<?> graph, boolean always) {
+        if (always || (engine != active)) {
+            long start = System.nanoTime();
+            try {
+                if (graph != null) {
+                    warmUp(engine, graph);
+                }
+                else {
+                    warmUp(engine, new JenkinsBlockGraph(JenkinsWrapper.getUnblockedTasks()).snapshot());
+                }
+            }
+            catch (RuntimeException exception) {
+                LOGGER.log(Level.WARNING, "Blocking engine " + engine.getName() + " failed to warm up.  Keeping "
+                           + active.getName() + ".", exception);
+                return active;
+            }
+            LOGGER.info("Blocking engine " + engine.getName() + " warmed up in "
+                        + (System.nanoTime() - start) / 1000000 + " ms.");
+        }
+        
+        DecisionEngine previous;
+        synchronized (this) {
+            if (selected != engine) {
+                // A later selection replaced this one.  It will activate when it's warm.
+                return active;
+            }
+            previous = active;
+            active = engine;
+        }
+        if ((previous != engine) && (previous != ShadowEvaluator.getInstance().getCandidate())) {
+            previous.clear();
+        }
+        return engine;
+    }
+    
+    private static <N> void warmUp(DecisionEngine engine, BlockGraph<N> graph) {
+        engine.warmUp(graph);
+    }
+    
+    /**
+     * @return the active and selected engines, and the names of all the engines, as JSON
+     */
+    synchronized JSONObject toJSON() {
+        JSONObject json = new JSONObject();
+        json.put("active", active.getName());
+        json.put("selected", selected.getName());
+        json.put("engines", getNames());
+        return json;
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, Chad Rosenquist
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.blockbuildfinalproject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+/**
+ * Fixed-size ring buffer of the most recent blocking decisions, to answer "why is my job blocked?"
+ * without turning on FINEST logging.
+ * 
+ * Each canRun() decision for a project using this plugin is stored as a Decision:
+ * the queue item, the blocking project, the path from the project to it, the time taken and the RegionCache epoch.
+ * 
+ * Writers claim a slot with an AtomicLong and store the Decision with a single atomic write, so recording
+ * never locks and never blocks the Queue.  Old decisions are overwritten, so memory is bounded.
+ * Set the system property org.jenkinsci.plugins.blockbuildfinalproject.DecisionTrace.capacity
+ * to change the number of decisions kept.  It is rounded up to a power of two.
+ * 
+ * Read with BlockBuildStatusAction ({@code JENKINS_URL/block-build-final-project/trace})
+ * or the block-build-trace CLI command.
+ * 
+ * @author Chad Rosenquist
+ *
+ */
+final class DecisionTrace {
+    
+    private static final DecisionTrace INSTANCE =
+            new DecisionTrace(Integer.getInteger(DecisionTrace.class.getName() + ".capacity", 1024));
+    
+    private final AtomicReferenceArray<Decision> slots;
+    
+    private final int mask;
+    
+    // sequence number of the next decision
+    private final AtomicLong sequence = new AtomicLong();
+    
+    /**
+     * Constructor
+     * 
+     * @param capacity number of decisions kept, rounded up to a power of two
+     */
+    DecisionTrace(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 1));
+        if (size < capacity) {
+            size <<= 1;
+        }
+        slots = new AtomicReferenceArray<Decision>(size);
+        mask = size - 1;
+    }
+    
+    /**
+     * @return the single instance of the trace
+     */
+    static DecisionTrace getInstance() {
+        return INSTANCE;
+    }
+    
+    /**
+     * @return number of decisions kept
+     */
+    int getCapacity() {
+        return slots.length();
+    }
+    
+    /**
+     * @return number of decisions recorded since Jenkins started, including those overwritten
+     */
+    long getRecorded() {
+        return sequence.get();
+    }
+    
+    /**
+     * Records one decision, overwriting the oldest if the buffer is full.
+     * 
+     * @param itemId        id of the Queue.Item
+     * @param projectName   full name of the project the Queue is considering running
+     * @param blocker       full name of the project that blocked, or null if not blocked
+     * @param path          full names from the project to the blocker, or empty if not blocked.
+     *                      Kept as given, so it may be a lazy view, but it must not change.
+     * @param durationNanos time canRun() took
+     * @param epoch         RegionCache epoch when the decision was made
+     */
+    void record(long itemId, String projectName, String blocker, List<String> path, long durationNanos, long epoch) {
+        long seq = sequence.getAndIncrement();
+        slots.set((int) (seq & mask),
+                  new Decision(seq, System.currentTimeMillis(), itemId, projectName, blocker, path, durationNanos, epoch));
+    }
+    
+    /**
+     * Returns the most recent decisions, newest first.
+     * 
+     * @param projectName only return decisions for this project, or null for every project
+     * @param limit       maximum number of decisions returned
+     * @return            the decisions
+     * 
+     * Decisions being overwritten while reading are skipped, so the result is a consistent
+     * but possibly incomplete view.
+     */
+    List<Decision> getDecisions(String projectName, int limit) {
+        List<Decision> decisions = new ArrayList<Decision>();
+        long newest = sequence.get() - 1;
+        long oldest = Math.max(0, newest - mask);
+        
+        for (long seq = newest; (seq >= oldest) && (decisions.size() < limit); seq--) {
+            Decision decision = slots.get((int) (seq & mask));
+            // null: claimed but not written yet.  Different sequence: already overwritten.
+            if ((decision == null) || (decision.getSequence() != seq)) {
+                continue;
+            }
+            if ((projectName == null) || projectName.equals(decision.getProject())) {
+                decisions.add(decision);
+            }
+        }
+        return decisions;
+    }
+    
+    /**
+     * @param projectName only return decisions for this project, or null for every project
+     * @param limit       maximum number of decisions returned
+     * @return            the capacity, number recorded and most recent decisions as JSON
+     */
+    JSONObject toJSON(String projectName, int limit) {
+        JSONArray decisions = new JSONArray();
+        for (Decision decision : getDecisions(projectName, limit)) {
+            decisions.add(decision.toJSON());
+        }
+        JSONObject json = new JSONObject();
+        json.put("capacity", getCapacity());
+        json.put("recorded", getRecorded());
+        json.put("decisions", decisions);
+        return json;
+    }
+    
+    /**
+     * One canRun() decision.  Immutable, as long as the path given to record() does not change.
+     */
+    static final class Decision {
+        private final long sequence;
+        private final long timestamp;
+        private final long itemId;
+        private final String project;
+        private final String blocker;
+        private final List<String> path;
+        private final long durationNanos;
+        private final long epoch;
+        
+        Decision(long sequence, long timestamp, long itemId, String project, String blocker, List<String> path,
+                 long durationNanos, long epoch) {
+            this.sequence = sequence;
+            this.timestamp = timestamp;
+            this.itemId = itemId;
+            this.project = project;
+            this.blocker = blocker;
+            // Not copied: a blocked canRun() passes a view that only looks up the names when read.
+            this.path = path;
+            this.durationNanos = durationNanos;
+            this.epoch = epoch;
+        }
+        
+        long getSequence() {
+            return sequence;
+        }
+        
+        String getProject() {
+            return project;
+        }
+        
+        String getBlocker() {
+            return blocker;
+        }
+        
+        List<String> getPath() {
+            return path;
+        }
+        
+        JSONObject toJSON() {
+            JSONObject json = new JSONObject();
+            json.put("sequence", sequence);
+            json.put("timestamp", timestamp);
+            json.put("itemId", itemId);
+            json.put("project", project);
+            json.put("blocked", blocker != null);
+            if (blocker != null) {
+                json.put("blocker", blocker);
+                json.put("path", JSONArray.fromObject(path));
+            }
+            json.put("durationNanos", durationNanos);
+            json.put("epoch", epoch);
+            return json;
+        }
+    }
+}
@@ -0,0 +1,267 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, Chad Rosenquist
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.blockbuildfinalproject;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jenkinsci.plugins.blockbuildfinalproject.BlockBuild.SearchDirection;
+
+import com.google.common.base.Predicate;
+
+/**
+ * A DecisionEngine that keeps the set of busy projects up to date from queue and build events,
+ * so a decision only checks the projects that are both in the region and busy.
+ * 
+ * BlockBuildQueueListener reports queue items entering and leaving the unblocked part of the queue.
+ * An item that leaves the queue to build moves straight to running, in the same event, because its build
+ * exists before RunListener.onStarted() is fired.  BlockBuildRunListener reports the build finalized,
+ * which is after AbstractProject.isBuilding() turns false.  So the busy set always holds every project
+ * the graph says is busy, and possibly a few more: each item is counted on its own, so one of several
+ * queued items of a parameterized project leaving does not drop the project.
+ * 
+ * The regions are cached like CachedDecisionEngine.  A decision looks through whichever is smaller,
+ * the region or the busy set, and confirms a busy project with the graph before blocking, so a project
+ * in the busy set that is no longer busy only costs a check.  warmUp() seeds the busy set from the
+ * projects busy now, in case the engine's events started after a build did.
+ * 
+ * Best for controllers with large regions and few builds running at once.
+ * 
+ * @author Chad Rosenquist
+ *
+ */
+final class EventDrivenDecisionEngine implements DecisionEngine {
+    
+    private static final EventDrivenDecisionEngine INSTANCE =
+            new EventDrivenDecisionEngine(new CachedDecisionEngine(CachedDecisionEngine.getMaxEntries()));
+    
+    private final CachedDecisionEngine regions;
+    
+    // queue item id -> node, for the items in the unblocked part of the queue.  Guarded by this.
+    private final Map<Long, Object> unblockedItems = new HashMap<Long, Object>();
+    
+    // node -> number of its items in the unblocked part of the queue.  Updated while holding this.
+    private final Map<Object, Integer> queued;
+    
+    // node -> number of builds that left the queue and are not finalized.  Updated while holding this.
+    private final Map<Object, Integer> running;
+    
+    /**
+     * Constructor
+     * 
+     * @param regions caches the regions
+     */
+    EventDrivenDecisionEngine(CachedDecisionEngine regions) {
+        this(regions, new ConcurrentHashMap<Object, Integer>(), new ConcurrentHashMap<Object, Integer>());
+    }
+    
+    private EventDrivenDecisionEngine(CachedDecisionEngine regions, Map<Object, Integer> queued,
+                                      Map<Object, Integer> running) {
+        this.regions = regions;
+        this.queued = queued;
+        this.running = running;
+    }
+    
+    /**
+     * @return the single instance of the engine
+     */
+    static EventDrivenDecisionEngine getInstance() {
+        return INSTANCE;
+    }
+    
+    @Override
+    public String getName() {
+        return "event-driven";
+    }
+    
+    /**
+     * @param itemId      the id of the queue item that changed state
+     * @param node        the item's node
+     * @param isUnblocked true if the item is waiting, buildable or pending; false if it's blocked
+     */
+    synchronized void queued(long itemId, Object node, boolean isUnblocked) {
+        if (isUnblocked) {
+            if (unblockedItems.put(itemId, node) == null) {
+                increment(queued, node);
+            }
+        }
+        else {
+            dequeue(itemId);
+        }
+    }
+    
+    /**
+     * @param itemId  the id of the queue item that left the queue
+     * @param node    the item's node
+     * @param started true if the item left to build; false if it was cancelled
+     */
+    synchronized void left(long itemId, Object node, boolean started) {
+        dequeue(itemId);
+        if (started) {
+            increment(running, node);
+        }
+    }
+    
+    /**
+     * @param node a node whose build was finalized
+     */
+    synchronized void finished(Object node) {
+        decrement(running, node);
+    }
+    
+    /**
+     * @param node a node that was deleted
+     */
+    synchronized void removed(Object node) {
+        Iterator<Object> items = unblockedItems.values().iterator();
+        while (items.hasNext()) {
+            if (items.next().equals(node)) {
+                items.remove();
+            }
+        }
+        queued.remove(node);
+        running.remove(node);
+    }
+    
+    private void dequeue(long itemId) {
+        Object node = unblockedItems.remove(itemId);
+        if (node != null) {
+            decrement(queued, node);
+        }
+    }
+    
+    private static void increment(Map<Object, Integer> counts, Object node) {
+        Integer count = counts.get(node);
+        counts.put(node, (count == null) ? 1 : count + 1);
+    }
+    
+    private static void decrement(Map<Object, Integer> counts, Object node) {
+        Integer count = counts.get(node);
+        if ((count == null) || (count <= 1)) {
+            counts.remove(node);
+        }
+        else {
+            counts.put(node, count - 1);
+        }
+    }
+    
+    /**
+     * @param node a node
+     * @return     number of its items in the unblocked part of the queue
+     */
+    int getQueuedCount(Object node) {
+        Integer count = queued.get(node);
+        return (count == null) ? 0 : count;
+    }
+    
+    /**
+     * @param node a node
+     * @return     number of its builds that left the queue and are not finalized
+     */
+    int getRunningCount(Object node) {
+        Integer count = running.get(node);
+        return (count == null) ? 0 : count;
+    }
+    
+    /**
+     * @return number of nodes the engine thinks are busy
+     */
+    int getBusyCount() {
+        return queued.size() + running.size();
+    }
+
+    @Override
+    public <N> BlockEngine.Evaluation<N> evaluate(BlockGraph<N> graph, N start, SearchDirection direction,
+                                                  Predicate<? super N> isFinal) {
+        Map<N, N> parents = regions.search(graph, start, direction, isFinal);
+        N blocker;
+        if (getBusyCount() < parents.size()) {
+            blocker = findBusy(graph, start, parents, queued.keySet());
+            if (blocker == null) {
+                blocker = findBusy(graph, start, parents, running.keySet());
+            }
+        }
+        else {
+            blocker = null;
+            for (N node : parents.keySet()) {
+                if (!node.equals(start) && (queued.containsKey(node) || running.containsKey(node)) && graph.isBusy(node)) {
+                    blocker = node;
+                    break;
+                }
+            }
+        }
+        return new BlockEngine.Evaluation<N>(start, blocker, parents);
+    }
+    
+    /**
+     * @return a node of busy that is in the region and confirmed busy by the graph, or null
+     */
+    @SuppressWarnings("unchecked")
+    private static <N> N findBusy(BlockGraph<N> graph, N start, Map<N, N> parents, Set<Object> busy) {
+        for (Object node : busy) {
+            // A key of parents, so it's an N.
+            if (parents.containsKey(node) && !node.equals(start) && graph.isBusy((N) node)) {
+                return (N) node;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Marks every node the graph says is busy as running, unless an event already reported it.
+     * A node that was really queued stays marked until a build of it is finalized; it only costs a check.
+     */
+    @Override
+    public synchronized <N> void warmUp(BlockGraph<N> graph) {
+        regions.warmUp(graph);
+        for (N node : graph.getAllNodes()) {
+            if (!queued.containsKey(node) && !running.containsKey(node) && graph.isBusy(node)) {
+                running.put(node, 1);
+            }
+        }
+    }
+    
+    /**
+     * Copies the busy set, so a shadow decision sees the builds the graph's snapshot saw, not the ones
+     * finalized since.  The copy shares the cached regions and gets no events.  Costs a pass over the busy set.
+     */
+    @Override
+    public synchronized DecisionEngine snapshot() {
+        return new EventDrivenDecisionEngine(regions, new ConcurrentHashMap<Object, Integer>(queued),
+                                             new ConcurrentHashMap<Object, Integer>(running));
+    }
+    
+    /**
+     * Drops the cached regions.  The busy set is kept: the events keep it up to date even when
+     * the engine is not selected.
+     */
+    @Override
+    public void clear() {
+        regions.clear();
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, Chad Rosenquist
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.blockbuildfinalproject;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+
+import org.acegisecurity.context.SecurityContext;
+import org.acegisecurity.context.SecurityContextHolder;
+
+import hudson.model.AbstractProject;
+import hudson.security.ACL;
+
+/**
+ * Reverse index from a final project name to the projects that reference it in their BlockBuildJobProperty.
+ * 
+ * BlockBuildItemListener uses this index so renaming or deleting a project only touches the
+ * projects that actually reference it, instead of every project in Jenkins.
+ * 
+ * The index is kept up to date by BlockBuildJobProperty.setOwner(), which Jenkins calls whenever
+ * a property is loaded or added to a project.  A property can also be removed from a project
+ * without this index being told, so callers must always re-read the project's current
+ * BlockBuildJobProperty.  A stale entry only costs a lookup.
+ * 
+ * @author Chad Rosenquist
+ *
+ */
+final class FinalProjectReferences {
+    private static final Logger LOGGER = Logger.getLogger(FinalProjectReferences.class.getName());
+    
+    private static final FinalProjectReferences INSTANCE = new FinalProjectReferences();
+    
+    // final project name -> projects that reference it
+    private final NavigableMap<String, Set<AbstractProject<?, ?>>> referrers = new TreeMap<String, Set<AbstractProject<?, ?>>>();
+    
+    // project -> final project names it references
+    private final Map<AbstractProject<?, ?>, Set<String>> references = new HashMap<AbstractProject<?, ?>, Set<String>>();
+    
+    // true once every project in Jenkins has been indexed
+    private boolean initialized = false;
+    
+    private FinalProjectReferences() {
+    }
+    
+    /**
+     * @return the single instance of the index
+     */
+    static FinalProjectReferences getInstance() {
+        return INSTANCE;
+    }
+    
+    /**
+     * Indexes the final projects referenced by a project, replacing what was indexed before.
+     * 
+     * @param project  the project that owns the property
+     * @param property the project's property, or null if the project no longer has one
+     */
+    synchronized void update(AbstractProject<?, ?> project, BlockBuildJobProperty property) {
+        removeReferences(project);
+        if (property == null) {
+            return;
+        }
+        
+        Set<String> names = new HashSet<String>();
+        names.addAll(property.getFinalUpstreamProjectsAsList());
+        names.addAll(property.getFinalDownstreamProjectsAsList());
+        if (names.isEmpty()) {
+            return;
+        }
+        
+        references.put(project, names);
+        for (String name : names) {
+            Set<AbstractProject<?, ?>> projects = referrers.get(name);
+            if (projects == null) {
+                projects = new HashSet<AbstractProject<?, ?>>();
+                referrers.put(name, projects);
+            }
+            projects.add(project);
+        }
+    }
+    
+    /**
+     * Removes a project from the index.  Call this when the project is deleted.
+     * 
+     * @param project the project being removed
+     */
+    synchronized void remove(AbstractProject<?, ?> project) {
+        removeReferences(project);
+    }
+    
+    /**
+     * Removes every project inside a folder from the index.  Call this when the folder is deleted.
+     * 
+     * @param folderFullName full name of the folder being removed
+     */
+    synchronized void removeInside(String folderFullName) {
+        String prefix = folderFullName + "/";
+        for (AbstractProject<?, ?> project : new ArrayList<AbstractProject<?, ?>>(references.keySet())) {
+            if (project.getFullName().startsWith(prefix)) {
+                removeReferences(project);
+            }
+        }
+    }
+    
+    /**
+     * Clears the index.  The next lookup indexes every project in Jenkins again.
+     * Call this when Jenkins has finished loading its items.
+     */
+    synchronized void reset() {
+        referrers.clear();
+        references.clear();
+        initialized = false;
+    }
+    
+    /**
+     * Returns the projects that reference a final project.
+     * 
+     * @param finalProjectName full name of the final project
+     * @return                 copy of the projects that reference finalProjectName.  Empty if there are none.
+     */
+    synchronized List<AbstractProject<?, ?>> getReferrers(String finalProjectName) {
+        ensureInitialized();
+        Set<AbstractProject<?, ?>> projects = referrers.get(finalProjectName);
+        if (projects == null) {
+            return new ArrayList<AbstractProject<?, ?>>();
+        }
+        return new ArrayList<AbstractProject<?, ?>>(projects);
+    }
+    
+    /**
+     * Returns the projects that reference any of the given final projects.
+     * 
+     * @param finalProjectNames full names of the final projects
+     * @return                  the projects that reference at least one of finalProjectNames.  Each project is returned once.
+     */
+    synchronized List<AbstractProject<?, ?>> getReferrers(Collection<String> finalProjectNames) {
+        ensureInitialized();
+        Set<AbstractProject<?, ?>> projects = new LinkedHashSet<AbstractProject<?, ?>>();
+        for (String name : finalProjectNames) {
+            Set<AbstractProject<?, ?>> nameReferrers = referrers.get(name);
+            if (nameReferrers != null) {
+                projects.addAll(nameReferrers);
+            }
+        }
+        return new ArrayList<AbstractProject<?, ?>>(projects);
+    }
+    
+    /**
+     * Computes the renames caused by moving an item, for the final projects that are referenced.
+     * 
+     * @param oldFullName old full name of the item
+     * @param newFullName new full name of the item
+     * @return            map of old name to new name.  Contains oldFullName if it is referenced, and
+     *                    every referenced name inside oldFullName if the item is a folder.
+     * 
+     * For example, if folder "team" is renamed to "squad", and "team/build" and "team/test" are referenced:
+     * team/build -> squad/build
+     * team/test  -> squad/test
+     */
+    synchronized Map<String, String> getRenames(String oldFullName, String newFullName) {
+        ensureInitialized();
+        Map<String, String> renames = new LinkedHashMap<String, String>();
+        if (referrers.containsKey(oldFullName)) {
+            renames.put(oldFullName, newFullName);
+        }
+        for (String name : getNamesInside(oldFullName)) {
+            renames.put(name, newFullName + name.substring(oldFullName.length()));
+        }
+        return renames;
+    }
+    
+    /**
+     * Returns the referenced final project names inside a folder.
+     * 
+     * @param folderFullName full name of the folder
+     * @return               referenced names that start with folderFullName + "/"
+     */
+    synchronized List<String> getNamesInside(String folderFullName) {
+        ensureInitialized();
+        String prefix = folderFullName + "/";
+        return new ArrayList<String>(referrers.subMap(prefix, true, prefix + Character.MAX_VALUE, false).keySet());
+    }
+    
+    /**
+     * Removes the project from every final project it was indexed under.
+     * 
+     * @param project the project
+     */
+    private void removeReferences(AbstractProject<?, ?> project) {
+        Set<String> names = references.remove(project);
+        if (names == null) {
+            return;
+        }
+        for (String name : names) {
+            Set<AbstractProject<?, ?>> projects = referrers.get(name);
+            if (projects != null) {
+                projects.remove(project);
+                if (projects.isEmpty()) {
+                    referrers.remove(name);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Indexes every project in Jenkins now, unless they are already indexed.
+     */
+    synchronized void warmUp() {
+        ensureInitialized();
+    }
+    
+    /**
+     * The first lookup indexes every project in Jenkins, as the system user so no project is skipped.
+     * After that, setOwner() and the item listener keep the index up to date.
+     */
+    private void ensureInitialized() {
+        if (initialized) {
+            return;
+        }
+        LOGGER.finest("Indexing final project references.");
+        // Index every project's references as the system user, whoever triggered the first lookup.
+        SecurityContext oldContext = ACL.impersonate(ACL.SYSTEM);
+        try {
+            for (AbstractProject<?, ?> project : ProjectRegistry.getInstance().getProjects()) {
+                update(project, BlockBuildJobProperty.getBlockBuildJobPropertyFromProject(project));
+            }
+        }
+        finally {
+            SecurityContextHolder.setContext(oldContext);
+        }
+        initialized = true;
+    }
+}
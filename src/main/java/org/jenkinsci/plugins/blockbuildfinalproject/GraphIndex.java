@@ -0,0 +1,292 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, Chad Rosenquist
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.blockbuildfinalproject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jenkinsci.plugins.blockbuildfinalproject.BlockBuild.SearchDirection;
+
+import com.google.common.base.Predicate;
+
+/**
+ * One version of a BlockGraph's edges, numbered and packed into int arrays.  Immutable.
+ * 
+ * Each node gets an id from 0.  The upstream and downstream edges are stored in compressed sparse row form:
+ * the neighbours of node i are targets[offsets[i]] to targets[offsets[i + 1] - 1], in the graph's order.
+ * Searching it needs no calls into Jenkins and no per-node allocation, only the parent map the result needs.
+ * 
+ * The search visits the nodes in the same order as TransitiveSearch, so it finds the same nodes,
+ * the same parents and the same blocker as the reference engine.
+ * 
+ * @param <N> the node type
+ * 
+ * @author Chad Rosenquist
+ *
+ */
+final class GraphIndex<N> {
+    
+    // per thread: the visited marks and the stack, reused between searches
+    private static final ThreadLocal<Scratch> SCRATCH = new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+            return new Scratch();
+        }
+    };
+    
+    private final long version;
+    
+    // id -> node
+    private final Object[] nodes;
+    
+    // node -> id
+    private final Map<N, Integer> ids;
+    
+    private final int[] upOffsets;
+    private final int[] upTargets;
+    private final int[] downOffsets;
+    private final int[] downTargets;
+    
+    /**
+     * Constructor
+     * 
+     * @param version     the graph version the index was built from
+     * @param nodes       id -> node
+     * @param upOffsets   where each node's upstream neighbours start in upTargets, plus the end
+     * @param upTargets   ids of the upstream neighbours
+     * @param downOffsets where each node's downstream neighbours start in downTargets, plus the end
+     * @param downTargets ids of the downstream neighbours
+     */
+    @SuppressWarnings("unchecked")
+    GraphIndex(long version, Object[] nodes, int[] upOffsets, int[] upTargets, int[] downOffsets, int[] downTargets) {
+        this.version = version;
+        this.nodes = nodes;
+        this.upOffsets = upOffsets;
+        this.upTargets = upTargets;
+        this.downOffsets = downOffsets;
+        this.downTargets = downTargets;
+        ids = new HashMap<N, Integer>(nodes.length * 2);
+        for (int i = 0; i < nodes.length; i++) {
+            ids.put((N) nodes[i], i);
+        }
+    }
+    
+    /**
+     * Indexes every node of a graph, and every node reachable from them.
+     * 
+     * @param graph   the graph
+     * @param version the graph's version, read before building
+     * @return        the index
+     */
+    static <N> GraphIndex<N> build(BlockGraph<N> graph, long version) {
+        List<N> nodes = new ArrayList<N>();
+        Map<N, Integer> ids = new HashMap<N, Integer>();
+        for (N node : graph.getAllNodes()) {
+            addNode(node, nodes, ids);
+        }
+        
+        // Neighbours may add nodes, which are then indexed in turn.
+        List<int[]> upEdges = new ArrayList<int[]>(nodes.size());
+        List<int[]> downEdges = new ArrayList<int[]>(nodes.size());
+        for (int i = 0; i < nodes.size(); i++) {
+            upEdges.add(toIds(graph.getNeighbours(nodes.get(i), SearchDirection.UP), nodes, ids));
+            downEdges.add(toIds(graph.getNeighbours(nodes.get(i), SearchDirection.DOWN), nodes, ids));
+        }
+        
+        int[] upOffsets = new int[nodes.size() + 1];
+        int[] downOffsets = new int[nodes.size() + 1];
+        return new GraphIndex<N>(version, nodes.toArray(),
+                upOffsets, pack(upEdges, upOffsets), downOffsets, pack(downEdges, downOffsets));
+    }
+    
+    private static <N> int addNode(N node, List<N> nodes, Map<N, Integer> ids) {
+        Integer id = ids.get(node);
+        if (id == null) {
+            id = nodes.size();
+            nodes.add(node);
+            ids.put(node, id);
+        }
+        return id;
+    }
+    
+    private static <N> int[] toIds(Iterable<? extends N> neighbours, List<N> nodes, Map<N, Integer> ids) {
+        int[] result = new int[8];
+        int count = 0;
+        for (N neighbour : neighbours) {
+            if (count == result.length) {
+                result = Arrays.copyOf(result, count * 2);
+            }
+            result[count++] = addNode(neighbour, nodes, ids);
+        }
+        return Arrays.copyOf(result, count);
+    }
+    
+    /**
+     * Packs each node's neighbours into one array.
+     * 
+     * @param edges   node id -> its neighbours' ids
+     * @param offsets filled in: where each node's neighbours start, plus the end
+     * @return        all the neighbours' ids
+     */
+    private static int[] pack(List<int[]> edges, int[] offsets) {
+        int total = 0;
+        for (int i = 0; i < edges.size(); i++) {
+            offsets[i] = total;
+            total += edges.get(i).length;
+        }
+        offsets[edges.size()] = total;
+        
+        int[] targets = new int[total];
+        for (int i = 0; i < edges.size(); i++) {
+            System.arraycopy(edges.get(i), 0, targets, offsets[i], edges.get(i).length);
+        }
+        return targets;
+    }
+    
+    /**
+     * @return the version of the graph the index was built from
+     */
+    long getVersion() {
+        return version;
+    }
+    
+    /**
+     * @return number of nodes
+     */
+    int size() {
+        return nodes.length;
+    }
+    
+    /**
+     * @param id an id from 0 to size() - 1
+     * @return   the node
+     */
+    @SuppressWarnings("unchecked")
+    N getNode(int id) {
+        return (N) nodes[id];
+    }
+    
+    /**
+     * @param direction UP or DOWN
+     * @return          where each node's neighbours start in getTargets(direction), plus the end.  Do not modify.
+     */
+    int[] getOffsets(SearchDirection direction) {
+        return (direction == SearchDirection.UP) ? upOffsets : downOffsets;
+    }
+    
+    /**
+     * @param direction UP or DOWN
+     * @return          ids of every node's neighbours.  Do not modify.
+     */
+    int[] getTargets(SearchDirection direction) {
+        return (direction == SearchDirection.UP) ? upTargets : downTargets;
+    }
+    
+    /**
+     * @param node a node
+     * @return     its id, or -1 if it was not in the graph when the index was built
+     */
+    int getId(N node) {
+        Integer id = ids.get(node);
+        return (id == null) ? -1 : id;
+    }
+    
+    /**
+     * Finds every node reachable from start, like TransitiveSearch.search().
+     * 
+     * @param start     id of the node to search from
+     * @param direction UP or DOWN
+     * @param isFinal   true for nodes the search stops at
+     * @return          each node found -> the node it was reached from, in the same order as TransitiveSearch
+     */
+    @SuppressWarnings("unchecked")
+    Map<N, N> search(int start, SearchDirection direction, Predicate<? super N> isFinal) {
+        int[] offsets = (direction == SearchDirection.UP) ? upOffsets : downOffsets;
+        int[] targets = (direction == SearchDirection.UP) ? upTargets : downTargets;
+        Scratch scratch = SCRATCH.get();
+        int mark = scratch.next(nodes.length);
+        int[] marks = scratch.marks;
+        Map<N, N> parents = new HashMap<N, N>();
+        
+        int top = 0;
+        scratch.stack = push(scratch.stack, top++, start);
+        while (top > 0) {
+            int current = scratch.stack[--top];
+            for (int edge = offsets[current]; edge < offsets[current + 1]; edge++) {
+                int child = targets[edge];
+                if (marks[child] != mark) {
+                    marks[child] = mark;
+                    N childNode = (N) nodes[child];
+                    parents.put(childNode, (N) nodes[current]);
+                    // Note:  final nodes are NOT pushed, so the search stops there.
+                    if (!isFinal.apply(childNode)) {
+                        scratch.stack = push(scratch.stack, top++, child);
+                    }
+                }
+            }
+        }
+        return parents;
+    }
+    
+    private static int[] push(int[] stack, int top, int id) {
+        if (top == stack.length) {
+            stack = Arrays.copyOf(stack, stack.length * 2);
+        }
+        stack[top] = id;
+        return stack;
+    }
+    
+    /**
+     * Visited marks and stack for one thread's searches.
+     * 
+     * A node is visited in the current search if its mark equals the search's number,
+     * so the marks never need clearing between searches.
+     */
+    private static final class Scratch {
+        private int[] marks = new int[0];
+        private int[] stack = new int[64];
+        private int search = 0;
+        
+        /**
+         * @param size number of nodes in the index
+         * @return     the number marking nodes visited by the new search
+         */
+        int next(int size) {
+            if (marks.length < size) {
+                marks = new int[size];
+                search = 0;
+            }
+            search++;
+            if (search == Integer.MAX_VALUE) {
+                Arrays.fill(marks, 0);
+                search = 1;
+            }
+            return search;
+        }
+    }
+}
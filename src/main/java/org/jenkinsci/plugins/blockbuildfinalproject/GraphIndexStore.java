@@ -0,0 +1,447 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, Chad Rosenquist
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.blockbuildfinalproject;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jenkinsci.plugins.blockbuildfinalproject.BlockBuild.SearchDirection;
+
+import com.google.common.base.Function;
+
+import hudson.PluginWrapper;
+import hudson.model.AbstractProject;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.model.Jenkins;
+
+/**
+ * Keeps the GraphIndex of Jenkins' projects in a file under JENKINS_HOME, so IndexedDecisionEngine
+ * is warm within seconds of a restart instead of asking every project for its triggers again.
+ * 
+ * 1. Each time IndexedDecisionEngine builds an index of Jenkins' projects, it's written by a background thread.
+ *    Only the newest index waiting to be written is written.  The fingerprint written with it is taken before
+ *    the index was built, so a config.xml changed during the build or before the write makes the file stale.
+ * 2. When IndexedDecisionEngine warms up, the file is memory-mapped and read, if its fingerprint matches.
+ *    Otherwise the index is built as usual, and written again.
+ * 
+ * The fingerprint covers everything the edges are computed from: the Jenkins version, the active plugins,
+ * and each project's name and config.xml size and modification time.  It costs one file stat per project,
+ * which is much cheaper than reading every project's triggers.
+ * 
+ * The file holds the project names and the index's int arrays, big-endian:
+ * magic, format, fingerprint, number of projects, each name as a length and UTF-8 bytes,
+ * then for UP and DOWN the offsets and the number of targets followed by the targets.
+ * A file that is truncated or out of bounds is ignored, like a stale one.
+ * On Windows a mapped file can't be replaced until the mapping is garbage collected, so a write
+ * soon after a read may fail.  It's logged, and the next index is written again.
+ * 
+ * Set the system property org.jenkinsci.plugins.blockbuildfinalproject.GraphIndexStore.disabled to true
+ * to neither read nor write the file.
+ * 
+ * @author Chad Rosenquist
+ *
+ */
+final class GraphIndexStore {
+    private static final Logger LOGGER = Logger.getLogger(GraphIndexStore.class.getName());
+    
+    /**
+     * Name of the file in JENKINS_HOME.
+     */
+    static final String FILE_NAME = GraphIndexStore.class.getName() + ".bin";
+    
+    private static final boolean DISABLED = Boolean.getBoolean(GraphIndexStore.class.getName() + ".disabled");
+    
+    // "BBFI"
+    private static final int MAGIC = 0x42424649;
+    
+    // incremented when the layout of the file changes
+    private static final int FORMAT = 1;
+    
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    
+    private static final GraphIndexStore INSTANCE = new GraphIndexStore(null);
+    
+    // the file, or null to use the one in JENKINS_HOME
+    private final File file;
+    
+    // writes the indexes
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(
+            new NamingThreadFactory(new DaemonThreadFactory(), GraphIndexStore.class.getSimpleName()));
+    
+    // the newest index waiting to be written, or null
+    private final AtomicReference<PendingSave> pending = new AtomicReference<PendingSave>();
+    
+    /**
+     * An index waiting to be written, with the fingerprint of the projects it was built from.
+     */
+    private static final class PendingSave {
+        private final GraphIndex<AbstractProject<?, ?>> index;
+        private final long fingerprint;
+        
+        private PendingSave(GraphIndex<AbstractProject<?, ?>> index, long fingerprint) {
+            this.index = index;
+            this.fingerprint = fingerprint;
+        }
+    }
+    
+    /**
+     * Constructor
+     * 
+     * @param file the file, or null to use the one in JENKINS_HOME
+     */
+    GraphIndexStore(File file) {
+        this.file = file;
+    }
+    
+    /**
+     * @return the single instance of the store
+     */
+    static GraphIndexStore getInstance() {
+        return INSTANCE;
+    }
+    
+    /**
+     * @return false if the system property disables the file
+     */
+    boolean isEnabled() {
+        return !DISABLED;
+    }
+    
+    /**
+     * Writes an index of Jenkins' projects on the background thread.
+     * 
+     * @param index       the index
+     * @param fingerprint the fingerprint of the projects, taken before the index was built
+     */
+    void saveLater(GraphIndex<AbstractProject<?, ?>> index, long fingerprint) {
+        if (DISABLED) {
+            return;
+        }
+        // Only submit if no write is waiting.  The waiting write picks up the newest index.
+        if (pending.getAndSet(new PendingSave(index, fingerprint)) == null) {
+            executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    savePending();
+                }
+            });
+        }
+    }
+    
+    private void savePending() {
+        PendingSave save = pending.getAndSet(null);
+        if (save == null) {
+            return;
+        }
+        try {
+            long start = System.nanoTime();
+            write(save.index, save.fingerprint, JenkinsBlockGraph.FULL_NAME);
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine("Saved the index of " + save.index.size() + " projects in "
+                            + (System.nanoTime() - start) / 1000000 + " ms.");
+            }
+        }
+        catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not save the project index to " + getFile(), e);
+        }
+    }
+    
+    /**
+     * Reads the index of Jenkins' projects, if it was saved from the same projects.
+     * 
+     * @param version the graph version to give the index
+     * @return        the index, or null if there is none, it's stale or it can't be read
+     */
+    GraphIndex<AbstractProject<?, ?>> load(long version) {
+        if (DISABLED) {
+            return null;
+        }
+        long start = System.nanoTime();
+        AbstractProject<?, ?>[] projects = ProjectRegistry.getInstance().getProjects();
+        final Map<String, AbstractProject<?, ?>> byName = new HashMap<String, AbstractProject<?, ?>>(projects.length * 2);
+        for (AbstractProject<?, ?> project : projects) {
+            byName.put(project.getFullName(), project);
+        }
+        try {
+            GraphIndex<AbstractProject<?, ?>> index = read(fingerprint(projects), version,
+                    new Function<String, AbstractProject<?, ?>>() {
+                        @Override
+                        public AbstractProject<?, ?> apply(String name) {
+                            return byName.get(name);
+                        }
+                    });
+            if (index != null) {
+                LOGGER.info("Loaded the index of " + index.size() + " projects in "
+                            + (System.nanoTime() - start) / 1000000 + " ms.");
+            }
+            return index;
+        }
+        catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not load the project index from " + getFile(), e);
+            return null;
+        }
+    }
+    
+    /**
+     * Writes an index to the file.  It's written to a temporary file first, so a reader never sees half a file.
+     * 
+     * @param index       the index
+     * @param fingerprint the fingerprint of the graph the index was built from
+     * @param names       names each node.  Names must be unique.
+     * @throws IOException if the file can't be written
+     */
+    <N> void write(GraphIndex<N> index, long fingerprint, Function<? super N, String> names) throws IOException {
+        File target = getFile();
+        if (target == null) {
+            return;
+        }
+        File temporary = new File(target.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT);
+            out.writeLong(fingerprint);
+            out.writeInt(index.size());
+            for (int i = 0; i < index.size(); i++) {
+                byte[] name = names.apply(index.getNode(i)).getBytes(StandardCharsets.UTF_8);
+                out.writeInt(name.length);
+                out.write(name);
+            }
+            writeEdges(out, index, SearchDirection.UP);
+            writeEdges(out, index, SearchDirection.DOWN);
+        }
+        finally {
+            out.close();
+        }
+        try {
+            Files.move(temporary.toPath(), target.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporary.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+    
+    private static void writeEdges(DataOutputStream out, GraphIndex<?> index, SearchDirection direction) throws IOException {
+        for (int offset : index.getOffsets(direction)) {
+            out.writeInt(offset);
+        }
+        int[] targets = index.getTargets(direction);
+        out.writeInt(targets.length);
+        for (int target : targets) {
+            out.writeInt(target);
+        }
+    }
+    
+    /**
+     * Memory-maps the file and reads the index from it.
+     * 
+     * @param fingerprint the fingerprint of the current graph
+     * @param version     the graph version to give the index
+     * @param nodes       name -> node, or null if there is no such node
+     * @return            the index, or null if there is no file, it's stale, or it's corrupt
+     * @throws IOException if the file exists but can't be read
+     */
+    <N> GraphIndex<N> read(long fingerprint, long version, Function<String, ? extends N> nodes) throws IOException {
+        File source = getFile();
+        if ((source == null) || !source.isFile()) {
+            return null;
+        }
+        FileChannel channel = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+        try {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if ((buffer.remaining() < 16) || (buffer.getInt() != MAGIC) || (buffer.getInt() != FORMAT)) {
+                LOGGER.fine("Ignoring " + source + ".  It's not a project index, or an older format.");
+                return null;
+            }
+            if (buffer.getLong() != fingerprint) {
+                LOGGER.fine("Ignoring " + source + ".  The projects have changed since it was saved.");
+                return null;
+            }
+            return readIndex(buffer, version, nodes);
+        }
+        catch (BufferUnderflowException e) {
+            LOGGER.warning("Ignoring " + source + ".  It's truncated.");
+            return null;
+        }
+        finally {
+            channel.close();
+        }
+    }
+    
+    private static <N> GraphIndex<N> readIndex(MappedByteBuffer buffer, long version, Function<String, ? extends N> nodes) {
+        int size = buffer.getInt();
+        // Each name takes at least its length.
+        if ((size < 0) || (size > buffer.remaining() / 4)) {
+            LOGGER.warning("Ignoring the project index.  It's corrupt.");
+            return null;
+        }
+        Object[] indexNodes = new Object[size];
+        for (int i = 0; i < size; i++) {
+            int length = buffer.getInt();
+            if ((length < 0) || (length > buffer.remaining())) {
+                LOGGER.warning("Ignoring the project index.  It's corrupt.");
+                return null;
+            }
+            byte[] name = new byte[length];
+            buffer.get(name);
+            indexNodes[i] = nodes.apply(new String(name, StandardCharsets.UTF_8));
+            if (indexNodes[i] == null) {
+                LOGGER.fine("Ignoring the project index.  A project was removed since it was saved.");
+                return null;
+            }
+        }
+        
+        int[][] up = readEdges(buffer, size);
+        int[][] down = (up == null) ? null : readEdges(buffer, size);
+        if (down == null) {
+            LOGGER.warning("Ignoring the project index.  It's corrupt.");
+            return null;
+        }
+        return new GraphIndex<N>(version, indexNodes, up[0], up[1], down[0], down[1]);
+    }
+    
+    /**
+     * @return the offsets and the targets of one direction, or null if they are out of bounds
+     */
+    private static int[][] readEdges(MappedByteBuffer buffer, int size) {
+        int[] offsets = readInts(buffer, size + 1);
+        int count = buffer.getInt();
+        if ((count < 0) || (count > buffer.remaining() / 4)) {
+            return null;
+        }
+        int[] targets = readInts(buffer, count);
+        return isValid(offsets, targets, size) ? new int[][] { offsets, targets } : null;
+    }
+    
+    private static int[] readInts(MappedByteBuffer buffer, int count) {
+        int[] values = new int[count];
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + count * 4);
+        return values;
+    }
+    
+    /**
+     * @return true if the offsets and targets can be searched without going out of bounds
+     */
+    private static boolean isValid(int[] offsets, int[] targets, int size) {
+        if ((offsets[0] != 0) || (offsets[size] != targets.length)) {
+            return false;
+        }
+        for (int i = 0; i < size; i++) {
+            if (offsets[i] > offsets[i + 1]) {
+                return false;
+            }
+        }
+        for (int target : targets) {
+            if ((target < 0) || (target >= size)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * @return the file, or null if Jenkins is not available
+     */
+    private File getFile() {
+        if (file != null) {
+            return file;
+        }
+        Jenkins jenkins = Jenkins.getInstance();
+        if (jenkins == null) {
+            LOGGER.severe("Jenkins.getInstance() returned null.  This should never happen!");
+            return null;
+        }
+        return new File(jenkins.getRootDir(), FILE_NAME);
+    }
+    
+    /**
+     * Fingerprints what the edges between projects are computed from.  The order of the projects doesn't matter.
+     * 
+     * @param projects every project
+     * @return         the fingerprint
+     */
+    static long fingerprint(AbstractProject<?, ?>[] projects) {
+        long fingerprint = hash(FNV_OFFSET, String.valueOf(Jenkins.VERSION));
+        Jenkins jenkins = Jenkins.getInstance();
+        if (jenkins != null) {
+            for (PluginWrapper plugin : jenkins.getPluginManager().getPlugins()) {
+                if (plugin.isActive()) {
+                    fingerprint += hash(hash(FNV_OFFSET, plugin.getShortName()), plugin.getVersion());
+                }
+            }
+        }
+        for (AbstractProject<?, ?> project : projects) {
+            File config = project.getConfigFile().getFile();
+            long projectHash = hash(FNV_OFFSET, project.getFullName());
+            projectHash = hash(projectHash, config.lastModified());
+            projectHash = hash(projectHash, config.length());
+            fingerprint += projectHash;
+        }
+        return fingerprint;
+    }
+    
+    /**
+     * @return the FNV-1a hash of a string's characters, continuing from hash
+     */
+    static long hash(long hash, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            hash = (hash ^ value.charAt(i)) * FNV_PRIME;
+        }
+        // Separates the string from whatever is hashed next.
+        return (hash ^ 0xffff) * FNV_PRIME;
+    }
+    
+    /**
+     * @return the FNV-1a hash of a long's bytes, continuing from hash
+     */
+    static long hash(long hash, long value) {
+        for (int shift = 0; shift < 64; shift += 8) {
+            hash = (hash ^ ((value >>> shift) & 0xff)) * FNV_PRIME;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, Chad Rosenquist
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.blockbuildfinalproject;
+
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jenkinsci.plugins.blockbuildfinalproject.BlockBuild.SearchDirection;
+
+import com.google.common.base.Predicate;
+
+import hudson.model.AbstractProject;
+
+/**
+ * A DecisionEngine that searches a GraphIndex of the whole graph instead of asking Jenkins for each project's triggers.
+ * 
+ * The index is built once per graph version, by warmUp() or on DecisionEngines' background thread,
+ * and swapped in with a single volatile write, so decisions never see half an index.
+ * Decisions run under the Queue lock, so they never build the index themselves: the first decision after
+ * Jenkins replaces its DependencyGraph asks for a rebuild, and until the new index is swapped in,
+ * every decision is made by the reference engine (BlockEngine.evaluate()).
+ * A project created after the index was built is decided by the reference engine until the next rebuild.
+ * Indexes of Jenkins' projects are saved by GraphIndexStore, and warmUp() loads the saved index
+ * if the projects haven't changed, so a restarted controller doesn't have to rebuild it.
+ * 
+ * Best for large controllers, where the same triggers are read over and over.  The index costs
+ * a few ints per edge, plus a map from project to id.
+ * 
+ * @author Chad Rosenquist
+ *
+ */
+final class IndexedDecisionEngine implements DecisionEngine {
+    private static final Logger LOGGER = Logger.getLogger(IndexedDecisionEngine.class.getName());
+    
+    private static final IndexedDecisionEngine INSTANCE = new IndexedDecisionEngine(new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            DecisionEngines.getInstance().execute(command);
+        }
+    });
+    
+    // no rebuild requested
+    private static final long NO_VERSION = Long.MIN_VALUE;
+    
+    // rebuilds the index, off the thread holding the Queue lock
+    private final Executor rebuilder;
+    
+    // the index of the current graph, or null
+    private volatile GraphIndex<?> index = null;
+    
+    // the graph version most recently asked to be rebuilt, or NO_VERSION
+    private final AtomicLong rebuilding = new AtomicLong(NO_VERSION);
+    
+    /**
+     * Constructor
+     * 
+     * @param rebuilder rebuilds the index when the graph's version changes
+     */
+    IndexedDecisionEngine(Executor rebuilder) {
+        this.rebuilder = rebuilder;
+    }
+    
+    /**
+     * @return the single instance of the engine
+     */
+    static IndexedDecisionEngine getInstance() {
+        return INSTANCE;
+    }
+    
+    @Override
+    public String getName() {
+        return "indexed";
+    }
+
+    @Override
+    public <N> BlockEngine.Evaluation<N> evaluate(BlockGraph<N> graph, N start, SearchDirection direction,
+                                                  Predicate<? super N> isFinal) {
+        GraphIndex<N> current = getCurrentIndex(graph);
+        if (current == null) {
+            return BlockEngine.evaluate(graph, start, direction, isFinal);
+        }
+        int startId = current.getId(start);
+        if (startId < 0) {
+            return BlockEngine.evaluate(graph, start, direction, isFinal);
+        }
+        
+        Map<N, N> parents = current.search(startId, direction, isFinal);
+        for (N node : parents.keySet()) {
+            if (!node.equals(start) && graph.isBusy(node)) {
+                return new BlockEngine.Evaluation<N>(start, node, parents);
+            }
+        }
+        return new BlockEngine.Evaluation<N>(start, null, parents);
+    }
+    
+    /**
+     * Builds the index of the graph, unless it's already built.  For Jenkins' projects, the saved index is
+     * loaded instead if it's still current.
+     */
+    @Override
+    public <N> void warmUp(BlockGraph<N> graph) {
+        if (graph instanceof JenkinsBlockGraph) {
+            loadSaved((JenkinsBlockGraph) graph);
+        }
+        getIndex(graph);
+    }
+    
+    /**
+     * The index is checked against the graph's version, so the engine itself.
+     */
+    @Override
+    public DecisionEngine snapshot() {
+        return this;
+    }
+    
+    /**
+     * Loads the index GraphIndexStore saved, unless the graph's current version is already indexed.
+     * 
+     * @param graph Jenkins' projects
+     */
+    private synchronized void loadSaved(JenkinsBlockGraph graph) {
+        long version = graph.getVersion();
+        GraphIndex<?> current = index;
+        if ((current != null) && (current.getVersion() == version)) {
+            return;
+        }
+        GraphIndex<AbstractProject<?, ?>> saved = GraphIndexStore.getInstance().load(version);
+        if (saved != null) {
+            index = saved;
+        }
+    }
+    
+    @Override
+    public void clear() {
+        index = null;
+        rebuilding.set(NO_VERSION);
+    }
+    
+    /**
+     * Returns the index of the graph's current version without building it.  If it's not built,
+     * asks the rebuilder to build it, once per version.
+     * 
+     * @param graph the graph
+     * @return      the index of the graph's current version, or null if it's not built yet
+     */
+    @SuppressWarnings("unchecked")
+    private <N> GraphIndex<N> getCurrentIndex(final BlockGraph<N> graph) {
+        final long version = graph.getVersion();
+        GraphIndex<?> current = index;
+        if ((current != null) && (current.getVersion() == version)) {
+            return (GraphIndex<N>) current;
+        }
+        
+        if (rebuilding.getAndSet(version) != version) {
+            rebuilder.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        getIndex(graph);
+                    }
+                    catch (RuntimeException e) {
+                        LOGGER.log(Level.WARNING, "Could not index the projects for graph version " + version
+                                   + ".  The reference engine decides until the next rebuild.", e);
+                        // Let the next decision ask again.
+                        rebuilding.compareAndSet(version, NO_VERSION);
+                    }
+                }
+            });
+        }
+        
+        // The rebuilder may have run on this thread.
+        current = index;
+        return ((current != null) && (current.getVersion() == version)) ? (GraphIndex<N>) current : null;
+    }
+    
+    /**
+     * Builds the index on the calling thread if needed.  Never called under the Queue lock.
+     * 
+     * @param graph the graph
+     * @return      the index of the graph's current version, built if needed
+     */
+    @SuppressWarnings("unchecked")
+    <N> GraphIndex<N> getIndex(BlockGraph<N> graph) {
+        long version = graph.getVersion();
+        GraphIndex<?> current = index;
+        if ((current != null) && (current.getVersion() == version)) {
+            return (GraphIndex<N>) current;
+        }
+        
+        synchronized (this) {
+            // Another thread may have built it while this one waited.
+            current = index;
+            if ((current != null) && (current.getVersion() == version)) {
+                return (GraphIndex<N>) current;
+            }
+            long start = System.nanoTime();
+            // Fingerprint first: a config.xml saved during the build must make the saved index stale.
+            GraphIndexStore store = GraphIndexStore.getInstance();
+            boolean save = (graph instanceof JenkinsBlockGraph) && store.isEnabled();
+            long fingerprint = save ? GraphIndexStore.fingerprint(ProjectRegistry.getInstance().getProjects()) : 0;
+            GraphIndex<N> built = GraphIndex.build(graph, version);
+            index = built;
+            if (save) {
+                store.saveLater((GraphIndex<AbstractProject<?, ?>>) built, fingerprint);
+            }
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine("Indexed " + built.size() + " projects for graph version " + version + " in "
+                            + (System.nanoTime() - start) / 1000000 + " ms.");
+            }
+            return built;
+        }
+    }
+}
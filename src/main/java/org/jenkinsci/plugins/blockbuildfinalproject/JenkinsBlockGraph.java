@@ -0,0 +1,120 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, Chad Rosenquist
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.blockbuildfinalproject;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.jenkinsci.plugins.blockbuildfinalproject.BlockBuild.SearchDirection;
+
+import com.google.common.base.Function;
+
+import hudson.model.AbstractProject;
+import hudson.model.Queue.Task;
+
+/**
+ * BlockGraph over Jenkins' projects.
+ * 
+ * Neighbours are AbstractProject.getUpstreamProjects() and getDownstreamProjects().
+ * A project is busy if it is building, or is an unblocked task in the queue.
+ * The unblocked tasks are read once, when the graph is created.  The building projects are
+ * read live, unless a snapshot is given, so a shadow evaluation sees exactly what the decision saw.
+ * The version is the RegionCache epoch, which changes when Jenkins replaces its DependencyGraph.
+ * 
+ * @author Chad Rosenquist
+ *
+ */
+final class JenkinsBlockGraph implements BlockGraph<AbstractProject<?, ?>> {
+    
+    /**
+     * Names a project by its full name, for logs and JSON.
+     */
+    static final Function<AbstractProject<?, ?>, String> FULL_NAME = new Function<AbstractProject<?, ?>, String>() {
+        @Override
+        public String apply(AbstractProject<?, ?> project) {
+            return project.getFullName();
+        }
+    };
+    
+    private final Set<Task> unblockedTasks;
+    
+    // the building projects, or null to ask each project
+    private final Set<AbstractProject<?, ?>> buildingProjects;
+    
+    /**
+     * @param unblockedTasks the unblocked tasks in the queue, from JenkinsWrapper.getUnblockedTasks()
+     */
+    JenkinsBlockGraph(Set<Task> unblockedTasks) {
+        this(unblockedTasks, null);
+    }
+    
+    /**
+     * @param unblockedTasks   the unblocked tasks in the queue, from JenkinsWrapper.getUnblockedTasks()
+     * @param buildingProjects the building projects, from JenkinsWrapper.getBuildingProjects(), or null to ask each project
+     */
+    JenkinsBlockGraph(Set<Task> unblockedTasks, Set<AbstractProject<?, ?>> buildingProjects) {
+        this.unblockedTasks = unblockedTasks;
+        this.buildingProjects = buildingProjects;
+    }
+    
+    /**
+     * @return a graph with the same busy projects, even after they finish or start building.
+     */
+    JenkinsBlockGraph snapshot() {
+        if (buildingProjects != null) {
+            return this;
+        }
+        return new JenkinsBlockGraph(new HashSet<Task>(unblockedTasks), JenkinsWrapper.getBuildingProjects());
+    }
+
+    @Override
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public List<AbstractProject<?, ?>> getNeighbours(AbstractProject<?, ?> node, SearchDirection direction) {
+        if (direction == SearchDirection.UP) {
+            return (List) node.getUpstreamProjects();
+        }
+        else {
+            return (List) node.getDownstreamProjects();
+        }
+    }
+
+    @Override
+    public List<AbstractProject<?, ?>> getAllNodes() {
+        return Arrays.<AbstractProject<?, ?>>asList(ProjectRegistry.getInstance().getProjects());
+    }
+
+    @Override
+    public boolean isBusy(AbstractProject<?, ?> node) {
+        boolean building = (buildingProjects == null) ? node.isBuilding() : buildingProjects.contains(node);
+        return building || unblockedTasks.contains(node);
+    }
+
+    @Override
+    public long getVersion() {
+        return RegionCache.getInstance().getEpoch();
+    }
+}
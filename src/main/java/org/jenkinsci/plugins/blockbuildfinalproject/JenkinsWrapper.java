@@ -30,7 +30,12 @@ import java.util.List;
 import java.util.Set;
 import java.util.logging.Logger;
 
+import hudson.model.AbstractBuild;
 import hudson.model.AbstractProject;
+import hudson.model.Computer;
+import hudson.model.DependencyGraph;
+import hudson.model.Executor;
+import hudson.model.Queue;
 import hudson.model.Queue.Task;
 import jenkins.model.Jenkins;
 
@@ -71,20 +76,69 @@ public final class JenkinsWrapper {
     }
     
     /**
-     * Returns all the AbstractProject instances in Jenkins.
+     * Returns the projects building right now, on any executor.
      * 
-     * @return list of projects.  The list is empty if there are any null pointers.
+     * @return the building projects.  The set is empty if Jenkins is not available.
+     * 
+     * A project is only included if AbstractProject.isBuilding() is true, the same test JenkinsBlockGraph uses
+     * without a snapshot.  An executor still holds a build in POST_PRODUCTION, after isBuilding() turned false.
+     * Costs one pass over the executors, so it's only used when a snapshot of the busy projects is needed.
      */
-    @SuppressWarnings("rawtypes") // should really be List<AbstractProject<?, ?>>
-    public static List<AbstractProject> getAbstractProjects() {
-        List<AbstractProject> projects;
-        try {
-            projects = Jenkins.getInstance().getAllItems(AbstractProject.class);
+    static Set<AbstractProject<?, ?>> getBuildingProjects() {
+        Set<AbstractProject<?, ?>> building = new HashSet<AbstractProject<?, ?>>();
+        Jenkins jenkins = Jenkins.getInstance();
+        if (jenkins == null) {
+            return building;
         }
-        catch (NullPointerException nullException) {
-            projects = new ArrayList<AbstractProject>();
-            LOGGER.severe("Jenkins.getInstance().getItems(AbstractProject.class) threw a NullPointerException.  This should never happen!");
+        for (Computer computer : jenkins.getComputers()) {
+            List<Executor> executors = new ArrayList<Executor>(computer.getExecutors());
+            executors.addAll(computer.getOneOffExecutors());
+            for (Executor executor : executors) {
+                Queue.Executable executable = executor.getCurrentExecutable();
+                if (executable instanceof AbstractBuild) {
+                    AbstractProject<?, ?> project = ((AbstractBuild<?, ?>) executable).getProject();
+                    if (project.isBuilding()) {
+                        building.add(project);
+                    }
+                }
+            }
+        }
+        return building;
+    }
+    
+    /**
+     * Returns the current dependency graph.
+     * 
+     * @return the dependency graph, or null if Jenkins is not available.
+     * 
+     * Jenkins replaces the graph, rather than modifying it, when a project's triggers change.
+     */
+    public static DependencyGraph getDependencyGraph() {
+        Jenkins jenkins = Jenkins.getInstance();
+        if (jenkins == null) {
+            LOGGER.severe("Jenkins.getInstance() returned null.  This should never happen!");
+            return null;
         }
-        return projects;
+        return jenkins.getDependencyGraph();
+    }
+    
+    /**
+     * Returns every AbstractProject in Jenkins sorted by name, for autocompletion.
+     * The index is not filtered by permissions.
+     * 
+     * @return the name index, from ProjectRegistry
+     */
+    static ProjectNameIndex getProjectNameIndex() {
+        return ProjectRegistry.getInstance().getNameIndex();
+    }
+    
+    /**
+     * Returns the trigram index of every AbstractProject in Jenkins, for infix and fuzzy autocompletion.
+     * The index is not filtered by permissions.
+     * 
+     * @return the trigram index
+     */
+    static ProjectTrigramIndex getProjectTrigramIndex() {
+        return ProjectTrigramIndex.getInstance();
     }
 }
@@ -0,0 +1,173 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, Chad Rosenquist
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.blockbuildfinalproject;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import net.sf.json.JSONObject;
+
+/**
+ * Lock-free histogram of non-negative values, such as latencies in nanoseconds.
+ * 
+ * Values are counted in log-linear buckets, like HdrHistogram: values below 16 have their own bucket,
+ * larger values share a bucket with values within 12.5% of them.  Recording a value is a few
+ * shifts and one atomic increment, so it's cheap enough for canRun().
+ * 
+ * @author Chad Rosenquist
+ *
+ */
+final class LatencyHistogram {
+    
+    // number of bits for the linear sub-buckets in each power of two
+    private static final int SUB_BUCKET_BITS = 3;
+    
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    
+    // values below this have their own bucket
+    private static final int LINEAR_LIMIT = 2 * SUB_BUCKETS;
+    
+    // exponent of the first power of two that shares buckets
+    private static final int FIRST_EXPONENT = SUB_BUCKET_BITS + 1;
+    
+    private static final int BUCKETS = LINEAR_LIMIT + (63 - FIRST_EXPONENT) * SUB_BUCKETS;
+    
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    
+    private final AtomicLong totalCount = new AtomicLong();
+    
+    private final AtomicLong totalValue = new AtomicLong();
+    
+    private final AtomicLong maxValue = new AtomicLong();
+    
+    /**
+     * Records a value.  Negative values are recorded as 0.
+     * 
+     * @param value the value
+     */
+    void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts.incrementAndGet(bucketIndex(value));
+        totalCount.incrementAndGet();
+        totalValue.addAndGet(value);
+        
+        long max = maxValue.get();
+        while ((value > max) && !maxValue.compareAndSet(max, value)) {
+            max = maxValue.get();
+        }
+    }
+    
+    /**
+     * @return number of values recorded
+     */
+    long getCount() {
+        return totalCount.get();
+    }
+    
+    /**
+     * @return largest value recorded
+     */
+    long getMax() {
+        return maxValue.get();
+    }
+    
+    /**
+     * @return average of the values recorded, or 0 if none were recorded
+     */
+    double getMean() {
+        long count = totalCount.get();
+        return (count == 0) ? 0 : (double) totalValue.get() / count;
+    }
+    
+    /**
+     * Returns a percentile.  The result is the upper bound of the bucket the percentile falls in,
+     * so it's at most 12.5% too high.
+     * 
+     * @param percentile the percentile, from 0 to 100
+     * @return           the value at the percentile, or 0 if no values were recorded
+     */
+    long getPercentile(double percentile) {
+        long count = totalCount.get();
+        if (count == 0) {
+            return 0;
+        }
+        long target = (long) Math.ceil(count * percentile / 100.0);
+        if (target < 1) {
+            target = 1;
+        }
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(bucketUpperBound(i), getMax());
+            }
+        }
+        return getMax();
+    }
+    
+    /**
+     * @return count, mean, max and common percentiles as JSON
+     */
+    JSONObject toJSON() {
+        JSONObject json = new JSONObject();
+        json.put("count", getCount());
+        json.put("mean", getMean());
+        json.put("p50", getPercentile(50));
+        json.put("p90", getPercentile(90));
+        json.put("p99", getPercentile(99));
+        json.put("p999", getPercentile(99.9));
+        json.put("max", getMax());
+        return json;
+    }
+    
+    /**
+     * @param value a non-negative value
+     * @return      index of the bucket the value is counted in
+     */
+    static int bucketIndex(long value) {
+        if (value < LINEAR_LIMIT) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return LINEAR_LIMIT + (exponent - FIRST_EXPONENT) * SUB_BUCKETS + subBucket;
+    }
+    
+    /**
+     * @param index a bucket index
+     * @return      the largest value counted in the bucket
+     */
+    static long bucketUpperBound(int index) {
+        if (index < LINEAR_LIMIT) {
+            return index;
+        }
+        int exponent = (index - LINEAR_LIMIT) / SUB_BUCKETS + FIRST_EXPONENT;
+        int subBucket = (index - LINEAR_LIMIT) % SUB_BUCKETS;
+        long lowerBound = (long) (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+        return lowerBound + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+}
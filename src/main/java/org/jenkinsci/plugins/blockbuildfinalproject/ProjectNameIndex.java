@@ -0,0 +1,240 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, Chad Rosenquist
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.blockbuildfinalproject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import com.google.common.base.Predicate;
+
+import hudson.model.AbstractProject;
+
+/**
+ * Immutable, case-insensitive sorted index of project full names.
+ * 
+ * Autocompleting a project name used to lower-case and compare every project's name on every keystroke.
+ * This index lower-cases the names once and sorts them, so a prefix lookup is a binary search
+ * followed by a scan of the matches: O(log n + k).
+ * 
+ * When projects are created, deleted or moved, ProjectRegistry replaces the index with a copy that has
+ * the projects inserted or removed.  Only the changed names are sorted; the copy is O(n).
+ * 
+ * @author Chad Rosenquist
+ *
+ */
+final class ProjectNameIndex {
+    
+    // lower-cased full names, sorted
+    private final String[] lowerNames;
+    
+    // projects, in the same order as lowerNames
+    private final AbstractProject<?, ?>[] projects;
+    
+    /**
+     * Constructor
+     * 
+     * @param projects the projects to index
+     */
+    ProjectNameIndex(final AbstractProject<?, ?>[] projects) {
+        final int size = projects.length;
+        final String[] names = new String[size];
+        Integer[] order = new Integer[size];
+        
+        for (int i = 0; i < size; i++) {
+            names[i] = toLowerCase(projects[i].getFullName());
+            order[i] = i;
+        }
+        
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return names[a].compareTo(names[b]);
+            }
+        });
+        
+        this.lowerNames = new String[size];
+        this.projects = new AbstractProject<?, ?>[size];
+        for (int i = 0; i < size; i++) {
+            this.lowerNames[i] = names[order[i]];
+            this.projects[i] = projects[order[i]];
+        }
+    }
+    
+    /**
+     * Constructor
+     * 
+     * @param lowerNames lower-cased full names, sorted
+     * @param projects   projects, in the same order as lowerNames
+     */
+    private ProjectNameIndex(String[] lowerNames, AbstractProject<?, ?>[] projects) {
+        this.lowerNames = lowerNames;
+        this.projects = projects;
+    }
+    
+    /**
+     * Returns a copy of the index with projects inserted.  Projects already in the index are not inserted again.
+     * 
+     * @param added the projects to insert
+     * @return      the new index
+     */
+    ProjectNameIndex withAdded(Collection<? extends AbstractProject<?, ?>> added) {
+        Set<AbstractProject<?, ?>> newProjects = new LinkedHashSet<AbstractProject<?, ?>>(added.size());
+        for (AbstractProject<?, ?> project : added) {
+            if (!contains(project)) {
+                newProjects.add(project);
+            }
+        }
+        if (newProjects.isEmpty()) {
+            return this;
+        }
+        ProjectNameIndex insert = new ProjectNameIndex(newProjects.toArray(new AbstractProject<?, ?>[newProjects.size()]));
+        
+        // Merge the two sorted arrays.
+        int size = lowerNames.length + insert.lowerNames.length;
+        String[] mergedNames = new String[size];
+        AbstractProject<?, ?>[] mergedProjects = new AbstractProject<?, ?>[size];
+        int i = 0;
+        int j = 0;
+        for (int k = 0; k < size; k++) {
+            if ((j >= insert.lowerNames.length)
+                    || ((i < lowerNames.length) && (lowerNames[i].compareTo(insert.lowerNames[j]) <= 0))) {
+                mergedNames[k] = lowerNames[i];
+                mergedProjects[k] = projects[i++];
+            }
+            else {
+                mergedNames[k] = insert.lowerNames[j];
+                mergedProjects[k] = insert.projects[j++];
+            }
+        }
+        return new ProjectNameIndex(mergedNames, mergedProjects);
+    }
+    
+    /**
+     * Returns a copy of the index without some projects.
+     * 
+     * @param removed the projects to remove
+     * @return        the new index
+     */
+    ProjectNameIndex withRemoved(Collection<? extends AbstractProject<?, ?>> removed) {
+        if (removed.isEmpty()) {
+            return this;
+        }
+        Set<AbstractProject<?, ?>> removedSet = new HashSet<AbstractProject<?, ?>>(removed);
+        List<String> keptNames = new ArrayList<String>(lowerNames.length);
+        List<AbstractProject<?, ?>> keptProjects = new ArrayList<AbstractProject<?, ?>>(lowerNames.length);
+        for (int i = 0; i < lowerNames.length; i++) {
+            if (!removedSet.contains(projects[i])) {
+                keptNames.add(lowerNames[i]);
+                keptProjects.add(projects[i]);
+            }
+        }
+        if (keptNames.size() == lowerNames.length) {
+            return this;
+        }
+        return new ProjectNameIndex(keptNames.toArray(new String[keptNames.size()]),
+                keptProjects.toArray(new AbstractProject<?, ?>[keptProjects.size()]));
+    }
+    
+    /**
+     * @param project a project
+     * @return        true if the project is in the index under its current full name
+     */
+    private boolean contains(AbstractProject<?, ?> project) {
+        String lowerName = toLowerCase(project.getFullName());
+        for (int i = lowerBound(lowerName); i < lowerNames.length && lowerNames[i].equals(lowerName); i++) {
+            if (projects[i].equals(project)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * @return number of projects in the index
+     */
+    int size() {
+        return projects.length;
+    }
+    
+    /**
+     * Returns the projects whose full name starts with prefix, ignoring case, sorted by name.
+     * 
+     * @param prefix the prefix the end-user typed
+     * @param filter only projects the filter accepts are returned, for example projects the user can read
+     * @param limit  maximum number of projects to return
+     * @return       matching projects
+     */
+    List<AbstractProject<?, ?>> findByPrefix(String prefix, Predicate<AbstractProject<?, ?>> filter, int limit) {
+        String lowerPrefix = toLowerCase(prefix);
+        List<AbstractProject<?, ?>> matches = new ArrayList<AbstractProject<?, ?>>();
+        for (int i = lowerBound(lowerPrefix); i < lowerNames.length && matches.size() < limit; i++) {
+            if (!lowerNames[i].startsWith(lowerPrefix)) {
+                break;
+            }
+            if (filter.apply(projects[i])) {
+                matches.add(projects[i]);
+            }
+        }
+        return matches;
+    }
+    
+    /**
+     * Binary search for the first name that is not less than lowerPrefix.
+     * 
+     * @param lowerPrefix the prefix, in lower case
+     * @return            index of the first name that could start with lowerPrefix
+     */
+    private int lowerBound(String lowerPrefix) {
+        int low = 0;
+        int high = lowerNames.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (lowerNames[middle].compareTo(lowerPrefix) < 0) {
+                low = middle + 1;
+            }
+            else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+    
+    /**
+     * Lower-cases a project name the same way for indexing and lookups.
+     * 
+     * @param name the name
+     * @return     the name in lower case
+     */
+    static String toLowerCase(String name) {
+        return name.toLowerCase(Locale.ENGLISH);
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, Chad Rosenquist
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.blockbuildfinalproject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.base.Function;
+import com.google.common.base.Functions;
+import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableList;
+
+import hudson.model.AbstractProject;
+
+/**
+ * Immutable set of projects reachable upstream or downstream of a project, with the number of hops to each.
+ * 
+ * Created by BlockBuild.getRegion() and cached by RegionCache.
+ * The edges between the projects are kept too, so the search with final projects can be
+ * counted from the cached region without reading the dependency graph again.
+ * 
+ * @author Chad Rosenquist
+ *
+ */
+final class ProjectRegion {
+    
+    // projects sorted by hop distance, then by name
+    private final List<AbstractProject<?, ?>> projects;
+    
+    // project -> hop distance
+    private final Map<AbstractProject<?, ?>, Integer> distances;
+    
+    // the region's project
+    private final AbstractProject<?, ?> start;
+    
+    // project -> projects directly upstream or downstream of it, for the region's project and every project in the region
+    private final Map<AbstractProject<?, ?>, List<AbstractProject<?, ?>>> children;
+    
+    /**
+     * Constructor
+     * 
+     * @param start     the region's project
+     * @param distances project -> number of hops from the region's project
+     * @param children  project -> projects directly upstream or downstream of it
+     */
+    ProjectRegion(AbstractProject<?, ?> start, final Map<AbstractProject<?, ?>, Integer> distances,
+            Map<AbstractProject<?, ?>, List<AbstractProject<?, ?>>> children) {
+        this.start = start;
+        this.distances = distances;
+        this.children = children;
+        List<AbstractProject<?, ?>> sorted = new ArrayList<AbstractProject<?, ?>>(distances.keySet());
+        Collections.sort(sorted, new Comparator<AbstractProject<?, ?>>() {
+            @Override
+            public int compare(AbstractProject<?, ?> a, AbstractProject<?, ?> b) {
+                int result = distances.get(a).compareTo(distances.get(b));
+                if (result == 0) {
+                    result = a.getFullName().compareTo(b.getFullName());
+                }
+                return result;
+            }
+        });
+        this.projects = Collections.unmodifiableList(sorted);
+    }
+    
+    /**
+     * @return projects in the region, closest first
+     */
+    List<AbstractProject<?, ?>> getProjects() {
+        return projects;
+    }
+    
+    /**
+     * @param project a project
+     * @return        true if the project is in the region
+     */
+    boolean contains(AbstractProject<?, ?> project) {
+        return distances.containsKey(project);
+    }
+    
+    /**
+     * @param project a project in the region
+     * @return        number of hops to the project, or -1 if the project is not in the region
+     */
+    int getDistance(AbstractProject<?, ?> project) {
+        Integer distance = distances.get(project);
+        return (distance == null) ? -1 : distance;
+    }
+    
+    /**
+     * @return number of projects in the region
+     */
+    int size() {
+        return projects.size();
+    }
+    
+    /**
+     * Counts the projects the search from the region's project visits when it stops at final projects.
+     * 
+     * @param isFinal true for the final projects
+     * @return        number of projects the search visits, the same as
+     *                BlockBuild.getTransitiveUpstreamProjectsFinal() or getTransitiveDownstreamProjectsFinal()
+     */
+    int countSearch(Predicate<AbstractProject<?, ?>> isFinal) {
+        Function<AbstractProject<?, ?>, List<AbstractProject<?, ?>>> neighbours =
+                Functions.forMap(children, ImmutableList.<AbstractProject<?, ?>>of());
+        return TransitiveSearch.search(start, neighbours, isFinal).size();
+    }
+}
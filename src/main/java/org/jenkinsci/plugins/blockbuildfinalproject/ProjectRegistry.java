@@ -0,0 +1,238 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, Chad Rosenquist
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.blockbuildfinalproject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import org.acegisecurity.context.SecurityContext;
+import org.acegisecurity.context.SecurityContextHolder;
+
+import hudson.model.AbstractProject;
+import hudson.model.Item;
+import hudson.model.ItemGroup;
+import hudson.model.Items;
+import hudson.security.ACL;
+import jenkins.model.Jenkins;
+
+/**
+ * Registry of every AbstractProject in Jenkins.
+ * 
+ * Jenkins.getAllItems() walks every folder and checks permissions each time it's called.
+ * This registry walks the folders once and is then kept up to date by BlockBuildItemListener.
+ * 
+ * The projects are kept in an array that is replaced, never modified, when a project is added or removed.
+ * Readers get the current array without locking and can iterate it while it's being replaced.
+ * 
+ * The registry also keeps the projects sorted by name in a ProjectNameIndex, for autocompletion.
+ * Projects are inserted into and removed from the index as they change, without sorting it again.
+ * 
+ * The registry is not filtered by permissions.  Callers filter for the current user, as AutoCompleteUtils does.
+ * 
+ * @author Chad Rosenquist
+ *
+ */
+final class ProjectRegistry {
+    private static final Logger LOGGER = Logger.getLogger(ProjectRegistry.class.getName());
+    
+    private static final ProjectRegistry INSTANCE = new ProjectRegistry();
+    
+    // current projects, or null if the registry must be reloaded
+    private volatile AbstractProject<?, ?>[] projects = null;
+    
+    // projects sorted by name, or null if it must be rebuilt
+    private volatile ProjectNameIndex nameIndex = null;
+    
+    private ProjectRegistry() {
+    }
+    
+    /**
+     * @return the single instance of the registry
+     */
+    static ProjectRegistry getInstance() {
+        return INSTANCE;
+    }
+    
+    /**
+     * Returns every AbstractProject in Jenkins.  The array must not be modified.
+     * 
+     * @return the projects.  Empty if Jenkins is not available.
+     */
+    AbstractProject<?, ?>[] getProjects() {
+        AbstractProject<?, ?>[] current = projects;
+        if (current == null) {
+            current = reload();
+        }
+        return current;
+    }
+    
+    /**
+     * Returns the projects sorted by name, for autocompletion.
+     * 
+     * @return the name index
+     */
+    ProjectNameIndex getNameIndex() {
+        ProjectNameIndex current = nameIndex;
+        if (current == null) {
+            current = rebuildNameIndex();
+        }
+        return current;
+    }
+    
+    /**
+     * Call this when an item is renamed or moved.  If it's a project, it's moved to its new place in the name index.
+     * When a folder is renamed or moved, Jenkins fires an event for every item inside it, so each project
+     * is moved by its own event and the folder's event is ignored.
+     * 
+     * @param item the item that was renamed or moved
+     */
+    synchronized void onLocationChanged(Item item) {
+        ProjectNameIndex current = nameIndex;
+        if ((current != null) && (item instanceof AbstractProject)) {
+            List<AbstractProject<?, ?>> moved = Collections.<AbstractProject<?, ?>>singletonList((AbstractProject<?, ?>) item);
+            nameIndex = current.withRemoved(moved).withAdded(moved);
+        }
+    }
+    
+    /**
+     * Adds projects.
+     * 
+     * @param added the projects being created
+     */
+    synchronized void add(Collection<AbstractProject<?, ?>> added) {
+        if (projects == null) {
+            // The next reader reloads everything, including these projects.
+            return;
+        }
+        Set<AbstractProject<?, ?>> newProjects = new LinkedHashSet<AbstractProject<?, ?>>(Arrays.asList(projects));
+        newProjects.addAll(added);
+        projects = newProjects.toArray(new AbstractProject<?, ?>[newProjects.size()]);
+        if (nameIndex != null) {
+            nameIndex = nameIndex.withAdded(added);
+        }
+    }
+    
+    /**
+     * Returns the projects an item is made of: the item itself if it's a project,
+     * and every project inside it if it's a folder.
+     * 
+     * @param item the item
+     * @return     the projects
+     */
+    static List<AbstractProject<?, ?>> getProjectsIn(Item item) {
+        List<AbstractProject<?, ?>> itemProjects = new ArrayList<AbstractProject<?, ?>>();
+        if (item instanceof AbstractProject) {
+            itemProjects.add((AbstractProject<?, ?>) item);
+        }
+        if (item instanceof ItemGroup) {
+            for (AbstractProject<?, ?> project : Items.getAllItems((ItemGroup<?>) item, AbstractProject.class)) {
+                itemProjects.add(project);
+            }
+        }
+        return itemProjects;
+    }
+    
+    /**
+     * Removes an item.  If the item is a folder, every project inside it is removed.
+     * 
+     * @param item         the item being deleted
+     * @param itemFullName full name of the item
+     */
+    synchronized void remove(Object item, String itemFullName) {
+        if (projects == null) {
+            return;
+        }
+        String prefix = itemFullName + "/";
+        List<AbstractProject<?, ?>> newProjects = new ArrayList<AbstractProject<?, ?>>(projects.length);
+        List<AbstractProject<?, ?>> removed = new ArrayList<AbstractProject<?, ?>>();
+        for (AbstractProject<?, ?> project : projects) {
+            if (!project.equals(item) && !project.getFullName().startsWith(prefix)) {
+                newProjects.add(project);
+            }
+            else {
+                removed.add(project);
+            }
+        }
+        projects = newProjects.toArray(new AbstractProject<?, ?>[newProjects.size()]);
+        if (nameIndex != null) {
+            nameIndex = nameIndex.withRemoved(removed);
+        }
+    }
+    
+    /**
+     * Forgets every project.  The next reader reloads the registry from Jenkins.
+     */
+    synchronized void reset() {
+        projects = null;
+        nameIndex = null;
+    }
+    
+    /**
+     * Sorts the projects by name.
+     * 
+     * @return the name index
+     */
+    private synchronized ProjectNameIndex rebuildNameIndex() {
+        if (nameIndex == null) {
+            nameIndex = new ProjectNameIndex(getProjects());
+        }
+        return nameIndex;
+    }
+    
+    /**
+     * Loads every AbstractProject from Jenkins, as the system user so no project is filtered out.
+     * 
+     * @return the projects
+     */
+    private synchronized AbstractProject<?, ?>[] reload() {
+        if (projects != null) {
+            return projects;
+        }
+        
+        Jenkins jenkins = Jenkins.getInstance();
+        if (jenkins == null) {
+            LOGGER.severe("Jenkins.getInstance() returned null.  This should never happen!");
+            return new AbstractProject<?, ?>[0];
+        }
+        
+        LOGGER.finest("Loading the project registry.");
+        SecurityContext oldContext = ACL.impersonate(ACL.SYSTEM);
+        try {
+            @SuppressWarnings("rawtypes")
+            List<AbstractProject> allProjects = jenkins.getAllItems(AbstractProject.class);
+            projects = allProjects.toArray(new AbstractProject<?, ?>[allProjects.size()]);
+        }
+        finally {
+            SecurityContextHolder.setContext(oldContext);
+        }
+        return projects;
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, Chad Rosenquist
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.blockbuildfinalproject;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import hudson.model.AbstractProject;
+import hudson.model.Item;
+import jenkins.model.Jenkins;
+
+/**
+ * Short-lived cache of project names resolved by Jenkins.getItem().
+ * 
+ * The final project textboxes are validated on every change, for both the upstream and downstream fields.
+ * Each validation resolves every name again, although the same names were resolved a moment ago.
+ * 
+ * 1. A resolved name is kept for TTL_MILLIS.
+ * 2. Names are resolved for the current user, so the user is part of the key.
+ * 3. The cache is cleared when it reaches MAX_ENTRIES, and by BlockBuildItemListener when items are
+ *    created, moved or deleted.
+ * 
+ * @author Chad Rosenquist
+ *
+ */
+final class ProjectResolutionCache {
+    
+    private static final ProjectResolutionCache INSTANCE = new ProjectResolutionCache();
+    
+    // how long a resolved name is kept
+    private static final long TTL_MILLIS = 10000;
+    
+    // maximum number of resolved names kept
+    private static final int MAX_ENTRIES = 1000;
+    
+    private final Map<String, Resolution> resolutions = new ConcurrentHashMap<String, Resolution>();
+    
+    private ProjectResolutionCache() {
+    }
+    
+    /**
+     * @return the single instance of the cache
+     */
+    static ProjectResolutionCache getInstance() {
+        return INSTANCE;
+    }
+    
+    /**
+     * Resolves a project name, relative to the current project, for the current user.
+     * 
+     * @param name           the name the end-user entered
+     * @param currentProject current project
+     * @return               the item, or null if there is no such item
+     */
+    Item resolve(String name, AbstractProject<?, ?> currentProject) {
+        Jenkins jenkins = Jenkins.getInstance();
+        assert jenkins != null;
+        
+        String key = Jenkins.getAuthentication().getName() + '\n'
+                + ((currentProject == null) ? "" : currentProject.getFullName()) + '\n' + name;
+        long now = System.currentTimeMillis();
+        Resolution resolution = resolutions.get(key);
+        if ((resolution == null) || (now - resolution.time > TTL_MILLIS)) {
+            if (resolutions.size() >= MAX_ENTRIES) {
+                resolutions.clear();
+            }
+            resolution = new Resolution(jenkins.getItem(name, currentProject, Item.class), now);
+            resolutions.put(key, resolution);
+        }
+        return resolution.item;
+    }
+    
+    /**
+     * Forgets every resolved name.
+     */
+    void clear() {
+        resolutions.clear();
+    }
+    
+    /**
+     * A resolved name.
+     */
+    private static final class Resolution {
+        private final Item item;
+        private final long time;
+        
+        Resolution(Item item, long time) {
+            this.item = item;
+            this.time = time;
+        }
+    }
+}
@@ -0,0 +1,433 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, Chad Rosenquist
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.blockbuildfinalproject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import com.google.common.base.Predicate;
+
+import hudson.model.AbstractProject;
+
+/**
+ * Trigram index of project full names, for infix and fuzzy autocompletion.
+ * 
+ * Job names often look like team/service/stage, so matching only on the start of the name forces
+ * the end-user to type the whole folder path.  This index finds names that contain what was typed
+ * anywhere, and names that are close to it.
+ * 
+ * Every lower-cased full name is split into its three character substrings (trigrams).
+ * For each trigram the index keeps the ids of the names that contain it.
+ * 
+ * 1. Infix match:  every trigram of the query must be in the name, so only the names of the rarest
+ *    trigram are checked with String.contains().
+ * 2. Fuzzy match:  a name matches if it contains at least FUZZY_THRESHOLD of the query's trigrams.
+ *    Such a name must contain one of the (n - t + 1) rarest trigrams, where n is the number of query
+ *    trigrams and t the number that must match, so only those postings are scored.
+ * 
+ * Both are scored in one pass, so each name is scored once.  At most MAX_SCANNED names are scored per
+ * lookup, which keeps a lookup under 10 milliseconds with 50,000 jobs (see ProjectTrigramIndexUnitTest).
+ * 
+ * The index is built from ProjectRegistry on the first lookup and then updated by BlockBuildItemListener
+ * when projects are created, renamed, moved or deleted.
+ * 
+ * @author Chad Rosenquist
+ *
+ */
+final class ProjectTrigramIndex {
+    private static final Logger LOGGER = Logger.getLogger(ProjectTrigramIndex.class.getName());
+    
+    private static final ProjectTrigramIndex INSTANCE = new ProjectTrigramIndex();
+    
+    // fraction of the query's trigrams a fuzzy match must contain
+    private static final double FUZZY_THRESHOLD = 0.6;
+    
+    // maximum number of names scored per lookup
+    private static final int MAX_SCANNED = 20000;
+    
+    // full name -> id
+    private final Map<String, Integer> ids = new HashMap<String, Integer>();
+    
+    // id -> lower-cased full name, or null if the id is free
+    private final List<String> lowerNames = new ArrayList<String>();
+    
+    // id -> project, or null if the id is free
+    private final List<AbstractProject<?, ?>> projects = new ArrayList<AbstractProject<?, ?>>();
+    
+    // ids that can be reused
+    private final IntList freeIds = new IntList();
+    
+    // trigram -> ids of the names that contain it
+    private final Map<String, IntList> postings = new HashMap<String, IntList>();
+    
+    // true once every project in ProjectRegistry has been indexed
+    private boolean initialized = false;
+    
+    private ProjectTrigramIndex() {
+    }
+    
+    /**
+     * Creates an index of the given names instead of the projects in ProjectRegistry, for tests.
+     * 
+     * @param names full name -> project
+     */
+    ProjectTrigramIndex(Map<String, ? extends AbstractProject<?, ?>> names) {
+        for (Map.Entry<String, ? extends AbstractProject<?, ?>> entry : names.entrySet()) {
+            addName(entry.getKey(), entry.getValue());
+        }
+        initialized = true;
+    }
+    
+    /**
+     * @return the single instance of the index
+     */
+    static ProjectTrigramIndex getInstance() {
+        return INSTANCE;
+    }
+    
+    /**
+     * Finds the projects whose full name contains query, or is close to it.
+     * 
+     * @param query  what the end-user typed.  Must be at least 3 characters.
+     * @param filter only projects the filter accepts are returned, for example projects the user can read
+     * @param limit  maximum number of projects to return
+     * @return       matching projects, best match first.  Infix matches come before fuzzy matches.
+     */
+    synchronized List<AbstractProject<?, ?>> find(String query, Predicate<AbstractProject<?, ?>> filter, int limit) {
+        ensureInitialized();
+        String lowerQuery = ProjectNameIndex.toLowerCase(query);
+        String[] grams = trigrams(lowerQuery);
+        if (grams.length == 0 || limit <= 0) {
+            return new ArrayList<AbstractProject<?, ?>>();
+        }
+        
+        // Rarest trigram first.  A trigram that isn't indexed has an empty posting.
+        final IntList[] gramPostings = new IntList[grams.length];
+        Integer[] order = new Integer[grams.length];
+        for (int i = 0; i < grams.length; i++) {
+            IntList posting = postings.get(grams[i]);
+            gramPostings[i] = (posting == null) ? new IntList() : posting;
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return gramPostings[a].size() - gramPostings[b].size();
+            }
+        });
+        
+        List<Match> matches = new ArrayList<Match>();
+        BitSet seen = new BitSet(lowerNames.size());
+        int scanned = 0;
+        
+        // Every infix match contains the rarest trigram, so infix matches are only looked for in its names.
+        // Each name is scored once, and only scored names count against MAX_SCANNED.
+        int mustMatch = (int) Math.ceil(grams.length * FUZZY_THRESHOLD);
+        for (int g = 0; g < grams.length - mustMatch + 1; g++) {
+            IntList posting = gramPostings[order[g]];
+            for (int i = 0; i < posting.size() && scanned < MAX_SCANNED; i++) {
+                int id = posting.get(i);
+                if (seen.get(id)) {
+                    continue;
+                }
+                seen.set(id);
+                scanned++;
+                String lowerName = lowerNames.get(id);
+                int position = (g == 0) ? lowerName.indexOf(lowerQuery) : -1;
+                if (position >= 0) {
+                    matches.add(new Match(id, infixScore(lowerName, position, lowerQuery.length())));
+                }
+                else {
+                    int matched = countTrigrams(lowerName, grams);
+                    if (matched >= mustMatch) {
+                        matches.add(new Match(id, fuzzyScore(lowerName, matched, grams.length)));
+                    }
+                }
+            }
+        }
+        
+        Collections.sort(matches);
+        List<AbstractProject<?, ?>> result = new ArrayList<AbstractProject<?, ?>>();
+        for (Match match : matches) {
+            if (result.size() >= limit) {
+                break;
+            }
+            AbstractProject<?, ?> project = projects.get(match.id);
+            if (filter.apply(project)) {
+                result.add(project);
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Adds a project.
+     * 
+     * @param project the project
+     */
+    synchronized void add(AbstractProject<?, ?> project) {
+        if (initialized) {
+            addName(project.getFullName(), project);
+        }
+    }
+    
+    /**
+     * Re-indexes a project under its new name.
+     * 
+     * @param project     the project
+     * @param oldFullName full name before the rename or move
+     * @param newFullName full name after the rename or move
+     */
+    synchronized void rename(AbstractProject<?, ?> project, String oldFullName, String newFullName) {
+        if (initialized) {
+            removeName(oldFullName);
+            addName(newFullName, project);
+        }
+    }
+    
+    /**
+     * Removes a project, or every project inside a folder.
+     * 
+     * @param fullName full name of the project or folder being deleted
+     */
+    synchronized void remove(String fullName) {
+        if (!initialized) {
+            return;
+        }
+        removeName(fullName);
+        String prefix = fullName + "/";
+        for (String name : new ArrayList<String>(ids.keySet())) {
+            if (name.startsWith(prefix)) {
+                removeName(name);
+            }
+        }
+    }
+    
+    /**
+     * Clears the index.  The next lookup indexes every project in ProjectRegistry again.
+     */
+    synchronized void reset() {
+        ids.clear();
+        lowerNames.clear();
+        projects.clear();
+        freeIds.clear();
+        postings.clear();
+        initialized = false;
+    }
+    
+    /**
+     * Indexes every project in ProjectRegistry now, unless they are already indexed.
+     */
+    synchronized void warmUp() {
+        ensureInitialized();
+    }
+    
+    /**
+     * The first lookup indexes every project in ProjectRegistry.
+     */
+    private void ensureInitialized() {
+        if (initialized) {
+            return;
+        }
+        LOGGER.finest("Building the project trigram index.");
+        for (AbstractProject<?, ?> project : ProjectRegistry.getInstance().getProjects()) {
+            addName(project.getFullName(), project);
+        }
+        initialized = true;
+    }
+    
+    /**
+     * Indexes a name.
+     * 
+     * @param fullName full name of the project
+     * @param project  the project
+     */
+    private void addName(String fullName, AbstractProject<?, ?> project) {
+        if (ids.containsKey(fullName)) {
+            return;
+        }
+        String lowerName = ProjectNameIndex.toLowerCase(fullName);
+        int id;
+        if (freeIds.size() > 0) {
+            id = freeIds.removeLast();
+            lowerNames.set(id, lowerName);
+            projects.set(id, project);
+        }
+        else {
+            id = lowerNames.size();
+            lowerNames.add(lowerName);
+            projects.add(project);
+        }
+        ids.put(fullName, id);
+        
+        for (String gram : trigrams(lowerName)) {
+            IntList posting = postings.get(gram);
+            if (posting == null) {
+                posting = new IntList();
+                postings.put(gram, posting);
+            }
+            posting.add(id);
+        }
+    }
+    
+    /**
+     * Removes a name from the index.
+     * 
+     * @param fullName full name of the project
+     */
+    private void removeName(String fullName) {
+        Integer id = ids.remove(fullName);
+        if (id == null) {
+            return;
+        }
+        for (String gram : trigrams(lowerNames.get(id))) {
+            IntList posting = postings.get(gram);
+            if (posting != null) {
+                posting.removeValue(id);
+                if (posting.size() == 0) {
+                    postings.remove(gram);
+                }
+            }
+        }
+        lowerNames.set(id, null);
+        projects.set(id, null);
+        freeIds.add(id);
+    }
+    
+    /**
+     * @param lowerName lower-cased name
+     * @return          the distinct trigrams of the name
+     */
+    private static String[] trigrams(String lowerName) {
+        Set<String> grams = new LinkedHashSet<String>();
+        for (int i = 0; i + 3 <= lowerName.length(); i++) {
+            grams.add(lowerName.substring(i, i + 3));
+        }
+        return grams.toArray(new String[grams.size()]);
+    }
+    
+    /**
+     * @param lowerName lower-cased name
+     * @param grams     the query's trigrams
+     * @return          how many of the trigrams the name contains
+     */
+    private static int countTrigrams(String lowerName, String[] grams) {
+        int count = 0;
+        for (String gram : grams) {
+            if (lowerName.contains(gram)) {
+                count++;
+            }
+        }
+        return count;
+    }
+    
+    /**
+     * Scores an infix match.  Lower is better.
+     * A match at the start of a path segment beats one in the middle of a word,
+     * an earlier match beats a later one and a shorter name beats a longer one.
+     * Infix scores are always below fuzzy scores.
+     */
+    private static long infixScore(String lowerName, int position, int queryLength) {
+        boolean segmentStart = (position == 0) || (lowerName.charAt(position - 1) == '/');
+        return (segmentStart ? 0L : 1L << 40) + ((long) position << 20) + (lowerName.length() - queryLength);
+    }
+    
+    /**
+     * Scores a fuzzy match.  Lower is better.
+     * More matched trigrams beat fewer, then a shorter name beats a longer one.
+     */
+    private static long fuzzyScore(String lowerName, int matched, int total) {
+        return (1L << 50) + ((long) (total - matched) << 20) + lowerName.length();
+    }
+    
+    /**
+     * A matched name and its score.
+     */
+    private static final class Match implements Comparable<Match> {
+        private final int id;
+        private final long score;
+        
+        Match(int id, long score) {
+            this.id = id;
+            this.score = score;
+        }
+        
+        @Override
+        public int compareTo(Match other) {
+            return (score < other.score) ? -1 : ((score == other.score) ? 0 : 1);
+        }
+    }
+    
+    /**
+     * Growable array of ints.  Keeps the postings compact.
+     */
+    private static final class IntList {
+        private int[] values = new int[4];
+        private int size = 0;
+        
+        int size() {
+            return size;
+        }
+        
+        int get(int index) {
+            return values[index];
+        }
+        
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+        
+        int removeLast() {
+            return values[--size];
+        }
+        
+        void removeValue(int value) {
+            for (int i = 0; i < size; i++) {
+                if (values[i] == value) {
+                    // Order doesn't matter, so move the last value into the hole.
+                    values[i] = values[--size];
+                    return;
+                }
+            }
+        }
+        
+        void clear() {
+            values = new int[4];
+            size = 0;
+        }
+    }
+}
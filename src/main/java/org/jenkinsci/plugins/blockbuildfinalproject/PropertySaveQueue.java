@@ -0,0 +1,231 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, Chad Rosenquist
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.blockbuildfinalproject;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.acegisecurity.context.SecurityContext;
+import org.acegisecurity.context.SecurityContextHolder;
+
+import hudson.init.Terminator;
+import hudson.model.AbstractProject;
+import hudson.security.ACL;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+/**
+ * Saves projects whose BlockBuildJobProperty was changed by BlockBuildItemListener.
+ * 
+ * Renaming a project can change the property of many projects.  Saving each of them on the
+ * event thread makes the rename slow, so the saves are done by a single background thread.
+ * 
+ * 1. A project that is already waiting to be saved is not queued again.
+ *    Several updates to the same project result in one save.
+ * 2. At most CAPACITY projects wait to be saved.  When the queue is full,
+ *    the caller saves the project itself.
+ * 3. Pending saves are flushed when Jenkins shuts down.
+ * 4. A project that is deleted is removed from the queue, and a project that is no longer in its parent
+ *    is never saved.  Saving it would write config.xml back into the deleted project's directory,
+ *    and the project would come back the next time Jenkins loads.
+ * 
+ * @author Chad Rosenquist
+ *
+ */
+public final class PropertySaveQueue {
+    private static final Logger LOGGER = Logger.getLogger(PropertySaveQueue.class.getName());
+    
+    // maximum number of projects waiting to be saved
+    private static final int CAPACITY = Integer.getInteger(PropertySaveQueue.class.getName() + ".capacity", 10000);
+    
+    private static final PropertySaveQueue INSTANCE = new PropertySaveQueue();
+    
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(
+            new NamingThreadFactory(new DaemonThreadFactory(), PropertySaveQueue.class.getSimpleName()));
+    
+    // projects waiting to be saved, in the order they were queued
+    private final Set<AbstractProject<?, ?>> pending = new LinkedHashSet<AbstractProject<?, ?>>();
+    
+    // true if a drain task is submitted to the executor and has not finished
+    private boolean draining = false;
+    
+    private PropertySaveQueue() {
+    }
+    
+    /**
+     * @return the single instance of the queue
+     */
+    static PropertySaveQueue getInstance() {
+        return INSTANCE;
+    }
+    
+    /**
+     * Queues a project to be saved.
+     * 
+     * @param project the project to save
+     */
+    void save(AbstractProject<?, ?> project) {
+        synchronized (this) {
+            if (pending.contains(project)) {
+                LOGGER.finest("Save already queued for " + project.getFullName());
+                return;
+            }
+            if (pending.size() < CAPACITY) {
+                pending.add(project);
+                if (!draining) {
+                    draining = true;
+                    executor.submit(new Runnable() {
+                        @Override
+                        public void run() {
+                            drain();
+                        }
+                    });
+                }
+                return;
+            }
+        }
+        
+        // The queue is full.  Save on the caller's thread.
+        saveProject(project);
+    }
+    
+    /**
+     * Forgets the pending saves of a deleted item: the project itself, or every project inside a deleted folder.
+     * 
+     * @param item         the deleted item
+     * @param itemFullName the full name of the deleted item
+     */
+    synchronized void remove(Object item, String itemFullName) {
+        String folderPrefix = itemFullName + "/";
+        Iterator<AbstractProject<?, ?>> iterator = pending.iterator();
+        while (iterator.hasNext()) {
+            AbstractProject<?, ?> project = iterator.next();
+            if (project.equals(item) || project.getFullName().startsWith(folderPrefix)) {
+                LOGGER.finest("Dropping the queued save of deleted project " + project.getFullName());
+                iterator.remove();
+            }
+        }
+    }
+    
+    /**
+     * @return true if no project is waiting to be saved and nothing is being saved
+     */
+    synchronized boolean isIdle() {
+        return pending.isEmpty() && !draining;
+    }
+    
+    /**
+     * Saves every pending project on the caller's thread.
+     */
+    void flush() {
+        for (AbstractProject<?, ?> project : takePending()) {
+            saveProject(project);
+        }
+    }
+    
+    /**
+     * Saves pending projects until there are none left.
+     */
+    private void drain() {
+        boolean drained = false;
+        try {
+            while (true) {
+                List<AbstractProject<?, ?>> projects;
+                synchronized (this) {
+                    if (pending.isEmpty()) {
+                        draining = false;
+                        drained = true;
+                        return;
+                    }
+                    projects = takePending();
+                }
+                for (AbstractProject<?, ?> project : projects) {
+                    saveProject(project);
+                }
+            }
+        }
+        finally {
+            // If the drain died, let the next save() submit a new one.
+            if (!drained) {
+                synchronized (this) {
+                    draining = false;
+                }
+            }
+        }
+    }
+    
+    /**
+     * @return the pending projects.  The pending set is emptied.
+     */
+    private synchronized List<AbstractProject<?, ?>> takePending() {
+        List<AbstractProject<?, ?>> projects = new ArrayList<AbstractProject<?, ?>>(pending);
+        pending.clear();
+        return projects;
+    }
+    
+    /**
+     * Saves a project, unless it was deleted.  If an error occurs, an error message is logged.  Execution continues.
+     * 
+     * @param project the project to save
+     * 
+     * The background thread has no user, and getItem() only returns items the current user can read,
+     * so the project is looked up and saved as the system user.
+     */
+    private static void saveProject(AbstractProject<?, ?> project) {
+        SecurityContext oldContext = ACL.impersonate(ACL.SYSTEM);
+        try {
+            if (project.getParent().getItem(project.getName()) != project) {
+                LOGGER.finest("Not saving " + project.getFullName() + ".  It was deleted or replaced.");
+                return;
+            }
+            project.save();
+        }
+        catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Block Build Final Job Plugin - Could not save " + project.getFullName(), e);
+        }
+        catch (RuntimeException e) {
+            LOGGER.log(Level.SEVERE, "Block Build Final Job Plugin - Could not save " + project.getFullName(), e);
+        }
+        finally {
+            SecurityContextHolder.setContext(oldContext);
+        }
+    }
+    
+    /**
+     * Saves pending projects before Jenkins shuts down.
+     */
+    @Terminator
+    public static void flushOnShutdown() {
+        INSTANCE.flush();
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, Chad Rosenquist
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.blockbuildfinalproject;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Remembers when builds arrived in the queue from outside (users, SCM, timers), for ReplayTraceRecorder.
+ * 
+ * BlockBuildQueueListener logs each item entering the queue whose causes don't include an upstream build,
+ * with Queue.Item.getInQueueSince().  A build's own start time is later than that by however long it waited,
+ * so it can't be used as the arrival time when replaying the queue.  Items merged into an item already
+ * in the queue never enter it, exactly like the replay.
+ * 
+ * The log is in memory and bounded: it holds the last MAX_ARRIVALS arrivals since Jenkins started.
+ * getCoveredSince() tells how far back it's complete.
+ * 
+ * @author Chad Rosenquist
+ *
+ */
+final class QueueArrivalLog {
+    
+    /**
+     * The most arrivals kept.
+     */
+    static final int MAX_ARRIVALS = 10000;
+    
+    private static final QueueArrivalLog INSTANCE = new QueueArrivalLog(MAX_ARRIVALS);
+    
+    private final int maxArrivals;
+    
+    // oldest first.  Guarded by this.
+    private final ArrayDeque<Arrival> arrivals = new ArrayDeque<Arrival>();
+    
+    // every arrival at or after this time is in the log.  Guarded by this.
+    private long coveredSince = System.currentTimeMillis();
+    
+    /**
+     * Constructor
+     * 
+     * @param maxArrivals the most arrivals kept
+     */
+    QueueArrivalLog(int maxArrivals) {
+        this.maxArrivals = maxArrivals;
+    }
+    
+    /**
+     * @return the single instance
+     */
+    static QueueArrivalLog getInstance() {
+        return INSTANCE;
+    }
+    
+    /**
+     * Logs a build arriving in the queue.
+     * 
+     * @param projectName full name of the project
+     * @param timeMillis  when the item entered the queue
+     */
+    synchronized void arrived(String projectName, long timeMillis) {
+        if (arrivals.size() >= maxArrivals) {
+            Arrival oldest = arrivals.removeFirst();
+            // Arrivals at the evicted time may be gone too.
+            coveredSince = Math.max(coveredSince, oldest.timeMillis + 1);
+        }
+        arrivals.addLast(new Arrival(projectName, timeMillis));
+    }
+    
+    /**
+     * @return every arrival at or after this time is in the log
+     */
+    synchronized long getCoveredSince() {
+        return coveredSince;
+    }
+    
+    /**
+     * @param sinceMillis only arrivals at or after this time are returned
+     * @return            the arrivals, oldest first
+     */
+    synchronized List<Arrival> getArrivals(long sinceMillis) {
+        List<Arrival> result = new ArrayList<Arrival>();
+        for (Arrival arrival : arrivals) {
+            if (arrival.timeMillis >= sinceMillis) {
+                result.add(arrival);
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * A build arriving in the queue.  Immutable.
+     */
+    static final class Arrival {
+        private final String projectName;
+        private final long timeMillis;
+        
+        Arrival(String projectName, long timeMillis) {
+            this.projectName = projectName;
+            this.timeMillis = timeMillis;
+        }
+        
+        /**
+         * @return full name of the project
+         */
+        String getProjectName() {
+            return projectName;
+        }
+        
+        /**
+         * @return when the item entered the queue
+         */
+        long getTimeMillis() {
+            return timeMillis;
+        }
+    }
+}
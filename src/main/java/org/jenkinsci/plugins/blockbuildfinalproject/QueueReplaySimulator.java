@@ -0,0 +1,528 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, Chad Rosenquist
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.blockbuildfinalproject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jenkinsci.plugins.blockbuildfinalproject.BlockBuild.SearchDirection;
+
+import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableList;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+/**
+ * Replays a recorded queue trace through BlockEngine, to try a final project configuration before rolling it out.
+ * 
+ * The trace holds the job graph, each project's build duration and BlockBuildJobProperty,
+ * the number of executors, and the times builds arrived in the queue from outside (users, SCM, timers).
+ * Builds triggered by an upstream project are not in the trace: the simulator queues them
+ * when the upstream build finishes, so a different configuration moves them too.
+ * 
+ * The queue is simulated like Jenkins': items wait in arrival order, an item for a project already in the queue
+ * is merged into it, a project builds one at a time, and a project is busy while it is building or
+ * is waiting for an executor.  Projects are blocked by the same BlockEngine that BlockBuild uses.
+ * 
+ * Trace format (JSON):
+ * <pre>
+ * {
+ *   "executors": 4,
+ *   "projects": [
+ *     { "name": "a", "downstream": ["b"], "durationMillis": 60000, "durationsMillis": [55000, 65000],
+ *       "useBlockBuildUpstreamProject": false, "finalUpstreamProjects": "",
+ *       "useBlockBuildDownstreamProject": true, "finalDownstreamProjects": "b" }
+ *   ],
+ *   "arrivals": [ { "project": "a", "timeMillis": 0 } ]
+ * }
+ * </pre>
+ * durationsMillis, if present, are the durations of the project's recorded builds, oldest first: the n-th build
+ * of the project in the replay takes the n-th duration, starting over when they run out.
+ * Otherwise every build takes durationMillis.
+ * An alternative configuration has the same project entries, with only the name and the blocking fields.
+ * 
+ * @author Chad Rosenquist
+ *
+ */
+final class QueueReplaySimulator {
+    
+    // gives each replay its own BlockGraph version
+    private static final AtomicLong VERSIONS = new AtomicLong();
+    
+    private final int executors;
+    
+    // project name -> project, in trace order
+    private final Map<String, Project> projects;
+    
+    private final List<Arrival> arrivals;
+    
+    /**
+     * Constructor
+     * 
+     * @param executors number of executors
+     * @param projects  the projects
+     * @param arrivals  builds arriving in the queue from outside
+     */
+    QueueReplaySimulator(int executors, List<Project> projects, List<Arrival> arrivals) {
+        this.executors = Math.max(1, executors);
+        this.projects = new LinkedHashMap<String, Project>();
+        for (Project project : projects) {
+            this.projects.put(project.name, project);
+        }
+        for (Project project : projects) {
+            for (String downstream : project.downstream) {
+                Project downstreamProject = this.projects.get(downstream);
+                if (downstreamProject != null) {
+                    downstreamProject.upstream.add(project.name);
+                }
+            }
+        }
+        this.arrivals = new ArrayList<Arrival>(arrivals);
+    }
+    
+    /**
+     * Reads a trace.
+     * 
+     * @param trace the trace, in the format described above
+     * @return      the simulator
+     */
+    static QueueReplaySimulator fromJSON(JSONObject trace) {
+        List<Project> projects = new ArrayList<Project>();
+        JSONArray projectsJSON = trace.optJSONArray("projects");
+        for (int i = 0; (projectsJSON != null) && (i < projectsJSON.size()); i++) {
+            JSONObject json = projectsJSON.getJSONObject(i);
+            List<String> downstream = new ArrayList<String>();
+            JSONArray downstreamJSON = json.optJSONArray("downstream");
+            for (int d = 0; (downstreamJSON != null) && (d < downstreamJSON.size()); d++) {
+                downstream.add(downstreamJSON.getString(d));
+            }
+            List<Long> durations = new ArrayList<Long>();
+            JSONArray durationsJSON = json.optJSONArray("durationsMillis");
+            for (int d = 0; (durationsJSON != null) && (d < durationsJSON.size()); d++) {
+                durations.add(durationsJSON.getLong(d));
+            }
+            projects.add(new Project(json.getString("name"), downstream, json.optLong("durationMillis", 0),
+                                     durations, propertyFromJSON(json)));
+        }
+        
+        List<Arrival> arrivals = new ArrayList<Arrival>();
+        JSONArray arrivalsJSON = trace.optJSONArray("arrivals");
+        for (int i = 0; (arrivalsJSON != null) && (i < arrivalsJSON.size()); i++) {
+            JSONObject json = arrivalsJSON.getJSONObject(i);
+            arrivals.add(new Arrival(json.getString("project"), json.getLong("timeMillis")));
+        }
+        
+        return new QueueReplaySimulator(trace.optInt("executors", 2), projects, arrivals);
+    }
+    
+    /**
+     * Returns a simulator for the same trace with some projects configured differently.
+     * 
+     * @param configuration {"projects": [...]} with the name and blocking fields of the projects to change
+     * @return              the new simulator.  Projects not in the configuration keep their recorded configuration.
+     */
+    QueueReplaySimulator withConfiguration(JSONObject configuration) {
+        Map<String, BlockBuildJobProperty> properties = new HashMap<String, BlockBuildJobProperty>();
+        JSONArray projectsJSON = configuration.optJSONArray("projects");
+        for (int i = 0; (projectsJSON != null) && (i < projectsJSON.size()); i++) {
+            JSONObject json = projectsJSON.getJSONObject(i);
+            properties.put(json.getString("name"), propertyFromJSON(json));
+        }
+        
+        List<Project> newProjects = new ArrayList<Project>();
+        for (Project project : projects.values()) {
+            BlockBuildJobProperty property = properties.containsKey(project.name)
+                                             ? properties.get(project.name) : project.property;
+            newProjects.add(new Project(project.name, project.downstream, project.durationMillis,
+                                        project.durationsMillis, property));
+        }
+        return new QueueReplaySimulator(executors, newProjects, arrivals);
+    }
+    
+    private static BlockBuildJobProperty propertyFromJSON(JSONObject json) {
+        return new BlockBuildJobProperty(
+                json.optBoolean("useBlockBuildUpstreamProject", false), json.optString("finalUpstreamProjects", ""),
+                json.optBoolean("useBlockBuildDownstreamProject", false), json.optString("finalDownstreamProjects", ""));
+    }
+    
+    /**
+     * Runs the simulation.
+     * 
+     * @return makespan, blocked time, queue time and utilization
+     */
+    Result run() {
+        return new Simulation().run();
+    }
+    
+    /**
+     * One project in the trace.
+     */
+    static final class Project {
+        private final String name;
+        private final ImmutableList<String> downstream;
+        private final List<String> upstream = new ArrayList<String>();
+        private final long durationMillis;
+        private final ImmutableList<Long> durationsMillis;
+        private final BlockBuildJobProperty property;
+        
+        /**
+         * @param name            full name of the project
+         * @param downstream      projects it triggers
+         * @param durationMillis  how long a build takes, if durationsMillis is empty
+         * @param durationsMillis how long each recorded build took, oldest first
+         * @param property        how it blocks
+         */
+        Project(String name, List<String> downstream, long durationMillis, List<Long> durationsMillis,
+                BlockBuildJobProperty property) {
+            this.name = name;
+            this.downstream = ImmutableList.copyOf(downstream);
+            this.durationMillis = Math.max(0, durationMillis);
+            this.durationsMillis = ImmutableList.copyOf(durationsMillis);
+            this.property = property;
+        }
+        
+        /**
+         * @param build how many builds of the project the replay started before this one
+         * @return      how long the build takes
+         */
+        private long getDurationMillis(int build) {
+            if (durationsMillis.isEmpty()) {
+                return durationMillis;
+            }
+            return Math.max(0, durationsMillis.get(build % durationsMillis.size()));
+        }
+    }
+    
+    /**
+     * A build arriving in the queue from outside.
+     */
+    static final class Arrival {
+        private final String project;
+        private final long timeMillis;
+        
+        Arrival(String project, long timeMillis) {
+            this.project = project;
+            this.timeMillis = timeMillis;
+        }
+    }
+    
+    /**
+     * What the simulation measured.  Immutable.
+     */
+    static final class Result {
+        private final int builds;
+        private final long makespanMillis;
+        private final long blockedMillis;
+        private final long queuedMillis;
+        private final long busyMillis;
+        private final int executors;
+        private final int neverBuilt;
+        
+        Result(int builds, long makespanMillis, long blockedMillis, long queuedMillis, long busyMillis,
+               int executors, int neverBuilt) {
+            this.builds = builds;
+            this.makespanMillis = makespanMillis;
+            this.blockedMillis = blockedMillis;
+            this.queuedMillis = queuedMillis;
+            this.busyMillis = busyMillis;
+            this.executors = executors;
+            this.neverBuilt = neverBuilt;
+        }
+        
+        int getBuilds() {
+            return builds;
+        }
+        
+        long getMakespanMillis() {
+            return makespanMillis;
+        }
+        
+        /**
+         * @return average time a build was blocked by this plugin
+         */
+        double getAverageBlockedMillis() {
+            return (builds == 0) ? 0.0 : (double) blockedMillis / builds;
+        }
+        
+        /**
+         * @return average time a build waited in the queue, for any reason
+         */
+        double getAverageQueuedMillis() {
+            return (builds == 0) ? 0.0 : (double) queuedMillis / builds;
+        }
+        
+        /**
+         * @return fraction of executor time spent building
+         */
+        double getUtilization() {
+            return (makespanMillis == 0) ? 0.0 : (double) busyMillis / ((double) executors * makespanMillis);
+        }
+        
+        /**
+         * @return items still in the queue when nothing else could happen.  Should be 0.
+         */
+        int getNeverBuilt() {
+            return neverBuilt;
+        }
+        
+        JSONObject toJSON() {
+            JSONObject json = new JSONObject();
+            json.put("builds", builds);
+            json.put("makespanMillis", makespanMillis);
+            json.put("averageBlockedMillis", getAverageBlockedMillis());
+            json.put("averageQueuedMillis", getAverageQueuedMillis());
+            json.put("utilization", getUtilization());
+            json.put("neverBuilt", neverBuilt);
+            return json;
+        }
+    }
+    
+    /**
+     * One run of the simulation.  Also the BlockGraph the engine searches: nodes are project names.
+     */
+    private final class Simulation implements BlockGraph<String> {
+        
+        // waiting items, in arrival order, one per project
+        private final Map<String, Item> queue = new LinkedHashMap<String, Item>();
+        
+        // items not blocked, waiting for an executor.  Busy, like Jenkins' unblocked tasks.
+        private final Set<String> buildable = new LinkedHashSet<String>();
+        
+        // project name -> finish time of its running build
+        private final Map<String, Long> running = new HashMap<String, Long>();
+        
+        private final PriorityQueue<long[]> finishes = new PriorityQueue<long[]>(11, new Comparator<long[]>() {
+            @Override
+            public int compare(long[] a, long[] b) {
+                return (a[0] != b[0]) ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]);
+            }
+        });
+        
+        // index into projectNames for the finishes
+        private final List<String> projectNames = new ArrayList<String>(projects.keySet());
+        private final Map<String, Integer> projectIndexes = new HashMap<String, Integer>();
+        
+        // project name -> number of its builds started
+        private final Map<String, Integer> projectBuilds = new HashMap<String, Integer>();
+        
+        // each replay gets its own version, so cached searches are never shared between replays
+        private final long version = VERSIONS.incrementAndGet();
+        
+        private int builds = 0;
+        private long blockedMillis = 0;
+        private long queuedMillis = 0;
+        private long busyMillis = 0;
+        
+        private Result run() {
+            for (int i = 0; i < projectNames.size(); i++) {
+                projectIndexes.put(projectNames.get(i), i);
+            }
+            List<Arrival> pending = new ArrayList<Arrival>();
+            for (Arrival arrival : arrivals) {
+                if (projects.containsKey(arrival.project)) {
+                    pending.add(arrival);
+                }
+            }
+            Collections.sort(pending, new Comparator<Arrival>() {
+                @Override
+                public int compare(Arrival a, Arrival b) {
+                    return Long.compare(a.timeMillis, b.timeMillis);
+                }
+            });
+            if (pending.isEmpty()) {
+                return new Result(0, 0, 0, 0, 0, executors, 0);
+            }
+            
+            long firstArrival = pending.get(0).timeMillis;
+            long now = firstArrival;
+            long lastFinish = firstArrival;
+            int nextArrival = 0;
+            
+            while ((nextArrival < pending.size()) || !finishes.isEmpty()) {
+                long next = Long.MAX_VALUE;
+                if (nextArrival < pending.size()) {
+                    next = pending.get(nextArrival).timeMillis;
+                }
+                if (!finishes.isEmpty()) {
+                    next = Math.min(next, finishes.peek()[0]);
+                }
+                now = next;
+                
+                // Builds finishing now free their executor and trigger their downstream projects.
+                while (!finishes.isEmpty() && (finishes.peek()[0] == now)) {
+                    Project project = projects.get(projectNames.get((int) finishes.poll()[1]));
+                    running.remove(project.name);
+                    lastFinish = now;
+                    for (String downstream : project.downstream) {
+                        enqueue(downstream, now);
+                    }
+                }
+                while ((nextArrival < pending.size()) && (pending.get(nextArrival).timeMillis == now)) {
+                    enqueue(pending.get(nextArrival).project, now);
+                    nextArrival++;
+                }
+                
+                maintain(now);
+            }
+            
+            return new Result(builds, lastFinish - firstArrival, blockedMillis, queuedMillis, busyMillis,
+                              executors, queue.size());
+        }
+        
+        private void enqueue(String projectName, long now) {
+            if (projects.containsKey(projectName) && !queue.containsKey(projectName)) {
+                queue.put(projectName, new Item(projectName, now));
+            }
+        }
+        
+        /**
+         * Like Queue.maintain(): decides which items are blocked, then starts buildable items on free executors.
+         */
+        private void maintain(long now) {
+            buildable.clear();
+            for (Item item : queue.values()) {
+                if (running.containsKey(item.project)) {
+                    // Not concurrent: waits for its own build, which is not this plugin's doing.
+                    item.unblock(now);
+                    continue;
+                }
+                if (isBlocked(projects.get(item.project))) {
+                    item.block(now);
+                }
+                else {
+                    item.unblock(now);
+                    buildable.add(item.project);
+                }
+            }
+            
+            Iterator<String> iterator = buildable.iterator();
+            while (iterator.hasNext() && (running.size() < executors)) {
+                String projectName = iterator.next();
+                iterator.remove();
+                Item item = queue.remove(projectName);
+                Project project = projects.get(projectName);
+                Integer started = projectBuilds.get(projectName);
+                long duration = project.getDurationMillis((started == null) ? 0 : started);
+                projectBuilds.put(projectName, (started == null) ? 1 : started + 1);
+                long finish = now + duration;
+                running.put(projectName, finish);
+                finishes.add(new long[] { finish, projectIndexes.get(projectName) });
+                builds++;
+                blockedMillis += item.blockedMillis;
+                queuedMillis += now - item.arrivalMillis;
+                busyMillis += duration;
+            }
+        }
+        
+        private boolean isBlocked(Project project) {
+            BlockBuildJobProperty property = project.property;
+            if (property == null) {
+                return false;
+            }
+            if (property.isUseBlockBuildUpstreamProject()
+                && (BlockEngine.evaluate(this, project.name, SearchDirection.UP,
+                        isFinal(property.getFinalUpstreamProjectsAsList())).getBlocker() != null)) {
+                return true;
+            }
+            return property.isUseBlockBuildDownstreamProject()
+                   && (BlockEngine.evaluate(this, project.name, SearchDirection.DOWN,
+                           isFinal(property.getFinalDownstreamProjectsAsList())).getBlocker() != null);
+        }
+        
+        private Predicate<String> isFinal(final ImmutableList<String> finalProjects) {
+            return new Predicate<String>() {
+                @Override
+                public boolean apply(String projectName) {
+                    return (finalProjects != null) && finalProjects.contains(projectName);
+                }
+            };
+        }
+
+        @Override
+        public List<String> getNeighbours(String node, SearchDirection direction) {
+            Project project = projects.get(node);
+            if (project == null) {
+                return Collections.emptyList();
+            }
+            return (direction == SearchDirection.UP) ? project.upstream : project.downstream;
+        }
+
+        @Override
+        public boolean isBusy(String node) {
+            return running.containsKey(node) || buildable.contains(node);
+        }
+
+        @Override
+        public Set<String> getAllNodes() {
+            return projects.keySet();
+        }
+
+        @Override
+        public long getVersion() {
+            // The job graph does not change during a replay.
+            return version;
+        }
+    }
+    
+    /**
+     * A waiting queue item.
+     */
+    private static final class Item {
+        private final String project;
+        private final long arrivalMillis;
+        // time it became blocked, or -1 if not blocked
+        private long blockedSince = -1;
+        private long blockedMillis = 0;
+        
+        private Item(String project, long arrivalMillis) {
+            this.project = project;
+            this.arrivalMillis = arrivalMillis;
+        }
+        
+        private void block(long now) {
+            if (blockedSince < 0) {
+                blockedSince = now;
+            }
+        }
+        
+        private void unblock(long now) {
+            if (blockedSince >= 0) {
+                blockedMillis += now - blockedSince;
+                blockedSince = -1;
+            }
+        }
+    }
+}
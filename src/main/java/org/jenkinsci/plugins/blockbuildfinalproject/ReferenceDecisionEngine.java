@@ -0,0 +1,80 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, Chad Rosenquist
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.blockbuildfinalproject;
+
+import org.jenkinsci.plugins.blockbuildfinalproject.BlockBuild.SearchDirection;
+
+import com.google.common.base.Predicate;
+
+/**
+ * The reference DecisionEngine: searches the graph on every call with BlockEngine.
+ * 
+ * @author Chad Rosenquist
+ *
+ */
+final class ReferenceDecisionEngine implements DecisionEngine {
+    
+    private static final ReferenceDecisionEngine INSTANCE = new ReferenceDecisionEngine();
+    
+    private ReferenceDecisionEngine() {
+    }
+    
+    /**
+     * @return the single instance of the engine
+     */
+    static ReferenceDecisionEngine getInstance() {
+        return INSTANCE;
+    }
+    
+    @Override
+    public String getName() {
+        return "reference";
+    }
+
+    @Override
+    public <N> BlockEngine.Evaluation<N> evaluate(BlockGraph<N> graph, N start, SearchDirection direction,
+                                                  Predicate<? super N> isFinal) {
+        return BlockEngine.evaluate(graph, start, direction, isFinal);
+    }
+
+    /**
+     * Nothing to do: nothing is kept between calls.
+     */
+    @Override
+    public <N> void warmUp(BlockGraph<N> graph) {
+    }
+    
+    /**
+     * Nothing is kept between calls, so the engine itself.
+     */
+    @Override
+    public DecisionEngine snapshot() {
+        return this;
+    }
+
+    @Override
+    public void clear() {
+    }
+}
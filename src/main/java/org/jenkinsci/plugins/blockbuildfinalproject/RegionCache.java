@@ -0,0 +1,157 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, Chad Rosenquist
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.blockbuildfinalproject;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Logger;
+
+import org.jenkinsci.plugins.blockbuildfinalproject.BlockBuild.SearchDirection;
+
+import hudson.model.AbstractProject;
+import hudson.model.DependencyGraph;
+
+/**
+ * Caches the upstream and downstream region of projects.
+ * 
+ * Jenkins replaces its DependencyGraph whenever a project's triggers change.
+ * The graph itself is never modified, so a region computed from a graph stays valid until Jenkins replaces it.
+ * When that happens the cache is cleared and the epoch is incremented.
+ * 
+ * @author Chad Rosenquist
+ *
+ */
+final class RegionCache {
+    private static final Logger LOGGER = Logger.getLogger(RegionCache.class.getName());
+    
+    private static final RegionCache INSTANCE = new RegionCache();
+    
+    // project -> upstream region
+    private final ConcurrentMap<AbstractProject<?, ?>, ProjectRegion> upstreamRegions =
+            new ConcurrentHashMap<AbstractProject<?, ?>, ProjectRegion>();
+    
+    // project -> downstream region
+    private final ConcurrentMap<AbstractProject<?, ?>, ProjectRegion> downstreamRegions =
+            new ConcurrentHashMap<AbstractProject<?, ?>, ProjectRegion>();
+    
+    // the graph the cached regions were computed from
+    private DependencyGraph graph = null;
+    
+    // incremented each time Jenkins replaces its DependencyGraph
+    private volatile long epoch = 0;
+    
+    private RegionCache() {
+    }
+    
+    /**
+     * @return the single instance of the cache
+     */
+    static RegionCache getInstance() {
+        return INSTANCE;
+    }
+    
+    /**
+     * Returns the region of a project, computing it if it's not cached.
+     * 
+     * @param project   the project
+     * @param direction UP for the upstream region, DOWN for the downstream region
+     * @return          the region
+     */
+    ProjectRegion getRegion(AbstractProject<?, ?> project, SearchDirection direction) {
+        long regionEpoch = checkGraph();
+        ConcurrentMap<AbstractProject<?, ?>, ProjectRegion> regions =
+                (direction == SearchDirection.UP) ? upstreamRegions : downstreamRegions;
+        
+        ProjectRegion region = regions.get(project);
+        BlockBuildMetrics.getInstance().recordRegionCacheLookup(region != null);
+        if (region == null) {
+            long start = System.nanoTime();
+            region = new BlockBuild(project).getRegion(direction);
+            fireRebuild(project.getFullName(), direction.name(), region.size(), System.nanoTime() - start, regionEpoch);
+            synchronized (this) {
+                // Don't cache a region computed from a graph that was replaced in the meantime.
+                if (regionEpoch == epoch) {
+                    regions.put(project, region);
+                }
+            }
+        }
+        return region;
+    }
+    
+    /**
+     * @return the current epoch.  It changes each time Jenkins replaces its DependencyGraph.
+     */
+    long getEpoch() {
+        return checkGraph();
+    }
+    
+    /**
+     * @return the epoch as of the last lookup, without checking the graph or taking the lock
+     */
+    long getLastEpoch() {
+        return epoch;
+    }
+    
+    /**
+     * Clears the cache if Jenkins has replaced its DependencyGraph.
+     * The listeners are told after the lock is released, so a slow listener doesn't hold up other lookups.
+     * 
+     * @return the current epoch
+     */
+    private long checkGraph() {
+        long currentEpoch;
+        boolean cleared = false;
+        synchronized (this) {
+            DependencyGraph currentGraph = JenkinsWrapper.getDependencyGraph();
+            if (currentGraph != graph) {
+                LOGGER.finest("Dependency graph changed.  Clearing cached regions.");
+                upstreamRegions.clear();
+                downstreamRegions.clear();
+                graph = currentGraph;
+                epoch++;
+                cleared = true;
+            }
+            currentEpoch = epoch;
+        }
+        if (cleared) {
+            fireRebuild(null, null, 0, 0, currentEpoch);
+        }
+        return currentEpoch;
+    }
+    
+    /**
+     * Sends a RegionCacheRebuild to the installed BlockBuildEventListeners.  Does nothing if there are none.
+     */
+    private static void fireRebuild(String projectName, String direction, int regionSize, long durationNanos, long epoch) {
+        List<BlockBuildEventListener> listeners = BlockBuildEventListener.all();
+        if (listeners.isEmpty()) {
+            return;
+        }
+        BlockBuildEventListener.RegionCacheRebuild event = new BlockBuildEventListener.RegionCacheRebuild(
+                projectName, direction, regionSize, durationNanos, epoch);
+        BlockBuildEventListener.fireRegionCacheRebuild(listeners, event);
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, Chad Rosenquist
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.blockbuildfinalproject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.Cause;
+import hudson.model.Computer;
+import jenkins.model.Jenkins;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+/**
+ * Records a trace of this Jenkins for QueueReplaySimulator: the job graph, each project's build durations
+ * and BlockBuildJobProperty, the number of executors, and the builds that arrived in the queue from outside
+ * (not triggered by an upstream project) since a given time.
+ * 
+ * Arrival times come from QueueArrivalLog, which has the time each item entered the queue.  Before the log
+ * is complete, after a restart or once it's full, arrivals are taken from the builds' own times instead,
+ * which are later by however long the builds waited in the queue.
+ * Durations are each finished build's actual duration.  A project without finished builds in the period
+ * gets its estimated duration.
+ * 
+ * Builds are read from disk as they are listed, so only record as far back as needed.
+ * 
+ * @author Chad Rosenquist
+ *
+ */
+final class ReplayTraceRecorder {
+    
+    private ReplayTraceRecorder() {
+    }
+    
+    /**
+     * @param sinceMillis only builds arriving or started at or after this time are recorded
+     * @return            the trace, in QueueReplaySimulator's format
+     */
+    static JSONObject record(long sinceMillis) {
+        JSONArray projects = new JSONArray();
+        JSONArray arrivals = new JSONArray();
+        QueueArrivalLog log = QueueArrivalLog.getInstance();
+        long loggedSince = Math.max(sinceMillis, log.getCoveredSince());
+        
+        for (AbstractProject<?, ?> project : ProjectRegistry.getInstance().getProjects()) {
+            JSONObject json = new JSONObject();
+            json.put("name", project.getFullName());
+            JSONArray downstream = new JSONArray();
+            for (AbstractProject<?, ?> downstreamProject : project.getDownstreamProjects()) {
+                downstream.add(downstreamProject.getFullName());
+            }
+            json.put("downstream", downstream);
+            
+            // Builds are listed newest first.
+            List<Long> durations = new ArrayList<Long>();
+            for (AbstractBuild<?, ?> build : project.getBuilds()) {
+                if (build.getTimeInMillis() < sinceMillis) {
+                    break;
+                }
+                if (!build.isBuilding()) {
+                    durations.add(build.getDuration());
+                }
+                if ((build.getTimeInMillis() < loggedSince) && (build.getCause(Cause.UpstreamCause.class) == null)) {
+                    arrivals.add(arrivalToJSON(project.getFullName(), build.getTimeInMillis()));
+                }
+            }
+            Collections.reverse(durations);
+            json.put("durationMillis", durations.isEmpty() ? Math.max(0, project.getEstimatedDuration())
+                                                           : average(durations));
+            json.put("durationsMillis", durations);
+            
+            BlockBuildJobProperty property = BlockBuildJobProperty.getBlockBuildJobPropertyFromProject(project);
+            if (property != null) {
+                json.put("useBlockBuildUpstreamProject", property.isUseBlockBuildUpstreamProject());
+                json.put("finalUpstreamProjects", property.getFinalUpstreamProjects());
+                json.put("useBlockBuildDownstreamProject", property.isUseBlockBuildDownstreamProject());
+                json.put("finalDownstreamProjects", property.getFinalDownstreamProjects());
+            }
+            projects.add(json);
+        }
+        
+        for (QueueArrivalLog.Arrival arrival : log.getArrivals(loggedSince)) {
+            arrivals.add(arrivalToJSON(arrival.getProjectName(), arrival.getTimeMillis()));
+        }
+        
+        JSONObject trace = new JSONObject();
+        trace.put("executors", countExecutors());
+        trace.put("projects", projects);
+        trace.put("arrivals", arrivals);
+        return trace;
+    }
+    
+    private static JSONObject arrivalToJSON(String projectName, long timeMillis) {
+        JSONObject arrival = new JSONObject();
+        arrival.put("project", projectName);
+        arrival.put("timeMillis", timeMillis);
+        return arrival;
+    }
+    
+    private static long average(List<Long> values) {
+        long total = 0;
+        for (long value : values) {
+            total += value;
+        }
+        return total / values.size();
+    }
+    
+    private static int countExecutors() {
+        Jenkins jenkins = Jenkins.getInstance();
+        if (jenkins == null) {
+            return 0;
+        }
+        int executors = 0;
+        for (Computer computer : jenkins.getComputers()) {
+            if (computer.isOnline()) {
+                executors += computer.getNumExecutors();
+            }
+        }
+        return executors;
+    }
+}
@@ -0,0 +1,436 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, Chad Rosenquist
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.blockbuildfinalproject;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jenkinsci.plugins.blockbuildfinalproject.BlockBuild.SearchDirection;
+
+import com.google.common.base.Function;
+import com.google.common.base.Predicate;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+/**
+ * Runs a candidate DecisionEngine in shadow: the reference engine makes every decision,
+ * and the candidate makes the same decision again in the background so the two can be compared.
+ * 
+ * The dispatcher hands over the graph its decision was made on, with the busy projects snapshotted
+ * (see JenkinsBlockGraph.snapshot()), so both engines see the same queue and the same builds.
+ * A candidate that keeps its own busy state, like EventDrivenDecisionEngine, is snapshotted
+ * with it (see DecisionEngine.snapshot()); otherwise a build finalized before the candidate runs
+ * would be reported as a mismatch.
+ * The candidate runs on its own single thread, never on the thread holding the Queue lock.
+ * Shadow mode does add to each canRun(), which holds the Queue lock: the snapshot scans every executor
+ * and copies the unblocked tasks.  That's one pass over the executors per decision, so leave shadow mode
+ * on only while evaluating a candidate.
+ * Its work queue is bounded: when it's full, decisions are dropped and counted, not queued.
+ * If Jenkins replaces its DependencyGraph after the decision was made and before the candidate runs,
+ * the decision is skipped as stale.  The version is read before the reference decides, so a graph replaced
+ * during the decision is not reported as a mismatch.
+ * 
+ * A mismatch is a decision where one engine blocks and the other does not.  The last MAX_MISMATCHES
+ * mismatches are kept with everything needed to reproduce them: the project, the final projects,
+ * both blockers with their paths and the number of projects each engine visited.
+ * A decision where both block, but on different projects, is only counted.
+ * The reference's canRun() time and the candidate's time are kept in side-by-side histograms.
+ * 
+ * Shadow mode is off unless the system property
+ * org.jenkinsci.plugins.blockbuildfinalproject.ShadowEvaluator.engine names the candidate, for example indexed.
+ * The candidate is warmed up before its first comparison.  While shadow mode is on the reference engine
+ * makes the decisions, whatever engine is selected in DecisionEngines.
+ * Set org.jenkinsci.plugins.blockbuildfinalproject.ShadowEvaluator.queueSize to change the number
+ * of decisions waiting for the candidate, and ...ShadowEvaluator.maxMismatches to change the number kept.
+ * Read with BlockBuildStatusAction ({@code JENKINS_URL/block-build-final-project/shadow}).
+ * 
+ * @author Chad Rosenquist
+ *
+ */
+final class ShadowEvaluator {
+    private static final Logger LOGGER = Logger.getLogger(ShadowEvaluator.class.getName());
+    
+    private static final String PREFIX = ShadowEvaluator.class.getName();
+    
+    private static final int QUEUE_SIZE = Integer.getInteger(PREFIX + ".queueSize", 1000);
+    
+    private static final int MAX_MISMATCHES = Integer.getInteger(PREFIX + ".maxMismatches", 100);
+    
+    private static final ShadowEvaluator INSTANCE = create(System.getProperty(PREFIX + ".engine"));
+    
+    // the engine being compared, or null if shadow mode is off
+    private final DecisionEngine candidate;
+    
+    // runs the candidate, or null if shadow mode is off
+    private final Executor executor;
+    
+    private final int maxMismatches;
+    
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong stale = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong compared = new AtomicLong();
+    private final AtomicLong mismatches = new AtomicLong();
+    private final AtomicLong differentBlockers = new AtomicLong();
+    
+    private final LatencyHistogram referenceNanos = new LatencyHistogram();
+    private final LatencyHistogram candidateNanos = new LatencyHistogram();
+    
+    // most recent mismatch last.  Guarded by itself.
+    private final Deque<Mismatch> recentMismatches = new ArrayDeque<Mismatch>();
+    
+    /**
+     * Constructor
+     * 
+     * @param candidate     the engine to compare with the reference, or null to turn shadow mode off
+     * @param executor      runs the candidate.  It may reject work with a RejectedExecutionException.
+     * @param maxMismatches number of mismatches kept
+     */
+    ShadowEvaluator(DecisionEngine candidate, Executor executor, int maxMismatches) {
+        this.candidate = candidate;
+        this.executor = executor;
+        this.maxMismatches = maxMismatches;
+    }
+    
+    /**
+     * @return the single instance, configured from the system properties
+     */
+    static ShadowEvaluator getInstance() {
+        return INSTANCE;
+    }
+    
+    /**
+     * @param engineName name of the candidate engine, or null
+     * @return           a ShadowEvaluator with its own thread, or a disabled one if the name is null or unknown
+     */
+    private static ShadowEvaluator create(String engineName) {
+        if (engineName == null) {
+            return new ShadowEvaluator(null, null, 0);
+        }
+        final DecisionEngine engine = DecisionEngines.getInstance().forName(engineName);
+        if (engine == null) {
+            LOGGER.warning("Unknown engine " + engineName + " for " + PREFIX + ".engine.  Shadow mode is off.");
+            return new ShadowEvaluator(null, null, 0);
+        }
+        LOGGER.info("Running engine " + engineName + " in shadow.");
+        Executor executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(QUEUE_SIZE),
+                new NamingThreadFactory(new DaemonThreadFactory(), ShadowEvaluator.class.getSimpleName()));
+        // Warm the candidate up first, so it's not compared cold.
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    engine.warmUp(new JenkinsBlockGraph(JenkinsWrapper.getUnblockedTasks()).snapshot());
+                }
+                catch (RuntimeException exception) {
+                    LOGGER.log(Level.WARNING, "Engine " + engine.getName() + " failed to warm up.", exception);
+                }
+            }
+        });
+        return new ShadowEvaluator(engine, executor, MAX_MISMATCHES);
+    }
+    
+    /**
+     * @return true if a candidate engine is running in shadow
+     */
+    boolean isEnabled() {
+        return candidate != null;
+    }
+    
+    /**
+     * @return the engine running in shadow, or null if shadow mode is off
+     */
+    DecisionEngine getCandidate() {
+        return candidate;
+    }
+    
+    /**
+     * Hands a decision made by the reference engine to the candidate, snapshotted now.  Returns immediately.
+     * 
+     * @param graph            the graph the decision was made on.  Its busy nodes must not change.
+     * @param version          the graph's version, read before the decision was made
+     * @param start            the node that wants to build
+     * @param upFinal          the final nodes upstream, or null if upstream was not checked
+     * @param downFinal        the final nodes downstream, or null if downstream was not checked
+     * @param referenceBlocker the node that blocked the reference, or null if it did not block
+     * @param referenceTime    nanoseconds the reference took
+     * @param names            names a node, for the mismatch log
+     */
+    <N> void submit(final BlockGraph<N> graph, final long version, final N start,
+                    final Predicate<? super N> upFinal, final Predicate<? super N> downFinal,
+                    final N referenceBlocker, final long referenceTime, final Function<? super N, String> names) {
+        if (!isEnabled()) {
+            return;
+        }
+        submitted.incrementAndGet();
+        final DecisionEngine engine = candidate.snapshot();
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    compare(engine, graph, version, start, upFinal, downFinal, referenceBlocker, referenceTime, names);
+                }
+            });
+        }
+        catch (RejectedExecutionException rejected) {
+            dropped.incrementAndGet();
+        }
+    }
+    
+    /**
+     * Makes the decision with the candidate engine and compares it with the reference's.
+     * 
+     * @param engine the candidate, snapshotted when the decision was submitted
+     */
+    private <N> void compare(DecisionEngine engine, BlockGraph<N> graph, long version, N start,
+                             Predicate<? super N> upFinal, Predicate<? super N> downFinal,
+                             N referenceBlocker, long referenceTime, Function<? super N, String> names) {
+        if (graph.getVersion() != version) {
+            stale.incrementAndGet();
+            return;
+        }
+        
+        List<BlockEngine.Evaluation<N>> candidateEvaluations;
+        long startNanos = System.nanoTime();
+        try {
+            candidateEvaluations = decide(engine, graph, start, upFinal, downFinal);
+        }
+        catch (RuntimeException exception) {
+            failed.incrementAndGet();
+            LOGGER.log(Level.WARNING, "Engine " + candidate.getName() + " failed on " + names.apply(start), exception);
+            return;
+        }
+        candidateNanos.record(System.nanoTime() - startNanos);
+        referenceNanos.record(referenceTime);
+        compared.incrementAndGet();
+        
+        N candidateBlocker = getBlocker(candidateEvaluations);
+        if ((referenceBlocker == null) == (candidateBlocker == null)) {
+            if ((referenceBlocker != null) && !referenceBlocker.equals(candidateBlocker)) {
+                differentBlockers.incrementAndGet();
+            }
+            return;
+        }
+        
+        // Decide again with the reference, off the Queue lock, for the paths and the number of nodes visited.
+        List<BlockEngine.Evaluation<N>> referenceEvaluations =
+                decide(ReferenceDecisionEngine.getInstance(), graph, start, upFinal, downFinal);
+        Mismatch mismatch = new Mismatch(System.currentTimeMillis(), names.apply(start), candidate.getName(), version,
+                String.valueOf(upFinal), String.valueOf(downFinal),
+                describe(referenceEvaluations, names), describe(candidateEvaluations, names));
+        long count = mismatches.incrementAndGet();
+        if (count == 1) {
+            LOGGER.warning("Engine " + candidate.getName() + " disagrees with the reference: " + mismatch.toJSON());
+        }
+        else if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine("Engine " + candidate.getName() + " disagrees with the reference: " + mismatch.toJSON());
+        }
+        synchronized (recentMismatches) {
+            recentMismatches.addLast(mismatch);
+            while (recentMismatches.size() > maxMismatches) {
+                recentMismatches.removeFirst();
+            }
+        }
+    }
+    
+    /**
+     * Makes a whole decision, like BlockBuildQueueTaskDispatcher: upstream, then downstream if upstream did not block.
+     * 
+     * @return the evaluation of each direction checked
+     */
+    private static <N> List<BlockEngine.Evaluation<N>> decide(DecisionEngine engine, BlockGraph<N> graph, N start,
+                                                            Predicate<? super N> upFinal, Predicate<? super N> downFinal) {
+        List<BlockEngine.Evaluation<N>> evaluations = new ArrayList<BlockEngine.Evaluation<N>>(2);
+        if (upFinal != null) {
+            BlockEngine.Evaluation<N> up = engine.evaluate(graph, start, SearchDirection.UP, upFinal);
+            evaluations.add(up);
+            if (up.getBlocker() != null) {
+                return evaluations;
+            }
+        }
+        if (downFinal != null) {
+            evaluations.add(engine.evaluate(graph, start, SearchDirection.DOWN, downFinal));
+        }
+        return evaluations;
+    }
+    
+    /**
+     * @return the blocker of the last evaluation, or null if none blocked
+     */
+    private static <N> N getBlocker(List<BlockEngine.Evaluation<N>> evaluations) {
+        return evaluations.isEmpty() ? null : evaluations.get(evaluations.size() - 1).getBlocker();
+    }
+    
+    /**
+     * @return the blocker, its path and the number of nodes visited, as JSON
+     */
+    private static <N> JSONObject describe(List<BlockEngine.Evaluation<N>> evaluations, Function<? super N, String> names) {
+        JSONObject json = new JSONObject();
+        int visited = 0;
+        for (BlockEngine.Evaluation<N> evaluation : evaluations) {
+            visited += evaluation.getVisited();
+        }
+        json.put("visited", visited);
+        N blocker = getBlocker(evaluations);
+        if (blocker != null) {
+            json.put("blocker", names.apply(blocker));
+            JSONArray path = new JSONArray();
+            for (N node : evaluations.get(evaluations.size() - 1).getPath(blocker)) {
+                path.add(names.apply(node));
+            }
+            json.put("path", path);
+        }
+        return json;
+    }
+    
+    /**
+     * @return number of mismatches found so far
+     */
+    long getMismatchCount() {
+        return mismatches.get();
+    }
+    
+    /**
+     * @return the kept mismatches, newest first
+     */
+    List<Mismatch> getMismatches() {
+        List<Mismatch> result = new ArrayList<Mismatch>();
+        synchronized (recentMismatches) {
+            for (Mismatch mismatch : recentMismatches) {
+                result.add(0, mismatch);
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * @return the counters, the side-by-side latencies in nanoseconds and the kept mismatches, as JSON
+     */
+    JSONObject toJSON() {
+        JSONObject json = new JSONObject();
+        json.put("enabled", isEnabled());
+        if (!isEnabled()) {
+            return json;
+        }
+        json.put("engine", candidate.getName());
+        json.put("submitted", submitted.get());
+        json.put("dropped", dropped.get());
+        json.put("stale", stale.get());
+        json.put("failed", failed.get());
+        json.put("compared", compared.get());
+        json.put("mismatches", mismatches.get());
+        json.put("differentBlockers", differentBlockers.get());
+        
+        JSONObject latency = new JSONObject();
+        latency.put("reference", referenceNanos.toJSON());
+        latency.put(candidate.getName(), candidateNanos.toJSON());
+        json.put("latencyNanos", latency);
+        
+        JSONArray recent = new JSONArray();
+        for (Mismatch mismatch : getMismatches()) {
+            recent.add(mismatch.toJSON());
+        }
+        json.put("recentMismatches", recent);
+        return json;
+    }
+    
+    /**
+     * A decision where the reference and the candidate disagree.  Immutable.
+     */
+    static final class Mismatch {
+        private final long timeMillis;
+        private final String project;
+        private final String engine;
+        private final long version;
+        private final String upFinal;
+        private final String downFinal;
+        private final JSONObject reference;
+        private final JSONObject candidate;
+        
+        Mismatch(long timeMillis, String project, String engine, long version, String upFinal, String downFinal,
+                 JSONObject reference, JSONObject candidate) {
+            this.timeMillis = timeMillis;
+            this.project = project;
+            this.engine = engine;
+            this.version = version;
+            this.upFinal = upFinal;
+            this.downFinal = downFinal;
+            this.reference = reference;
+            this.candidate = candidate;
+        }
+        
+        /**
+         * @return name of the project that wanted to build
+         */
+        String getProject() {
+            return project;
+        }
+        
+        /**
+         * @return name of the project that blocked the reference, or null if it did not block
+         */
+        String getReferenceBlocker() {
+            return reference.optString("blocker", null);
+        }
+        
+        /**
+         * @return name of the project that blocked the candidate, or null if it did not block
+         */
+        String getCandidateBlocker() {
+            return candidate.optString("blocker", null);
+        }
+        
+        /**
+         * @return the mismatch as JSON
+         */
+        JSONObject toJSON() {
+            JSONObject json = new JSONObject();
+            json.put("timeMillis", timeMillis);
+            json.put("project", project);
+            json.put("engine", engine);
+            json.put("graphVersion", version);
+            json.put("finalUpstreamProjects", upFinal);
+            json.put("finalDownstreamProjects", downFinal);
+            json.put("reference", reference);
+            json.put("candidate", candidate);
+            return json;
+        }
+    }
+}
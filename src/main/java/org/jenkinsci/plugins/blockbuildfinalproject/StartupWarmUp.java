@@ -0,0 +1,241 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, Chad Rosenquist
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.blockbuildfinalproject;
+
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.common.collect.ImmutableMap;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import net.sf.json.JSONObject;
+
+/**
+ * Builds the plugin's indexes and warms up the selected DecisionEngine on a background thread,
+ * once Jenkins has loaded its jobs, instead of on the first canRun().
+ * 
+ * 1. Starts from BlockBuildItemListener.onLoaded(), right after it resets the indexes: once Jenkins has
+ *    loaded its jobs at startup, and again when the configuration is reloaded from disk.  That's the only
+ *    trigger, so each load is warmed up once.
+ * 2. Each step is run in order: the project registry and its name index, the conflicting options check,
+ *    the trigram index, the final project references, the dependency graph epoch, and finally the selected engine.
+ *    A step that fails is logged and counted, and the next step runs.
+ * 3. Until the last run is done, BlockBuildQueueTaskDispatcher decides with the reference engine,
+ *    which needs nothing warmed up.
+ * 
+ * Progress and the duration of the last run are reported by BlockBuildMetrics.
+ * 
+ * @author Chad Rosenquist
+ *
+ */
+final class StartupWarmUp {
+    private static final Logger LOGGER = Logger.getLogger(StartupWarmUp.class.getName());
+    
+    private static final StartupWarmUp INSTANCE = new StartupWarmUp(ImmutableMap.<String, Runnable>builder()
+            .put("projectRegistry", new Runnable() {
+                @Override
+                public void run() {
+                    ProjectRegistry.getInstance().getProjects();
+                    ProjectRegistry.getInstance().getNameIndex();
+                }
+            })
+            .put("conflictingOptions", new Runnable() {
+                @Override
+                public void run() {
+                    ConflictingOptionsMonitor.recheck(ProjectRegistry.getInstance().getProjects());
+                }
+            })
+            .put("trigramIndex", new Runnable() {
+                @Override
+                public void run() {
+                    ProjectTrigramIndex.getInstance().warmUp();
+                }
+            })
+            .put("finalProjectReferences", new Runnable() {
+                @Override
+                public void run() {
+                    FinalProjectReferences.getInstance().warmUp();
+                }
+            })
+            .put("dependencyGraph", new Runnable() {
+                @Override
+                public void run() {
+                    RegionCache.getInstance().getEpoch();
+                }
+            })
+            .put("engine", new Runnable() {
+                @Override
+                public void run() {
+                    waitFor(DecisionEngines.getInstance().warmUpSelected());
+                }
+            })
+            .build());
+    
+    // step name -> what it warms up, in order
+    private final Map<String, Runnable> steps;
+    
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(
+            new NamingThreadFactory(new DaemonThreadFactory(), StartupWarmUp.class.getSimpleName()));
+    
+    // true once Jenkins has loaded its jobs
+    private volatile boolean started = false;
+    
+    // runs started and not finished
+    private final AtomicInteger pending = new AtomicInteger();
+    
+    private final AtomicInteger runs = new AtomicInteger();
+    
+    private final AtomicInteger failures = new AtomicInteger();
+    
+    // the step running, or null
+    private volatile String step = null;
+    
+    private volatile int stepsDone = 0;
+    
+    private volatile long runStartNanos = 0;
+    
+    // duration of the last finished run, or -1
+    private volatile long lastDurationNanos = -1;
+    
+    /**
+     * Constructor
+     * 
+     * @param steps step name -> what it warms up, in the order they run
+     */
+    StartupWarmUp(Map<String, Runnable> steps) {
+        this.steps = steps;
+    }
+    
+    /**
+     * @return the single instance
+     */
+    static StartupWarmUp getInstance() {
+        return INSTANCE;
+    }
+    
+    /**
+     * Runs every step on the background thread.  If a run is in progress, another run follows it.
+     * 
+     * @return completes when this run is done
+     */
+    Future<?> start() {
+        started = true;
+        if (pending.incrementAndGet() == 1) {
+            runStartNanos = System.nanoTime();
+        }
+        return executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    runSteps();
+                }
+                finally {
+                    pending.decrementAndGet();
+                }
+            }
+        });
+    }
+    
+    /**
+     * @return true once Jenkins has loaded its jobs
+     */
+    boolean isStarted() {
+        return started;
+    }
+    
+    /**
+     * @return true if the warm-up started and every run has finished
+     */
+    boolean isDone() {
+        return started && (pending.get() == 0);
+    }
+    
+    private void runSteps() {
+        long start = System.nanoTime();
+        runStartNanos = start;
+        stepsDone = 0;
+        runs.incrementAndGet();
+        for (Map.Entry<String, Runnable> entry : steps.entrySet()) {
+            step = entry.getKey();
+            try {
+                entry.getValue().run();
+            }
+            catch (RuntimeException e) {
+                failures.incrementAndGet();
+                LOGGER.log(Level.WARNING, "Warm-up step " + entry.getKey() + " failed.", e);
+            }
+            stepsDone++;
+        }
+        step = null;
+        lastDurationNanos = System.nanoTime() - start;
+        LOGGER.info("Block Build Final Project warmed up in " + lastDurationNanos / 1000000 + " ms.");
+    }
+    
+    private static void waitFor(Future<?> future) {
+        try {
+            future.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while warming up the engine.", e);
+        }
+        catch (ExecutionException e) {
+            throw new IllegalStateException("The engine failed to warm up.", e.getCause());
+        }
+    }
+    
+    /**
+     * @return the state, the step running, the steps done, runs, failures and durations, as JSON
+     */
+    JSONObject toJSON() {
+        JSONObject json = new JSONObject();
+        String state;
+        if (!started) {
+            state = "waiting";
+        }
+        else if (pending.get() > 0) {
+            state = "running";
+        }
+        else {
+            state = "done";
+        }
+        json.put("state", state);
+        json.put("step", (step == null) ? "" : step);
+        json.put("stepsDone", stepsDone);
+        json.put("steps", steps.size());
+        json.put("runs", runs.get());
+        json.put("failures", failures.get());
+        json.put("elapsedMillis", "running".equals(state) ? (System.nanoTime() - runStartNanos) / 1000000 : 0);
+        json.put("lastDurationMillis", (lastDurationNanos < 0) ? -1 : lastDurationNanos / 1000000);
+        return json;
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, Chad Rosenquist
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jenkinsci.plugins.blockbuildfinalproject;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.google.common.base.Function;
+import com.google.common.base.Predicate;
+
+/**
+ * The search behind BlockBuild.getTransitiveUpOrDownstreamProjectsFinal(), without Jenkins.
+ * 
+ * The graph is given as a function returning each node's upstream or downstream nodes,
+ * so the same code runs on Jenkins projects and on the synthetic graphs in the benchmarks.
+ * 
+ * @author Chad Rosenquist
+ *
+ */
+final class TransitiveSearch {
+    
+    private TransitiveSearch() {
+    }
+    
+    /**
+     * Finds every node reachable from start.  The search does not continue past final nodes.
+     * 
+     * @param start      the node to search from
+     * @param neighbours returns the nodes directly upstream or downstream of a node
+     * @param isFinal    true for nodes the search stops at.  Final nodes are included in the result.
+     * @return           each node found -> the node it was reached from.  start is only included if it's in a cycle.
+     * 
+     * The search is depth first.  Each node is visited once, so the cost is linear in the size of the region.
+     */
+    static <T> Map<T, T> search(T start, Function<? super T, ? extends Iterable<? extends T>> neighbours,
+                                Predicate<? super T> isFinal) {
+        Map<T, T> parents = new HashMap<T, T>();
+        ArrayDeque<T> stack = new ArrayDeque<T>();
+        
+        stack.push(start);
+        
+        while (!stack.isEmpty()) {
+            T current = stack.pop();
+            for (T child : neighbours.apply(current)) {
+                if (!parents.containsKey(child)) {
+                    parents.put(child, current);
+                    // Note:  final nodes are NOT pushed, so the search stops there.
+                    if (!isFinal.apply(child)) {
+                        stack.push(child);
+                    }
+                }
+            }
+        }
+        
+        return parents;
+    }
+}
@@ -8,6 +8,7 @@ import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.MockFolder;
 
 import hudson.model.AutoCompletionCandidates;
 import hudson.model.FreeStyleProject;
@@ -54,6 +55,32 @@ public class AutoCompleteUtilsIntTest {
         assertFalse(values.contains("other-project"));
     }
     
+    /**
+     * Tests autoCompleteProjects matching the middle of a name, and a misspelled name.
+     * @throws Exception 
+     */
+    @Test
+    public void testAutoCompleteProjects_InfixAndFuzzy() throws Exception {
+        // Given
+        MockFolder team = jenkinsRule.createFolder("team");
+        team.createProject(FreeStyleProject.class, "service-build");
+        jenkinsRule.createFreeStyleProject("service-test");
+        jenkinsRule.createFreeStyleProject("other-project");
+        
+        // When
+        List<String> infixValues = AutoCompleteUtils.autoCompleteProjects("service").getValues();
+        List<String> fuzzyValues = AutoCompleteUtils.autoCompleteProjects("servce-build").getValues();
+        
+        // Then
+        // Prefix matches come first.
+        assertEquals(2, infixValues.size());
+        assertEquals("service-test", infixValues.get(0));
+        assertEquals("team/service-build", infixValues.get(1));
+        
+        assertEquals("team/service-build", fuzzyValues.get(0));
+        assertFalse(fuzzyValues.contains("other-project"));
+    }
+    
     /**
      * Tests checkProjects returning OK.
      * @throws Exception
@@ -70,5 +97,29 @@ public class AutoCompleteUtilsIntTest {
         // Then
         assertEquals("OK: <div/>", validation.toString());
     }
+    
+    /**
+     * Tests checkProjectsBatch reporting every problem in one response.
+     * @throws Exception
+     */
+    @Test
+    public void testCheckProjectsBatch() throws Exception {
+        // Given
+        FreeStyleProject currentProject = jenkinsRule.createFreeStyleProject("current-project");
+        jenkinsRule.createFreeStyleProject("search-project");
+        jenkinsRule.createFolder("search-folder");
+        
+        // When
+        FormValidation ok = AutoCompleteUtils.checkProjectsBatch("search-project", currentProject);
+        FormValidation errors = AutoCompleteUtils.checkProjectsBatch(
+                "search-project, missing-project, search-folder, search-project", currentProject);
+        
+        // Then
+        assertEquals("OK: <div/>", ok.toString());
+        assertEquals(FormValidation.Kind.ERROR, errors.kind);
+        assertEquals("Invalid project: missing-project<br/>"
+                + "Project is not buildable: search-folder<br/>"
+                + "Project is listed more than once: search-project", errors.getMessage());
+    }
 
 }
@@ -26,7 +26,7 @@ import jenkins.model.Jenkins;
  * These tests perform extensive testing and code coverage for class AutoCompleteUtils.
  * The following are mocked:
  *   - Jenkins.getInstance() returns the mocked private class variable jenkins.
- *   - JenkinsWrapper.getAbstractProjects() is mocked to return a list of mocked projects.
+ *   - JenkinsWrapper.getProjectNameIndex() is mocked to return an index of mocked projects.
  *   
  * @author Chad Rosenquist
  *
@@ -47,12 +47,12 @@ public class AutoCompleteUtilsUnitTest {
     }
 
     /**
-     * If getAbstractProjects() returns null, that an empty list is returned.
+     * If getProjectNameIndex() returns null, that an empty list is returned.
      */
     @Test
     public void testAutoCompleteProjects_Null() {
         // Given
-        PowerMockito.when(JenkinsWrapper.getAbstractProjects()).thenReturn(null);
+        PowerMockito.when(JenkinsWrapper.getProjectNameIndex()).thenReturn(null);
         
         // When
         AutoCompletionCandidates candidates = AutoCompleteUtils.autoCompleteProjects("project-a");
@@ -71,7 +71,7 @@ public class AutoCompleteUtilsUnitTest {
         // Given
         @SuppressWarnings("rawtypes")
         List<AbstractProject> projects = createMockedProjectList();
-        PowerMockito.when(JenkinsWrapper.getAbstractProjects()).thenReturn(projects);
+        PowerMockito.when(JenkinsWrapper.getProjectNameIndex()).thenReturn(createIndex(projects));
         
         // When
         AutoCompletionCandidates candidates = AutoCompleteUtils.autoCompleteProjects("cool");
@@ -92,7 +92,7 @@ public class AutoCompleteUtilsUnitTest {
         // Given
         @SuppressWarnings("rawtypes")
         List<AbstractProject> projects = createMockedProjectList();
-        PowerMockito.when(JenkinsWrapper.getAbstractProjects()).thenReturn(projects);
+        PowerMockito.when(JenkinsWrapper.getProjectNameIndex()).thenReturn(createIndex(projects));
         
         // When
         AutoCompletionCandidates candidates = AutoCompleteUtils.autoCompleteProjects("hello");
@@ -110,7 +110,7 @@ public class AutoCompleteUtilsUnitTest {
         // Given
         @SuppressWarnings("rawtypes")
         List<AbstractProject> projects = createMockedProjectList();
-        PowerMockito.when(JenkinsWrapper.getAbstractProjects()).thenReturn(projects);
+        PowerMockito.when(JenkinsWrapper.getProjectNameIndex()).thenReturn(createIndex(projects));
         
         // When
         AutoCompletionCandidates candidates = AutoCompleteUtils.autoCompleteProjects("");
@@ -123,6 +123,59 @@ public class AutoCompleteUtilsUnitTest {
         assertTrue(values.contains("other-project"));
     }
     
+    /**
+     * Prefix matching ignores case and returns the projects sorted by name.
+     */
+    @Test
+    public void testAutoCompleteProjects_IgnoresCaseAndSorts() {
+        // Given
+        @SuppressWarnings("rawtypes")
+        List<AbstractProject> projects = createMockedProjectList();
+        projects.add(createMockedProject("Cool-Deploy"));
+        PowerMockito.when(JenkinsWrapper.getProjectNameIndex()).thenReturn(createIndex(projects));
+        
+        // When
+        AutoCompletionCandidates candidates = AutoCompleteUtils.autoCompleteProjects("COOL-");
+        
+        // Then
+        List<String> values = candidates.getValues();
+        assertEquals(3, values.size());
+        assertEquals("cool-build", values.get(0));
+        assertEquals("Cool-Deploy", values.get(1));
+        assertEquals("cool-test", values.get(2));
+    }
+    
+    /**
+     * Projects inserted into and removed from the index are found in sorted order, as if it had been rebuilt.
+     */
+    @Test
+    public void testAutoCompleteProjects_InsertedAndRemoved() {
+        // Given
+        @SuppressWarnings("rawtypes")
+        List<AbstractProject> projects = createMockedProjectList();
+        AbstractProject<?, ?> coolDeploy = createMockedProject("Cool-Deploy");
+        AbstractProject<?, ?> coolAlpha = createMockedProject("cool-alpha");
+        List<AbstractProject<?, ?>> added = new ArrayList<AbstractProject<?, ?>>();
+        added.add(coolDeploy);
+        added.add(coolAlpha);
+        added.add(coolAlpha);
+        List<AbstractProject<?, ?>> removed = new ArrayList<AbstractProject<?, ?>>();
+        removed.add((AbstractProject<?, ?>) projects.get(1));
+        ProjectNameIndex index = createIndex(projects).withAdded(added).withRemoved(removed);
+        PowerMockito.when(JenkinsWrapper.getProjectNameIndex()).thenReturn(index);
+        
+        // When
+        AutoCompletionCandidates candidates = AutoCompleteUtils.autoCompleteProjects("cool");
+        
+        // Then
+        List<String> values = candidates.getValues();
+        assertEquals(4, index.size());
+        assertEquals(3, values.size());
+        assertEquals("cool-alpha", values.get(0));
+        assertEquals("cool-build", values.get(1));
+        assertEquals("Cool-Deploy", values.get(2));
+    }
+    
     /**
      * Creates a mocked project list
      * @return mocked list
@@ -146,6 +199,17 @@ public class AutoCompleteUtilsUnitTest {
         return projects;
     }
     
+    /**
+     * Creates a name index of projects
+     * 
+     * @param projects  the projects
+     * @return          index of the projects
+     */
+    @SuppressWarnings("rawtypes")
+    private ProjectNameIndex createIndex(List<AbstractProject> projects) {
+        return new ProjectNameIndex(projects.toArray(new AbstractProject<?, ?>[projects.size()]));
+    }
+    
     /**
      * Creates a simple mocked project
      * 
@@ -153,10 +217,12 @@ public class AutoCompleteUtilsUnitTest {
      * @return          mocked project
      * 
      * Creates a mocked AbstractProject.  When getFullName() is called, the name is returned.
+     * The current user can read the project.
      */
     private AbstractProject<?, ?> createMockedProject(String fullName) {
         AbstractProject<?, ?> project = PowerMockito.mock(AbstractProject.class);
         PowerMockito.when(project.getFullName()).thenReturn(fullName);
+        PowerMockito.when(project.hasPermission(Item.READ)).thenReturn(true);
         return project;
     }
     
@@ -0,0 +1,88 @@
+package org.jenkinsci.plugins.blockbuildfinalproject;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import hudson.model.Descriptor.FormException;
+import hudson.model.FreeStyleProject;
+import hudson.model.queue.CauseOfBlockage;
+import net.sf.json.JSONObject;
+
+/**
+ * Tests BlockBuildGlobalConfiguration: switching the blocking engine without a restart.
+ * 
+ * @author Chad Rosenquist
+ *
+ */
+public class BlockBuildGlobalConfigurationIntTest {
+    
+    @Rule
+    public JenkinsRule jenkinsRule = new JenkinsRule();
+    
+    /**
+     * Puts the default engine back, for the tests that follow in the same JVM.
+     * 
+     * @throws Exception
+     */
+    @After
+    public void selectReference() throws Exception {
+        DecisionEngines.getInstance().select(ReferenceDecisionEngine.getInstance().getName()).get(30, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Saving the configuration switches the engine once it's warm, and the choice is saved.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testConfigure_SwitchesEngine() throws Exception {
+        // Given
+        FreeStyleProject project = jenkinsRule.createFreeStyleProject("indexed-project");
+        BlockBuildJobProperty.updateBlockBuildJobPropertyInProject(project,
+                new BlockBuildJobProperty(false, "", true, ""));
+        BlockBuildGlobalConfiguration config = BlockBuildGlobalConfiguration.get();
+        JSONObject json = new JSONObject();
+        json.put("engine", "indexed");
+        
+        // When
+        config.configure(null, json);
+        // Selecting again waits for the first selection to warm up.
+        DecisionEngine active = DecisionEngines.getInstance().select("indexed").get(30, TimeUnit.SECONDS);
+        
+        // Then
+        assertSame(IndexedDecisionEngine.getInstance(), active);
+        CauseOfBlockage blockage = new BlockBuild(project).checkBuildingDownstream();
+        assertNull("Nothing downstream is building", blockage);
+        config.load();
+        assertEquals("indexed", config.getEngine());
+    }
+    
+    /**
+     * An unknown engine is rejected, and the active engine does not change.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testConfigure_UnknownEngine() throws Exception {
+        // Given
+        BlockBuildGlobalConfiguration config = BlockBuildGlobalConfiguration.get();
+        JSONObject json = new JSONObject();
+        json.put("engine", "no-such-engine");
+        
+        // When
+        try {
+            config.configure(null, json);
+            fail("Expected FormException");
+        }
+        catch (FormException expected) {
+            // Then
+            assertEquals("reference", DecisionEngines.getInstance().getActive().getName());
+        }
+    }
+}
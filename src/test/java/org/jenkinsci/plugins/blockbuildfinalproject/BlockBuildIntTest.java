@@ -27,13 +27,17 @@ package org.jenkinsci.plugins.blockbuildfinalproject;
 import static org.junit.Assert.*;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutionException;
 
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.MockFolder;
+import org.jvnet.hudson.test.TestExtension;
 
 import com.google.common.collect.ImmutableList;
 
@@ -43,6 +47,7 @@ import hudson.model.FreeStyleProject;
 import hudson.model.Result;
 import hudson.model.queue.CauseOfBlockage;
 import hudson.tasks.BuildTrigger;
+import hudson.util.FormValidation;
 import hudson.util.OneShotEvent;
 import jenkins.model.Jenkins;
 
@@ -369,6 +374,137 @@ public class BlockBuildIntTest {
         assertTrue(upstreamProjects.contains(upstreamParentChad));
     }
     
+    /**
+     * Tests the downstream region is ranked by hop distance and ignores final projects.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testGetRegion_Downstream() throws Exception {
+        // When
+        ProjectRegion region = RegionCache.getInstance().getRegion(downstreamGrandparent, BlockBuild.SearchDirection.DOWN);
+        
+        // Then
+        assertEquals(5, region.size());
+        assertEquals(1, region.getDistance(downstreamParentBrian));
+        assertEquals(1, region.getDistance(downstreamParentChad));
+        assertEquals(2, region.getDistance(downstreamChildNeil));
+        assertEquals(-1, region.getDistance(downstreamGrandparent));
+        
+        List<String> values = AutoCompleteUtils.autoCompleteProjectsInRegion("PARENT", region).getValues();
+        assertEquals(2, values.size());
+        
+        values = AutoCompleteUtils.autoCompleteProjectsInRegion("", region).getValues();
+        assertEquals("downstream-parent-brian", values.get(0));
+        assertEquals("downstream-parent-chad", values.get(1));
+        assertEquals("downstream-child-neil", values.get(2));
+    }
+    
+    /**
+     * Tests region autocompletion puts projects that start with the text before closer projects that contain it.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testAutoCompleteProjectsInRegion_PrefixFirst() throws Exception {
+        // Given
+        jenkinsRule.createFreeStyleProject("neil-tools");
+        downstreamChildNeil.getPublishersList().add(new BuildTrigger("neil-tools", true));
+        jenkinsRule.jenkins.rebuildDependencyGraph();
+        ProjectRegion region = RegionCache.getInstance().getRegion(downstreamParentChad, BlockBuild.SearchDirection.DOWN);
+        
+        // When
+        List<String> values = AutoCompleteUtils.autoCompleteProjectsInRegion("NEIL", region).getValues();
+        
+        // Then
+        assertEquals(ImmutableList.of("neil-tools", "downstream-child-neil"), values);
+    }
+    
+    /**
+     * Tests region autocompletion falls back to all projects when the region is empty.
+     */
+    @Test
+    public void testAutoCompleteProjectsInRegion_EmptyRegion() {
+        // Given
+        ProjectRegion region = RegionCache.getInstance().getRegion(downstreamChildNeil, BlockBuild.SearchDirection.DOWN);
+        
+        // When
+        List<String> values = AutoCompleteUtils.autoCompleteProjectsInRegion("upstream-parent", region).getValues();
+        
+        // Then
+        assertEquals(0, region.size());
+        assertEquals(ImmutableList.of("upstream-parent-chad", "upstream-parent-katie"), values);
+    }
+    
+    /**
+     * Tests the path from the project to a transitive downstream project, and how it is shown in the blockage.
+     */
+    @Test
+    public void testGetPath_Downstream() {
+        // Given
+        BlockBuild blockBuild = new BlockBuild(downstreamGrandparent);
+        blockBuild.getTransitiveDownstreamProjectsFinal(null);
+        
+        // When
+        List<AbstractProject<?, ?>> path = blockBuild.getPath(downstreamChildNeil);
+        BlockagePath.Downstream blockage = new BlockagePath.Downstream(path);
+        
+        // Then
+        assertEquals(ImmutableList.of(downstreamGrandparent, downstreamParentChad, downstreamChildNeil), path);
+        assertEquals("Downstream project downstream-child-neil is already building."
+                     + " Path: downstream-grandparent -> downstream-parent-chad -> downstream-child-neil",
+                     blockage.getShortDescription());
+    }
+    
+    /**
+     * Tests the final downstream projects check previews the search and warns about unreachable final projects.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testDoCheckFinalDownstreamProjects() throws Exception {
+        // Given
+        BlockBuildJobProperty.DescriptorImpl descriptor =
+                jenkinsRule.jenkins.getDescriptorByType(BlockBuildJobProperty.DescriptorImpl.class);
+        
+        // When
+        FormValidation reachable = descriptor.doCheckFinalDownstreamProjects("downstream-parent-chad", downstreamGrandparent);
+        FormValidation unreachable = descriptor.doCheckFinalDownstreamProjects(
+                "downstream-parent-chad, upstream-parent-katie", downstreamGrandparent);
+        
+        // Then
+        assertEquals(FormValidation.Kind.OK, reachable.kind);
+        assertTrue(reachable.getMessage(), reachable.getMessage().contains("covers 3 of 5 downstream projects (2 pruned"));
+        assertEquals(FormValidation.Kind.WARNING, unreachable.kind);
+        assertTrue(unreachable.getMessage(), unreachable.getMessage().contains("upstream-parent-katie"));
+    }
+    
+    /**
+     * Tests a final project entered relative to the current project is found in its region.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testDoCheckFinalDownstreamProjects_RelativeName() throws Exception {
+        // Given
+        MockFolder team = jenkinsRule.createFolder("team");
+        FreeStyleProject app = team.createProject(FreeStyleProject.class, "app");
+        team.createProject(FreeStyleProject.class, "lib");
+        app.getPublishersList().add(new BuildTrigger("team/lib", true));
+        jenkinsRule.jenkins.rebuildDependencyGraph();
+        BlockBuildJobProperty.DescriptorImpl descriptor =
+                jenkinsRule.jenkins.getDescriptorByType(BlockBuildJobProperty.DescriptorImpl.class);
+        
+        // When
+        FormValidation relative = descriptor.doCheckFinalDownstreamProjects("lib", app);
+        FormValidation parent = descriptor.doCheckFinalDownstreamProjects("../team/lib", app);
+        
+        // Then
+        assertEquals(relative.getMessage(), FormValidation.Kind.OK, relative.kind);
+        assertTrue(relative.getMessage(), relative.getMessage().contains("covers 1 of 1 downstream projects"));
+        assertEquals(parent.getMessage(), FormValidation.Kind.OK, parent.kind);
+    }
+    
     /**
      * Tests when BlockBuildJobProperty is not found.
      * @throws IOException
@@ -437,6 +573,101 @@ public class BlockBuildIntTest {
         }
     }
     
+    /**
+     * Checks a BlockBuildEventListener receives the evaluation, with the blocker.
+     * @throws Exception
+     */
+    @Test
+    public void testCheckBuildingDownstream_FiresEvaluationEvent() throws Exception {
+        // Given
+        // Schedule B and wait for it to start running.
+        RecordingEventListener.events.clear();
+        projectB.scheduleBuild2(0);
+        projectBBuildStarted.block();
+        
+        // When
+        BlockBuild blockBuild = new BlockBuild(projectA);
+        blockBuild.checkBuildingDownstream();
+        
+        // Then
+        try {
+            assertEquals(1, RecordingEventListener.events.size());
+            BlockBuildEventListener.BlockBuildEvaluation event = RecordingEventListener.events.get(0);
+            assertEquals("project-a", event.getProject());
+            assertEquals("DOWN", event.getDirection());
+            assertTrue("Event should be blocked", event.isBlocked());
+            assertEquals("project-b", event.getBlocker());
+        }
+        finally {
+            waitForLastBuildToFinish(projectB, PROJECT_B_WAIT_TIMEOUT);
+        }
+    }
+    
+    /**
+     * Records the evaluation events fired during a test.
+     */
+    @TestExtension("testCheckBuildingDownstream_FiresEvaluationEvent")
+    public static class RecordingEventListener extends BlockBuildEventListener {
+        static final List<BlockBuildEvaluation> events = new CopyOnWriteArrayList<BlockBuildEvaluation>();
+        
+        @Override
+        public void onEvaluation(BlockBuildEvaluation event) {
+            events.add(event);
+        }
+    }
+    
+    /**
+     * Checks a BlockBuildEventListener that throws doesn't change the decision, and the other listeners
+     * still receive the evaluation.
+     * @throws Exception
+     */
+    @Test
+    public void testCheckBuildingDownstream_FailingEventListener() throws Exception {
+        // Given
+        // Schedule B and wait for it to start running.
+        SurvivingEventListener.events.clear();
+        projectB.scheduleBuild2(0);
+        projectBBuildStarted.block();
+        
+        // When
+        BlockBuild blockBuild = new BlockBuild(projectA);
+        CauseOfBlockage blockage = blockBuild.checkBuildingDownstream();
+        
+        // Then
+        try {
+            assertNotNull("CauseOfBlockage should be project-b", blockage);
+            assertEquals(1, SurvivingEventListener.events.size());
+            assertEquals("project-b", SurvivingEventListener.events.get(0).getBlocker());
+        }
+        finally {
+            waitForLastBuildToFinish(projectB, PROJECT_B_WAIT_TIMEOUT);
+        }
+    }
+    
+    /**
+     * Throws on every evaluation.
+     */
+    @TestExtension("testCheckBuildingDownstream_FailingEventListener")
+    public static class FailingEventListener extends BlockBuildEventListener {
+        @Override
+        public void onEvaluation(BlockBuildEvaluation event) {
+            throw new IllegalStateException("Failing on purpose.");
+        }
+    }
+    
+    /**
+     * Records the evaluation events fired next to FailingEventListener.
+     */
+    @TestExtension("testCheckBuildingDownstream_FailingEventListener")
+    public static class SurvivingEventListener extends BlockBuildEventListener {
+        static final List<BlockBuildEvaluation> events = new CopyOnWriteArrayList<BlockBuildEvaluation>();
+        
+        @Override
+        public void onEvaluation(BlockBuildEvaluation event) {
+            events.add(event);
+        }
+    }
+    
     /**
      * Checks the build is blocked when a downstream project is queued to build.
      * @throws Exception
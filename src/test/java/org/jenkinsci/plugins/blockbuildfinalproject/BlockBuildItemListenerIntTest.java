@@ -26,12 +26,17 @@ package org.jenkinsci.plugins.blockbuildfinalproject;
 
 import static org.junit.Assert.*;
 
+import java.io.File;
+
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.MockFolder;
 
 import hudson.model.FreeStyleProject;
+import hudson.model.Items;
+import hudson.security.FullControlOnceLoggedInAuthorizationStrategy;
 
 
 /**
@@ -99,5 +104,142 @@ public class BlockBuildItemListenerIntTest {
         BlockBuildJobProperty property2 = BlockBuildJobProperty.getBlockBuildJobPropertyFromProject(renamedProject);
         assertEquals("new-name", property2.getFinalUpstreamProjects());        
     }
-
+    
+    /**
+     * Tests that renaming a project only updates the projects that reference it.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testOnRenamedOnlyUpdatesReferrers() throws Exception {
+        // Given
+        FreeStyleProject renamedProject = jenkinsRule.createFreeStyleProject("old-name");
+        FreeStyleProject unrelatedProject = jenkinsRule.createFreeStyleProject("unrelated-project");
+        jenkinsRule.createFreeStyleProject("other-project");
+        
+        BlockBuildJobProperty.updateBlockBuildJobPropertyInProject(unrelatedProject,
+                new BlockBuildJobProperty(true, "other-project", false, ""));
+        BlockBuildJobProperty unrelatedProperty = BlockBuildJobProperty.getBlockBuildJobPropertyFromProject(unrelatedProject);
+        
+        // When
+        renamedProject.renameTo("new-name");
+        
+        // Then
+        assertSame(unrelatedProperty, BlockBuildJobProperty.getBlockBuildJobPropertyFromProject(unrelatedProject));
+        assertEquals(1, FinalProjectReferences.getInstance().getReferrers("other-project").size());
+        assertTrue(FinalProjectReferences.getInstance().getReferrers("old-name").isEmpty());
+    }
+    
+    /**
+     * Tests BlockBuildItemListener::onLocationChanged() when a folder is moved.
+     * Every referenced project inside the folder must be renamed.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testOnLocationChanged_FolderMoved() throws Exception {
+        // Given
+        MockFolder team = jenkinsRule.createFolder("team");
+        MockFolder org = jenkinsRule.createFolder("org");
+        team.createProject(FreeStyleProject.class, "build");
+        team.createProject(FreeStyleProject.class, "test");
+        FreeStyleProject usesFolderProjects = jenkinsRule.createFreeStyleProject("uses-folder-projects");
+        
+        BlockBuildJobProperty.updateBlockBuildJobPropertyInProject(usesFolderProjects,
+                new BlockBuildJobProperty(true, "team/build, other-project", false, "team/test"));
+        
+        // When
+        Items.move(team, org);
+        
+        // Then
+        BlockBuildJobProperty property = BlockBuildJobProperty.getBlockBuildJobPropertyFromProject(usesFolderProjects);
+        assertEquals("org/team/build,other-project", property.getFinalUpstreamProjects());
+        assertEquals("org/team/test", property.getFinalDownstreamProjects());
+    }
+    
+    /**
+     * Tests BlockBuildItemListener::onDeleted() when a folder is deleted.
+     * Every referenced project inside the folder must be removed.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testOnDeleted_FolderDeleted() throws Exception {
+        // Given
+        MockFolder team = jenkinsRule.createFolder("team");
+        team.createProject(FreeStyleProject.class, "build");
+        FreeStyleProject usesFolderProjects = jenkinsRule.createFreeStyleProject("uses-folder-projects");
+        
+        BlockBuildJobProperty.updateBlockBuildJobPropertyInProject(usesFolderProjects,
+                new BlockBuildJobProperty(true, "team/build, other-project", false, ""));
+        
+        // When
+        team.delete();
+        
+        // Then
+        BlockBuildJobProperty property = BlockBuildJobProperty.getBlockBuildJobPropertyFromProject(usesFolderProjects);
+        assertEquals("other-project", property.getFinalUpstreamProjects());
+    }
+    
+    /**
+     * Tests deleting a project while its save is queued in PropertySaveQueue.
+     * The save must not write config.xml back, or the project would come back the next time Jenkins loads.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testOnDeleted_WhileSaveQueued() throws Exception {
+        // Given
+        FreeStyleProject renamedProject = jenkinsRule.createFreeStyleProject("old-name");
+        FreeStyleProject referrer = jenkinsRule.createFreeStyleProject("referrer");
+        BlockBuildJobProperty.updateBlockBuildJobPropertyInProject(referrer,
+                new BlockBuildJobProperty(true, "old-name", false, ""));
+        File config = referrer.getConfigFile().getFile();
+        PropertySaveQueue queue = PropertySaveQueue.getInstance();
+        
+        // When
+        // Holding the queue's lock keeps the background thread from saving until the referrer is deleted.
+        synchronized (queue) {
+            renamedProject.renameTo("new-name");
+            referrer.delete();
+        }
+        for (int i = 0; (i < 1000) && !queue.isIdle(); i++) {
+            Thread.sleep(10);
+        }
+        
+        // Then
+        assertTrue(queue.isIdle());
+        assertNull(jenkinsRule.jenkins.getItem("referrer"));
+        assertFalse(config.exists());
+    }
+    
+    /**
+     * Tests the queued save is written when anonymous users cannot read the project.
+     * The background thread has no user, so it must look the project up as the system user.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testOnRenamed_SecuredSaveWritten() throws Exception {
+        // Given
+        jenkinsRule.jenkins.setSecurityRealm(jenkinsRule.createDummySecurityRealm());
+        jenkinsRule.jenkins.setAuthorizationStrategy(new FullControlOnceLoggedInAuthorizationStrategy());
+        FreeStyleProject renamedProject = jenkinsRule.createFreeStyleProject("old-name");
+        FreeStyleProject referrer = jenkinsRule.createFreeStyleProject("referrer");
+        BlockBuildJobProperty.updateBlockBuildJobPropertyInProject(referrer,
+                new BlockBuildJobProperty(true, "old-name", false, ""));
+        PropertySaveQueue queue = PropertySaveQueue.getInstance();
+        
+        // When
+        renamedProject.renameTo("new-name");
+        for (int i = 0; (i < 1000) && !queue.isIdle(); i++) {
+            Thread.sleep(10);
+        }
+        
+        // Then
+        assertTrue(queue.isIdle());
+        String config = referrer.getConfigFile().asString();
+        assertTrue(config, config.contains("new-name"));
+        assertFalse(config, config.contains("old-name"));
+    }
 }
@@ -195,4 +195,36 @@ public class BlockBuildJobPropertyUnitTest {
         Mockito.verify(project, Mockito.times(1)).addProperty(newProperty);
         
     }
+    
+    /**
+     * Tests updateBlockBuildJobPropertyInProject() does nothing when the property is unchanged.
+     * @throws IOException
+     */
+    @Test
+    public void testUpdateBlockBuildJobPropertyInProject_Unchanged() throws IOException {
+        BlockBuildJobProperty oldProperty = new BlockBuildJobProperty(false, "C", true, "");
+        BlockBuildJobProperty newProperty = new BlockBuildJobProperty(false, "C", true, "");
+        
+        AbstractProject<?, ?> project = Mockito.mock(AbstractProject.class);
+        Mockito.when(project.getProperty(BlockBuildJobProperty.class)).thenReturn(oldProperty);
+        BlockBuildJobProperty.updateBlockBuildJobPropertyInProject(project, newProperty);
+        
+        Mockito.verify(project, Mockito.never()).removeProperty(BlockBuildJobProperty.class);
+        Mockito.verify(project, Mockito.never()).addProperty(newProperty);
+    }
+    
+    /**
+     * Tests equals() and hashCode().
+     */
+    @Test
+    public void testEquals() {
+        BlockBuildJobProperty property = new BlockBuildJobProperty(true, "A, B", false, "C");
+        
+        assertEquals(property, new BlockBuildJobProperty(true, "A,B", false, "C"));
+        assertEquals(property.hashCode(), new BlockBuildJobProperty(true, "A,B", false, "C").hashCode());
+        assertFalse(property.equals(new BlockBuildJobProperty(true, "B, A", false, "C")));
+        assertFalse(property.equals(new BlockBuildJobProperty(false, "A, B", false, "C")));
+        assertFalse(property.equals(property.onRenamed("C", "D")));
+        assertEquals(property, property.onRenamed("E", "F"));
+    }
 }
@@ -0,0 +1,325 @@
+package org.jenkinsci.plugins.blockbuildfinalproject;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.TestExtension;
+
+import hudson.model.AbstractBuild;
+import hudson.model.Cause;
+import hudson.model.FreeStyleProject;
+import hudson.model.ParametersAction;
+import hudson.model.Queue;
+import hudson.model.Result;
+import hudson.model.StringParameterValue;
+import hudson.model.queue.QueueListener;
+import hudson.tasks.BuildTrigger;
+import hudson.util.OneShotEvent;
+import net.sf.json.JSONObject;
+
+/**
+ * Load test: hundreds of projects, triggered concurrently, to measure queue throughput.
+ * 
+ * Builds P pipelines of N stages.  The last stage of every pipeline triggers a shared hub project,
+ * so the pipelines' downstream regions overlap.  Each pipeline's first stage is triggered T times.
+ * The same graph is run with three blocking setups:
+ * 1. BUILTIN      - Jenkins' 'Block build when upstream/downstream project is building'.
+ * 2. PLUGIN       - this plugin, without final projects.  Should behave like BUILTIN.
+ * 3. PLUGIN_FINAL - this plugin, with each pipeline's first and last stages as final projects,
+ *                   so a pipeline is not blocked by the others through the hub.
+ * 
+ * Reports, in target/load-test/MODE.json:
+ * 1. The plugin's canRun() latency - each decision's duration, from BlockBuildEventListener.onDecision(),
+ *                                    which is what BlockBuildMetrics records.  Not in BUILTIN mode.
+ * 2. Time to unblock               - how long items stay blocked.
+ * 3. Time in queue and makespan    - from the first trigger until Jenkins is idle.
+ * 4. Queue maintenance latency     - only with -Dblockbuild.loadTest.sampleMaintain=true.  Queue.maintain()
+ *                                    is called and timed every 10 ms from a sampling thread.  Those extra
+ *                                    maintenance passes start buildable items sooner than Jenkins would,
+ *                                    so they shorten the time in queue and the makespan.  Compare makespans
+ *                                    only between runs with the same setting.
+ * 
+ * The test is skipped unless run with -Dblockbuild.loadTest=true.  The size can be changed with
+ * -Dblockbuild.loadTest.pipelines, .stages, .triggers, .executors and .sleepMillis.
+ * 
+ * @author Chad Rosenquist
+ *
+ */
+public class BlockBuildLoadIntTest {
+    @Rule
+    public JenkinsRule jenkinsRule = new JenkinsRule();
+    
+    private static final String PREFIX = "blockbuild.loadTest";
+    private static final int PIPELINES = Integer.getInteger(PREFIX + ".pipelines", 20);
+    private static final int STAGES = Integer.getInteger(PREFIX + ".stages", 10);
+    private static final int TRIGGERS = Integer.getInteger(PREFIX + ".triggers", 2);
+    private static final int EXECUTORS = Integer.getInteger(PREFIX + ".executors", 8);
+    private static final long SLEEP_MILLIS = Long.getLong(PREFIX + ".sleepMillis", 100L);
+    private static final boolean SAMPLE_MAINTAIN = Boolean.getBoolean(PREFIX + ".sampleMaintain");
+    private static final long TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(30);
+    
+    private enum Mode { BUILTIN, PLUGIN, PLUGIN_FINAL }
+    
+    private final List<FreeStyleProject> projects = new ArrayList<FreeStyleProject>();
+    private final List<FreeStyleProject> heads = new ArrayList<FreeStyleProject>();
+    private final List<OneShotEvent> headStarted = new ArrayList<OneShotEvent>();
+    
+    @Before
+    public void setUp() {
+        Assume.assumeTrue("Load test skipped.  Run with -D" + PREFIX + "=true", Boolean.getBoolean(PREFIX));
+        QueueTimes.reset();
+        DecisionTimes.reset();
+    }
+    
+    @Test
+    public void testLoad_Builtin() throws Exception {
+        runLoad(Mode.BUILTIN);
+    }
+    
+    @Test
+    public void testLoad_Plugin() throws Exception {
+        runLoad(Mode.PLUGIN);
+    }
+    
+    @Test
+    public void testLoad_PluginFinal() throws Exception {
+        runLoad(Mode.PLUGIN_FINAL);
+    }
+    
+    /**
+     * Creates the projects, triggers them, waits for Jenkins to be idle and writes the report.
+     */
+    private void runLoad(Mode mode) throws Exception {
+        // Given
+        jenkinsRule.jenkins.setNumExecutors(EXECUTORS);
+        jenkinsRule.jenkins.setQuietPeriod(0);
+        createPipelines(mode);
+        MaintainSampler sampler = new MaintainSampler();
+        
+        // When
+        long start = System.nanoTime();
+        if (SAMPLE_MAINTAIN) {
+            sampler.start();
+        }
+        try {
+            for (int trigger = 0; trigger < TRIGGERS; trigger++) {
+                for (int p = 0; p < PIPELINES; p++) {
+                    heads.get(p).scheduleBuild2(0, new Cause.UserIdCause(),
+                            new ParametersAction(new StringParameterValue("trigger", String.valueOf(trigger))));
+                }
+                // Like testProjectBlocking(), trigger again once the first stages have started.
+                if (trigger == 0) {
+                    for (OneShotEvent event : headStarted) {
+                        event.block(TIMEOUT_MILLIS);
+                    }
+                }
+            }
+            jenkinsRule.waitUntilNoActivityUpTo((int) TIMEOUT_MILLIS);
+        }
+        finally {
+            sampler.interrupt();
+            sampler.join();
+        }
+        long makespanMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        
+        // Then
+        int builds = 0;
+        for (FreeStyleProject project : projects) {
+            assertNotNull("Project " + project.getFullName() + " should have built", project.getLastBuild());
+            for (AbstractBuild<?, ?> build : project.getBuilds()) {
+                assertEquals(Result.SUCCESS, build.getResult());
+                builds++;
+            }
+        }
+        writeReport(mode, makespanMillis, builds, sampler.latency);
+    }
+    
+    /**
+     * Creates PIPELINES pipelines of STAGES stages, all triggering the hub.
+     */
+    private void createPipelines(Mode mode) throws IOException {
+        FreeStyleProject hub = jenkinsRule.createFreeStyleProject("load-hub");
+        List<String> lastStages = new ArrayList<String>();
+        
+        for (int p = 0; p < PIPELINES; p++) {
+            List<FreeStyleProject> stages = new ArrayList<FreeStyleProject>();
+            for (int s = 0; s < STAGES; s++) {
+                FreeStyleProject stage = jenkinsRule.createFreeStyleProject("load-" + p + "-" + s);
+                if (s == 0) {
+                    OneShotEvent started = new OneShotEvent();
+                    stage.getBuildersList().add(new TestBuilderSignal(started));
+                    heads.add(stage);
+                    headStarted.add(started);
+                }
+                stage.getBuildersList().add(new TestBuilderSleep(SLEEP_MILLIS));
+                stages.add(stage);
+            }
+            for (int s = 0; s < STAGES; s++) {
+                String next = (s + 1 < STAGES) ? stages.get(s + 1).getFullName() : hub.getFullName();
+                stages.get(s).getPublishersList().add(new BuildTrigger(next, true));
+            }
+            String first = stages.get(0).getFullName();
+            String last = stages.get(STAGES - 1).getFullName();
+            lastStages.add(last);
+            for (FreeStyleProject stage : stages) {
+                configureBlocking(mode, stage, first, last);
+            }
+            projects.addAll(stages);
+        }
+        
+        hub.getBuildersList().add(new TestBuilderSleep(SLEEP_MILLIS));
+        configureBlocking(mode, hub, joinNames(lastStages), "");
+        projects.add(hub);
+        jenkinsRule.jenkins.rebuildDependencyGraph();
+    }
+    
+    private static void configureBlocking(Mode mode, FreeStyleProject project, String finalUpstream,
+                                          String finalDownstream) throws IOException {
+        switch (mode) {
+            case BUILTIN:
+                project.setBlockBuildWhenUpstreamBuilding(true);
+                project.setBlockBuildWhenDownstreamBuilding(true);
+                break;
+            case PLUGIN:
+                BlockBuildJobProperty.updateBlockBuildJobPropertyInProject(project,
+                        new BlockBuildJobProperty(true, "", true, ""));
+                break;
+            default:
+                BlockBuildJobProperty.updateBlockBuildJobPropertyInProject(project,
+                        new BlockBuildJobProperty(true, finalUpstream, true, finalDownstream));
+                break;
+        }
+    }
+    
+    private static String joinNames(List<String> names) {
+        StringBuilder builder = new StringBuilder();
+        for (String name : names) {
+            if (builder.length() > 0) {
+                builder.append(", ");
+            }
+            builder.append(name);
+        }
+        return builder.toString();
+    }
+    
+    private void writeReport(Mode mode, long makespanMillis, int builds, LatencyHistogram maintainLatency)
+            throws IOException {
+        JSONObject report = new JSONObject();
+        report.put("mode", mode.name());
+        report.put("pipelines", PIPELINES);
+        report.put("stages", STAGES);
+        report.put("triggers", TRIGGERS);
+        report.put("executors", EXECUTORS);
+        report.put("sleepMillis", SLEEP_MILLIS);
+        report.put("projects", projects.size());
+        report.put("builds", builds);
+        report.put("makespanMillis", makespanMillis);
+        report.put("sampleMaintain", SAMPLE_MAINTAIN);
+        if (SAMPLE_MAINTAIN) {
+            report.put("maintainNanos", maintainLatency.toJSON());
+        }
+        report.put("blockedMillis", QueueTimes.blockedMillis.toJSON());
+        report.put("queueMillis", QueueTimes.queueMillis.toJSON());
+        if (mode != Mode.BUILTIN) {
+            report.put("canRunNanos", DecisionTimes.canRunNanos.toJSON());
+            report.put("plugin", BlockBuildMetrics.getInstance().toJSON());
+        }
+        
+        File file = new File(System.getProperty("basedir", "."), "target/load-test/" + mode.name() + ".json");
+        FileUtils.writeStringToFile(file, report.toString(2), "UTF-8");
+    }
+    
+    /**
+     * Times Queue.maintain() every 10 milliseconds, while the load runs.  Only started with sampleMaintain,
+     * as the extra maintenance passes skew the makespan.
+     */
+    private static final class MaintainSampler extends Thread {
+        private final LatencyHistogram latency = new LatencyHistogram();
+        
+        private MaintainSampler() {
+            super("BlockBuildLoadIntTest maintain sampler");
+            setDaemon(true);
+        }
+        
+        @Override
+        public void run() {
+            Queue queue = Queue.getInstance();
+            while (!isInterrupted()) {
+                long start = System.nanoTime();
+                queue.maintain();
+                latency.record(System.nanoTime() - start);
+                try {
+                    Thread.sleep(10);
+                }
+                catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+    
+    /**
+     * Records the duration of each of the plugin's canRun() decisions in this test.
+     * BlockBuildMetrics holds the same durations, but for every test run in the JVM so far.
+     */
+    @TestExtension
+    public static class DecisionTimes extends BlockBuildEventListener {
+        private static LatencyHistogram canRunNanos = new LatencyHistogram();
+        
+        static void reset() {
+            canRunNanos = new LatencyHistogram();
+        }
+        
+        @Override
+        public void onDecision(BlockBuildDecision event) {
+            canRunNanos.record(event.getDurationNanos());
+        }
+    }
+    
+    /**
+     * Records how long items are blocked, and how long they are in the queue.
+     */
+    @TestExtension
+    public static class QueueTimes extends QueueListener {
+        private static final Map<Long, Long> blockedSince = new ConcurrentHashMap<Long, Long>();
+        private static LatencyHistogram blockedMillis = new LatencyHistogram();
+        private static LatencyHistogram queueMillis = new LatencyHistogram();
+        
+        static void reset() {
+            blockedSince.clear();
+            blockedMillis = new LatencyHistogram();
+            queueMillis = new LatencyHistogram();
+        }
+        
+        @Override
+        public void onEnterBlocked(Queue.BlockedItem bi) {
+            blockedSince.put(bi.getId(), System.currentTimeMillis());
+        }
+        
+        @Override
+        public void onLeaveBlocked(Queue.BlockedItem bi) {
+            Long since = blockedSince.remove(bi.getId());
+            if (since != null) {
+                blockedMillis.record(System.currentTimeMillis() - since);
+            }
+        }
+        
+        @Override
+        public void onLeft(Queue.LeftItem li) {
+            queueMillis.record(System.currentTimeMillis() - li.getInQueueSince());
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package org.jenkinsci.plugins.blockbuildfinalproject;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import org.apache.commons.io.FileUtils;
+import org.jenkinsci.plugins.blockbuildfinalproject.BlockBuild.SearchDirection;
+import org.junit.Assume;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+
+import net.sf.json.JSONObject;
+
+/**
+ * Performance gate for the blocking decision behind BlockBuildQueueTaskDispatcher.canRun().
+ * 
+ * canRun() itself needs a running Jenkins, so this runs each DecisionEngine registered in DecisionEngines,
+ * which holds all of canRun()'s work that grows with the graph, on a 10,000 node realistic SyntheticGraph.
+ * Each engine is warmed up, with caches big enough for every search, then each node is evaluated upstream
+ * and downstream, and the test fails if, for any engine:
+ * 1. the bytes allocated per node visited, measured with com.sun.management.ThreadMXBean, or
+ * 2. the p99 latency of one evaluation
+ * go over their budget.  The measured values and budgets are written to target/perf-gate/block-engine.json,
+ * so a change in either shows up like a failing test.
+ * 
+ * The p99 budgets are about five times what each engine measured on a developer machine:
+ * reference 160 microseconds, indexed 110, cached 20 and event-driven 2 (raised to 25, below which
+ * the timer and scheduling noise dominate).  The budgets can be changed with
+ * -Dblockbuild.perfGate.maxBytesPerNode and -Dblockbuild.perfGate.maxP99Micros.ENGINE, for example
+ * -Dblockbuild.perfGate.maxP99Micros.reference=2000.
+ * 
+ * @author Chad Rosenquist
+ *
+ */
+public class BlockEnginePerformanceUnitTest {
+    
+    private static final int NODES = 10000;
+    private static final int WARMUP_ROUNDS = 3;
+    private static final long MAX_BYTES_PER_NODE = Long.getLong("blockbuild.perfGate.maxBytesPerNode", 128L);
+    
+    // engine name -> p99 budget in microseconds
+    private static final Map<String, Long> MAX_P99_MICROS = ImmutableMap.of(
+            "reference", maxP99Micros("reference", 800L),
+            "cached", maxP99Micros("cached", 100L),
+            "indexed", maxP99Micros("indexed", 550L),
+            "event-driven", maxP99Micros("event-driven", 25L));
+    
+    // rebuilds the indexed engine's index on the calling thread
+    private static final Executor SAME_THREAD = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Test
+    public void testAllocationAndLatency() throws IOException {
+        // Given
+        java.lang.management.ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue("ThreadMXBean cannot measure allocations on this JVM",
+                threadBean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) threadBean;
+        Assume.assumeTrue("Thread allocation measurement is not supported",
+                allocationBean.isThreadAllocatedMemorySupported());
+        allocationBean.setThreadAllocatedMemoryEnabled(true);
+        
+        SyntheticGraph graph = SyntheticGraph.generate(SyntheticGraph.Shape.REALISTIC, NODES, 0.01, 42);
+        List<DecisionEngine> engines = newEngines();
+        List<String> names = new ArrayList<String>();
+        for (DecisionEngine engine : engines) {
+            names.add(engine.getName());
+        }
+        assertEquals("Every registered engine should be gated", DecisionEngines.getInstance().getNames(), names);
+        
+        JSONObject report = new JSONObject();
+        report.put("nodes", NODES);
+        report.put("maxBytesPerNodeVisited", MAX_BYTES_PER_NODE);
+        List<String> failures = new ArrayList<String>();
+        for (DecisionEngine engine : engines) {
+            engine.warmUp(graph);
+            for (int round = 0; round < WARMUP_ROUNDS; round++) {
+                evaluateAll(engine, graph);
+            }
+            
+            // When
+            long threadId = Thread.currentThread().getId();
+            LatencyHistogram latency = new LatencyHistogram();
+            long visited = 0;
+            long bytesBefore = allocationBean.getThreadAllocatedBytes(threadId);
+            for (SyntheticGraph.Node node : graph.getNodes()) {
+                for (SearchDirection direction : SearchDirection.values()) {
+                    long start = System.nanoTime();
+                    BlockEngine.Evaluation<SyntheticGraph.Node> evaluation =
+                            engine.evaluate(graph, node, direction, SyntheticGraph.IS_FINAL);
+                    latency.record(System.nanoTime() - start);
+                    visited += evaluation.getVisited();
+                }
+            }
+            long bytes = allocationBean.getThreadAllocatedBytes(threadId) - bytesBefore;
+            
+            // Then
+            long bytesPerNode = bytes / Math.max(visited, 1);
+            long p99Micros = latency.getPercentile(99) / 1000;
+            long maxP99Micros = MAX_P99_MICROS.get(engine.getName());
+            report.put(engine.getName(), toJSON(latency, visited, bytes, bytesPerNode, p99Micros, maxP99Micros));
+            if (bytesPerNode > MAX_BYTES_PER_NODE) {
+                failures.add(engine.getName() + " allocated " + bytesPerNode + " bytes per node visited, budget is "
+                             + MAX_BYTES_PER_NODE);
+            }
+            if (p99Micros > maxP99Micros) {
+                failures.add(engine.getName() + " p99 latency is " + p99Micros + " microseconds, budget is "
+                             + maxP99Micros);
+            }
+        }
+        
+        File file = new File(System.getProperty("basedir", "."), "target/perf-gate/block-engine.json");
+        FileUtils.writeStringToFile(file, report.toString(2), "UTF-8");
+        assertTrue(failures.toString(), failures.isEmpty());
+    }
+    
+    /**
+     * @return a fresh instance of each registered engine, in DecisionEngines' order, with room to cache every search
+     */
+    private static List<DecisionEngine> newEngines() {
+        List<DecisionEngine> engines = new ArrayList<DecisionEngine>();
+        engines.add(ReferenceDecisionEngine.getInstance());
+        engines.add(new CachedDecisionEngine(NODES * 2));
+        engines.add(new IndexedDecisionEngine(SAME_THREAD));
+        engines.add(new EventDrivenDecisionEngine(new CachedDecisionEngine(NODES * 2)));
+        return engines;
+    }
+    
+    private static long maxP99Micros(String engine, long defaultMicros) {
+        return Long.getLong("blockbuild.perfGate.maxP99Micros." + engine, defaultMicros);
+    }
+    
+    private static void evaluateAll(DecisionEngine engine, SyntheticGraph graph) {
+        for (SyntheticGraph.Node node : graph.getNodes()) {
+            for (SearchDirection direction : SearchDirection.values()) {
+                engine.evaluate(graph, node, direction, SyntheticGraph.IS_FINAL);
+            }
+        }
+    }
+    
+    private static JSONObject toJSON(LatencyHistogram latency, long visited, long bytes, long bytesPerNode,
+                                     long p99Micros, long maxP99Micros) {
+        JSONObject json = new JSONObject();
+        json.put("evaluations", latency.getCount());
+        json.put("nodesVisited", visited);
+        json.put("bytesAllocated", bytes);
+        json.put("bytesPerNodeVisited", bytesPerNode);
+        json.put("p99Micros", p99Micros);
+        json.put("maxP99Micros", maxP99Micros);
+        json.put("latencyNanos", latency.toJSON());
+        return json;
+    }
+}
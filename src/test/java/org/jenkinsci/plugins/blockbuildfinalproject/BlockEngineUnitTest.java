@@ -0,0 +1,75 @@
+package org.jenkinsci.plugins.blockbuildfinalproject;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.jenkinsci.plugins.blockbuildfinalproject.BlockBuild.SearchDirection;
+import org.junit.Test;
+
+/**
+ * Unit tests BlockEngine on in-memory graphs, without Jenkins.
+ * 
+ * @author Chad Rosenquist
+ *
+ */
+public class BlockEngineUnitTest {
+
+    /**
+     * A busy node at the end of a chain blocks the start, and the path leads to it.
+     */
+    @Test
+    public void testChain_Blocked() {
+        // Given
+        SyntheticGraph graph = SyntheticGraph.generate(SyntheticGraph.Shape.CHAIN, 5, 0.0, 1);
+        SyntheticGraph.Node[] nodes = graph.getNodes();
+        graph.setBusy(nodes[4], true);
+        
+        // When
+        BlockEngine.Evaluation<SyntheticGraph.Node> evaluation =
+                BlockEngine.evaluate(graph, nodes[0], SearchDirection.DOWN, SyntheticGraph.IS_FINAL);
+        
+        // Then
+        assertSame(nodes[4], evaluation.getBlocker());
+        assertEquals(4, evaluation.getVisited());
+        assertEquals(Arrays.asList(nodes), evaluation.getPath(nodes[4]));
+    }
+    
+    /**
+     * The search stops at a final node, so a busy node past it does not block.
+     */
+    @Test
+    public void testChain_StopsAtFinal() {
+        // Given
+        SyntheticGraph graph = SyntheticGraph.generate(SyntheticGraph.Shape.CHAIN, 5, 1.0, 1);
+        SyntheticGraph.Node[] nodes = graph.getNodes();
+        graph.setBusy(nodes[4], true);
+        
+        // When
+        BlockEngine.Evaluation<SyntheticGraph.Node> evaluation =
+                BlockEngine.evaluate(graph, nodes[0], SearchDirection.DOWN, SyntheticGraph.IS_FINAL);
+        
+        // Then
+        assertNull(evaluation.getBlocker());
+        assertEquals(1, evaluation.getVisited());
+    }
+    
+    /**
+     * A node in a cycle is never blocked by itself.
+     */
+    @Test
+    public void testCyclic_NotBlockedBySelf() {
+        // Given
+        SyntheticGraph graph = SyntheticGraph.generate(SyntheticGraph.Shape.CYCLIC, 10, 0.0, 1);
+        SyntheticGraph.Node start = graph.getSource();
+        graph.setBusy(start, true);
+        
+        // When
+        BlockEngine.Evaluation<SyntheticGraph.Node> evaluation =
+                BlockEngine.evaluate(graph, start, SearchDirection.UP, SyntheticGraph.IS_FINAL);
+        
+        // Then
+        assertNull(evaluation.getBlocker());
+        assertEquals(10, evaluation.getVisited());
+    }
+}
@@ -0,0 +1,102 @@
+package org.jenkinsci.plugins.blockbuildfinalproject;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import net.sf.json.JSONObject;
+
+/**
+ * Unit tests BlockedTimeAccounting.
+ * 
+ * @author Chad Rosenquist
+ *
+ */
+public class BlockedTimeAccountingUnitTest {
+
+    /**
+     * Time is charged to the blocked project and to each blocker in turn.
+     */
+    @Test
+    public void testBlockerChanges() {
+        // Given
+        BlockedTimeAccounting accounting = new BlockedTimeAccounting();
+        
+        // When
+        accounting.blocked(1, "child", "parent", 0);
+        accounting.blocked(1, "child", "parent", 100);
+        accounting.blocked(1, "child", "grandparent", 300);
+        accounting.unblocked(1, 350);
+        accounting.left(1, 1000);
+        
+        // Then
+        assertEquals(350, accounting.getBlockedNanos("child"));
+        assertEquals(300, accounting.getBlockingNanos("parent"));
+        assertEquals(50, accounting.getBlockingNanos("grandparent"));
+    }
+    
+    /**
+     * An item still blocked when it leaves the queue is charged up to the time it left.
+     */
+    @Test
+    public void testLeftWhileBlocked() {
+        // Given
+        BlockedTimeAccounting accounting = new BlockedTimeAccounting();
+        accounting.blocked(1, "child", "parent", 0);
+        accounting.blocked(2, "child", "parent", 500);
+        
+        // When
+        accounting.left(1, 1000);
+        accounting.left(2, 1000);
+        accounting.left(3, 1000);
+        
+        // Then
+        assertEquals(1500, accounting.getBlockedNanos("child"));
+        JSONObject json = accounting.toJSON(10);
+        assertEquals(0, json.getInt("itemsInQueue"));
+        assertEquals(2, json.getJSONObject("itemBlockedMillis").getLong("count"));
+        assertEquals(2, json.getJSONArray("projects").getJSONObject(0).getLong("items"));
+    }
+    
+    /**
+     * Deleted projects are forgotten.
+     */
+    @Test
+    public void testRemoveProject() {
+        // Given
+        BlockedTimeAccounting accounting = new BlockedTimeAccounting();
+        accounting.blocked(1, "child", "parent", 0);
+        accounting.left(1, 1000);
+        
+        // When
+        accounting.removeProject("parent");
+        
+        // Then
+        assertEquals(0, accounting.getBlockingNanos("parent"));
+        assertEquals(1000, accounting.getBlockedNanos("child"));
+    }
+    
+    /**
+     * Renamed projects keep their totals, and their items in the queue are charged under the new name.
+     */
+    @Test
+    public void testRenameProject() {
+        // Given
+        BlockedTimeAccounting accounting = new BlockedTimeAccounting();
+        accounting.blocked(1, "child", "parent", 0);
+        accounting.left(1, 1000);
+        accounting.blocked(2, "child", "parent", 1000);
+        
+        // When
+        accounting.renameProject("child", "team/child");
+        accounting.renameProject("parent", "team/parent");
+        accounting.left(2, 1500);
+        
+        // Then
+        assertEquals(0, accounting.getBlockedNanos("child"));
+        assertEquals(0, accounting.getBlockingNanos("parent"));
+        assertEquals(1500, accounting.getBlockedNanos("team/child"));
+        assertEquals(1500, accounting.getBlockingNanos("team/parent"));
+        assertEquals(2, accounting.toJSON(10).getJSONArray("projects").getJSONObject(0).getLong("items"));
+    }
+}
@@ -0,0 +1,74 @@
+package org.jenkinsci.plugins.blockbuildfinalproject;
+
+import static org.junit.Assert.*;
+
+import org.jenkinsci.plugins.blockbuildfinalproject.BlockBuild.SearchDirection;
+import org.junit.Test;
+
+/**
+ * Unit tests CachedDecisionEngine on in-memory graphs, without Jenkins.
+ * 
+ * @author Chad Rosenquist
+ *
+ */
+public class CachedDecisionEngineUnitTest {
+
+    /**
+     * A cached search still sees nodes that became busy after it was cached.
+     */
+    @Test
+    public void testBusyChanged_Blocked() {
+        // Given
+        SyntheticGraph graph = SyntheticGraph.generate(SyntheticGraph.Shape.CHAIN, 5, 0.0, 1);
+        SyntheticGraph.Node[] nodes = graph.getNodes();
+        CachedDecisionEngine engine = new CachedDecisionEngine(10);
+        assertNull(engine.evaluate(graph, nodes[0], SearchDirection.DOWN, SyntheticGraph.IS_FINAL).getBlocker());
+        
+        // When
+        graph.setBusy(nodes[3], true);
+        BlockEngine.Evaluation<SyntheticGraph.Node> evaluation =
+                engine.evaluate(graph, nodes[0], SearchDirection.DOWN, SyntheticGraph.IS_FINAL);
+        
+        // Then
+        assertSame(nodes[3], evaluation.getBlocker());
+        assertEquals(1, engine.size());
+    }
+    
+    /**
+     * Searches done on another graph are not reused.
+     */
+    @Test
+    public void testOtherGraph_NotReused() {
+        // Given
+        SyntheticGraph chain = SyntheticGraph.generate(SyntheticGraph.Shape.CHAIN, 5, 0.0, 1);
+        CachedDecisionEngine engine = new CachedDecisionEngine(10);
+        engine.evaluate(chain, chain.getSource(), SearchDirection.DOWN, SyntheticGraph.IS_FINAL);
+        SyntheticGraph stopped = SyntheticGraph.generate(SyntheticGraph.Shape.CHAIN, 5, 1.0, 1);
+        
+        // When
+        BlockEngine.Evaluation<SyntheticGraph.Node> evaluation =
+                engine.evaluate(stopped, stopped.getSource(), SearchDirection.DOWN, SyntheticGraph.IS_FINAL);
+        
+        // Then
+        assertEquals(1, evaluation.getVisited());
+        assertEquals(1, engine.size());
+    }
+    
+    /**
+     * The least recently used searches are dropped once the cache is full.
+     */
+    @Test
+    public void testFull_Evicts() {
+        // Given
+        SyntheticGraph graph = SyntheticGraph.generate(SyntheticGraph.Shape.CHAIN, 10, 0.0, 1);
+        CachedDecisionEngine engine = new CachedDecisionEngine(3);
+        
+        // When
+        for (SyntheticGraph.Node node : graph.getNodes()) {
+            engine.evaluate(graph, node, SearchDirection.DOWN, SyntheticGraph.IS_FINAL);
+        }
+        
+        // Then
+        assertEquals(3, engine.size());
+    }
+}
@@ -0,0 +1,142 @@
+package org.jenkinsci.plugins.blockbuildfinalproject;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.MockFolder;
+
+import hudson.model.AbstractProject;
+import hudson.model.FreeStyleProject;
+
+/**
+ * Tests ConflictingOptionsMonitor
+ * 
+ * @author Chad Rosenquist
+ *
+ */
+public class ConflictingOptionsMonitorIntTest {
+    
+    @Rule
+    public JenkinsRule jenkinsRule = new JenkinsRule();
+
+    /**
+     * A project with both upstream options is listed when configured, and dropped when fixed or deleted.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testConflictListedUntilFixed() throws Exception {
+        // Given
+        ConflictingOptionsMonitor monitor = jenkinsRule.jenkins.getExtensionList(ConflictingOptionsMonitor.class).get(0);
+        FreeStyleProject project = jenkinsRule.createFreeStyleProject("conflicting-project");
+        project.setBlockBuildWhenUpstreamBuilding(true);
+        
+        // When
+        BlockBuildJobProperty.updateBlockBuildJobPropertyInProject(project,
+                new BlockBuildJobProperty(true, "", false, ""));
+        
+        // Then
+        assertTrue("Monitor should be activated", monitor.isActivated());
+        assertEquals("conflicting-project", monitor.getConflicts().get(0).getProjectName());
+        assertEquals("job/conflicting-project/", monitor.getConflicts().get(0).getUrl());
+        
+        // When
+        BlockBuildJobProperty.updateBlockBuildJobPropertyInProject(project,
+                new BlockBuildJobProperty(false, "", true, ""));
+        
+        // Then
+        assertFalse("Monitor should not be activated", monitor.isActivated());
+        
+        // When
+        BlockBuildJobProperty.updateBlockBuildJobPropertyInProject(project,
+                new BlockBuildJobProperty(true, "", false, ""));
+        project.delete();
+        
+        // Then
+        assertFalse("Monitor should not be activated", monitor.isActivated());
+    }
+    
+    /**
+     * A project in a folder links to its own URL, which follows the project when it's renamed.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testConflictInFolder_UrlFollowsRename() throws Exception {
+        // Given
+        ConflictingOptionsMonitor monitor = jenkinsRule.jenkins.getExtensionList(ConflictingOptionsMonitor.class).get(0);
+        MockFolder team = jenkinsRule.createFolder("team");
+        FreeStyleProject project = team.createProject(FreeStyleProject.class, "app");
+        project.setBlockBuildWhenDownstreamBuilding(true);
+        BlockBuildJobProperty.updateBlockBuildJobPropertyInProject(project,
+                new BlockBuildJobProperty(false, "", true, ""));
+        
+        // When
+        String url = monitor.getConflicts().get(0).getUrl();
+        project.renameTo("service");
+        
+        // Then
+        assertEquals("job/team/job/app/", url);
+        assertEquals("team/service", monitor.getConflicts().get(0).getProjectName());
+        assertEquals("job/team/job/service/", monitor.getConflicts().get(0).getUrl());
+    }
+    
+    /**
+     * Re-checking every project after a load does not log a conflict that was already logged,
+     * and drops conflicts of projects that are gone.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testRecheck_LogsOnce() throws Exception {
+        // Given
+        ConflictingOptionsMonitor monitor = jenkinsRule.jenkins.getExtensionList(ConflictingOptionsMonitor.class).get(0);
+        FreeStyleProject project = jenkinsRule.createFreeStyleProject("conflicting-project");
+        project.setBlockBuildWhenUpstreamBuilding(true);
+        FreeStyleProject gone = jenkinsRule.createFreeStyleProject("gone-project");
+        gone.setBlockBuildWhenUpstreamBuilding(true);
+        BlockBuildJobProperty.updateBlockBuildJobPropertyInProject(project, new BlockBuildJobProperty(true, "", false, ""));
+        BlockBuildJobProperty.updateBlockBuildJobPropertyInProject(gone, new BlockBuildJobProperty(true, "", false, ""));
+        final List<String> warnings = new ArrayList<String>();
+        Handler handler = new Handler() {
+            @Override
+            public void publish(LogRecord record) {
+                if (record.getLevel() == Level.WARNING) {
+                    warnings.add(record.getMessage());
+                }
+            }
+            
+            @Override
+            public void flush() {
+            }
+            
+            @Override
+            public void close() {
+            }
+        };
+        Logger logger = Logger.getLogger(ConflictingOptionsMonitor.class.getName());
+        logger.addHandler(handler);
+        
+        // When
+        try {
+            ConflictingOptionsMonitor.recheck(new AbstractProject<?, ?>[] { project });
+        }
+        finally {
+            logger.removeHandler(handler);
+        }
+        
+        // Then
+        assertEquals(warnings.toString(), 0, warnings.size());
+        assertEquals(1, monitor.getConflicts().size());
+        assertEquals("conflicting-project", monitor.getConflicts().get(0).getProjectName());
+    }
+}
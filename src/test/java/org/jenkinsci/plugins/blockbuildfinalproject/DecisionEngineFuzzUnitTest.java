@@ -0,0 +1,809 @@
+package org.jenkinsci.plugins.blockbuildfinalproject;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jenkinsci.plugins.blockbuildfinalproject.BlockBuild.SearchDirection;
+import org.junit.Test;
+
+import com.google.common.base.Predicate;
+
+/**
+ * Property-based differential test: every engine against a plain breadth-first search, on thousands of small random graphs.
+ * 
+ * The graphs have cycles, self-edges, final projects inside cycles and final start projects, which are the cases
+ * where an optimized search is most likely to differ.  For each case and each engine the test checks that:
+ * 1. the projects found are exactly those the breadth-first search finds,
+ * 2. each project found was reached from the start or a non-final project found, over a real edge,
+ * 3. the engine blocks if and only if a project found, other than the start, is busy,
+ * 4. the path to the blocker follows real edges from the start.
+ * 
+ * When a case fails it's shrunk: edges, busy and final flags, and projects are removed one at a time for as long
+ * as the case still fails, and the smallest failing case is reported with its seed.
+ * 
+ * Each case above gets fresh engines.  The stateful mode keeps one instance of each engine across a sequence
+ * of random steps on one graph: edges added and removed, which changes the graph's version, queue items entering,
+ * being blocked and unblocked, leaving to build or cancelled, and builds finishing, which reach the event-driven
+ * engine through the same methods as the queue and run listeners, and decisions, checked like a case.
+ * The indexed engine's rebuilds are held and run at random steps, so decisions are also made before the rebuild.
+ * A failing sequence is reported with its seed and steps.
+ * 
+ * Set -Dblockbuild.fuzz.seed, -Dblockbuild.fuzz.cases and -Dblockbuild.fuzz.sequences to change the seed
+ * (default 1), the number of cases (default 5000) and the number of sequences (default 300).
+ * 
+ * @author Chad Rosenquist
+ *
+ */
+public class DecisionEngineFuzzUnitTest {
+    
+    private static final long SEED = Long.getLong("blockbuild.fuzz.seed", 1);
+    
+    // rebuilds the indexed engine's index on the calling thread
+    private static final Executor SAME_THREAD = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+    
+    private static final int CASES = Integer.getInteger("blockbuild.fuzz.cases", 5000);
+    
+    private static final int SEQUENCES = Integer.getInteger("blockbuild.fuzz.sequences", 300);
+    
+    // steps in each sequence
+    private static final int STEPS = 200;
+    
+    // largest graph generated
+    private static final int MAX_NODES = 12;
+    
+    /**
+     * Every engine agrees with the breadth-first search on every case.
+     */
+    @Test
+    public void testEngines_MatchBreadthFirstSearch() {
+        for (int i = 0; i < CASES; i++) {
+            // Given
+            long seed = SEED + i;
+            FuzzCase fuzzCase = FuzzCase.generate(new Random(seed));
+            
+            // When
+            String failure = check(fuzzCase);
+            
+            // Then
+            if (failure != null) {
+                FuzzCase smallest = shrink(fuzzCase);
+                fail("Seed " + seed + " failed: " + failure + "\nShrunk to " + smallest + "\n" + check(smallest));
+            }
+        }
+    }
+    
+    /**
+     * One instance of every engine agrees with the breadth-first search on every decision of every sequence,
+     * while the edges and the busy nodes change under it.
+     */
+    @Test
+    public void testEngines_StatefulSequences() {
+        for (int i = 0; i < SEQUENCES; i++) {
+            // Given
+            long seed = SEED + i;
+            Sequence sequence = new Sequence(new Random(seed));
+            
+            // When
+            String failure = sequence.run();
+            
+            // Then
+            if (failure != null) {
+                fail("Sequence seed " + seed + " failed: " + failure + "\nSteps:\n" + sequence.getSteps());
+            }
+        }
+    }
+    
+    /**
+     * The checker itself finds a broken engine, and shrinking makes the counterexample small.
+     */
+    @Test
+    public void testShrink_FindsSmallCounterexample() {
+        // Given
+        DecisionEngine broken = new DecisionEngine() {
+            @Override
+            public String getName() {
+                return "ignores-self-edges";
+            }
+
+            @Override
+            public <N> BlockEngine.Evaluation<N> evaluate(BlockGraph<N> graph, N start, SearchDirection direction,
+                                                          Predicate<? super N> isFinal) {
+                BlockEngine.Evaluation<N> evaluation = BlockEngine.evaluate(graph, start, direction, isFinal);
+                Map<N, N> parents = new HashMap<N, N>(evaluation.getParents());
+                parents.remove(start);
+                return new BlockEngine.Evaluation<N>(start, evaluation.getBlocker(), parents);
+            }
+
+            @Override
+            public <N> void warmUp(BlockGraph<N> graph) {
+            }
+
+            @Override
+            public DecisionEngine snapshot() {
+                return this;
+            }
+
+            @Override
+            public void clear() {
+            }
+        };
+        FuzzCase failing = null;
+        for (int i = 0; (failing == null) && (i < CASES); i++) {
+            FuzzCase fuzzCase = FuzzCase.generate(new Random(SEED + i));
+            if (checkEngine(broken, fuzzCase) != null) {
+                failing = fuzzCase;
+            }
+        }
+        assertNotNull("Some case should reach the start again", failing);
+        
+        // When
+        FuzzCase smallest = shrink(failing, broken);
+        
+        // Then
+        assertNotNull(checkEngine(broken, smallest));
+        assertEquals("One self-edge is enough: " + smallest, 1, smallest.getEdgeCount());
+        assertEquals(smallest.toString(), 1, smallest.size);
+    }
+    
+    /**
+     * @return null if every engine passes, otherwise the first failure
+     */
+    private static String check(FuzzCase fuzzCase) {
+        for (DecisionEngine engine : newEngines(fuzzCase)) {
+            String failure = checkEngine(engine, fuzzCase);
+            if (failure != null) {
+                return failure;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * @return fresh engines, so no state leaks between cases.  The event-driven engine is warmed up on the case.
+     */
+    private static List<DecisionEngine> newEngines(FuzzCase fuzzCase) {
+        EventDrivenDecisionEngine eventDriven = new EventDrivenDecisionEngine(new CachedDecisionEngine(16));
+        eventDriven.warmUp(fuzzCase);
+        List<DecisionEngine> engines = new ArrayList<DecisionEngine>();
+        engines.add(ReferenceDecisionEngine.getInstance());
+        engines.add(new CachedDecisionEngine(16));
+        engines.add(new IndexedDecisionEngine(SAME_THREAD));
+        engines.add(eventDriven);
+        return engines;
+    }
+    
+    /**
+     * Runs one engine on one case, twice so cached state is used, and checks the properties.
+     * 
+     * @return null if the engine passes, otherwise what failed
+     */
+    private static String checkEngine(DecisionEngine engine, FuzzCase fuzzCase) {
+        try {
+            BitSet expected = fuzzCase.breadthFirstSearch();
+            boolean expectedBlocked = fuzzCase.anyBusyExceptStart(expected);
+            for (int round = 0; round < 2; round++) {
+                BlockEngine.Evaluation<Integer> evaluation =
+                        engine.evaluate(fuzzCase, fuzzCase.start, fuzzCase.direction, fuzzCase.finalPredicate());
+                String failure = checkEvaluation(fuzzCase, evaluation, expected, expectedBlocked);
+                if (failure != null) {
+                    return engine.getName() + " round " + round + ": " + failure;
+                }
+            }
+            return null;
+        }
+        catch (RuntimeException exception) {
+            return engine.getName() + " threw " + exception;
+        }
+    }
+    
+    private static String checkEvaluation(FuzzCase fuzzCase, BlockEngine.Evaluation<Integer> evaluation,
+                                          BitSet expected, boolean expectedBlocked) {
+        Map<Integer, Integer> parents = evaluation.getParents();
+        BitSet found = new BitSet();
+        for (Integer node : parents.keySet()) {
+            found.set(node);
+        }
+        if (!found.equals(expected)) {
+            return "found " + found + ", expected " + expected;
+        }
+        
+        for (Map.Entry<Integer, Integer> entry : parents.entrySet()) {
+            int child = entry.getKey();
+            int parent = entry.getValue();
+            boolean parentSearched = (parent == fuzzCase.start) || (found.get(parent) && !fuzzCase.finals.get(parent));
+            if (!parentSearched || !fuzzCase.hasEdge(parent, child)) {
+                return "node " + child + " reached from " + parent;
+            }
+        }
+        
+        Integer blocker = evaluation.getBlocker();
+        if ((blocker != null) != expectedBlocked) {
+            return "blocker " + blocker + ", expected blocked " + expectedBlocked;
+        }
+        if (blocker != null) {
+            if ((blocker == fuzzCase.start) || !found.get(blocker) || !fuzzCase.busy.get(blocker)) {
+                return "blocker " + blocker + " is the start, not found or not busy";
+            }
+            List<Integer> path = evaluation.getPath(blocker);
+            if ((path.get(0) != fuzzCase.start) || (path.get(path.size() - 1).intValue() != blocker)) {
+                return "path " + path + " does not lead from the start to the blocker";
+            }
+            for (int i = 1; i < path.size(); i++) {
+                if (!fuzzCase.hasEdge(path.get(i - 1), path.get(i))) {
+                    return "path " + path + " has no edge " + path.get(i - 1) + " -> " + path.get(i);
+                }
+            }
+        }
+        return null;
+    }
+    
+    private static FuzzCase shrink(FuzzCase fuzzCase) {
+        return shrink(fuzzCase, null);
+    }
+    
+    /**
+     * Greedily removes parts of a failing case while it keeps failing.
+     * 
+     * @param fuzzCase a failing case
+     * @param engine   the engine that fails, or null for every engine
+     * @return         a failing case that no single removal keeps failing
+     */
+    private static FuzzCase shrink(FuzzCase fuzzCase, DecisionEngine engine) {
+        FuzzCase current = fuzzCase;
+        boolean shrunk = true;
+        while (shrunk) {
+            shrunk = false;
+            for (FuzzCase candidate : current.shrinkCandidates()) {
+                String failure = (engine == null) ? check(candidate) : checkEngine(engine, candidate);
+                if (failure != null) {
+                    current = candidate;
+                    shrunk = true;
+                    break;
+                }
+            }
+        }
+        return current;
+    }
+    
+    /**
+     * One test case: a small graph over the nodes 0 to size - 1, with final and busy flags,
+     * a start node and a direction.  Immutable.
+     */
+    private static final class FuzzCase implements BlockGraph<Integer> {
+        private static final AtomicLong VERSIONS = new AtomicLong();
+        
+        private final long version = VERSIONS.incrementAndGet();
+        private final int size;
+        // node -> its downstream nodes, in order
+        private final List<List<Integer>> downstream;
+        // node -> its upstream nodes, in order
+        private final List<List<Integer>> upstream;
+        private final BitSet finals;
+        private final BitSet busy;
+        private final int start;
+        private final SearchDirection direction;
+        
+        FuzzCase(int size, List<List<Integer>> downstream, BitSet finals, BitSet busy, int start, SearchDirection direction) {
+            this.size = size;
+            this.downstream = downstream;
+            this.finals = finals;
+            this.busy = busy;
+            this.start = start;
+            this.direction = direction;
+            upstream = new ArrayList<List<Integer>>();
+            for (int i = 0; i < size; i++) {
+                upstream.add(new ArrayList<Integer>());
+            }
+            for (int from = 0; from < size; from++) {
+                for (int to : downstream.get(from)) {
+                    upstream.get(to).add(from);
+                }
+            }
+        }
+        
+        /**
+         * Generates a case.  About half the cases get an explicit cycle with a final node in it,
+         * a fifth have a final start node, and a third have a self-edge.
+         */
+        static FuzzCase generate(Random random) {
+            int size = 1 + random.nextInt(MAX_NODES);
+            double density = random.nextDouble() * 0.4;
+            List<List<Integer>> downstream = emptyEdges(size);
+            for (int from = 0; from < size; from++) {
+                for (int to = 0; to < size; to++) {
+                    if ((from != to) && (random.nextDouble() < density)) {
+                        downstream.get(from).add(to);
+                    }
+                }
+                Collections.shuffle(downstream.get(from), random);
+            }
+            if (random.nextInt(3) == 0) {
+                int node = random.nextInt(size);
+                downstream.get(node).add(node);
+            }
+            
+            BitSet finals = new BitSet();
+            BitSet busy = new BitSet();
+            for (int i = 0; i < size; i++) {
+                if (random.nextDouble() < 0.2) {
+                    finals.set(i);
+                }
+                if (random.nextDouble() < 0.25) {
+                    busy.set(i);
+                }
+            }
+            int start = random.nextInt(size);
+            if (random.nextInt(5) == 0) {
+                finals.set(start);
+            }
+            if ((size >= 3) && random.nextBoolean()) {
+                // a cycle through the start, with a final node in it
+                int a = random.nextInt(size);
+                int b = random.nextInt(size);
+                addEdge(downstream, start, a);
+                addEdge(downstream, a, b);
+                addEdge(downstream, b, start);
+                finals.set(random.nextBoolean() ? a : b);
+            }
+            SearchDirection direction = random.nextBoolean() ? SearchDirection.UP : SearchDirection.DOWN;
+            return new FuzzCase(size, downstream, finals, busy, start, direction);
+        }
+        
+        private static List<List<Integer>> emptyEdges(int size) {
+            List<List<Integer>> edges = new ArrayList<List<Integer>>();
+            for (int i = 0; i < size; i++) {
+                edges.add(new ArrayList<Integer>());
+            }
+            return edges;
+        }
+        
+        private static void addEdge(List<List<Integer>> downstream, int from, int to) {
+            if (!downstream.get(from).contains(to)) {
+                downstream.get(from).add(to);
+            }
+        }
+        
+        /**
+         * The oracle: breadth-first search from the start, not expanding final nodes.
+         * The start is always expanded, and is only found if an edge leads back to it.
+         */
+        BitSet breadthFirstSearch() {
+            BitSet found = new BitSet();
+            ArrayDeque<Integer> queue = new ArrayDeque<Integer>();
+            queue.add(start);
+            while (!queue.isEmpty()) {
+                int node = queue.poll();
+                for (int next : getNeighbours(node, direction)) {
+                    if (!found.get(next)) {
+                        found.set(next);
+                        if (!finals.get(next)) {
+                            queue.add(next);
+                        }
+                    }
+                }
+            }
+            return found;
+        }
+        
+        boolean anyBusyExceptStart(BitSet found) {
+            BitSet busyFound = (BitSet) found.clone();
+            busyFound.and(busy);
+            busyFound.clear(start);
+            return !busyFound.isEmpty();
+        }
+        
+        /**
+         * @return true if the search direction has an edge from one node to the other
+         */
+        boolean hasEdge(int from, int to) {
+            return getNeighbours(from, direction).contains(to);
+        }
+        
+        int getEdgeCount() {
+            int count = 0;
+            for (List<Integer> edges : downstream) {
+                count += edges.size();
+            }
+            return count;
+        }
+        
+        /**
+         * @return a predicate for the final nodes that is equal for equal cases, as engines may cache by it
+         */
+        Predicate<Integer> finalPredicate() {
+            return new FinalNodes(finals);
+        }
+        
+        /**
+         * @return cases with one edge, busy flag, final flag or node removed
+         */
+        List<FuzzCase> shrinkCandidates() {
+            List<FuzzCase> candidates = new ArrayList<FuzzCase>();
+            for (int node = 0; node < size; node++) {
+                if (node != start) {
+                    candidates.add(withoutNode(node));
+                }
+            }
+            for (int from = 0; from < size; from++) {
+                for (int i = 0; i < downstream.get(from).size(); i++) {
+                    List<List<Integer>> edges = copyEdges();
+                    edges.get(from).remove(i);
+                    candidates.add(new FuzzCase(size, edges, finals, busy, start, direction));
+                }
+            }
+            for (int node = busy.nextSetBit(0); node >= 0; node = busy.nextSetBit(node + 1)) {
+                BitSet fewer = (BitSet) busy.clone();
+                fewer.clear(node);
+                candidates.add(new FuzzCase(size, downstream, finals, fewer, start, direction));
+            }
+            for (int node = finals.nextSetBit(0); node >= 0; node = finals.nextSetBit(node + 1)) {
+                BitSet fewer = (BitSet) finals.clone();
+                fewer.clear(node);
+                candidates.add(new FuzzCase(size, downstream, fewer, busy, start, direction));
+            }
+            return candidates;
+        }
+        
+        /**
+         * @return this case without the node and its edges.  Higher nodes move down by one.
+         */
+        private FuzzCase withoutNode(int removed) {
+            List<List<Integer>> edges = emptyEdges(size - 1);
+            for (int from = 0; from < size; from++) {
+                for (int to : downstream.get(from)) {
+                    if ((from != removed) && (to != removed)) {
+                        edges.get(renumber(from, removed)).add(renumber(to, removed));
+                    }
+                }
+            }
+            return new FuzzCase(size - 1, edges, renumber(finals, removed), renumber(busy, removed),
+                    renumber(start, removed), direction);
+        }
+        
+        private static int renumber(int node, int removed) {
+            return (node > removed) ? node - 1 : node;
+        }
+        
+        private static BitSet renumber(BitSet nodes, int removed) {
+            BitSet result = new BitSet();
+            for (int node = nodes.nextSetBit(0); node >= 0; node = nodes.nextSetBit(node + 1)) {
+                if (node != removed) {
+                    result.set(renumber(node, removed));
+                }
+            }
+            return result;
+        }
+        
+        private List<List<Integer>> copyEdges() {
+            List<List<Integer>> edges = new ArrayList<List<Integer>>();
+            for (List<Integer> nodeEdges : downstream) {
+                edges.add(new ArrayList<Integer>(nodeEdges));
+            }
+            return edges;
+        }
+
+        @Override
+        public List<Integer> getNeighbours(Integer node, SearchDirection searchDirection) {
+            return (searchDirection == SearchDirection.UP) ? upstream.get(node) : downstream.get(node);
+        }
+
+        @Override
+        public List<Integer> getAllNodes() {
+            List<Integer> nodes = new ArrayList<Integer>();
+            for (int i = 0; i < size; i++) {
+                nodes.add(i);
+            }
+            return nodes;
+        }
+
+        @Override
+        public boolean isBusy(Integer node) {
+            return busy.get(node);
+        }
+
+        /**
+         * @return a version unique to this case, so cached searches are never shared between cases
+         */
+        @Override
+        public long getVersion() {
+            return version;
+        }
+        
+        @Override
+        public String toString() {
+            return "{size=" + size + ", downstream=" + downstream + ", finals=" + finals + ", busy=" + busy
+                   + ", start=" + start + ", direction=" + direction + "}";
+        }
+    }
+    
+    /**
+     * A graph that changes over a sequence of random steps, with one instance of each engine deciding on it.
+     * The version changes with the edges only, like JenkinsBlockGraph's.  A node is busy while it has an item
+     * in the unblocked part of the queue or a build that is not finished.
+     */
+    private static final class Sequence implements BlockGraph<Integer> {
+        private final Random random;
+        private final int size;
+        // node -> its downstream nodes, in order
+        private final List<List<Integer>> downstream = new ArrayList<List<Integer>>();
+        private BitSet finals = new BitSet();
+        private long version = FuzzCase.VERSIONS.incrementAndGet();
+        
+        // queue item id -> node
+        private final Map<Long, Integer> items = new HashMap<Long, Integer>();
+        // ids of the items in the unblocked part of the queue
+        private final Set<Long> unblocked = new HashSet<Long>();
+        // node -> builds not finished
+        private final int[] running;
+        private long nextItemId = 1;
+        
+        // the indexed engine's rebuilds, held until a step runs them
+        private final List<Runnable> rebuilds = new ArrayList<Runnable>();
+        private final EventDrivenDecisionEngine eventDriven = new EventDrivenDecisionEngine(new CachedDecisionEngine(8));
+        private final List<DecisionEngine> engines = new ArrayList<DecisionEngine>();
+        
+        // what was done, for the failure message
+        private final StringBuilder steps = new StringBuilder();
+        
+        Sequence(Random random) {
+            this.random = random;
+            size = 2 + random.nextInt(MAX_NODES - 1);
+            running = new int[size];
+            for (int from = 0; from < size; from++) {
+                downstream.add(new ArrayList<Integer>());
+                for (int to = 0; to < size; to++) {
+                    if (random.nextDouble() < 0.15) {
+                        downstream.get(from).add(to);
+                    }
+                }
+            }
+            eventDriven.warmUp(this);
+            engines.add(ReferenceDecisionEngine.getInstance());
+            // Small, so searches are evicted too.
+            engines.add(new CachedDecisionEngine(8));
+            engines.add(new IndexedDecisionEngine(SAME_THREAD));
+            engines.add(new IndexedDecisionEngine(new Executor() {
+                @Override
+                public void execute(Runnable command) {
+                    rebuilds.add(command);
+                }
+            }));
+            engines.add(eventDriven);
+        }
+        
+        /**
+         * @return null if every decision was right, otherwise the first failure
+         */
+        String run() {
+            for (int step = 0; step < STEPS; step++) {
+                String failure = step();
+                if (failure != null) {
+                    return "step " + step + ": " + failure;
+                }
+            }
+            return null;
+        }
+        
+        String getSteps() {
+            return steps.toString();
+        }
+        
+        private String step() {
+            int node = random.nextInt(size);
+            switch (random.nextInt(10)) {
+            case 0:
+                int to = random.nextInt(size);
+                if (!downstream.get(node).contains(to)) {
+                    downstream.get(node).add(to);
+                    version = FuzzCase.VERSIONS.incrementAndGet();
+                    log("add edge " + node + " -> " + to);
+                }
+                return null;
+            case 1:
+                if (!downstream.get(node).isEmpty()) {
+                    int removed = downstream.get(node).remove(random.nextInt(downstream.get(node).size()));
+                    version = FuzzCase.VERSIONS.incrementAndGet();
+                    log("remove edge " + node + " -> " + removed);
+                }
+                return null;
+            case 2:
+                long itemId = nextItemId++;
+                boolean isUnblocked = random.nextBoolean();
+                items.put(itemId, node);
+                setUnblocked(itemId, isUnblocked);
+                eventDriven.queued(itemId, node, isUnblocked);
+                log("queue item " + itemId + " of " + node + (isUnblocked ? " unblocked" : " blocked"));
+                return null;
+            case 3:
+                Long changed = randomItem();
+                if (changed != null) {
+                    boolean nowUnblocked = !unblocked.contains(changed);
+                    setUnblocked(changed, nowUnblocked);
+                    eventDriven.queued(changed, items.get(changed), nowUnblocked);
+                    log((nowUnblocked ? "unblock item " : "block item ") + changed);
+                }
+                return null;
+            case 4:
+                Long left = randomItem();
+                if (left != null) {
+                    int leftNode = items.remove(left);
+                    unblocked.remove(left);
+                    boolean started = random.nextInt(4) != 0;
+                    if (started) {
+                        running[leftNode]++;
+                    }
+                    eventDriven.left(left, leftNode, started);
+                    log("item " + left + " of " + leftNode + (started ? " started" : " cancelled"));
+                }
+                return null;
+            case 5:
+                if (running[node] > 0) {
+                    running[node]--;
+                    eventDriven.finished(node);
+                    log("build of " + node + " finished");
+                }
+                return null;
+            case 6:
+                if (!rebuilds.isEmpty()) {
+                    for (Runnable rebuild : new ArrayList<Runnable>(rebuilds)) {
+                        rebuild.run();
+                    }
+                    rebuilds.clear();
+                    log("run index rebuilds");
+                }
+                else {
+                    finals = new BitSet();
+                    for (int i = 0; i < size; i++) {
+                        if (random.nextDouble() < 0.2) {
+                            finals.set(i);
+                        }
+                    }
+                    log("finals " + finals);
+                }
+                return null;
+            default:
+                return decide(node, random.nextBoolean() ? SearchDirection.UP : SearchDirection.DOWN);
+            }
+        }
+        
+        private void setUnblocked(long itemId, boolean isUnblocked) {
+            if (isUnblocked) {
+                unblocked.add(itemId);
+            }
+            else {
+                unblocked.remove(itemId);
+            }
+        }
+        
+        private Long randomItem() {
+            if (items.isEmpty()) {
+                return null;
+            }
+            List<Long> ids = new ArrayList<Long>(items.keySet());
+            Collections.sort(ids);
+            return ids.get(random.nextInt(ids.size()));
+        }
+        
+        private void log(String step) {
+            steps.append("  ").append(step).append('\n');
+        }
+        
+        /**
+         * Checks every engine against the breadth-first search on the current state, like a case.
+         */
+        private String decide(int start, SearchDirection direction) {
+            log("decide " + start + " " + direction);
+            BitSet busy = new BitSet();
+            for (int node = 0; node < size; node++) {
+                if (isBusy(node)) {
+                    busy.set(node);
+                }
+            }
+            List<List<Integer>> edges = new ArrayList<List<Integer>>();
+            for (List<Integer> nodeEdges : downstream) {
+                edges.add(new ArrayList<Integer>(nodeEdges));
+            }
+            FuzzCase now = new FuzzCase(size, edges, finals, busy, start, direction);
+            BitSet expected = now.breadthFirstSearch();
+            boolean expectedBlocked = now.anyBusyExceptStart(expected);
+            for (DecisionEngine engine : engines) {
+                try {
+                    BlockEngine.Evaluation<Integer> evaluation =
+                            engine.evaluate(this, start, direction, new FinalNodes(finals));
+                    String failure = checkEvaluation(now, evaluation, expected, expectedBlocked);
+                    if (failure != null) {
+                        return engine.getName() + ": " + failure + " on " + now;
+                    }
+                }
+                catch (RuntimeException exception) {
+                    return engine.getName() + " threw " + exception + " on " + now;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public List<Integer> getNeighbours(Integer node, SearchDirection direction) {
+            if (direction == SearchDirection.DOWN) {
+                return downstream.get(node);
+            }
+            List<Integer> upstream = new ArrayList<Integer>();
+            for (int from = 0; from < size; from++) {
+                if (downstream.get(from).contains(node)) {
+                    upstream.add(from);
+                }
+            }
+            return upstream;
+        }
+
+        @Override
+        public List<Integer> getAllNodes() {
+            List<Integer> nodes = new ArrayList<Integer>();
+            for (int i = 0; i < size; i++) {
+                nodes.add(i);
+            }
+            return nodes;
+        }
+
+        @Override
+        public boolean isBusy(Integer node) {
+            if (running[node] > 0) {
+                return true;
+            }
+            for (Long itemId : unblocked) {
+                if (items.get(itemId).equals(node)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public long getVersion() {
+            return version;
+        }
+    }
+    
+    /**
+     * True for a set of nodes.  Equal for equal sets.
+     */
+    private static final class FinalNodes implements Predicate<Integer> {
+        private final BitSet finals;
+        
+        FinalNodes(BitSet finals) {
+            this.finals = finals;
+        }
+        
+        @Override
+        public boolean apply(Integer node) {
+            return finals.get(node);
+        }
+        
+        @Override
+        public boolean equals(Object other) {
+            return (other instanceof FinalNodes) && finals.equals(((FinalNodes) other).finals);
+        }
+        
+        @Override
+        public int hashCode() {
+            return finals.hashCode();
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package org.jenkinsci.plugins.blockbuildfinalproject;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.jenkinsci.plugins.blockbuildfinalproject.BlockBuild.SearchDirection;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Unit tests the DecisionEngines on in-memory graphs, without Jenkins:
+ * every engine agrees with the reference, and a selected engine takes over once warm.
+ * 
+ * @author Chad Rosenquist
+ *
+ */
+public class DecisionEnginesUnitTest {
+    
+    // rebuilds the indexed engine's index on the calling thread
+    private static final Executor SAME_THREAD = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    /**
+     * The indexed engine finds the same nodes, parents and blocker as the reference.
+     */
+    @Test
+    public void testIndexed_SameAsReference() {
+        for (SyntheticGraph.Shape shape : SyntheticGraph.Shape.values()) {
+            // Given
+            SyntheticGraph graph = busyGraph(shape);
+            IndexedDecisionEngine engine = new IndexedDecisionEngine(SAME_THREAD);
+            
+            for (SyntheticGraph.Node node : graph.getNodes()) {
+                for (SearchDirection direction : SearchDirection.values()) {
+                    // When
+                    BlockEngine.Evaluation<SyntheticGraph.Node> reference =
+                            BlockEngine.evaluate(graph, node, direction, SyntheticGraph.IS_FINAL);
+                    BlockEngine.Evaluation<SyntheticGraph.Node> indexed =
+                            engine.evaluate(graph, node, direction, SyntheticGraph.IS_FINAL);
+                    
+                    // Then
+                    assertEquals(shape + " " + node, reference.getParents(), indexed.getParents());
+                    assertSame(shape + " " + node, reference.getBlocker(), indexed.getBlocker());
+                }
+            }
+        }
+    }
+    
+    /**
+     * Until the rebuild runs, the indexed engine decides like the reference, and asks for the rebuild only once.
+     * Once it has run, the index is used.
+     */
+    @Test
+    public void testIndexed_RebuiltInBackground() {
+        // Given
+        SyntheticGraph graph = busyGraph(SyntheticGraph.Shape.REALISTIC);
+        final List<Runnable> rebuilds = new ArrayList<Runnable>();
+        IndexedDecisionEngine engine = new IndexedDecisionEngine(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                rebuilds.add(command);
+            }
+        });
+        
+        for (int round = 0; round < 2; round++) {
+            for (SyntheticGraph.Node node : graph.getNodes()) {
+                // When
+                BlockEngine.Evaluation<SyntheticGraph.Node> reference =
+                        BlockEngine.evaluate(graph, node, SearchDirection.UP, SyntheticGraph.IS_FINAL);
+                BlockEngine.Evaluation<SyntheticGraph.Node> indexed =
+                        engine.evaluate(graph, node, SearchDirection.UP, SyntheticGraph.IS_FINAL);
+                
+                // Then
+                assertEquals(node.toString(), reference.getParents(), indexed.getParents());
+                assertSame(node.toString(), reference.getBlocker(), indexed.getBlocker());
+            }
+            assertEquals(1, rebuilds.size());
+            if (round == 0) {
+                rebuilds.get(0).run();
+            }
+        }
+        assertEquals(graph.getVersion(), engine.getIndex(graph).getVersion());
+    }
+    
+    /**
+     * The cached and event-driven engines block the same nodes as the reference.
+     */
+    @Test
+    public void testCachedAndEventDriven_SameDecisions() {
+        for (SyntheticGraph.Shape shape : SyntheticGraph.Shape.values()) {
+            // Given
+            SyntheticGraph graph = busyGraph(shape);
+            CachedDecisionEngine cached = new CachedDecisionEngine(100);
+            EventDrivenDecisionEngine eventDriven = new EventDrivenDecisionEngine(new CachedDecisionEngine(100));
+            eventDriven.warmUp(graph);
+            
+            for (int round = 0; round < 2; round++) {
+                for (SyntheticGraph.Node node : graph.getNodes()) {
+                    for (SearchDirection direction : SearchDirection.values()) {
+                        // When
+                        boolean reference = BlockEngine.evaluate(graph, node, direction, SyntheticGraph.IS_FINAL).getBlocker() != null;
+                        boolean cachedBlocked = cached.evaluate(graph, node, direction, SyntheticGraph.IS_FINAL).getBlocker() != null;
+                        boolean eventBlocked = eventDriven.evaluate(graph, node, direction, SyntheticGraph.IS_FINAL).getBlocker() != null;
+                        
+                        // Then
+                        assertEquals(shape + " " + node, reference, cachedBlocked);
+                        assertEquals(shape + " " + node, reference, eventBlocked);
+                    }
+                }
+            }
+        }
+    }
+    
+    /**
+     * A selected engine is warmed up, then becomes active.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testSelect_ActiveOnceWarm() throws Exception {
+        // Given
+        SyntheticGraph graph = busyGraph(SyntheticGraph.Shape.REALISTIC);
+        IndexedDecisionEngine indexed = new IndexedDecisionEngine(SAME_THREAD);
+        DecisionEngines engines = new DecisionEngines(ImmutableList.<DecisionEngine>of(
+                ReferenceDecisionEngine.getInstance(), indexed));
+        assertSame(ReferenceDecisionEngine.getInstance(), engines.getActive());
+        
+        // When
+        DecisionEngine active = engines.select("indexed", graph).get(10, TimeUnit.SECONDS);
+        
+        // Then
+        assertSame(indexed, active);
+        assertSame(indexed, engines.getActive());
+        assertEquals(graph.getVersion(), indexed.getIndex(graph).getVersion());
+        assertEquals("indexed", engines.toJSON().getString("active"));
+    }
+    
+    /**
+     * Selecting an engine that does not exist fails, and the active engine does not change.
+     */
+    @Test
+    public void testSelect_Unknown() {
+        // Given
+        DecisionEngines engines = new DecisionEngines(ImmutableList.<DecisionEngine>of(ReferenceDecisionEngine.getInstance()));
+        
+        // When
+        try {
+            engines.select("no-such-engine", null);
+            fail("Expected IllegalArgumentException");
+        }
+        catch (IllegalArgumentException expected) {
+            // Then
+            assertSame(ReferenceDecisionEngine.getInstance(), engines.getActive());
+        }
+    }
+    
+    /**
+     * @return a 300 node graph of the shape, with a few busy nodes
+     */
+    private static SyntheticGraph busyGraph(SyntheticGraph.Shape shape) {
+        SyntheticGraph graph = SyntheticGraph.generate(shape, 300, 0.05, 11);
+        SyntheticGraph.Node[] nodes = graph.getNodes();
+        Random random = new Random(11);
+        for (int i = 0; i < 5; i++) {
+            graph.setBusy(nodes[random.nextInt(nodes.length)], true);
+        }
+        return graph;
+    }
+}
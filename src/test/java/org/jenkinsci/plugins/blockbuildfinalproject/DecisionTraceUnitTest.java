@@ -0,0 +1,98 @@
+package org.jenkinsci.plugins.blockbuildfinalproject;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+import net.sf.json.JSONObject;
+
+/**
+ * Unit tests DecisionTrace.
+ * 
+ * @author Chad Rosenquist
+ *
+ */
+public class DecisionTraceUnitTest {
+
+    /**
+     * The capacity is rounded up to a power of two.
+     */
+    @Test
+    public void testCapacity() {
+        assertEquals(1, new DecisionTrace(0).getCapacity());
+        assertEquals(8, new DecisionTrace(8).getCapacity());
+        assertEquals(16, new DecisionTrace(9).getCapacity());
+    }
+    
+    /**
+     * Only the newest decisions are kept, and they are returned newest first.
+     */
+    @Test
+    public void testOverwritesOldest() {
+        // Given
+        DecisionTrace trace = new DecisionTrace(4);
+        
+        // When
+        for (int i = 0; i < 10; i++) {
+            trace.record(i, "project-" + i, null, ImmutableList.<String>of(), 1000, 1);
+        }
+        
+        // Then
+        List<DecisionTrace.Decision> decisions = trace.getDecisions(null, 100);
+        assertEquals(10, trace.getRecorded());
+        assertEquals(4, decisions.size());
+        assertEquals("project-9", decisions.get(0).getProject());
+        assertEquals("project-6", decisions.get(3).getProject());
+    }
+    
+    /**
+     * Decisions are filtered by project and limited.
+     */
+    @Test
+    public void testFilterAndLimit() {
+        // Given
+        DecisionTrace trace = new DecisionTrace(16);
+        trace.record(1, "a", "b", ImmutableList.of("a", "b"), 1000, 1);
+        trace.record(2, "c", null, ImmutableList.<String>of(), 1000, 1);
+        trace.record(3, "a", null, ImmutableList.<String>of(), 1000, 2);
+        
+        // When
+        List<DecisionTrace.Decision> decisions = trace.getDecisions("a", 100);
+        List<DecisionTrace.Decision> limited = trace.getDecisions(null, 1);
+        
+        // Then
+        assertEquals(2, decisions.size());
+        assertNull(decisions.get(0).getBlocker());
+        assertEquals("b", decisions.get(1).getBlocker());
+        assertEquals(ImmutableList.of("a", "b"), decisions.get(1).getPath());
+        assertEquals(1, limited.size());
+        assertEquals("a", limited.get(0).getProject());
+    }
+    
+    /**
+     * Tests the JSON.
+     */
+    @Test
+    public void testToJSON() {
+        // Given
+        DecisionTrace trace = new DecisionTrace(16);
+        trace.record(7, "a", "b", ImmutableList.of("a", "b"), 1500, 3);
+        
+        // When
+        JSONObject json = trace.toJSON(null, 10);
+        
+        // Then
+        assertEquals(16, json.getInt("capacity"));
+        assertEquals(1, json.getLong("recorded"));
+        JSONObject decision = json.getJSONArray("decisions").getJSONObject(0);
+        assertEquals(7, decision.getLong("itemId"));
+        assertEquals("b", decision.getString("blocker"));
+        assertEquals(2, decision.getJSONArray("path").size());
+        assertEquals(1500, decision.getLong("durationNanos"));
+        assertEquals(3, decision.getLong("epoch"));
+    }
+}
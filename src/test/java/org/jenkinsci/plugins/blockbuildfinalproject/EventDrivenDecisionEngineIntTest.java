@@ -0,0 +1,144 @@
+package org.jenkinsci.plugins.blockbuildfinalproject;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.jenkinsci.plugins.blockbuildfinalproject.BlockBuild.SearchDirection;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.TestBuilder;
+
+import com.google.common.base.Predicates;
+
+import hudson.Launcher;
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.BuildListener;
+import hudson.model.Cause;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.model.ParametersAction;
+import hudson.model.ParametersDefinitionProperty;
+import hudson.model.Queue;
+import hudson.model.StringParameterDefinition;
+import hudson.model.StringParameterValue;
+import hudson.tasks.BuildTrigger;
+import hudson.util.OneShotEvent;
+
+/**
+ * Tests EventDrivenDecisionEngine fed by the real BlockBuildQueueListener and BlockBuildRunListener:
+ * it must block whenever the reference engine blocks.
+ * 
+ * @author Chad Rosenquist
+ *
+ */
+public class EventDrivenDecisionEngineIntTest {
+    
+    @Rule
+    public JenkinsRule jenkinsRule = new JenkinsRule();
+    
+    /**
+     * A build is running as soon as its item leaves the queue, and stays running until it's finalized.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testRunningBuild_BlocksLikeReference() throws Exception {
+        // Given
+        FreeStyleProject upstream = jenkinsRule.createFreeStyleProject("upstream");
+        FreeStyleProject downstream = jenkinsRule.createFreeStyleProject("downstream");
+        upstream.getPublishersList().add(new BuildTrigger("downstream", true));
+        jenkinsRule.jenkins.rebuildDependencyGraph();
+        OneShotEvent started = new OneShotEvent();
+        OneShotEvent release = new OneShotEvent();
+        downstream.getBuildersList().add(new WaitingBuilder(started, release));
+        EventDrivenDecisionEngine engine = EventDrivenDecisionEngine.getInstance();
+        
+        // When
+        Future<FreeStyleBuild> build = downstream.scheduleBuild2(0);
+        started.block(10000);
+        
+        // Then
+        assertEquals(1, engine.getRunningCount(downstream));
+        assertSame(downstream, evaluate(ReferenceDecisionEngine.getInstance(), upstream));
+        assertSame(downstream, evaluate(engine, upstream));
+        
+        // When
+        release.signal();
+        build.get(30, TimeUnit.SECONDS);
+        for (int i = 0; (i < 1000) && (engine.getRunningCount(downstream) > 0); i++) {
+            Thread.sleep(10);
+        }
+        
+        // Then
+        assertEquals(0, engine.getRunningCount(downstream));
+        assertNull(evaluate(ReferenceDecisionEngine.getInstance(), upstream));
+        assertNull(evaluate(engine, upstream));
+    }
+    
+    /**
+     * Each queue item of a parameterized project is counted, so cancelling one keeps the project busy.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testParameterizedProject_EachItemCounted() throws Exception {
+        // Given
+        FreeStyleProject upstream = jenkinsRule.createFreeStyleProject("upstream");
+        FreeStyleProject downstream = jenkinsRule.createFreeStyleProject("downstream");
+        upstream.getPublishersList().add(new BuildTrigger("downstream", true));
+        downstream.addProperty(new ParametersDefinitionProperty(new StringParameterDefinition("VALUE", "")));
+        jenkinsRule.jenkins.rebuildDependencyGraph();
+        EventDrivenDecisionEngine engine = EventDrivenDecisionEngine.getInstance();
+        downstream.scheduleBuild2(1000, new Cause.UserIdCause(), new ParametersAction(new StringParameterValue("VALUE", "1")));
+        downstream.scheduleBuild2(1000, new Cause.UserIdCause(), new ParametersAction(new StringParameterValue("VALUE", "2")));
+        Queue queue = jenkinsRule.jenkins.getQueue();
+        assertEquals(2, queue.getItems(downstream).size());
+        assertEquals(2, engine.getQueuedCount(downstream));
+        
+        // When
+        queue.cancel(queue.getItems(downstream).get(0));
+        
+        // Then
+        assertEquals(1, engine.getQueuedCount(downstream));
+        assertSame(downstream, evaluate(engine, upstream));
+        
+        // When
+        queue.cancel(queue.getItems(downstream).get(0));
+        
+        // Then
+        assertEquals(0, engine.getQueuedCount(downstream));
+        assertEquals(0, engine.getRunningCount(downstream));
+    }
+    
+    private static AbstractProject<?, ?> evaluate(DecisionEngine engine, AbstractProject<?, ?> project) {
+        JenkinsBlockGraph graph = new JenkinsBlockGraph(JenkinsWrapper.getUnblockedTasks());
+        return engine.evaluate(graph, project, SearchDirection.DOWN, Predicates.<AbstractProject<?, ?>>alwaysFalse())
+                .getBlocker();
+    }
+    
+    /**
+     * Signals that the build started, then waits to be released.
+     */
+    private static final class WaitingBuilder extends TestBuilder {
+        private final OneShotEvent started;
+        private final OneShotEvent release;
+        
+        WaitingBuilder(OneShotEvent started, OneShotEvent release) {
+            this.started = started;
+            this.release = release;
+        }
+        
+        @Override
+        public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener)
+                throws InterruptedException, IOException {
+            started.signal();
+            release.block();
+            return true;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package org.jenkinsci.plugins.blockbuildfinalproject;
+
+import static org.junit.Assert.*;
+
+import org.jenkinsci.plugins.blockbuildfinalproject.BlockBuild.SearchDirection;
+import org.junit.Test;
+
+/**
+ * Unit tests EventDrivenDecisionEngine on in-memory graphs, without Jenkins.
+ * 
+ * @author Chad Rosenquist
+ *
+ */
+public class EventDrivenDecisionEngineUnitTest {
+
+    /**
+     * A node whose item left the queue to build blocks, until its build is finalized.
+     */
+    @Test
+    public void testLeftAndFinished() {
+        // Given
+        SyntheticGraph graph = SyntheticGraph.generate(SyntheticGraph.Shape.CHAIN, 5, 0.0, 1);
+        SyntheticGraph.Node[] nodes = graph.getNodes();
+        EventDrivenDecisionEngine engine = new EventDrivenDecisionEngine(new CachedDecisionEngine(10));
+        
+        // When
+        engine.queued(1, nodes[3], true);
+        graph.setBusy(nodes[3], true);
+        engine.left(1, nodes[3], true);
+        
+        // Then
+        assertSame(nodes[3], engine.evaluate(graph, nodes[0], SearchDirection.DOWN, SyntheticGraph.IS_FINAL).getBlocker());
+        
+        // When
+        graph.setBusy(nodes[3], false);
+        engine.finished(nodes[3]);
+        
+        // Then
+        assertNull(engine.evaluate(graph, nodes[0], SearchDirection.DOWN, SyntheticGraph.IS_FINAL).getBlocker());
+        assertEquals(0, engine.getBusyCount());
+    }
+    
+    /**
+     * A node reported busy that the graph says is not busy does not block.
+     */
+    @Test
+    public void testLateEvent_NotBlocked() {
+        // Given
+        SyntheticGraph graph = SyntheticGraph.generate(SyntheticGraph.Shape.CHAIN, 5, 0.0, 1);
+        SyntheticGraph.Node[] nodes = graph.getNodes();
+        EventDrivenDecisionEngine engine = new EventDrivenDecisionEngine(new CachedDecisionEngine(10));
+        
+        // When
+        engine.queued(1, nodes[2], true);
+        
+        // Then
+        assertNull(engine.evaluate(graph, nodes[0], SearchDirection.DOWN, SyntheticGraph.IS_FINAL).getBlocker());
+    }
+    
+    /**
+     * Warming up finds the nodes already busy, with no events.
+     */
+    @Test
+    public void testWarmUp_FindsBusy() {
+        // Given
+        SyntheticGraph graph = SyntheticGraph.generate(SyntheticGraph.Shape.CHAIN, 5, 0.0, 1);
+        SyntheticGraph.Node[] nodes = graph.getNodes();
+        graph.setBusy(nodes[4], true);
+        EventDrivenDecisionEngine engine = new EventDrivenDecisionEngine(new CachedDecisionEngine(10));
+        assertNull(engine.evaluate(graph, nodes[0], SearchDirection.DOWN, SyntheticGraph.IS_FINAL).getBlocker());
+        
+        // When
+        engine.warmUp(graph);
+        
+        // Then
+        assertSame(nodes[4], engine.evaluate(graph, nodes[0], SearchDirection.DOWN, SyntheticGraph.IS_FINAL).getBlocker());
+    }
+    
+    /**
+     * A project with several items in the queue stays busy until the last one leaves.
+     */
+    @Test
+    public void testSeveralItems_CountedEach() {
+        // Given
+        SyntheticGraph graph = SyntheticGraph.generate(SyntheticGraph.Shape.CHAIN, 5, 0.0, 1);
+        SyntheticGraph.Node[] nodes = graph.getNodes();
+        graph.setBusy(nodes[3], true);
+        EventDrivenDecisionEngine engine = new EventDrivenDecisionEngine(new CachedDecisionEngine(10));
+        engine.queued(1, nodes[3], true);
+        engine.queued(2, nodes[3], true);
+        
+        // When
+        engine.left(1, nodes[3], false);
+        
+        // Then
+        assertEquals(1, engine.getQueuedCount(nodes[3]));
+        assertSame(nodes[3], engine.evaluate(graph, nodes[0], SearchDirection.DOWN, SyntheticGraph.IS_FINAL).getBlocker());
+        
+        // When
+        engine.queued(2, nodes[3], false);
+        
+        // Then
+        assertEquals(0, engine.getQueuedCount(nodes[3]));
+        assertEquals(0, engine.getBusyCount());
+    }
+    
+    /**
+     * An item reported unblocked twice, for example waiting then buildable, is counted once.
+     */
+    @Test
+    public void testSameItemTwice_CountedOnce() {
+        // Given
+        SyntheticGraph graph = SyntheticGraph.generate(SyntheticGraph.Shape.CHAIN, 5, 0.0, 1);
+        SyntheticGraph.Node[] nodes = graph.getNodes();
+        EventDrivenDecisionEngine engine = new EventDrivenDecisionEngine(new CachedDecisionEngine(10));
+        
+        // When
+        engine.queued(1, nodes[3], true);
+        engine.queued(1, nodes[3], true);
+        engine.left(1, nodes[3], true);
+        
+        // Then
+        assertEquals(0, engine.getQueuedCount(nodes[3]));
+        assertEquals(1, engine.getRunningCount(nodes[3]));
+        
+        // When
+        engine.finished(nodes[3]);
+        
+        // Then
+        assertEquals(0, engine.getRunningCount(nodes[3]));
+    }
+}
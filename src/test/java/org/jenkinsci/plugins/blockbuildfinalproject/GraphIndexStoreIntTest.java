@@ -0,0 +1,101 @@
+package org.jenkinsci.plugins.blockbuildfinalproject;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Collections;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import hudson.model.AbstractProject;
+import hudson.model.FreeStyleProject;
+import hudson.model.Queue.Task;
+import hudson.tasks.BuildTrigger;
+
+/**
+ * Tests GraphIndexStore with Jenkins' projects: the fingerprint saved is the one taken before the index was built.
+ * 
+ * @author Chad Rosenquist
+ *
+ */
+public class GraphIndexStoreIntTest {
+    
+    @Rule
+    public JenkinsRule jenkinsRule = new JenkinsRule();
+    
+    /**
+     * An index of unchanged projects is loaded back.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testSaveLater_Unchanged_Loaded() throws Exception {
+        // Given
+        createProjects();
+        GraphIndexStore store = new GraphIndexStore(newFile());
+        JenkinsBlockGraph graph = new JenkinsBlockGraph(Collections.<Task>emptySet());
+        long fingerprint = GraphIndexStore.fingerprint(ProjectRegistry.getInstance().getProjects());
+        GraphIndex<AbstractProject<?, ?>> index = GraphIndex.build(graph, graph.getVersion());
+        
+        // When
+        store.saveLater(index, fingerprint);
+        waitForFile();
+        
+        // Then
+        GraphIndex<AbstractProject<?, ?>> loaded = store.load(graph.getVersion());
+        assertNotNull(loaded);
+        assertEquals(index.size(), loaded.size());
+    }
+    
+    /**
+     * A config.xml changed after the fingerprint was taken, while the index was built or waited to be saved,
+     * makes the saved index stale.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testSaveLater_ConfigChangedBeforeSave_NotLoaded() throws Exception {
+        // Given
+        FreeStyleProject upstream = createProjects();
+        GraphIndexStore store = new GraphIndexStore(newFile());
+        JenkinsBlockGraph graph = new JenkinsBlockGraph(Collections.<Task>emptySet());
+        long fingerprint = GraphIndexStore.fingerprint(ProjectRegistry.getInstance().getProjects());
+        GraphIndex<AbstractProject<?, ?>> index = GraphIndex.build(graph, graph.getVersion());
+        
+        // When
+        upstream.setDescription("The index above doesn't know about this change.");
+        store.saveLater(index, fingerprint);
+        waitForFile();
+        
+        // Then
+        assertNull(store.load(graph.getVersion()));
+    }
+    
+    /**
+     * @return upstream, which triggers downstream
+     */
+    private FreeStyleProject createProjects() throws Exception {
+        FreeStyleProject upstream = jenkinsRule.createFreeStyleProject("upstream");
+        jenkinsRule.createFreeStyleProject("downstream");
+        upstream.getPublishersList().add(new BuildTrigger("downstream", true));
+        jenkinsRule.jenkins.rebuildDependencyGraph();
+        return upstream;
+    }
+    
+    private File newFile() {
+        return new File(jenkinsRule.jenkins.getRootDir(), "test-" + GraphIndexStore.FILE_NAME);
+    }
+    
+    /**
+     * Waits for the background thread to write the file.
+     */
+    private void waitForFile() throws InterruptedException {
+        File file = newFile();
+        for (int i = 0; (i < 100) && !file.isFile(); i++) {
+            Thread.sleep(100);
+        }
+        assertTrue(file.isFile());
+    }
+}
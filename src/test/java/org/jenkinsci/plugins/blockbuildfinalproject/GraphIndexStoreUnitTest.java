@@ -0,0 +1,169 @@
+package org.jenkinsci.plugins.blockbuildfinalproject;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.jenkinsci.plugins.blockbuildfinalproject.BlockBuild.SearchDirection;
+import org.junit.Test;
+
+import com.google.common.base.Function;
+
+/**
+ * Unit tests GraphIndexStore's file, without Jenkins: an index read back searches like the one written,
+ * and stale or corrupt files are ignored.
+ * 
+ * @author Chad Rosenquist
+ *
+ */
+public class GraphIndexStoreUnitTest {
+    
+    private static final long FINGERPRINT = 12345;
+    
+    // names a node by its id
+    private static final Function<SyntheticGraph.Node, String> NAME = new Function<SyntheticGraph.Node, String>() {
+        @Override
+        public String apply(SyntheticGraph.Node node) {
+            return "folder/project-" + node.getId();
+        }
+    };
+    
+    /**
+     * An index read back finds the same nodes and parents as the index written, in every shape.
+     */
+    @Test
+    public void testReadWrite_SameSearches() throws IOException {
+        for (SyntheticGraph.Shape shape : SyntheticGraph.Shape.values()) {
+            // Given
+            SyntheticGraph graph = SyntheticGraph.generate(shape, 200, 0.1, 7);
+            GraphIndex<SyntheticGraph.Node> written = GraphIndex.build(graph, graph.getVersion());
+            GraphIndexStore store = new GraphIndexStore(newFile());
+            
+            // When
+            store.write(written, FINGERPRINT, NAME);
+            GraphIndex<SyntheticGraph.Node> read = store.read(FINGERPRINT, 42, byName(graph));
+            
+            // Then
+            assertNotNull(shape.toString(), read);
+            assertEquals(42, read.getVersion());
+            assertEquals(written.size(), read.size());
+            for (SyntheticGraph.Node node : graph.getNodes()) {
+                for (SearchDirection direction : SearchDirection.values()) {
+                    assertEquals(shape + " " + node,
+                            written.search(written.getId(node), direction, SyntheticGraph.IS_FINAL),
+                            read.search(read.getId(node), direction, SyntheticGraph.IS_FINAL));
+                }
+            }
+        }
+    }
+    
+    /**
+     * A file saved from other projects is ignored.
+     */
+    @Test
+    public void testRead_StaleFingerprint() throws IOException {
+        // Given
+        SyntheticGraph graph = SyntheticGraph.generate(SyntheticGraph.Shape.DIAMOND, 50, 0.1, 7);
+        GraphIndexStore store = new GraphIndexStore(newFile());
+        store.write(GraphIndex.build(graph, graph.getVersion()), FINGERPRINT, NAME);
+        
+        // When
+        GraphIndex<SyntheticGraph.Node> read = store.read(FINGERPRINT + 1, 1, byName(graph));
+        
+        // Then
+        assertNull(read);
+    }
+    
+    /**
+     * A file naming a project that no longer exists is ignored.
+     */
+    @Test
+    public void testRead_RemovedProject() throws IOException {
+        // Given
+        SyntheticGraph graph = SyntheticGraph.generate(SyntheticGraph.Shape.DIAMOND, 50, 0.1, 7);
+        GraphIndexStore store = new GraphIndexStore(newFile());
+        store.write(GraphIndex.build(graph, graph.getVersion()), FINGERPRINT, NAME);
+        final Function<String, SyntheticGraph.Node> byName = byName(graph);
+        
+        // When
+        GraphIndex<SyntheticGraph.Node> read = store.read(FINGERPRINT, 1, new Function<String, SyntheticGraph.Node>() {
+            @Override
+            public SyntheticGraph.Node apply(String name) {
+                return name.equals("folder/project-3") ? null : byName.apply(name);
+            }
+        });
+        
+        // Then
+        assertNull(read);
+    }
+    
+    /**
+     * Missing, truncated and corrupt files are ignored.
+     */
+    @Test
+    public void testRead_MissingTruncatedOrCorrupt() throws IOException {
+        // Given
+        SyntheticGraph graph = SyntheticGraph.generate(SyntheticGraph.Shape.DIAMOND, 50, 0.1, 7);
+        File file = newFile();
+        GraphIndexStore store = new GraphIndexStore(file);
+        
+        // When, Then
+        assertTrue(file.delete());
+        assertNull(store.read(FINGERPRINT, 1, byName(graph)));
+        
+        store.write(GraphIndex.build(graph, graph.getVersion()), FINGERPRINT, NAME);
+        long length = file.length();
+        RandomAccessFile access = new RandomAccessFile(file, "rw");
+        try {
+            // the last target points past the last node
+            access.seek(length - 4);
+            access.writeInt(1000);
+        }
+        finally {
+            access.close();
+        }
+        assertNull(store.read(FINGERPRINT, 1, byName(graph)));
+        
+        access = new RandomAccessFile(file, "rw");
+        try {
+            access.setLength(length - 10);
+        }
+        finally {
+            access.close();
+        }
+        assertNull(store.read(FINGERPRINT, 1, byName(graph)));
+    }
+    
+    /**
+     * The fingerprint hash depends on every character, and on where one string ends and the next starts.
+     */
+    @Test
+    public void testHash_Separates() {
+        // Given
+        long start = 0xcbf29ce484222325L;
+        
+        // When, Then
+        assertFalse(GraphIndexStore.hash(start, "ab") == GraphIndexStore.hash(start, "ba"));
+        assertFalse(GraphIndexStore.hash(GraphIndexStore.hash(start, "a"), "bc")
+                    == GraphIndexStore.hash(GraphIndexStore.hash(start, "ab"), "c"));
+        assertFalse(GraphIndexStore.hash(start, 1L) == GraphIndexStore.hash(start, 256L));
+    }
+    
+    private static File newFile() throws IOException {
+        File file = File.createTempFile("graph-index", ".bin");
+        file.deleteOnExit();
+        return file;
+    }
+    
+    private static Function<String, SyntheticGraph.Node> byName(final SyntheticGraph graph) {
+        return new Function<String, SyntheticGraph.Node>() {
+            @Override
+            public SyntheticGraph.Node apply(String name) {
+                int id = Integer.parseInt(name.substring("folder/project-".length()));
+                return graph.getNodes()[id];
+            }
+        };
+    }
+}
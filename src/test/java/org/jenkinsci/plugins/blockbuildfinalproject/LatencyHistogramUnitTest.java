@@ -0,0 +1,49 @@
+package org.jenkinsci.plugins.blockbuildfinalproject;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Unit tests LatencyHistogram.
+ * 
+ * @author Chad Rosenquist
+ *
+ */
+public class LatencyHistogramUnitTest {
+
+    /**
+     * Every value falls in a bucket whose upper bound is at least the value, and at most 12.5% above it.
+     */
+    @Test
+    public void testBucketBounds() {
+        for (long value = 0; value < 1000000; value = value * 2 + 1) {
+            for (long v = value; v < value + 20; v++) {
+                long upperBound = LatencyHistogram.bucketUpperBound(LatencyHistogram.bucketIndex(v));
+                assertTrue(upperBound >= v);
+                assertTrue(upperBound <= v + v / 8 + 1);
+            }
+        }
+    }
+    
+    /**
+     * Tests count, max, mean and percentiles.
+     */
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentile(99));
+        
+        for (long value = 1; value <= 1000; value++) {
+            histogram.record(value);
+        }
+        
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000, histogram.getMax());
+        assertEquals(500.5, histogram.getMean(), 0.001);
+        long p50 = histogram.getPercentile(50);
+        assertTrue(p50 >= 500 && p50 <= 500 + 500 / 8);
+        long p99 = histogram.getPercentile(99);
+        assertTrue(p99 >= 990 && p99 <= 1000);
+    }
+}
@@ -0,0 +1,119 @@
+package org.jenkinsci.plugins.blockbuildfinalproject;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import com.google.common.base.Predicates;
+
+import hudson.model.AbstractProject;
+
+/**
+ * Unit tests ProjectTrigramIndex on 50,000 project names, without Jenkins.
+ * 
+ * Names look like team-007/service-0123/build.  After a warm-up, the median lookup must stay under
+ * 10 milliseconds, which can be changed with -Dblockbuild.trigramIndex.maxMillis.  The slowest query,
+ * service-1234, whose trigrams are mostly in every name, measured about 5 milliseconds on a developer machine.
+ * 
+ * @author Chad Rosenquist
+ *
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({AbstractProject.class})
+public class ProjectTrigramIndexUnitTest {
+    
+    private static final int TEAMS = 100;
+    private static final int SERVICES = 500;
+    private static final int WARMUP_ROUNDS = 30;
+    private static final int REPEATS = 21;
+    private static final long MAX_MILLIS = Long.getLong("blockbuild.trigramIndex.maxMillis", 10L);
+    
+    private ProjectTrigramIndex index;
+    
+    // the projects the tests look for.  Every other name shares one project.
+    private AbstractProject<?, ?> service1234;
+    private AbstractProject<?, ?> service21000;
+    
+    @Before
+    public void setUp() {
+        AbstractProject<?, ?> other = PowerMockito.mock(AbstractProject.class);
+        service1234 = PowerMockito.mock(AbstractProject.class);
+        service21000 = PowerMockito.mock(AbstractProject.class);
+        
+        Map<String, AbstractProject<?, ?>> names = new LinkedHashMap<String, AbstractProject<?, ?>>();
+        for (int team = 0; team < TEAMS; team++) {
+            for (int service = 0; service < SERVICES; service++) {
+                names.put(String.format("team-%03d/service-%04d/build", team, team * SERVICES + service), other);
+            }
+        }
+        names.put("team-002/service-1234/build", service1234);
+        names.put("team-042/service-21000/build", service21000);
+        index = new ProjectTrigramIndex(names);
+    }
+    
+    /**
+     * Tests an infix match is found and ranked before fuzzy matches.
+     */
+    @Test
+    public void testFind_Infix() {
+        // When
+        List<AbstractProject<?, ?>> found = index.find("SERVICE-1234", Predicates.<AbstractProject<?, ?>>alwaysTrue(), 10);
+        
+        // Then
+        assertEquals(10, found.size());
+        assertSame(service1234, found.get(0));
+    }
+    
+    /**
+     * Tests a misspelled name is still found.
+     */
+    @Test
+    public void testFind_Fuzzy() {
+        // When
+        List<AbstractProject<?, ?>> found = index.find("team-042/servce-21000", Predicates.<AbstractProject<?, ?>>alwaysTrue(), 10);
+        
+        // Then
+        assertTrue(found.contains(service21000));
+    }
+    
+    /**
+     * Tests lookups on 50,000 names stay under MAX_MILLIS, including queries whose trigrams are in every name.
+     */
+    @Test
+    public void testFind_50000Projects_Latency() {
+        // Given
+        List<String> queries = Arrays.asList("service-1234", "build", "team-0", "servce-21000", "zzqqxx");
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            for (String query : queries) {
+                index.find(query, Predicates.<AbstractProject<?, ?>>alwaysTrue(), 100);
+            }
+        }
+        
+        for (String query : queries) {
+            // When
+            long[] millis = new long[REPEATS];
+            for (int i = 0; i < REPEATS; i++) {
+                long start = System.nanoTime();
+                index.find(query, Predicates.<AbstractProject<?, ?>>alwaysTrue(), 100);
+                millis[i] = (System.nanoTime() - start) / 1000000L;
+            }
+            Arrays.sort(millis);
+            
+            // Then
+            long median = millis[REPEATS / 2];
+            assertTrue("Lookup of '" + query + "' took " + median + " ms, over the " + MAX_MILLIS + " ms budget",
+                    median <= MAX_MILLIS);
+        }
+    }
+}
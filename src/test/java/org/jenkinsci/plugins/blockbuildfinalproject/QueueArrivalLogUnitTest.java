@@ -0,0 +1,60 @@
+package org.jenkinsci.plugins.blockbuildfinalproject;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Unit tests QueueArrivalLog.
+ * 
+ * @author Chad Rosenquist
+ *
+ */
+public class QueueArrivalLogUnitTest {
+    
+    /**
+     * Arrivals are returned oldest first, from the time asked for.
+     */
+    @Test
+    public void testGetArrivals_Since() {
+        // Given
+        QueueArrivalLog log = new QueueArrivalLog(10);
+        long now = System.currentTimeMillis();
+        log.arrived("a", now + 1);
+        log.arrived("b", now + 2);
+        log.arrived("a", now + 3);
+        
+        // When
+        List<QueueArrivalLog.Arrival> arrivals = log.getArrivals(now + 2);
+        
+        // Then
+        assertEquals(2, arrivals.size());
+        assertEquals("b", arrivals.get(0).getProjectName());
+        assertEquals(now + 2, arrivals.get(0).getTimeMillis());
+        assertEquals("a", arrivals.get(1).getProjectName());
+        assertEquals(now + 3, arrivals.get(1).getTimeMillis());
+    }
+    
+    /**
+     * A full log drops the oldest arrivals, and is only complete after the last one dropped.
+     */
+    @Test
+    public void testArrived_Bounded() {
+        // Given
+        QueueArrivalLog log = new QueueArrivalLog(2);
+        long now = System.currentTimeMillis();
+        
+        // When
+        log.arrived("a", now + 10);
+        log.arrived("b", now + 20);
+        log.arrived("c", now + 30);
+        
+        // Then
+        List<QueueArrivalLog.Arrival> arrivals = log.getArrivals(0);
+        assertEquals(2, arrivals.size());
+        assertEquals("b", arrivals.get(0).getProjectName());
+        assertEquals(now + 11, log.getCoveredSince());
+    }
+}
@@ -0,0 +1,97 @@
+package org.jenkinsci.plugins.blockbuildfinalproject;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import net.sf.json.JSONObject;
+
+/**
+ * Unit tests QueueReplaySimulator.
+ * 
+ * @author Chad Rosenquist
+ *
+ */
+public class QueueReplaySimulatorUnitTest {
+    
+    /**
+     * a (10 ms) triggers b (30 ms).  a arrives at 0 and 15, with 2 executors.
+     * a blocks while anything downstream is building.
+     */
+    private static final String TRACE = "{ 'executors': 2,"
+            + "  'projects': ["
+            + "    { 'name': 'a', 'downstream': ['b'], 'durationMillis': 10,"
+            + "      'useBlockBuildDownstreamProject': true, 'finalDownstreamProjects': '' },"
+            + "    { 'name': 'b', 'durationMillis': 30 } ],"
+            + "  'arrivals': [ { 'project': 'a', 'timeMillis': 0 }, { 'project': 'a', 'timeMillis': 15 } ] }";
+
+    /**
+     * The second a waits for b to finish: 0-10 a, 10-40 b, 40-50 a, 50-80 b.
+     */
+    @Test
+    public void testRun_Blocking() {
+        // When
+        QueueReplaySimulator.Result result = QueueReplaySimulator.fromJSON(JSONObject.fromObject(TRACE)).run();
+        
+        // Then
+        assertEquals(4, result.getBuilds());
+        assertEquals(80, result.getMakespanMillis());
+        assertEquals(25.0 / 4, result.getAverageBlockedMillis(), 0.001);
+        assertEquals(0, result.getNeverBuilt());
+    }
+    
+    /**
+     * Without blocking, the second a runs at once and the second b waits for the first:
+     * 0-10 a, 10-40 b, 15-25 a, 40-70 b.
+     */
+    @Test
+    public void testRun_AlternativeConfiguration() {
+        // Given
+        JSONObject alternative = JSONObject.fromObject(
+                "{ 'projects': [ { 'name': 'a', 'useBlockBuildDownstreamProject': false } ] }");
+        
+        // When
+        QueueReplaySimulator.Result result =
+                QueueReplaySimulator.fromJSON(JSONObject.fromObject(TRACE)).withConfiguration(alternative).run();
+        
+        // Then
+        assertEquals(4, result.getBuilds());
+        assertEquals(70, result.getMakespanMillis());
+        assertEquals(0.0, result.getAverageBlockedMillis(), 0.001);
+        assertEquals(80.0 / (2 * 70), result.getUtilization(), 0.001);
+    }
+    
+    /**
+     * Each build of a project takes the next recorded duration, starting over when they run out.
+     * a arrives at 0, 100 and 200 and takes 10, 20, then 10 again.
+     */
+    @Test
+    public void testRun_RecordedDurations() {
+        // Given
+        JSONObject trace = JSONObject.fromObject("{ 'executors': 1,"
+                + "  'projects': [ { 'name': 'a', 'durationMillis': 15, 'durationsMillis': [10, 20] } ],"
+                + "  'arrivals': [ { 'project': 'a', 'timeMillis': 0 }, { 'project': 'a', 'timeMillis': 100 },"
+                + "                { 'project': 'a', 'timeMillis': 200 } ] }");
+        
+        // When
+        QueueReplaySimulator.Result result = QueueReplaySimulator.fromJSON(trace).run();
+        
+        // Then
+        assertEquals(3, result.getBuilds());
+        assertEquals(210, result.getMakespanMillis());
+        assertEquals(40.0 / 210, result.getUtilization(), 0.001);
+    }
+    
+    /**
+     * An empty trace gives an empty result.
+     */
+    @Test
+    public void testRun_Empty() {
+        // When
+        QueueReplaySimulator.Result result = QueueReplaySimulator.fromJSON(new JSONObject()).run();
+        
+        // Then
+        assertEquals(0, result.getBuilds());
+        assertEquals(0, result.getMakespanMillis());
+    }
+}
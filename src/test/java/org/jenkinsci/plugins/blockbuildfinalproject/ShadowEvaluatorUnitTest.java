@@ -0,0 +1,209 @@
+package org.jenkinsci.plugins.blockbuildfinalproject;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.jenkinsci.plugins.blockbuildfinalproject.BlockBuild.SearchDirection;
+import org.junit.Test;
+
+import com.google.common.base.Functions;
+import com.google.common.base.Predicate;
+
+import net.sf.json.JSONObject;
+
+/**
+ * Unit tests ShadowEvaluator on in-memory graphs, without Jenkins.
+ * The candidate runs on the calling thread, so the results can be checked right after submit().
+ * 
+ * @author Chad Rosenquist
+ *
+ */
+public class ShadowEvaluatorUnitTest {
+    
+    // runs the candidate on the calling thread
+    private static final Executor SAME_THREAD = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+    
+    // an engine that never blocks
+    private static final DecisionEngine NEVER_BLOCKS = new DecisionEngine() {
+        @Override
+        public String getName() {
+            return "never";
+        }
+
+        @Override
+        public <N> BlockEngine.Evaluation<N> evaluate(BlockGraph<N> graph, N start, SearchDirection direction,
+                                                      Predicate<? super N> isFinal) {
+            return new BlockEngine.Evaluation<N>(start, null, new HashMap<N, N>());
+        }
+
+        @Override
+        public <N> void warmUp(BlockGraph<N> graph) {
+        }
+
+        @Override
+        public DecisionEngine snapshot() {
+            return this;
+        }
+
+        @Override
+        public void clear() {
+        }
+    };
+    
+    /**
+     * The cached engine agrees with the reference on every node of a realistic graph.
+     */
+    @Test
+    public void testCachedEngine_NoMismatches() {
+        // Given
+        SyntheticGraph graph = SyntheticGraph.generate(SyntheticGraph.Shape.REALISTIC, 500, 0.05, 7);
+        SyntheticGraph.Node[] nodes = graph.getNodes();
+        Random random = new Random(7);
+        for (int i = 0; i < 20; i++) {
+            graph.setBusy(nodes[random.nextInt(nodes.length)], true);
+        }
+        ShadowEvaluator shadow = new ShadowEvaluator(new CachedDecisionEngine(100), SAME_THREAD, 10);
+        
+        // When
+        for (int round = 0; round < 2; round++) {
+            for (SyntheticGraph.Node node : nodes) {
+                submit(shadow, graph, node);
+            }
+        }
+        
+        // Then
+        JSONObject json = shadow.toJSON();
+        assertEquals(2 * nodes.length, json.getLong("compared"));
+        assertEquals(0, json.getLong("mismatches"));
+        assertEquals(2 * nodes.length, json.getJSONObject("latencyNanos").getJSONObject("cached").getLong("count"));
+    }
+    
+    /**
+     * A candidate that disagrees is logged with both blockers.
+     */
+    @Test
+    public void testMismatch_Logged() {
+        // Given
+        SyntheticGraph graph = SyntheticGraph.generate(SyntheticGraph.Shape.CHAIN, 5, 0.0, 1);
+        SyntheticGraph.Node[] nodes = graph.getNodes();
+        graph.setBusy(nodes[4], true);
+        ShadowEvaluator shadow = new ShadowEvaluator(NEVER_BLOCKS, SAME_THREAD, 10);
+        
+        // When
+        submit(shadow, graph, nodes[0]);
+        
+        // Then
+        assertEquals(1, shadow.getMismatchCount());
+        List<ShadowEvaluator.Mismatch> mismatches = shadow.getMismatches();
+        assertEquals(1, mismatches.size());
+        assertEquals(nodes[0].toString(), mismatches.get(0).getProject());
+        assertEquals(nodes[4].toString(), mismatches.get(0).getReferenceBlocker());
+        assertNull(mismatches.get(0).getCandidateBlocker());
+    }
+    
+    /**
+     * Only the most recent mismatches are kept.
+     */
+    @Test
+    public void testMismatch_Bounded() {
+        // Given
+        SyntheticGraph graph = SyntheticGraph.generate(SyntheticGraph.Shape.CHAIN, 5, 0.0, 1);
+        SyntheticGraph.Node[] nodes = graph.getNodes();
+        graph.setBusy(nodes[4], true);
+        ShadowEvaluator shadow = new ShadowEvaluator(NEVER_BLOCKS, SAME_THREAD, 2);
+        
+        // When
+        for (int i = 0; i < 4; i++) {
+            submit(shadow, graph, nodes[i]);
+        }
+        
+        // Then
+        assertEquals(4, shadow.getMismatchCount());
+        List<ShadowEvaluator.Mismatch> mismatches = shadow.getMismatches();
+        assertEquals(2, mismatches.size());
+        assertEquals(nodes[3].toString(), mismatches.get(0).getProject());
+        assertEquals(nodes[2].toString(), mismatches.get(1).getProject());
+    }
+    
+    /**
+     * The event-driven candidate decides on the builds running when the decision was submitted,
+     * like the reference, not on the builds still running when it gets to run.
+     */
+    @Test
+    public void testEventDriven_BuildFinishedBeforeCompare() {
+        // Given
+        SyntheticGraph graph = SyntheticGraph.generate(SyntheticGraph.Shape.CHAIN, 5, 0.0, 1);
+        SyntheticGraph.Node[] nodes = graph.getNodes();
+        graph.setBusy(nodes[4], true);
+        EventDrivenDecisionEngine engine = new EventDrivenDecisionEngine(new CachedDecisionEngine(100));
+        engine.left(1, nodes[4], true);
+        final List<Runnable> waiting = new ArrayList<Runnable>();
+        ShadowEvaluator shadow = new ShadowEvaluator(engine, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                waiting.add(command);
+            }
+        }, 10);
+        
+        // When
+        submit(shadow, graph, nodes[0]);
+        engine.finished(nodes[4]);
+        for (Runnable command : waiting) {
+            command.run();
+        }
+        
+        // Then
+        JSONObject json = shadow.toJSON();
+        assertEquals(1, json.getLong("compared"));
+        assertEquals(0, json.getLong("mismatches"));
+    }
+    
+    /**
+     * When the executor is full the decision is dropped, not run on the caller's thread.
+     */
+    @Test
+    public void testExecutorFull_Dropped() {
+        // Given
+        SyntheticGraph graph = SyntheticGraph.generate(SyntheticGraph.Shape.CHAIN, 5, 0.0, 1);
+        ShadowEvaluator shadow = new ShadowEvaluator(NEVER_BLOCKS, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                throw new RejectedExecutionException();
+            }
+        }, 10);
+        
+        // When
+        submit(shadow, graph, graph.getSource());
+        
+        // Then
+        JSONObject json = shadow.toJSON();
+        assertEquals(1, json.getLong("submitted"));
+        assertEquals(1, json.getLong("dropped"));
+        assertEquals(0, json.getLong("compared"));
+    }
+    
+    /**
+     * Makes the decision with the reference, like the dispatcher, and hands it to the shadow.
+     */
+    private static void submit(ShadowEvaluator shadow, SyntheticGraph graph, SyntheticGraph.Node node) {
+        long version = graph.getVersion();
+        long start = System.nanoTime();
+        SyntheticGraph.Node blocker = BlockEngine.evaluate(graph, node, SearchDirection.UP, SyntheticGraph.IS_FINAL).getBlocker();
+        if (blocker == null) {
+            blocker = BlockEngine.evaluate(graph, node, SearchDirection.DOWN, SyntheticGraph.IS_FINAL).getBlocker();
+        }
+        shadow.submit(graph, version, node, SyntheticGraph.IS_FINAL, SyntheticGraph.IS_FINAL, blocker,
+                System.nanoTime() - start, Functions.toStringFunction());
+    }
+}
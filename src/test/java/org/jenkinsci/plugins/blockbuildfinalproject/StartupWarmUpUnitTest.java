@@ -0,0 +1,135 @@
+package org.jenkinsci.plugins.blockbuildfinalproject;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+
+import net.sf.json.JSONObject;
+
+/**
+ * Unit tests class StartupWarmUp with its own steps, without Jenkins.
+ * 
+ * @author Chad Rosenquist
+ *
+ */
+public class StartupWarmUpUnitTest {
+    
+    /**
+     * Not done before it starts.  The steps run in order, and it's done when they finish.
+     */
+    @Test
+    public void testStart_RunsStepsInOrder() throws Exception {
+        // Given
+        final List<String> ran = Collections.synchronizedList(new ArrayList<String>());
+        StartupWarmUp warmUp = new StartupWarmUp(ImmutableMap.<String, Runnable>of(
+                "first", record(ran, "first"), "second", record(ran, "second"), "third", record(ran, "third")));
+        assertFalse(warmUp.isStarted());
+        assertFalse(warmUp.isDone());
+        assertEquals("waiting", warmUp.toJSON().getString("state"));
+        
+        // When
+        warmUp.start().get(10, TimeUnit.SECONDS);
+        
+        // Then
+        assertEquals(Arrays.asList("first", "second", "third"), ran);
+        assertTrue(warmUp.isDone());
+        JSONObject json = warmUp.toJSON();
+        assertEquals("done", json.getString("state"));
+        assertEquals(3, json.getLong("stepsDone"));
+        assertEquals(3, json.getLong("steps"));
+        assertEquals(1, json.getLong("runs"));
+        assertEquals(0, json.getLong("failures"));
+        assertTrue(json.getLong("lastDurationMillis") >= 0);
+    }
+    
+    /**
+     * While a step runs, the warm-up is not done, and the step is reported.
+     */
+    @Test
+    public void testStart_ProgressWhileRunning() throws Exception {
+        // Given
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        StartupWarmUp warmUp = new StartupWarmUp(ImmutableMap.<String, Runnable>of(
+                "quick", new Runnable() {
+                    @Override
+                    public void run() {
+                    }
+                },
+                "slow", new Runnable() {
+                    @Override
+                    public void run() {
+                        entered.countDown();
+                        try {
+                            release.await(10, TimeUnit.SECONDS);
+                        }
+                        catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                }));
+        
+        // When
+        Future<?> run = warmUp.start();
+        assertTrue(entered.await(10, TimeUnit.SECONDS));
+        
+        // Then
+        assertTrue(warmUp.isStarted());
+        assertFalse(warmUp.isDone());
+        JSONObject json = warmUp.toJSON();
+        assertEquals("running", json.getString("state"));
+        assertEquals("slow", json.getString("step"));
+        assertEquals(1, json.getLong("stepsDone"));
+        
+        release.countDown();
+        run.get(10, TimeUnit.SECONDS);
+        assertTrue(warmUp.isDone());
+    }
+    
+    /**
+     * A failing step is counted, and the steps after it still run.
+     */
+    @Test
+    public void testStart_FailingStepCounted() throws Exception {
+        // Given
+        final List<String> ran = Collections.synchronizedList(new ArrayList<String>());
+        StartupWarmUp warmUp = new StartupWarmUp(ImmutableMap.<String, Runnable>of(
+                "broken", new Runnable() {
+                    @Override
+                    public void run() {
+                        throw new IllegalStateException("broken on purpose");
+                    }
+                },
+                "after", record(ran, "after")));
+        
+        // When
+        warmUp.start().get(10, TimeUnit.SECONDS);
+        warmUp.start().get(10, TimeUnit.SECONDS);
+        
+        // Then
+        assertEquals(Arrays.asList("after", "after"), ran);
+        assertTrue(warmUp.isDone());
+        JSONObject json = warmUp.toJSON();
+        assertEquals(2, json.getLong("runs"));
+        assertEquals(2, json.getLong("failures"));
+    }
+    
+    private static Runnable record(final List<String> ran, final String name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                ran.add(name);
+            }
+        };
+    }
+}
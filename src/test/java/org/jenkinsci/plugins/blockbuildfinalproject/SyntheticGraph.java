@@ -0,0 +1,280 @@
+package org.jenkinsci.plugins.blockbuildfinalproject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jenkinsci.plugins.blockbuildfinalproject.BlockBuild.SearchDirection;
+
+import com.google.common.base.Function;
+import com.google.common.base.Predicate;
+
+/**
+ * Generates dependency graphs of a given shape and size, without Jenkins, for benchmarks and tests.
+ * 
+ * Node 0 is the source: searching downstream from it covers most of the graph.
+ * The last node is the sink: searching upstream from it covers most of the graph.
+ * A fraction of the other nodes, chosen at random, are final.
+ * The same shape, size, density and seed always give the same graph.
+ * 
+ * It is also a BlockGraph, with the busy nodes set by the test, so BlockEngine can run on it.
+ * 
+ * @author Chad Rosenquist
+ *
+ */
+public final class SyntheticGraph implements BlockGraph<SyntheticGraph.Node> {
+    
+    /**
+     * Shapes of graph.
+     */
+    public enum Shape {
+        /** 0 -> 1 -> 2 -> ... */
+        CHAIN,
+        /** Diamonds in a row: top -> left, right -> bottom, which is the top of the next diamond. */
+        DIAMOND,
+        /** The source triggers every other node. */
+        FAN_OUT,
+        /** Every other node triggers the sink. */
+        FAN_IN,
+        /** Layers of sqrt(size) nodes, each triggering 3 random nodes in the next layer. */
+        LAYERED,
+        /** Rings of 10 nodes, each ring triggering the next, so every node is in a cycle. */
+        CYCLIC,
+        /** Many short pipelines sharing a few hub projects, like a large Jenkins instance. */
+        REALISTIC
+    }
+    
+    /**
+     * One node.  Identity equality, like AbstractProject.
+     */
+    public static final class Node {
+        private final int id;
+        private final List<Node> upstream = new ArrayList<Node>();
+        private final List<Node> downstream = new ArrayList<Node>();
+        private boolean isFinal = false;
+        private boolean isBusy = false;
+        
+        private Node(int id) {
+            this.id = id;
+        }
+        
+        public int getId() {
+            return id;
+        }
+        
+        public List<Node> getUpstream() {
+            return upstream;
+        }
+        
+        public List<Node> getDownstream() {
+            return downstream;
+        }
+        
+        public boolean isFinal() {
+            return isFinal;
+        }
+        
+        @Override
+        public String toString() {
+            return "node-" + id;
+        }
+    }
+    
+    public static final Function<Node, List<Node>> UPSTREAM = new Function<Node, List<Node>>() {
+        @Override
+        public List<Node> apply(Node node) {
+            return node.upstream;
+        }
+    };
+    
+    public static final Function<Node, List<Node>> DOWNSTREAM = new Function<Node, List<Node>>() {
+        @Override
+        public List<Node> apply(Node node) {
+            return node.downstream;
+        }
+    };
+    
+    public static final Predicate<Node> IS_FINAL = new Predicate<Node>() {
+        @Override
+        public boolean apply(Node node) {
+            return node.isFinal;
+        }
+    };
+    
+    private final Node[] nodes;
+    
+    // from * size + to, to skip duplicate edges
+    private final Set<Long> edges = new HashSet<Long>();
+    
+    // each generated graph gets its own version
+    private static final AtomicLong VERSIONS = new AtomicLong();
+    
+    private final long version = VERSIONS.incrementAndGet();
+    
+    private SyntheticGraph(int size) {
+        nodes = new Node[Math.max(size, 2)];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = new Node(i);
+        }
+    }
+    
+    /**
+     * Generates a graph.
+     * 
+     * @param shape        shape of the graph
+     * @param size         number of nodes, at least 2
+     * @param finalDensity fraction of nodes, other than the source and sink, that are final
+     * @param seed         seed for the random choices
+     * @return             the graph
+     */
+    public static SyntheticGraph generate(Shape shape, int size, double finalDensity, long seed) {
+        SyntheticGraph graph = new SyntheticGraph(size);
+        Random random = new Random(seed);
+        int n = graph.nodes.length;
+        
+        switch (shape) {
+            case CHAIN:
+                for (int i = 0; i + 1 < n; i++) {
+                    graph.addEdge(i, i + 1);
+                }
+                break;
+            case DIAMOND:
+                for (int top = 0; top + 3 < n; top += 3) {
+                    graph.addEdge(top, top + 1);
+                    graph.addEdge(top, top + 2);
+                    graph.addEdge(top + 1, top + 3);
+                    graph.addEdge(top + 2, top + 3);
+                }
+                graph.connectRest(random);
+                break;
+            case FAN_OUT:
+                for (int i = 1; i < n; i++) {
+                    graph.addEdge(0, i);
+                }
+                break;
+            case FAN_IN:
+                for (int i = 0; i + 1 < n; i++) {
+                    graph.addEdge(i, n - 1);
+                }
+                break;
+            case LAYERED:
+                int width = Math.max(1, (int) Math.sqrt(n));
+                for (int i = 1; i < Math.min(width, n - 1); i++) {
+                    graph.addEdge(0, i);
+                }
+                for (int i = 0; i + width < n; i++) {
+                    int nextLayer = (i / width + 1) * width;
+                    int nextWidth = Math.min(width, n - nextLayer);
+                    for (int e = 0; (e < 3) && (nextWidth > 0); e++) {
+                        graph.addEdge(i, nextLayer + random.nextInt(nextWidth));
+                    }
+                }
+                graph.connectRest(random);
+                break;
+            case CYCLIC:
+                for (int ring = 0; ring < n; ring += 10) {
+                    int ringEnd = Math.min(ring + 10, n);
+                    for (int i = ring; i < ringEnd; i++) {
+                        graph.addEdge(i, (i + 1 < ringEnd) ? i + 1 : ring);
+                    }
+                    if (ringEnd < n) {
+                        graph.addEdge(ring + random.nextInt(ringEnd - ring), ringEnd);
+                    }
+                }
+                graph.connectRest(random);
+                break;
+            case REALISTIC:
+                int hubs = Math.max(1, n / 100);
+                for (int i = 1; i < n; i++) {
+                    // Mostly triggered by a recent project in the same pipeline, sometimes by a shared hub.
+                    if ((i < hubs) || (random.nextDouble() < 0.1)) {
+                        graph.addEdge(random.nextInt(Math.min(i, hubs)), i);
+                    }
+                    else {
+                        graph.addEdge(i - 1 - random.nextInt(Math.min(i, 20)), i);
+                    }
+                    if (random.nextDouble() < 0.2) {
+                        graph.addEdge(random.nextInt(i), i);
+                    }
+                }
+                graph.connectRest(random);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown shape " + shape);
+        }
+        
+        for (int i = 1; i + 1 < n; i++) {
+            graph.nodes[i].isFinal = random.nextDouble() < finalDensity;
+        }
+        return graph;
+    }
+    
+    /**
+     * Makes sure the sink is triggered by something, so searching upstream from it is not empty.
+     */
+    private void connectRest(Random random) {
+        Node sink = nodes[nodes.length - 1];
+        if (sink.upstream.isEmpty()) {
+            addEdge(random.nextInt(nodes.length - 1), nodes.length - 1);
+        }
+    }
+    
+    private void addEdge(int from, int to) {
+        if ((from == to) || !edges.add((long) from * nodes.length + to)) {
+            return;
+        }
+        nodes[from].downstream.add(nodes[to]);
+        nodes[to].upstream.add(nodes[from]);
+    }
+    
+    @Override
+    public List<Node> getNeighbours(Node node, SearchDirection direction) {
+        return (direction == SearchDirection.UP) ? node.upstream : node.downstream;
+    }
+    
+    @Override
+    public List<Node> getAllNodes() {
+        return Arrays.asList(nodes);
+    }
+    
+    @Override
+    public boolean isBusy(Node node) {
+        return node.isBusy;
+    }
+    
+    /**
+     * @return a number unique to this graph: the edges never change after the graph is generated
+     */
+    @Override
+    public long getVersion() {
+        return version;
+    }
+    
+    /**
+     * @param node   a node
+     * @param isBusy true if the node is building
+     */
+    public void setBusy(Node node, boolean isBusy) {
+        node.isBusy = isBusy;
+    }
+    
+    public Node[] getNodes() {
+        return nodes;
+    }
+    
+    public Node getSource() {
+        return nodes[0];
+    }
+    
+    public Node getSink() {
+        return nodes[nodes.length - 1];
+    }
+    
+    public int getEdges() {
+        return edges.size();
+    }
+}